@@ -4,6 +4,8 @@ plugins {
     id("application")
     // JavaFX Gradle plugin to pull correct platform-specific JavaFX artifacts
     id("org.openjfx.javafxplugin") version "0.0.14"
+    // JMH microbenchmarks in src/jmh/java; run with ./gradlew jmh
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "kchat"
@@ -45,6 +47,16 @@ tasks.register<JavaExec>("runServer") {
     standardInput = System.`in`
 }
 
+// Headless load generator: ./gradlew runLoad --args="--connections=2000 --rate=500"
+tasks.register<JavaExec>("runLoad") {
+    group = "application"
+    description = "Run the load generator against an embedded or local server"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("kchat.load.LoadGenerator")
+    // Per-connection INFO logging would drown the report
+    systemProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn")
+}
+
 // Custom task to run client only - using JavaExec directly with JavaFX configuration
 tasks.register<JavaExec>("runClient") {
     group = "application"
@@ -66,4 +78,34 @@ javafx {
 
 tasks.test {
     useJUnitPlatform()
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(2)
+    iterations.set(3)
+    fork.set(1)
+    // Narrow a run with -Pjmh.includes=CryptoBenchmark
+    if (project.hasProperty("jmh.includes")) {
+        includes.set(listOf(project.property("jmh.includes").toString()))
+    }
+    // Machine-readable results, so runs from two commits can be compared with jmhCompare
+    resultFormat.set("JSON")
+    resultsFile.set(
+        if (project.hasProperty("jmh.resultsFile")) file(project.property("jmh.resultsFile").toString())
+        else layout.buildDirectory.file("results/jmh/results.json").get().asFile
+    )
+}
+
+// Compare two JMH result files: ./gradlew jmhCompare -Pjmh.baseline=old.json [-Pjmh.resultsFile=new.json]
+tasks.register<JavaExec>("jmhCompare") {
+    group = "benchmark"
+    description = "Compare JMH results against a baseline and fail on regressions"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("kchat.bench.CompareResults")
+    args = listOf(
+        project.findProperty("jmh.baseline")?.toString() ?: "build/results/jmh/baseline.json",
+        project.findProperty("jmh.resultsFile")?.toString() ?: "build/results/jmh/results.json",
+        project.findProperty("jmh.threshold")?.toString() ?: "10"
+    )
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package kchat.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.protocol.BinaryCodec;
+import kchat.protocol.MessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Message} serialization: the streaming JSON codec against plain ObjectMapper data
+ * binding (the {@code mapper*} methods), and the binary framing. With {@code encrypted=true}
+ * the content is an {@code ENC:} string, the shape of every message once a key is set.
+ *
+ * <pre>./gradlew jmh -Pjmh.includes=CodecBenchmark</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CodecBenchmark {
+
+    @Param({"64", "1024"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean encrypted;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private Message message;
+    private String json;
+    private byte[] jsonBytes;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        String content = encrypted
+            ? "ENC:" + Base64.getEncoder().encodeToString(new byte[size + 28])
+            : "x".repeat(size);
+        message = new Message("Alice", content, System.currentTimeMillis(), "general");
+        json = MessageCodec.toJson(message);
+        jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        binary = BinaryCodec.encode(message);
+    }
+
+    @Benchmark
+    public String mapperWrite() throws Exception {
+        return MAPPER.writeValueAsString(message);
+    }
+
+    @Benchmark
+    public Message mapperRead() throws Exception {
+        return MAPPER.readValue(json, Message.class);
+    }
+
+    @Benchmark
+    public byte[] codecWrite() throws Exception {
+        return MessageCodec.toBytes(message);
+    }
+
+    @Benchmark
+    public Message codecRead() throws Exception {
+        return MessageCodec.read(jsonBytes, 0, jsonBytes.length);
+    }
+
+    @Benchmark
+    public byte[] binaryWrite() {
+        return BinaryCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message binaryRead() {
+        return BinaryCodec.decode(ByteBuffer.wrap(binary));
+    }
+}
@@ -0,0 +1,93 @@
+package kchat.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH JSON result files, e.g. from two commits, benchmark by benchmark.
+ * Exits with status 1 if any score got worse by more than the threshold (default 10%),
+ * taking into account whether higher or lower is better for the benchmark's mode.
+ *
+ * <pre>./gradlew jmhCompare -Pjmh.baseline=old.json [-Pjmh.resultsFile=new.json] [-Pjmh.threshold=5]</pre>
+ */
+public final class CompareResults {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private record Score(String mode, double score, double error) {
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+
+    private CompareResults() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline.json> <current.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, Score> baseline = load(new File(args[0]));
+        Map<String, Score> current = load(new File(args[1]));
+
+        int regressions = 0;
+        System.out.printf("%-70s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score now = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+            if (before == null || before.score == 0.0) {
+                System.out.printf("%-70s %14s %14.3f %9s%n", entry.getKey(), "-", now.score, "new");
+                continue;
+            }
+            double change = (now.score - before.score) / before.score * 100.0;
+            double worse = now.higherIsBetter() ? -change : change;
+            // A difference within the two error margins is noise, not a regression
+            boolean noise = Math.abs(now.score - before.score) <= before.error + now.error;
+            String flag = worse > threshold && !noise ? "  REGRESSION" : "";
+            if (!flag.isEmpty()) regressions++;
+            System.out.printf("%-70s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), before.score, now.score, change, flag);
+        }
+        for (String missing : baseline.keySet()) {
+            if (!current.containsKey(missing)) System.out.printf("%-70s %14s%n", missing, "removed");
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed by more than " + threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    /** Scores keyed by benchmark name plus parameters, e.g. {@code CryptoBenchmark.cachedEncrypt[size=64]}. */
+    private static Map<String, Score> load(File file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode run : MAPPER.readTree(file)) {
+            StringBuilder key = new StringBuilder(shortName(run.path("benchmark").asText()));
+            JsonNode params = run.path("params");
+            if (params.size() > 0) {
+                key.append('[');
+                for (Iterator<Map.Entry<String, JsonNode>> it = params.fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> param = it.next();
+                    key.append(param.getKey()).append('=').append(param.getValue().asText());
+                    if (it.hasNext()) key.append(',');
+                }
+                key.append(']');
+            }
+            JsonNode metric = run.path("primaryMetric");
+            double error = metric.path("scoreError").asDouble(0.0);
+            scores.put(key.toString(), new Score(run.path("mode").asText(), metric.path("score").asDouble(),
+                Double.isNaN(error) ? 0.0 : error));
+        }
+        return scores;
+    }
+
+    private static String shortName(String benchmark) {
+        int method = benchmark.lastIndexOf('.');
+        int type = method > 0 ? benchmark.lastIndexOf('.', method - 1) : -1;
+        return benchmark.substring(type + 1);
+    }
+}
@@ -0,0 +1,128 @@
+package kchat.bench;
+
+import kchat.security.AesGcm;
+import kchat.security.CryptoContext;
+import kchat.security.CryptoUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message encryption throughput. The {@code baseline*} methods are the previous
+ * implementation (Cipher.getInstance + allocate/arraycopy per call), kept here for comparison
+ * with the per-thread cached Cipher behind {@link CryptoUtils} and {@link AesGcm}.
+ *
+ * <pre>./gradlew jmh -Pjmh.includes=CryptoBenchmark</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CryptoBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int size;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private SecretKeySpec key;
+    private String plaintext;
+    private String encrypted;
+    private byte[] plainBytes;
+    private byte[] sealedBytes;
+    private ByteBuffer directIn;
+    private ByteBuffer directOut;
+    private CryptoContext counterContext;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] raw = new byte[32];
+        RANDOM.nextBytes(raw);
+        key = new SecretKeySpec(raw, "AES");
+        CryptoUtils.setRawKey(raw);
+        plaintext = "x".repeat(size);
+        plainBytes = plaintext.getBytes(StandardCharsets.UTF_8);
+        encrypted = CryptoUtils.encrypt(plaintext);
+        sealedBytes = AesGcm.seal(key, plainBytes);
+        directIn = ByteBuffer.allocateDirect(size);
+        directIn.put(plainBytes).flip();
+        directOut = ByteBuffer.allocateDirect(AesGcm.sealedLength(size));
+        counterContext = CryptoContext.withRawKey(raw);
+        counterContext.setNonceMode(CryptoContext.NonceMode.COUNTER);
+    }
+
+    @TearDown
+    public void tearDown() {
+        CryptoUtils.clear();
+    }
+
+    @Benchmark
+    public String baselineEncrypt() throws Exception {
+        byte[] iv = new byte[12];
+        RANDOM.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer bb = ByteBuffer.allocate(iv.length + ciphertext.length);
+        bb.put(iv).put(ciphertext);
+        return "ENC:" + Base64.getEncoder().encodeToString(bb.array());
+    }
+
+    @Benchmark
+    public String baselineDecrypt() throws Exception {
+        byte[] all = Base64.getDecoder().decode(encrypted.substring(4));
+        byte[] iv = new byte[12];
+        byte[] ciphertext = new byte[all.length - 12];
+        System.arraycopy(all, 0, iv, 0, 12);
+        System.arraycopy(all, 12, ciphertext, 0, ciphertext.length);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        return new String(cipher.doFinal(ciphertext), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String cachedEncrypt() {
+        return CryptoUtils.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String cachedDecrypt() {
+        return CryptoUtils.decrypt(encrypted);
+    }
+
+    @Benchmark
+    public byte[] bytesEncrypt() throws Exception {
+        return AesGcm.seal(key, plainBytes);
+    }
+
+    @Benchmark
+    public byte[] bytesDecrypt() throws Exception {
+        return AesGcm.open(key, sealedBytes, 0, sealedBytes.length);
+    }
+
+    /** Counter nonces: no SecureRandom draw per message. Compare with bytesEncrypt, e.g. under {@code -t 8}. */
+    @Benchmark
+    public byte[] counterNonceEncrypt() throws Exception {
+        return counterContext.encrypt(plainBytes);
+    }
+
+    @Benchmark
+    public int directBufferEncrypt() throws Exception {
+        directIn.rewind();
+        directOut.clear();
+        return AesGcm.seal(key, directIn, directOut);
+    }
+}
@@ -0,0 +1,110 @@
+package kchat.bench;
+
+import kchat.security.AesGcm;
+import kchat.security.HandshakeEngine;
+import kchat.security.KeyExchangeUtil;
+import kchat.security.ResumptionTickets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side cost of one HELLO: key agreement, HKDF, group key wrap and the WELCOME string.
+ * Single-threaded, so the scores are handshakes per second per core. {@code baselineHandshake}
+ * is the previous code path (fresh KeyFactory/KeyAgreement/Mac, a new key spec per HKDF round,
+ * Base64 of the server key every time); {@code resumedHandshake} redeems a ticket instead.
+ *
+ * <pre>./gradlew jmh -Pjmh.includes=HandshakeBenchmark</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+public class HandshakeBenchmark {
+    private static final String SERVER_ID = "3f1c9a52-6a7e-4c1b-9d1e-0b5c2e7f8a90";
+
+    private KeyPair serverKeys;
+    private HandshakeEngine engine;
+    private ResumptionTickets tickets;
+    private byte[] clientPublic;
+    private byte[] groupKey;
+    private String ticket;
+
+    @Setup
+    public void setUp() throws Exception {
+        serverKeys = KeyExchangeUtil.generateKeyPair();
+        engine = new HandshakeEngine(SERVER_ID, serverKeys);
+        tickets = new ResumptionTickets(3_600_000L);
+        clientPublic = KeyExchangeUtil.generateKeyPair().getPublic().getEncoded();
+        groupKey = new byte[32];
+        new SecureRandom().nextBytes(groupKey);
+        ticket = tickets.issue(engine.keyWrapKey(clientPublic));
+    }
+
+    @Benchmark
+    public String baselineHandshake() throws Exception {
+        KeyFactory kf = KeyFactory.getInstance("X25519");
+        PublicKey peer = kf.generatePublic(new X509EncodedKeySpec(clientPublic));
+        KeyAgreement ka = KeyAgreement.getInstance("X25519");
+        ka.init(serverKeys.getPrivate());
+        ka.doPhase(peer, true);
+        byte[] shared = ka.generateSecret();
+        byte[] keyWrapKey = legacyHkdf(shared, SERVER_ID.getBytes(StandardCharsets.UTF_8), "kchat-handshake".getBytes(StandardCharsets.UTF_8), 32);
+        String wrapped = Base64.getEncoder().encodeToString(AesGcm.seal(new SecretKeySpec(keyWrapKey, "AES"), groupKey));
+        String serverPubB64 = Base64.getEncoder().encodeToString(serverKeys.getPublic().getEncoded());
+        return "WELCOME:" + SERVER_ID + ":" + serverPubB64 + ":" + wrapped;
+    }
+
+    @Benchmark
+    public String engineHandshake() throws Exception {
+        byte[] keyWrapKey = engine.keyWrapKey(clientPublic);
+        return engine.welcome(Base64.getEncoder().encodeToString(AesGcm.seal(new SecretKeySpec(keyWrapKey, "AES"), groupKey)));
+    }
+
+    @Benchmark
+    public String resumedHandshake() throws Exception {
+        ResumptionTickets.Redeemed redeemed = tickets.redeem(ticket);
+        String wrapped = Base64.getEncoder().encodeToString(AesGcm.seal(new SecretKeySpec(redeemed.keyWrapKey(), "AES"), groupKey));
+        return engine.welcome(wrapped) + ":ticket=" + tickets.issue(redeemed.keyWrapKey(), redeemed.expiresAt());
+    }
+
+    /** KeyExchangeUtil.hkdf as it was before Hkdf existed. */
+    private static byte[] legacyHkdf(byte[] ikm, byte[] salt, byte[] info, int length) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        byte[] prk = mac.doFinal(ikm);
+        byte[] okm = new byte[length];
+        byte[] prev = new byte[0];
+        int pos = 0;
+        int counter = 1;
+        while (pos < length) {
+            mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+            mac.update(prev);
+            mac.update(info);
+            mac.update((byte) counter);
+            prev = mac.doFinal();
+            int toCopy = Math.min(prev.length, length - pos);
+            System.arraycopy(prev, 0, okm, pos, toCopy);
+            pos += toCopy;
+            counter++;
+        }
+        return okm;
+    }
+}
@@ -0,0 +1,75 @@
+package kchat.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.security.KeyExchangeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MessengerServer#broadcastToAuthenticated} to N authenticated {@link NullWebSocket}s:
+ * encoding once per wire format and queueing a frame per recipient. This is the time the
+ * calling thread spends; the socket writes happen afterwards on the outbound executor.
+ * Lives in {@code kchat.server} because the fan-out is not public API.
+ *
+ * <pre>./gradlew jmh -Pjmh.includes=BroadcastBenchmark</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int clients;
+
+    /** Whether the clients negotiate binary framing instead of JSON. */
+    @Param({"false", "true"})
+    public boolean binary;
+
+    private MessengerServer server;
+    private final List<NullWebSocket> sockets = new ArrayList<>();
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new MessengerServer(0, new ServerConfig());
+        ObjectMapper mapper = new ObjectMapper();
+        String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+        String hello = mapper.writeValueAsString(new Message("Client",
+            "HELLO:" + server.getServerId() + ":" + pubB64 + (binary ? ":proto=bin" : ""), System.currentTimeMillis()));
+        for (int i = 0; i < clients; i++) {
+            NullWebSocket ws = new NullWebSocket();
+            server.onOpen(ws, null);
+            server.onMessage(ws, hello);
+            sockets.add(ws);
+        }
+        for (NullWebSocket ws : sockets) {
+            if (!ws.awaitHandshake(10_000)) throw new IllegalStateException("Handshake did not complete");
+        }
+        message = new Message("Alice", "ENC:" + Base64.getEncoder().encodeToString(new byte[128]), 0L, "general");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        message.setTimestamp(System.nanoTime());
+        server.broadcastToAuthenticated(message);
+    }
+}
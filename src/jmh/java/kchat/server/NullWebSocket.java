@@ -0,0 +1,65 @@
+package kchat.server;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+
+import javax.net.ssl.SSLSession;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebSocket that discards everything written to it, counting frames, and always reports an
+ * empty send buffer, so the server sees an ideal client with no network behind it.
+ */
+class NullWebSocket implements WebSocket {
+    private static final InetSocketAddress LOOPBACK = new InetSocketAddress("127.0.0.1", 0);
+    private final Draft draft = new Draft_6455();
+    private final AtomicLong frames = new AtomicLong();
+    private volatile boolean open = true;
+    private volatile boolean welcomed;
+    private Object attachment;
+
+    long getFrameCount() { return frames.get(); }
+
+    /** Waits for the handshake pool to answer this connection's HELLO. */
+    boolean awaitHandshake(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!welcomed && open && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        return welcomed && open;
+    }
+
+    @Override public void close(int code, String message) { open = false; }
+    @Override public void close(int code) { close(code, ""); }
+    @Override public void close() { close(1000, ""); }
+    @Override public void closeConnection(int code, String message) { close(code, message); }
+    @Override public void send(String text) { welcomed = true; }
+    @Override public void send(ByteBuffer bytes) { frames.incrementAndGet(); }
+    @Override public void send(byte[] bytes) { frames.incrementAndGet(); }
+    @Override public void sendFrame(Framedata framedata) { frames.incrementAndGet(); }
+    @Override public void sendFrame(Collection<Framedata> batch) { frames.addAndGet(batch.size()); }
+    @Override public void sendPing() { }
+    @Override public void sendFragmentedFrame(Opcode op, ByteBuffer buffer, boolean fin) { }
+    @Override public boolean hasBufferedData() { return false; }
+    @Override public InetSocketAddress getRemoteSocketAddress() { return LOOPBACK; }
+    @Override public InetSocketAddress getLocalSocketAddress() { return LOOPBACK; }
+    @Override public boolean isOpen() { return open; }
+    @Override public boolean isClosing() { return false; }
+    @Override public boolean isFlushAndClose() { return false; }
+    @Override public boolean isClosed() { return !open; }
+    @Override public Draft getDraft() { return draft; }
+    @Override public ReadyState getReadyState() { return open ? ReadyState.OPEN : ReadyState.CLOSED; }
+    @Override public String getResourceDescriptor() { return "/"; }
+    @Override public <T> void setAttachment(T attachment) { this.attachment = attachment; }
+    @SuppressWarnings("unchecked")
+    @Override public <T> T getAttachment() { return (T) attachment; }
+    @Override public boolean hasSSLSupport() { return false; }
+    @Override public SSLSession getSSLSession() { throw new IllegalArgumentException("Not an SSL connection"); }
+    @Override public IProtocol getProtocol() { return null; }
+}
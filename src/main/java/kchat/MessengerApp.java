@@ -3,12 +3,14 @@ package kchat;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
+import kchat.logging.Log;
 import kchat.ui.MessengerWindow;
 import kchat.server.MessengerServer;
 import java.net.ServerSocket;
 
 public class MessengerApp extends Application {
 
+    private static final Log LOG = Log.get(MessengerApp.class);
     private MessengerServer server;
     private MessengerWindow messengerWindow;
     private static final int DEFAULT_PORT = 8080;
@@ -29,16 +31,16 @@ public class MessengerApp extends Application {
 
         boolean startEmbeddedServer = isPortAvailable(port);
         if (!startEmbeddedServer) {
-            System.out.println("Detected existing server on port " + port + ". Will NOT start a new embedded server; launching client only.");
+            LOG.info("Detected existing server on port {}. Will NOT start a new embedded server; launching client only.", port);
         }
 
         if (startEmbeddedServer) {
             server = new MessengerServer(port);
             try {
                 server.start();
-                System.out.println("Embedded server started on port " + port);
+                LOG.info("Embedded server started on port {}", port);
             } catch (Exception e) {
-                System.err.println("Failed to start embedded server: " + e.getMessage());
+                LOG.error("Failed to start embedded server: {}", e.getMessage());
                 server = null;
             }
         }
@@ -51,7 +53,7 @@ public class MessengerApp extends Application {
                 messengerWindow.shutdown();
             }
             if (server != null) {
-                try { server.stop(); } catch (Exception e) { System.err.println("Error stopping server: " + e.getMessage()); }
+                try { server.stop(); } catch (Exception e) { LOG.warn("Error stopping server: {}", e.getMessage()); }
             }
             Platform.exit();
             new Thread(() -> {
@@ -67,7 +69,7 @@ public class MessengerApp extends Application {
             messengerWindow.shutdown();
         }
         if (server != null) {
-            try { server.stop(); } catch (Exception e) { System.err.println("Error stopping server in stop(): " + e.getMessage()); }
+            try { server.stop(); } catch (Exception e) { LOG.warn("Error stopping server in stop(): {}", e.getMessage()); }
         }
     }
 
@@ -1,18 +1,28 @@
 package kchat;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ServerHandshake;
 import kchat.model.Message;
-import kchat.security.CryptoUtils;
+import kchat.protocol.BinaryCodec;
+import kchat.protocol.FrameBatch;
+import kchat.protocol.HandshakeOptions;
+import kchat.protocol.MessageCodec;
+import kchat.protocol.PerMessageDeflate;
+import kchat.logging.Log;
+import kchat.security.AesGcm;
+import kchat.security.CryptoContext;
+import kchat.security.HandshakeEngine;
 import kchat.security.SecurityConfig;
+import kchat.security.SessionTicket;
 import kchat.security.KeyExchangeUtil;
 
 import javax.net.ssl.SSLContext;
-import javax.crypto.Cipher;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.SecureRandom;
 import java.util.Base64;
@@ -21,44 +31,113 @@ import java.util.function.Consumer;
 
 public class MessengerClient extends WebSocketClient {
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Log LOG = Log.get(MessengerClient.class);
     private Consumer<Message> messageHandler;
     private Consumer<String> connectionStatusHandler;
     private boolean encryptionEnabled = false;
+    // This connection's group key; never shared with other clients in the same JVM
+    private final CryptoContext crypto = new CryptoContext();
 
     // Handshake fields
     private String targetServerId;
     private KeyPair clientKeyPair;
+    private volatile SecretKeySpec keyWrapKey; // unwraps REKEY messages for the rest of the session
+    private SessionTicket resumeTicket;            // presented in HELLO instead of a new key pair
+    private volatile SessionTicket sessionTicket;  // issued in WELCOME, for the next connection
     private boolean handshakeComplete = false;
     private static final SecureRandom RANDOM = new SecureRandom();
     private static final ScheduledExecutorService HS_EXEC = Executors.newSingleThreadScheduledExecutor(r -> { Thread t = new Thread(r, "kchat-handshake-timer"); t.setDaemon(true); return t; });
     private ScheduledFuture<?> handshakeTimeoutFuture;
     private static final long HANDSHAKE_TIMEOUT_MS = 5000L;
     private volatile boolean errorSet = false;
+    // Ask for BinaryCodec framing in HELLO; the server decides in WELCOME
+    private boolean preferBinary = !"false".equalsIgnoreCase(System.getProperty("kchat.binaryProtocol"));
+    private volatile boolean binaryProtocol = false;
+    // The other HELLO options, each sent only while the feature is wanted; a HELLO without options suits any server
+    private boolean offerRekey = !"false".equalsIgnoreCase(System.getProperty("kchat.rekey"));
+    private boolean offerBatching = !"false".equalsIgnoreCase(System.getProperty("kchat.batch"));
+    private boolean requestTickets = !"false".equalsIgnoreCase(System.getProperty("kchat.resume"));
+    // Highest history seq seen; sent as after=<seq> on the next HELLO so a reconnect only replays what was missed
+    private volatile long lastSeq = 0L;
 
     public MessengerClient(URI serverUri) {
-        super(serverUri);
+        super(serverUri, offeredDraft());
+        crypto.setNonceMode(CryptoContext.NonceMode.parse(System.getProperty("kchat.crypto.nonceMode")));
         SSLContext ctx = SecurityConfig.loadClientSslContextIfEnabled();
         if (ctx != null) {
-            try { this.setSocketFactory(ctx.getSocketFactory()); } catch (Exception e) { System.err.println("Failed to apply client SSL context: " + e.getMessage()); }
+            try { this.setSocketFactory(ctx.getSocketFactory()); } catch (Exception e) { LOG.error("Failed to apply client SSL context: {}", e.getMessage()); }
         }
     }
 
+    /** Offers permessage-deflate in the upgrade unless kchat.deflate is false; the server may decline. */
+    private static Draft offeredDraft() {
+        if ("false".equalsIgnoreCase(System.getProperty("kchat.deflate"))) return new Draft_6455();
+        return PerMessageDeflate.draft(Integer.getInteger("kchat.deflate.threshold", PerMessageDeflate.DEFAULT_THRESHOLD));
+    }
+
+    /** Whether the server accepted permessage-deflate for this connection. */
+    public boolean isDeflate() {
+        return PerMessageDeflate.negotiatedThreshold(getConnection()) >= 0;
+    }
+
     public void setTargetServerId(String serverId) { this.targetServerId = serverId; }
 
+    public void setPreferBinaryProtocol(boolean preferBinary) { this.preferBinary = preferBinary; }
+
+    public boolean isBinaryProtocol() { return binaryProtocol; }
+
+    /** Offer {@code rekey}: follow group key rotations instead of keeping the key from WELCOME. */
+    public void setOfferRekey(boolean offerRekey) { this.offerRekey = offerRekey; }
+
+    /** Offer {@code batch}: accept several messages per frame. */
+    public void setOfferBatching(boolean offerBatching) { this.offerBatching = offerBatching; }
+
+    /** Ask for a resumption ticket in WELCOME; a ticket set with {@link #setSessionTicket} is presented regardless. */
+    public void setRequestTickets(boolean requestTickets) { this.requestTickets = requestTickets; }
+
+    public long getLastSeq() { return lastSeq; }
+
+    /** The key negotiated by this connection's handshake (empty until WELCOME, cleared on close). */
+    public CryptoContext getCryptoContext() { return crypto; }
+
+    /** Carries the position of a previous connection over, so its HELLO asks only for newer history. */
+    public void setResumeAfterSeq(long seq) { this.lastSeq = seq; }
+
+    /** The ticket the server issued on this connection; null if none (or it was rejected). */
+    public SessionTicket getSessionTicket() { return sessionTicket; }
+
+    /** Resume with a ticket from a previous connection instead of a full X25519 handshake. */
+    public void setSessionTicket(SessionTicket ticket) { this.resumeTicket = ticket; }
+
     @Override
     public void onOpen(ServerHandshake handshake) {
-        System.out.println("Socket connected; initiating handshake");
+        LOG.info("Socket connected; initiating handshake");
         if (targetServerId == null || targetServerId.isEmpty()) {
             failStatus("No serverId provided");
             close();
             return;
         }
         try {
-            clientKeyPair = KeyExchangeUtil.generateKeyPair();
-            String pubB64 = Base64.getEncoder().encodeToString(clientKeyPair.getPublic().getEncoded());
-            Message hello = new Message("Client", "HELLO:" + targetServerId + ":" + pubB64, System.currentTimeMillis());
-            send(objectMapper.writeValueAsString(hello));
+            HandshakeOptions options = new HandshakeOptions();
+            String pubB64 = "";
+            if (resumeTicket != null && resumeTicket.usableFor(targetServerId, System.currentTimeMillis())) {
+                options.put(HandshakeOptions.RESUME, resumeTicket.ticket());
+            } else {
+                resumeTicket = null;
+                clientKeyPair = KeyExchangeUtil.generateKeyPair();
+                pubB64 = Base64.getEncoder().encodeToString(clientKeyPair.getPublic().getEncoded());
+                if (requestTickets) options.put(HandshakeOptions.RESUME, null);
+            }
+            String helloContent = "HELLO:" + targetServerId + ":" + pubB64;
+            if (preferBinary) options.put(HandshakeOptions.PROTOCOL, HandshakeOptions.PROTOCOL_BINARY);
+            if (offerRekey) options.put(HandshakeOptions.REKEY, null);
+            if (offerBatching) options.put(HandshakeOptions.BATCH, null);
+            if (lastSeq > 0) options.put(HandshakeOptions.HISTORY_AFTER, Long.toString(lastSeq));
+            if (!options.isEmpty()) {
+                helloContent += ":" + options;
+            }
+            Message hello = new Message("Client", helloContent, System.currentTimeMillis());
+            send(MessageCodec.toJson(hello));
             updateStatus("Handshake sent");
             scheduleHandshakeTimeout();
         } catch (Exception e) {
@@ -70,21 +149,48 @@ public class MessengerClient extends WebSocketClient {
     @Override
     public void onMessage(String raw) {
         try {
-            Message msg = objectMapper.readValue(raw, Message.class);
-            String content = msg.getContent();
-            if (!handshakeComplete && content != null && content.startsWith("WELCOME:")) {
-                handleWelcome(content);
+            if (FrameBatch.isJsonBatch(raw)) {
+                for (Message msg : MessageCodec.readBatch(raw)) handleIncoming(msg);
                 return;
             }
-            if (encryptionEnabled) {
-                String decrypted = CryptoUtils.decrypt(msg.getContent());
-                msg.setContent(decrypted);
-            }
-            if (messageHandler != null) {
-                messageHandler.accept(msg);
+            handleIncoming(MessageCodec.read(raw));
+        } catch (Exception e) {
+            LOG.warn("Error parsing message: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        try {
+            if (FrameBatch.isBinaryBatch(bytes)) {
+                for (ByteBuffer message : FrameBatch.unpackBinary(bytes)) handleIncoming(BinaryCodec.decode(message));
+                return;
             }
+            handleIncoming(BinaryCodec.decode(bytes));
         } catch (Exception e) {
-            System.err.println("Error parsing message: " + e.getMessage());
+            LOG.warn("Error parsing binary message: {}", e.getMessage());
+        }
+    }
+
+    private void handleIncoming(Message msg) {
+        String content = msg.getContent();
+        if (!handshakeComplete && content != null && content.startsWith("WELCOME:")) {
+            handleWelcome(content);
+            return;
+        }
+        if (handshakeComplete && content != null && content.startsWith("REKEY:") && "System".equals(msg.getSender())) {
+            handleRekey(content);
+            return;
+        }
+        if (msg.getSeq() > lastSeq) {
+            lastSeq = msg.getSeq();
+        }
+        if (encryptionEnabled) {
+            String decrypted = crypto.decrypt(msg.getContent());
+            msg.setContent(decrypted);
+        }
+        if (messageHandler != null) {
+            messageHandler.accept(msg);
         }
     }
 
@@ -100,8 +206,8 @@ public class MessengerClient extends WebSocketClient {
 
     private void handleWelcome(String content) {
         try {
-            // Format: WELCOME:serverId:serverPubB64:wrappedGroupKeyB64
-            String[] parts = content.split(":", 4);
+            // Format: WELCOME:serverId:serverPubB64:wrappedGroupKeyB64[:acceptedOptions]
+            String[] parts = content.split(":", 5);
             if (parts.length < 4) {
                 failStatus("Malformed WELCOME");
                 close();
@@ -113,17 +219,31 @@ public class MessengerClient extends WebSocketClient {
                 close();
                 return;
             }
-            byte[] serverPubEnc = Base64.getDecoder().decode(parts[2]);
+            HandshakeOptions accepted = HandshakeOptions.parse(parts.length > 4 ? parts[4] : null);
+            byte[] wrapKeyBytes;
+            if (accepted.has(HandshakeOptions.RESUMED) && resumeTicket != null) {
+                wrapKeyBytes = resumeTicket.keyWrapKey();
+            } else if (clientKeyPair != null) {
+                byte[] serverPubEnc = Base64.getDecoder().decode(parts[2]);
+                byte[] shared = KeyExchangeUtil.deriveSharedSecret(clientKeyPair.getPrivate(), serverPubEnc);
+                wrapKeyBytes = KeyExchangeUtil.hkdf(shared, srvId.getBytes(StandardCharsets.UTF_8), HandshakeEngine.KEY_WRAP_INFO, HandshakeEngine.KEY_WRAP_LENGTH);
+            } else {
+                failStatus("Session ticket not accepted");
+                close();
+                return;
+            }
             byte[] wrapped = Base64.getDecoder().decode(parts[3]);
-            byte[] shared = KeyExchangeUtil.deriveSharedSecret(clientKeyPair.getPrivate(), serverPubEnc);
-            byte[] keyWrapKey = KeyExchangeUtil.hkdf(shared, srvId.getBytes(), "kchat-handshake".getBytes(), 32);
-            byte[] groupKey = unwrapGroupKey(keyWrapKey, wrapped);
+            SecretKeySpec wrapKey = new SecretKeySpec(wrapKeyBytes, "AES");
+            byte[] groupKey = unwrapGroupKey(wrapKey, wrapped);
             if (groupKey == null) {
                 failStatus("Group key unwrap failed");
                 close();
                 return;
             }
-            CryptoUtils.setRawKey(groupKey);
+            crypto.setRawKey(groupKey, parseEpoch(accepted.get(HandshakeOptions.KEY_EPOCH)));
+            this.keyWrapKey = wrapKey;
+            sessionTicket = SessionTicket.fromWelcome(srvId, accepted.get(HandshakeOptions.TICKET), wrapKeyBytes);
+            binaryProtocol = accepted.wantsBinary();
             handshakeComplete = true;
             if (handshakeTimeoutFuture != null) handshakeTimeoutFuture.cancel(true);
             setEncryptionEnabled(true);
@@ -134,29 +254,56 @@ public class MessengerClient extends WebSocketClient {
         }
     }
 
-    private byte[] unwrapGroupKey(byte[] keyWrapKey, byte[] wrapped) {
+    /** REKEY:epoch:wrappedKeyB64:graceMillis - the server rotated the group key. */
+    private void handleRekey(String content) {
+        String[] parts = content.split(":", 4);
+        SecretKeySpec wrapKey = keyWrapKey;
+        if (parts.length < 4 || wrapKey == null) {
+            LOG.warn("Ignoring malformed REKEY");
+            return;
+        }
+        try {
+            byte[] wrapped = Base64.getDecoder().decode(parts[2]);
+            byte[] groupKey = unwrapGroupKey(wrapKey, wrapped);
+            if (groupKey == null) return;
+            int epoch = Integer.parseInt(parts[1]);
+            if (crypto.rotateKey(groupKey, epoch, Long.parseLong(parts[3]))) {
+                LOG.info("Group key rotated to epoch {}", epoch);
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Ignoring malformed REKEY: {}", e.getMessage());
+        }
+    }
+
+    private static int parseEpoch(String value) {
+        if (value == null) return 0;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private byte[] unwrapGroupKey(SecretKeySpec keyWrapKey, byte[] wrapped) {
         try {
-            if (wrapped.length < 13) return null; // iv(12)+tag at least 1
-            byte[] iv = new byte[12];
-            byte[] ct = new byte[wrapped.length - 12];
-            System.arraycopy(wrapped, 0, iv, 0, 12);
-            System.arraycopy(wrapped, 12, ct, 0, ct.length);
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyWrapKey, "AES"), new GCMParameterSpec(128, iv));
-            return cipher.doFinal(ct);
+            return AesGcm.open(keyWrapKey, wrapped, 0, wrapped.length);
         } catch (Exception e) {
-            System.err.println("Group key unwrap error: " + e.getMessage());
+            LOG.error("Group key unwrap error: {}", e.getMessage());
             return null;
         }
     }
 
     @Override
     public void onClose(int code, String reason, boolean remote) {
-        System.out.println("Connection closed: " + reason);
+        LOG.info("Connection closed: {}", reason);
         if (handshakeTimeoutFuture != null) handshakeTimeoutFuture.cancel(true);
         if (!handshakeComplete && !errorSet) {
             String r = reason == null ? "" : reason.toLowerCase();
-            if (r.contains("invalid serverid")) {
+            if (r.contains("resumption failed")) {
+                // Expired or from a restarted server; the next connection does a full handshake
+                sessionTicket = null;
+                failStatus("Session expired, reconnect");
+            } else if (r.contains("invalid serverid")) {
                 failStatus("Invalid server ID");
             } else if (r.contains("handshake")) {
                 failStatus("Handshake failed");
@@ -170,32 +317,63 @@ public class MessengerClient extends WebSocketClient {
         }
         handshakeComplete = false;
         encryptionEnabled = false;
+        binaryProtocol = false;
+        keyWrapKey = null;
+        crypto.clear();
     }
 
     @Override
     public void onError(Exception ex) {
-        System.err.println("Client error: " + ex.getMessage());
+        LOG.warn("Client error: {}", ex.getMessage());
         if (connectionStatusHandler != null) connectionStatusHandler.accept("Error: " + ex.getMessage());
     }
 
     public void sendMessage(String sender, String content) {
+        sendMessage(sender, content, null);
+    }
+
+    /** Sends to {@code room}; null targets the server's default room. */
+    public void sendMessage(String sender, String content, String room) {
+        if (!handshakeComplete) {
+            LOG.warn("Cannot send before handshake completes");
+            return;
+        }
+        try {
+            if (encryptionEnabled) content = crypto.encrypt(content);
+            sendWire(new Message(sender, content, System.currentTimeMillis(), room));
+        } catch (Exception e) {
+            LOG.warn("Error sending message: {}", e.getMessage());
+        }
+    }
+
+    public void joinRoom(String room) { sendControl("JOIN:" + room); }
+
+    public void leaveRoom(String room) { sendControl("LEAVE:" + room); }
+
+    private void sendControl(String content) {
         if (!handshakeComplete) {
-            System.err.println("Cannot send before handshake completes");
+            LOG.warn("Cannot send before handshake completes");
             return;
         }
         try {
-            if (encryptionEnabled) content = CryptoUtils.encrypt(content);
-            Message message = new Message(sender, content, System.currentTimeMillis());
-            send(objectMapper.writeValueAsString(message));
+            sendWire(new Message("Client", content, System.currentTimeMillis()));
         } catch (Exception e) {
-            System.err.println("Error sending message: " + e.getMessage());
+            LOG.warn("Error sending control message: {}", e.getMessage());
+        }
+    }
+
+    private void sendWire(Message message) throws Exception {
+        if (binaryProtocol) {
+            send(BinaryCodec.encode(message));
+        } else {
+            send(MessageCodec.toJson(message));
         }
     }
 
     public void setMessageHandler(Consumer<Message> handler) { this.messageHandler = handler; }
     public void setConnectionStatusHandler(Consumer<String> handler) { this.connectionStatusHandler = handler; }
 
-    public void setEncryptionEnabled(boolean enabled) { this.encryptionEnabled = enabled && CryptoUtils.isEnabled(); }
+    public void setEncryptionEnabled(boolean enabled) { this.encryptionEnabled = enabled && crypto.isEnabled(); }
 
     private void updateStatus(String status) { if (connectionStatusHandler != null) connectionStatusHandler.accept(status); }
     private void failStatus(String status) {
@@ -1,6 +1,10 @@
 package kchat;
 
 import kchat.server.MessengerServer;
+import kchat.server.ServerConfig;
+import kchat.transport.ServerTransport;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 import java.net.ServerSocket;
 
@@ -14,8 +18,35 @@ public class ServerLauncher {
         }
     }
 
+    /**
+     * Applies {@code --shards=N}, {@code --decoders=N} and {@code --transport=selector|blocking}
+     * to {@code config} and returns the remaining arguments (the port, if given).
+     */
+    static String[] applyOptions(String[] args, ServerConfig config) {
+        List<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--shards=")) {
+                config.setShards(Integer.parseInt(arg.substring("--shards=".length())));
+            } else if (arg.startsWith("--decoders=")) {
+                config.setDecoderThreads(Integer.parseInt(arg.substring("--decoders=".length())));
+            } else if (arg.startsWith("--transport=")) {
+                config.setTransport(arg.substring("--transport=".length()));
+            } else {
+                rest.add(arg);
+            }
+        }
+        return rest.toArray(new String[0]);
+    }
+
     public static void main(String[] args) {
         int port = 8080;
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        try {
+            args = applyOptions(args, config);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid option: " + e.getMessage());
+            return;
+        }
 
         if (args.length > 0) {
             try {
@@ -26,21 +57,33 @@ public class ServerLauncher {
             }
         }
 
-        if (!isPortAvailable(port)) {
-            System.err.println("A server already appears to be running on port " + port + ". Aborting new server start.");
-            System.err.println("(If this is unexpected, ensure previous process is terminated.)");
-            return;
+        boolean selector = ServerTransport.SELECTOR.equalsIgnoreCase(config.getTransport());
+        int shards = selector ? Math.max(1, config.getShards()) : 1;
+        for (int i = 0; i < shards; i++) {
+            if (!isPortAvailable(port + i)) {
+                System.err.println("A server already appears to be running on port " + (port + i) + ". Aborting new server start.");
+                System.err.println("(If this is unexpected, ensure previous process is terminated.)");
+                return;
+            }
         }
 
-        MessengerServer server = new MessengerServer(port);
+        ServerTransport server;
         try {
+            server = ServerTransport.create(config.getTransport(), new MessengerServer(port, config));
             server.start();
         } catch (Exception e) {
             System.err.println("Failed to start server: " + e.getMessage());
             return;
         }
 
-        System.out.println("Messenger server started on port " + port);
+        if (!selector) {
+            System.out.println("Messenger server started on port " + port + " (" + config.getTransport() + " transport)");
+        } else if (shards > 1) {
+            System.out.println("Messenger server started on ports " + port + "-" + (port + shards - 1)
+                + " (" + shards + " shards, " + config.getDecoderThreads() + " decoder threads each)");
+        } else {
+            System.out.println("Messenger server started on port " + port);
+        }
         System.out.println("Press Enter to stop the server...");
 
         try (Scanner scanner = new Scanner(System.in)) {
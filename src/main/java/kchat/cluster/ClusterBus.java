@@ -0,0 +1,34 @@
+package kchat.cluster;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Links the nodes of a cluster. Every node publishes its local events to all peers and gets
+ * theirs through the {@link Listener}; implementations deliver events from one peer in the
+ * order it published them, on a thread of their own.
+ */
+public interface ClusterBus extends AutoCloseable {
+
+    interface Listener {
+        /** A link to {@code nodeId} came up; the node usually answers with its state. */
+        void onPeerUp(String nodeId);
+
+        void onEvent(String nodeId, ClusterEvent event);
+
+        /** The link to {@code nodeId} is gone, along with everything it had announced. */
+        void onPeerDown(String nodeId);
+    }
+
+    /** Starts linking with peers, identified to them as {@code nodeId}. */
+    void start(String nodeId, Listener listener) throws IOException;
+
+    /** Sends {@code event} to every connected peer without waiting for any of them. */
+    void publish(ClusterEvent event);
+
+    /** Ids of the peers currently linked. */
+    Set<String> peers();
+
+    @Override
+    void close();
+}
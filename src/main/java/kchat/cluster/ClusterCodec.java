@@ -0,0 +1,106 @@
+package kchat.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of {@link ClusterEvent}s for links between processes: a type byte, then the
+ * fields in declaration order (strings as modified UTF-8, lists and maps count-prefixed).
+ */
+public final class ClusterCodec {
+    static final byte NODE_STATE = 1;
+    static final byte ROOM_MESSAGE = 2;
+    static final byte PRESENCE = 3;
+    static final byte REKEY = 4;
+
+    private ClusterCodec() {}
+
+    public static byte[] encode(ClusterEvent event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(event instanceof ClusterEvent.RoomMessage m ? m.json().length + 64 : 128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (event instanceof ClusterEvent.NodeState s) {
+                out.writeByte(NODE_STATE);
+                out.writeUTF(s.serverId());
+                out.writeInt(s.keyEpoch());
+                out.writeInt(s.members().size());
+                for (Map.Entry<String, List<String>> room : s.members().entrySet()) {
+                    out.writeUTF(room.getKey());
+                    writeList(out, room.getValue());
+                }
+            } else if (event instanceof ClusterEvent.RoomMessage m) {
+                out.writeByte(ROOM_MESSAGE);
+                out.writeUTF(m.room());
+                out.writeInt(m.json().length);
+                out.write(m.json());
+            } else if (event instanceof ClusterEvent.Presence p) {
+                out.writeByte(PRESENCE);
+                out.writeUTF(p.room());
+                writeList(out, p.joined());
+                writeList(out, p.left());
+            } else if (event instanceof ClusterEvent.Rekey r) {
+                out.writeByte(REKEY);
+                out.writeInt(r.epoch());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Throws IllegalArgumentException for truncated or unknown input. */
+    public static ClusterEvent decode(byte[] data, int offset, int length) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length))) {
+            byte type = in.readByte();
+            switch (type) {
+                case NODE_STATE: {
+                    String serverId = in.readUTF();
+                    int epoch = in.readInt();
+                    int rooms = count(in);
+                    Map<String, List<String>> members = new LinkedHashMap<>();
+                    for (int i = 0; i < rooms; i++) members.put(in.readUTF(), readList(in));
+                    return new ClusterEvent.NodeState(serverId, epoch, members);
+                }
+                case ROOM_MESSAGE: {
+                    String room = in.readUTF();
+                    byte[] json = new byte[count(in)];
+                    in.readFully(json);
+                    return new ClusterEvent.RoomMessage(room, json);
+                }
+                case PRESENCE:
+                    return new ClusterEvent.Presence(in.readUTF(), readList(in), readList(in));
+                case REKEY:
+                    return new ClusterEvent.Rekey(in.readInt());
+                default:
+                    throw new IllegalArgumentException("Unknown cluster event type " + type);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated cluster event", e);
+        }
+    }
+
+    private static void writeList(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) out.writeUTF(value);
+    }
+
+    private static List<String> readList(DataInputStream in) throws IOException {
+        int n = count(in);
+        List<String> values = new ArrayList<>(Math.min(n, 1024));
+        for (int i = 0; i < n; i++) values.add(in.readUTF());
+        return values;
+    }
+
+    private static int count(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > in.available()) throw new IOException("Bad count " + n);
+        return n;
+    }
+}
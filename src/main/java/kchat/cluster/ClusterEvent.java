@@ -0,0 +1,24 @@
+package kchat.cluster;
+
+import java.util.List;
+import java.util.Map;
+
+/** What the nodes of a cluster tell each other over the {@link ClusterBus}. */
+public sealed interface ClusterEvent {
+
+    /**
+     * Sent to every peer whenever a link comes up: the sender's serverId (peers with a different
+     * one are ignored), its group key epoch and the ids of its local members per room. It
+     * replaces whatever the receiver knew about the sender's members.
+     */
+    record NodeState(String serverId, int keyEpoch, Map<String, List<String>> members) implements ClusterEvent {}
+
+    /** A chat message published on the sending node, as its JSON wire form. */
+    record RoomMessage(String room, byte[] json) implements ClusterEvent {}
+
+    /** Members of the sending node that joined or left {@code room}. */
+    record Presence(String room, List<String> joined, List<String> left) implements ClusterEvent {}
+
+    /** The sender rotated the group key to {@code epoch}; every node derives the same key for it. */
+    record Rekey(int epoch) implements ClusterEvent {}
+}
@@ -0,0 +1,45 @@
+package kchat.cluster;
+
+import kchat.security.Hkdf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Everything the nodes of a cluster must agree on, derived from the one secret they share
+ * ({@code kchat.cluster.secret}) so that no key ever travels between them: the group key of
+ * every epoch, the resumption ticket key and the key sealing bus traffic. Nothing derived from the
+ * secret is ever published, and a secret too short or repetitive to resist guessing is refused.
+ */
+public final class ClusterKeys {
+    private static final byte[] SALT = "kchat-cluster-v1".getBytes(StandardCharsets.UTF_8);
+    private static final int KEY_LENGTH = 32;
+    static final int MIN_SECRET_LENGTH = 16;
+    static final int MIN_DISTINCT_CHARS = 8;
+
+    private final byte[] secret;
+
+    public ClusterKeys(String secret) {
+        if (secret == null || secret.isEmpty()) throw new IllegalArgumentException("A cluster secret is required");
+        if (secret.length() < MIN_SECRET_LENGTH || secret.chars().distinct().count() < MIN_DISTINCT_CHARS) {
+            throw new IllegalArgumentException("The cluster secret is too weak: use at least " + MIN_SECRET_LENGTH
+                + " characters with at least " + MIN_DISTINCT_CHARS + " different ones, e.g. from `openssl rand -base64 32`");
+        }
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public byte[] groupKey(String serverId, int epoch) {
+        return derive("group-key:" + serverId + ":" + epoch);
+    }
+
+    public byte[] ticketKey(String serverId) {
+        return derive("ticket-key:" + serverId);
+    }
+
+    public byte[] busKey() {
+        return derive("bus-key");
+    }
+
+    private byte[] derive(String purpose) {
+        return new Hkdf(SALT, purpose.getBytes(StandardCharsets.UTF_8)).derive(secret, KEY_LENGTH);
+    }
+}
@@ -0,0 +1,93 @@
+package kchat.cluster;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ClusterBus} between nodes in the same JVM, for tests and embedded setups. Buses
+ * created from one {@link Network} see each other; each node gets events on a single inbox
+ * thread of its own, so delivery is ordered and never runs on the publisher's thread.
+ */
+public final class InProcessClusterBus implements ClusterBus {
+
+    /** The nodes that can see each other. */
+    public static final class Network {
+        private final Map<String, InProcessClusterBus> nodes = new ConcurrentHashMap<>();
+
+        public InProcessClusterBus newBus() {
+            return new InProcessClusterBus(this);
+        }
+    }
+
+    private final Network network;
+    private volatile String nodeId;
+    private volatile Listener listener;
+    private ExecutorService inbox;
+
+    private InProcessClusterBus(Network network) {
+        this.network = network;
+    }
+
+    @Override
+    public synchronized void start(String nodeId, Listener listener) {
+        if (this.nodeId != null) throw new IllegalStateException("Already started");
+        this.nodeId = nodeId;
+        this.listener = listener;
+        this.inbox = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cluster-inbox-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        });
+        if (network.nodes.putIfAbsent(nodeId, this) != null) throw new IllegalStateException("Duplicate node id " + nodeId);
+        for (InProcessClusterBus peer : network.nodes.values()) {
+            if (peer == this) continue;
+            peer.deliver(() -> peer.listener.onPeerUp(nodeId));
+            deliver(() -> listener.onPeerUp(peer.nodeId));
+        }
+    }
+
+    @Override
+    public void publish(ClusterEvent event) {
+        String from = nodeId;
+        if (from == null) return;
+        for (InProcessClusterBus peer : network.nodes.values()) {
+            if (peer != this) peer.deliver(() -> peer.listener.onEvent(from, event));
+        }
+    }
+
+    @Override
+    public Set<String> peers() {
+        Set<String> peers = new TreeSet<>(network.nodes.keySet());
+        peers.remove(nodeId);
+        return peers;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (inbox == null || !network.nodes.remove(nodeId, this)) return;
+        for (InProcessClusterBus peer : network.nodes.values()) {
+            String gone = nodeId;
+            peer.deliver(() -> peer.listener.onPeerDown(gone));
+        }
+        inbox.shutdown();
+        try {
+            inbox.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deliver(Runnable task) {
+        try {
+            inbox.execute(task);
+        } catch (RejectedExecutionException e) {
+            // closing; the event is lost just as it would be on a dropped link
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package kchat.cluster;
+
+import kchat.logging.Log;
+import kchat.security.AesGcm;
+import kchat.security.Hkdf;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ClusterBus} over a full mesh of TCP links. Every node listens on its cluster port
+ * and dials the peers it is configured with, redialling whenever a link drops; listing each
+ * peer on one side is enough. Frames are {@code [int length][AES-GCM sealed payload]}.
+ *
+ * <p>Each side opens with a hello sealed under the key derived from the cluster secret, carrying
+ * its node id and a fresh random nonce, so a node without the secret never gets past the first
+ * frame. Both nonces go into HKDF to give the link its own pair of keys, one per direction, and
+ * every later frame is sealed under the sender's key with the frame's position on the link as
+ * associated data. The first such frame proves that the peer holds the key too, and a recorded
+ * hello or frame replayed on another link, or replayed, dropped or reordered on the same one,
+ * fails to open and closes the link.
+ *
+ * <p>When both sides dial at once the pair briefly has two links; both nodes keep the one
+ * dialled by the smaller node id. Each link has a bounded outbox drained by its own writer
+ * thread, and a peer that lets it fill up is disconnected rather than slowing publishers down:
+ * it resyncs from the state sent when the link comes back.
+ */
+public final class TcpClusterBus implements ClusterBus {
+    private static final Log LOG = Log.get(TcpClusterBus.class);
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+    private static final int HELLO_TIMEOUT_MILLIS = 5_000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+    private static final int NONCE_LENGTH = 32;
+    private static final byte[] CLOSE = new byte[0];
+    private static final byte[] CONFIRM = "kchat-cluster-confirm".getBytes(StandardCharsets.UTF_8);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final InetSocketAddress bindAddress;
+    private final List<InetSocketAddress> seeds;
+    private final byte[] busKey;
+    private final SecretKey key;
+    private final int outboxCapacity;
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile String nodeId;
+    private volatile Listener listener;
+    private volatile boolean closed;
+    private ServerSocket serverSocket;
+
+    public TcpClusterBus(InetSocketAddress bindAddress, List<InetSocketAddress> peers, byte[] busKey) {
+        this(bindAddress, peers, busKey, 16_384);
+    }
+
+    public TcpClusterBus(InetSocketAddress bindAddress, List<InetSocketAddress> peers, byte[] busKey, int outboxCapacity) {
+        this.bindAddress = bindAddress;
+        this.seeds = List.copyOf(peers);
+        this.busKey = busKey.clone();
+        this.key = new SecretKeySpec(busKey, "AES");
+        this.outboxCapacity = outboxCapacity;
+    }
+
+    /**
+     * Parses {@code host:port[,host:port...]}, the format of {@code kchat.cluster.peers}.
+     * Blank input yields no peers.
+     */
+    public static List<InetSocketAddress> parsePeers(String value) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        if (value == null) return peers;
+        for (String entry : value.split(",")) {
+            String peer = entry.trim();
+            if (peer.isEmpty()) continue;
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0 || colon == peer.length() - 1) throw new IllegalArgumentException("Expected host:port, got " + peer);
+            peers.add(InetSocketAddress.createUnresolved(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+        }
+        return peers;
+    }
+
+    @Override
+    public synchronized void start(String nodeId, Listener listener) throws IOException {
+        if (this.nodeId != null) throw new IllegalStateException("Already started");
+        this.nodeId = nodeId;
+        this.listener = listener;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(bindAddress);
+        spawn("cluster-accept", this::acceptLoop);
+        for (InetSocketAddress seed : seeds) {
+            spawn("cluster-dial-" + seed.getHostString() + ":" + seed.getPort(), () -> dialLoop(seed));
+        }
+        LOG.info("Cluster node {} listening on {}, peers {}", nodeId, getLocalPort(), seeds);
+    }
+
+    /** The port the bus accepts peers on, useful when bound to port 0. */
+    public int getLocalPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    /** Encodes once; each link's writer seals the bytes under its own key. */
+    @Override
+    public void publish(ClusterEvent event) {
+        if (links.isEmpty()) return;
+        byte[] encoded = ClusterCodec.encode(event);
+        for (Link link : links.values()) link.enqueue(encoded);
+    }
+
+    @Override
+    public Set<String> peers() {
+        return new TreeSet<>(links.keySet());
+    }
+
+    @Override
+    public void close() {
+        List<Thread> toJoin;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            toJoin = new ArrayList<>(threads);
+        }
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+        for (Link link : links.values()) link.close();
+        for (Thread t : toJoin) t.interrupt();
+        for (Thread t : toJoin) {
+            try {
+                t.join(1_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private synchronized void spawn(String name, Runnable task) {
+        if (closed) return;
+        threads.removeIf(t -> !t.isAlive());
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        threads.add(t);
+        t.start();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                spawn("cluster-link-in", () -> runLink(socket, false));
+            } catch (IOException e) {
+                if (!closed) LOG.warn("Cluster accept failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void dialLoop(InetSocketAddress seed) {
+        long backoff = 100;
+        while (!closed) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(seed.getHostString(), seed.getPort()), CONNECT_TIMEOUT_MILLIS);
+                backoff = 100;
+                runLink(socket, true);
+            } catch (IOException e) {
+                if (!closed) LOG.debug("Cannot reach cluster peer {}: {}", seed, e.getMessage());
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * Exchanges hellos and link confirmations, registers the link and reads from it on the
+     * calling thread until it drops. A dialled link that turns out to duplicate a kept one waits here, idle, until the
+     * kept link goes away, so the dialer does not hammer the peer.
+     */
+    private void runLink(Socket socket, boolean dialled) {
+        Link link = null;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] nonce = new byte[NONCE_LENGTH];
+            RANDOM.nextBytes(nonce);
+            writeFrame(out, AesGcm.seal(key, hello(nodeId, nonce)));
+            out.flush();
+            DataInputStream peerHello = readHello(in);
+            String peerId = peerHello.readUTF();
+            byte[] peerNonce = new byte[NONCE_LENGTH];
+            peerHello.readFully(peerNonce);
+            if (peerId.equals(nodeId)) throw new IOException("Connected to itself");
+            link = new Link(peerId, socket, out, dialled ? nodeId : peerId,
+                dialled ? nonce : peerNonce, dialled ? peerNonce : nonce, dialled);
+            // Nothing is registered until the peer shows it derived the same link keys from these nonces
+            writeFrame(out, link.sealNext(CONFIRM));
+            out.flush();
+            if (!Arrays.equals(CONFIRM, link.openNext(readFrame(in)))) throw new IOException("Bad link confirmation");
+            socket.setSoTimeout(0);
+            if (!register(link)) {
+                link.close();
+                if (dialled) awaitGone(peerId);
+                return;
+            }
+            spawn("cluster-write-" + peerId, link::writeLoop);
+            link.readLoop(in);
+        } catch (GeneralSecurityException e) {
+            LOG.warn("Rejected cluster peer {}: a frame failed authentication (wrong secret, replay or tampering)", socket.getRemoteSocketAddress());
+        } catch (EOFException | SocketException e) {
+            // peer went away
+        } catch (IOException e) {
+            if (!closed) LOG.warn("Cluster link to {} failed: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        } finally {
+            if (link != null) drop(link);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+    }
+
+    /** Keeps one link per peer: the one dialled by the smaller node id when there are two. */
+    private boolean register(Link link) {
+        synchronized (links) {
+            if (closed) return false;
+            Link current = links.get(link.peerId);
+            if (current != null) {
+                if (current.dialledBy.compareTo(link.dialledBy) <= 0) return false;
+                links.put(link.peerId, link);
+                current.close();
+            } else {
+                links.put(link.peerId, link);
+            }
+        }
+        LOG.info("Cluster peer {} up", link.peerId);
+        // a replaced link may have lost frames, so the listener resends its state either way
+        listener.onPeerUp(link.peerId);
+        return true;
+    }
+
+    private void drop(Link link) {
+        link.close();
+        if (links.remove(link.peerId, link)) {
+            LOG.info("Cluster peer {} down", link.peerId);
+            if (!closed) listener.onPeerDown(link.peerId);
+        }
+    }
+
+    private void awaitGone(String peerId) {
+        try {
+            while (!closed && links.containsKey(peerId)) TimeUnit.MILLISECONDS.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] hello(String nodeId, byte[] nonce) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF("kchat-cluster-hello");
+            out.writeUTF(nodeId);
+            out.write(nonce);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Opens the peer's hello and returns it positioned at the node id. */
+    private DataInputStream readHello(DataInputStream in) throws IOException, GeneralSecurityException {
+        byte[] frame = readFrame(in);
+        byte[] plain = AesGcm.open(key, frame, 0, frame.length);
+        DataInputStream hello = new DataInputStream(new ByteArrayInputStream(plain));
+        if (!"kchat-cluster-hello".equals(hello.readUTF())) throw new IOException("Not a cluster hello");
+        return hello;
+    }
+
+    /** The key for one direction of a link, from both hello nonces. */
+    private SecretKey linkKey(byte[] dialerNonce, byte[] acceptorNonce, String direction) {
+        byte[] salt = new byte[2 * NONCE_LENGTH];
+        System.arraycopy(dialerNonce, 0, salt, 0, NONCE_LENGTH);
+        System.arraycopy(acceptorNonce, 0, salt, NONCE_LENGTH, NONCE_LENGTH);
+        byte[] info = ("kchat-cluster-link:" + direction).getBytes(StandardCharsets.UTF_8);
+        return new SecretKeySpec(new Hkdf(salt, info).derive(busKey, 32), "AES");
+    }
+
+    /** The associated data of the {@code n}th frame in one direction. */
+    private static byte[] position(long n) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(n).array();
+    }
+
+    private static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_FRAME) throw new IOException("Bad cluster frame length " + length);
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    private final class Link {
+        final String peerId;
+        final String dialledBy;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final BlockingQueue<byte[]> outbox = new ArrayBlockingQueue<>(outboxCapacity);
+        private final SecretKey sendKey;
+        private final SecretKey receiveKey;
+        private long sent;     // frames sealed so far; the writer's once the link is registered
+        private long received; // frames opened so far; the reader's
+        private volatile boolean open = true;
+
+        Link(String peerId, Socket socket, DataOutputStream out, String dialledBy,
+             byte[] dialerNonce, byte[] acceptorNonce, boolean dialled) {
+            this.peerId = peerId;
+            this.socket = socket;
+            this.out = out;
+            this.dialledBy = dialledBy;
+            SecretKey fromDialer = linkKey(dialerNonce, acceptorNonce, "dialer");
+            SecretKey fromAcceptor = linkKey(dialerNonce, acceptorNonce, "acceptor");
+            this.sendKey = dialled ? fromDialer : fromAcceptor;
+            this.receiveKey = dialled ? fromAcceptor : fromDialer;
+        }
+
+        byte[] sealNext(byte[] plaintext) throws GeneralSecurityException {
+            return AesGcm.seal(sendKey, plaintext, 0, plaintext.length, position(sent++));
+        }
+
+        /** Fails unless {@code frame} is the next one the peer sealed on this link. */
+        byte[] openNext(byte[] frame) throws GeneralSecurityException {
+            return AesGcm.open(receiveKey, frame, 0, frame.length, position(received++));
+        }
+
+        void enqueue(byte[] frame) {
+            if (open && !outbox.offer(frame)) {
+                LOG.warn("Cluster peer {} is not keeping up, disconnecting", peerId);
+                close();
+            }
+        }
+
+        void writeLoop() {
+            try {
+                while (open) {
+                    byte[] encoded = outbox.take();
+                    if (encoded == CLOSE) break;
+                    writeFrame(out, sealNext(encoded));
+                    if (outbox.isEmpty()) out.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                if (open && !closed) LOG.debug("Cluster write to {} failed: {}", peerId, e.getMessage());
+            } catch (GeneralSecurityException e) {
+                LOG.error("Cannot seal cluster event for {}: {}", peerId, e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        void readLoop(DataInputStream in) throws IOException, GeneralSecurityException {
+            while (open) {
+                byte[] plain = openNext(readFrame(in));
+                ClusterEvent event;
+                try {
+                    event = ClusterCodec.decode(plain, 0, plain.length);
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Dropping undecodable event from {}: {}", peerId, e.getMessage());
+                    continue;
+                }
+                if (links.get(peerId) == this) listener.onEvent(peerId, event);
+            }
+        }
+
+        void close() {
+            if (!open) return;
+            open = false;
+            outbox.clear();
+            outbox.offer(CLOSE);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+    }
+}
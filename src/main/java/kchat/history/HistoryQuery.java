@@ -0,0 +1,65 @@
+package kchat.history;
+
+import kchat.protocol.HandshakeOptions;
+
+/**
+ * What a client wants replayed when it joins a room: the last N messages, everything
+ * after a timestamp, or everything after a sequence number. Replays are always capped,
+ * and return the newest matching messages, oldest first.
+ */
+public final class HistoryQuery {
+    private final int limit;
+    private final long sinceTimestamp; // exclusive, 0 = no bound
+    private final long afterSeq;       // exclusive, 0 = no bound
+
+    private HistoryQuery(int limit, long sinceTimestamp, long afterSeq) {
+        this.limit = Math.max(0, limit);
+        this.sinceTimestamp = sinceTimestamp;
+        this.afterSeq = afterSeq;
+    }
+
+    public static HistoryQuery last(int count) {
+        return new HistoryQuery(count, 0L, 0L);
+    }
+
+    public static HistoryQuery since(long timestamp, int limit) {
+        return new HistoryQuery(limit, timestamp, 0L);
+    }
+
+    public static HistoryQuery after(long seq, int limit) {
+        return new HistoryQuery(limit, 0L, seq);
+    }
+
+    /**
+     * Reads the HELLO options {@code history=N}, {@code since=<epoch millis>} and {@code after=<seq>}.
+     * Without any of them the client gets the last {@code defaultCount} messages; nothing
+     * ever exceeds {@code maxCount}. Malformed values fall back to the default.
+     */
+    public static HistoryQuery fromOptions(HandshakeOptions options, int defaultCount, int maxCount) {
+        int count = (int) Math.min(maxCount, parse(options.get(HandshakeOptions.HISTORY), defaultCount));
+        long after = parse(options.get(HandshakeOptions.HISTORY_AFTER), 0L);
+        if (after > 0) return after(after, options.has(HandshakeOptions.HISTORY) ? count : maxCount);
+        long since = parse(options.get(HandshakeOptions.HISTORY_SINCE), 0L);
+        if (since > 0) return since(since, options.has(HandshakeOptions.HISTORY) ? count : maxCount);
+        return last(count);
+    }
+
+    private static long parse(String value, long fallback) {
+        if (value == null || value.isEmpty()) return fallback;
+        try {
+            return Math.max(0L, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    public int getLimit() { return limit; }
+
+    public long getSinceTimestamp() { return sinceTimestamp; }
+
+    public long getAfterSeq() { return afterSeq; }
+
+    boolean matches(HistoryRecord record) {
+        return record.getSeq() > afterSeq && record.getTimestamp() > sinceTimestamp;
+    }
+}
@@ -0,0 +1,43 @@
+package kchat.history;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Index entry for one stored message. Only the routing fields live on the heap;
+ * the encoded frame stays in its memory-mapped segment.
+ */
+public final class HistoryRecord {
+    private final long seq;
+    private final long timestamp;
+    private final String room;
+    private final HistorySegment segment;
+    private final int payloadOffset;
+    private final int payloadLength;
+
+    HistoryRecord(long seq, long timestamp, String room, HistorySegment segment, int payloadOffset, int payloadLength) {
+        this.seq = seq;
+        this.timestamp = timestamp;
+        this.room = room;
+        this.segment = segment;
+        this.payloadOffset = payloadOffset;
+        this.payloadLength = payloadLength;
+    }
+
+    public long getSeq() { return seq; }
+
+    public long getTimestamp() { return timestamp; }
+
+    public String getRoom() { return room; }
+
+    public int getPayloadLength() { return payloadLength; }
+
+    HistorySegment getSegment() { return segment; }
+
+    /**
+     * The message exactly as it was broadcast (UTF-8 JSON): a read-only slice of the segment
+     * mapping, so it can be handed to a socket without copying. A new view on every call.
+     */
+    public ByteBuffer payload() {
+        return segment.slice(payloadOffset, payloadLength);
+    }
+}
@@ -0,0 +1,215 @@
+package kchat.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * One append-only, memory-mapped history file. Records are laid out as (big-endian):
+ * <pre>
+ *   i32 length of everything after the checksum
+ *   i32 CRC32C of everything after the checksum
+ *   i64 seq
+ *   i64 timestamp
+ *   i16 room length, UTF-8 room
+ *   ... payload: the broadcast JSON frame
+ * </pre>
+ * The active segment is mapped read-write at its full capacity up front (the unused tail reads
+ * as zeroes, which ends a scan), and records are written straight into the mapping. Readers get
+ * read-only slices of the mapping, so replay never copies a payload onto the heap. A slice stays
+ * valid after the segment is closed or deleted; the mapping is released once it is unreachable.
+ * Only the history writer thread appends; a record is never read before its index entry is published.
+ * The record index is a writer-owned array that grows by doubling; {@link #getRecords} sees the
+ * prefix up to the volatile {@code recordCount}, which is published after the entry is stored.
+ */
+final class HistorySegment implements Closeable {
+    static final String SUFFIX = ".log";
+    private static final int PREFIX_BYTES = 4 + 4;
+    private static final int FIXED_BYTES = 8 + 8 + 2;
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+    private final boolean writable;
+    private volatile HistoryRecord[] records = new HistoryRecord[64];
+    private volatile int recordCount;
+    private volatile int size;
+    private volatile boolean sealed;
+    private volatile long lastTimestamp;
+
+    private HistorySegment(long id, Path path, FileChannel channel, MappedByteBuffer mapping, boolean writable) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.mapping = mapping;
+        this.writable = writable;
+    }
+
+    static Path fileName(Path dir, long id) {
+        return dir.resolve(String.format("%020d%s", id, SUFFIX));
+    }
+
+    /** Bytes a record occupies in a segment. */
+    static int recordSize(String room, byte[] payload) {
+        return PREFIX_BYTES + FIXED_BYTES + room.getBytes(StandardCharsets.UTF_8).length + payload.length;
+    }
+
+    static HistorySegment create(Path dir, long id, int capacity) throws IOException {
+        Path path = fileName(dir, id);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        return new HistorySegment(id, path, channel, mapping, true);
+    }
+
+    /**
+     * Maps an existing segment and rebuilds its records, handing each to {@code recovered}.
+     * A torn or corrupt tail (e.g. after a crash mid-write) is cut off: zeroed in a
+     * {@code writable} segment, which keeps accepting appends up to {@code capacity},
+     * and truncated in a sealed one.
+     */
+    static HistorySegment open(Path path, long id, int capacity, boolean writable, Consumer<HistoryRecord> recovered) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileSize = channel.size();
+        if (fileSize > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("History segment too large: " + path);
+        }
+        MappedByteBuffer mapping = writable
+            ? channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(fileSize, capacity))
+            : channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        HistorySegment segment = new HistorySegment(id, path, channel, mapping, writable);
+        int end = (int) fileSize;
+        int pos = 0;
+        while (pos + PREFIX_BYTES <= end) {
+            int length = mapping.getInt(pos);
+            int crc = mapping.getInt(pos + 4);
+            if (length < FIXED_BYTES || length > end - pos - PREFIX_BYTES) break;
+            if (checksum(mapping, pos + PREFIX_BYTES, length) != crc) break;
+            int body = pos + PREFIX_BYTES;
+            long seq = mapping.getLong(body);
+            long timestamp = mapping.getLong(body + 8);
+            int roomLength = mapping.getShort(body + 16);
+            if (roomLength < 0 || roomLength > length - FIXED_BYTES) break;
+            byte[] roomBytes = new byte[roomLength];
+            mapping.get(body + FIXED_BYTES, roomBytes);
+            String room = new String(roomBytes, StandardCharsets.UTF_8);
+            HistoryRecord record = new HistoryRecord(seq, timestamp, room, segment,
+                body + FIXED_BYTES + roomLength, length - FIXED_BYTES - roomLength);
+            segment.addRecord(record);
+            segment.lastTimestamp = Math.max(segment.lastTimestamp, timestamp);
+            recovered.accept(record);
+            pos += PREFIX_BYTES + length;
+        }
+        if (pos < end) {
+            if (writable) {
+                // Appends will reuse this space; clear what is left of the torn record
+                for (int i = pos; i < end; i++) {
+                    if (mapping.get(i) != 0) mapping.put(i, (byte) 0);
+                }
+            } else {
+                truncate(channel, pos);
+            }
+        }
+        segment.size = pos;
+        return segment;
+    }
+
+    boolean hasRoom(int recordBytes) {
+        return writable && !sealed && size + recordBytes <= mapping.capacity();
+    }
+
+    /** Writer thread only; the caller checks {@link #hasRoom} first. */
+    HistoryRecord append(long seq, long timestamp, String room, byte[] payload) {
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        int length = FIXED_BYTES + roomBytes.length + payload.length;
+        int start = size;
+        int body = start + PREFIX_BYTES;
+        mapping.putLong(body, seq);
+        mapping.putLong(body + 8, timestamp);
+        mapping.putShort(body + 16, (short) roomBytes.length);
+        mapping.put(body + FIXED_BYTES, roomBytes);
+        mapping.put(body + FIXED_BYTES + roomBytes.length, payload);
+        mapping.putInt(start + 4, checksum(mapping, body, length));
+        mapping.putInt(start, length);
+        size = body + length;
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        HistoryRecord record = new HistoryRecord(seq, timestamp, room, this, body + FIXED_BYTES + roomBytes.length, payload.length);
+        addRecord(record);
+        return record;
+    }
+
+    /** Writer thread (or the opening thread) only; the array is replaced, never shrunk, so readers keep a valid prefix. */
+    private void addRecord(HistoryRecord record) {
+        HistoryRecord[] array = records;
+        int count = recordCount;
+        if (count == array.length) {
+            array = Arrays.copyOf(array, count * 2);
+            records = array;
+        }
+        array[count] = record;
+        recordCount = count + 1;
+    }
+
+    /** A read-only view of {@code length} bytes at {@code offset}, backed by the mapping. */
+    ByteBuffer slice(int offset, int length) {
+        return mapping.slice(offset, length).asReadOnlyBuffer();
+    }
+
+    /** Stops appends to this segment and trims its unused, pre-mapped tail from the file. */
+    void seal() {
+        if (!writable || sealed) return;
+        sealed = true;
+        mapping.force();
+        truncate(channel, size);
+    }
+
+    long getId() { return id; }
+
+    int size() { return size; }
+
+    long getLastTimestamp() { return lastTimestamp; }
+
+    /** The records appended so far, in order; later appends do not show up in the returned view. */
+    List<HistoryRecord> getRecords() {
+        int count = recordCount;
+        return Collections.unmodifiableList(Arrays.asList(records).subList(0, count));
+    }
+
+    /** Flushes and, for the active segment, trims the pre-mapped tail so the file only holds records. */
+    @Override
+    public void close() throws IOException {
+        seal();
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    private static void truncate(FileChannel channel, long size) {
+        try {
+            channel.truncate(size);
+        } catch (IOException e) {
+            // Some platforms refuse to truncate a mapped file; the zero tail is harmless
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+}
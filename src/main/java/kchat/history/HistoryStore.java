@@ -0,0 +1,232 @@
+package kchat.history;
+
+import kchat.logging.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent chat history: a directory of append-only, memory-mapped {@link HistorySegment}
+ * files plus an in-memory index of (room, seq) to segment offset. Payloads are never held on
+ * the heap; a replay hands out slices of the mappings. Sequence numbers are handed out on the caller's
+ * thread, but all file I/O happens on a single {@code kchat-history} writer thread behind a
+ * bounded queue, so a slow disk drops history records instead of stalling a broadcast.
+ *
+ * <p>A new segment is started once the active one reaches {@code segmentBytes}. The oldest
+ * segments are deleted when there are more than {@code maxSegments}, or when everything in them
+ * is older than {@code retentionMillis} (0 = no age limit). The age limit is checked whenever a
+ * segment is started and, so that a quiet store also lets go of old segments, on a timer; replays
+ * never include records past it, even before their segment is deleted.
+ */
+public final class HistoryStore implements Closeable {
+    private static final Log LOG = Log.get(HistoryStore.class);
+    private static final int WRITE_QUEUE = 65_536;
+    private static final long MAX_SWEEP_INTERVAL_MILLIS = 60_000;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long retentionMillis;
+    private final Map<String, ConcurrentSkipListMap<Long, HistoryRecord>> index = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedDeque<HistorySegment> segments = new ConcurrentLinkedDeque<>();
+    private final AtomicLong nextSeq = new AtomicLong(1);
+    private final AtomicLong dropped = new AtomicLong();
+    private final ThreadPoolExecutor writer;
+    private final ScheduledExecutorService sweeper; // null without an age limit
+
+    private HistoryStore(Path dir, long segmentBytes, int maxSegments, long retentionMillis) {
+        this.dir = dir;
+        // A segment is one mapping, so it must fit in an int
+        this.segmentBytes = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024, segmentBytes));
+        this.maxSegments = Math.max(1, maxSegments);
+        this.retentionMillis = retentionMillis;
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(WRITE_QUEUE), r -> {
+            Thread t = new Thread(r, "kchat-history");
+            t.setDaemon(true);
+            return t;
+        });
+        this.sweeper = retentionMillis > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kchat-history-retention");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    /** Opens (or creates) the store in {@code dir}, rebuilding the index from existing segments. */
+    public static HistoryStore open(Path dir, long segmentBytes, int maxSegments, long retentionMillis) throws IOException {
+        Files.createDirectories(dir);
+        HistoryStore store = new HistoryStore(dir, segmentBytes, maxSegments, retentionMillis);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(HistorySegment.SUFFIX)).sorted().toList();
+        }
+        long maxSeq = 0;
+        files = files.stream().filter(f -> segmentId(f) >= 0).toList();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            boolean last = i == files.size() - 1; // the newest segment keeps taking appends
+            HistorySegment segment = HistorySegment.open(file, segmentId(file), store.segmentBytes, last, store::index);
+            store.segments.addLast(segment);
+            for (HistoryRecord record : segment.getRecords()) maxSeq = Math.max(maxSeq, record.getSeq());
+        }
+        store.nextSeq.set(maxSeq + 1);
+        store.enforceRetention();
+        if (store.sweeper != null) {
+            long interval = Math.max(1, Math.min(MAX_SWEEP_INTERVAL_MILLIS, retentionMillis / 10));
+            store.sweeper.scheduleWithFixedDelay(store::sweep, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        return store;
+    }
+
+    private static long segmentId(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - HistorySegment.SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Reserves the sequence number for a message about to be broadcast. */
+    public long nextSeq() {
+        return nextSeq.getAndIncrement();
+    }
+
+    /**
+     * Queues {@code payload} (the message as broadcast) for writing and returns immediately.
+     * Returns false if the write queue is full and the record was dropped.
+     */
+    public boolean append(long seq, long timestamp, String room, byte[] payload) {
+        try {
+            writer.execute(() -> write(seq, timestamp, room, payload));
+            return true;
+        } catch (RejectedExecutionException e) {
+            long n = dropped.incrementAndGet();
+            if (n == 1 || n % 1000 == 0) LOG.warn("History write queue full; {} record(s) dropped so far", n);
+            return false;
+        }
+    }
+
+    private void write(long seq, long timestamp, String room, byte[] payload) {
+        try {
+            int recordBytes = HistorySegment.recordSize(room, payload);
+            HistorySegment active = segments.peekLast();
+            if (active == null || !active.hasRoom(recordBytes)) {
+                long id = active == null ? seq : Math.max(seq, active.getId() + 1);
+                if (active != null) active.seal();
+                active = HistorySegment.create(dir, id, Math.max(segmentBytes, recordBytes));
+                segments.addLast(active);
+                enforceRetention();
+            }
+            index(active.append(seq, timestamp, room, payload));
+        } catch (IOException e) {
+            LOG.error("Failed to write history record {}: {}", seq, e.getMessage());
+        }
+    }
+
+    private void index(HistoryRecord record) {
+        index.computeIfAbsent(record.getRoom(), r -> new ConcurrentSkipListMap<>()).put(record.getSeq(), record);
+    }
+
+    /** Runs the age check on the writer thread, which owns the segment list; skipped while the queue is full. */
+    private void sweep() {
+        try {
+            writer.execute(this::enforceRetention);
+        } catch (RejectedExecutionException e) {
+            // busy or closed; the next sweep or segment roll catches up
+        }
+    }
+
+    /** Drops the oldest segments beyond the count limit, or entirely older than the age limit. */
+    private void enforceRetention() {
+        long cutoff = retentionMillis > 0 ? System.currentTimeMillis() - retentionMillis : Long.MIN_VALUE;
+        while (segments.size() > 1) {
+            HistorySegment oldest = segments.peekFirst();
+            if (segments.size() <= maxSegments && oldest.getLastTimestamp() >= cutoff) break;
+            segments.pollFirst();
+            for (HistoryRecord record : oldest.getRecords()) {
+                Map<Long, HistoryRecord> room = index.get(record.getRoom());
+                if (room != null) room.remove(record.getSeq(), record);
+            }
+            try {
+                oldest.delete();
+            } catch (IOException e) {
+                LOG.warn("Failed to delete history segment {}: {}", oldest.getId(), e.getMessage());
+            }
+        }
+    }
+
+    /** The newest records of {@code room} matching {@code query}, oldest first. */
+    public List<HistoryRecord> query(String room, HistoryQuery query) {
+        ConcurrentSkipListMap<Long, HistoryRecord> records = index.get(room);
+        if (records == null || query.getLimit() == 0) return Collections.emptyList();
+        long cutoff = retentionMillis > 0 ? System.currentTimeMillis() - retentionMillis : Long.MIN_VALUE;
+        List<HistoryRecord> result = new ArrayList<>(Math.min(query.getLimit(), 64));
+        for (HistoryRecord record : records.descendingMap().values()) {
+            if (result.size() >= query.getLimit() || !query.matches(record) || record.getTimestamp() < cutoff) break;
+            result.add(record);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    public int getRecordCount(String room) {
+        Map<Long, HistoryRecord> records = index.get(room);
+        return records == null ? 0 : records.size();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /** Records dropped because the write queue was full. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** Waits until everything queued so far is written; mainly for tests and shutdown. */
+    public void flush(long timeoutMillis) throws IOException {
+        Future<?> done = writer.submit(() -> {});
+        try {
+            done.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("History flush did not complete", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sweeper != null) sweeper.shutdownNow();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (HistorySegment segment : segments) {
+            segment.close();
+        }
+    }
+}
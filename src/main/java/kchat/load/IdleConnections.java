@@ -0,0 +1,215 @@
+package kchat.load;
+
+import kchat.model.Message;
+import kchat.protocol.MessageCodec;
+import kchat.security.KeyExchangeUtil;
+import kchat.server.MessengerServer;
+import kchat.transport.WebSocketFraming;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Connections that complete the HELLO/WELCOME handshake, leave the default room and then only
+ * answer pings: the sockets a chat server holds for users who are online but quiet. They are raw
+ * channels served by one selector thread rather than {@link kchat.MessengerClient}s, so tens of
+ * thousands of them cost the load generator little beyond the sockets themselves.
+ */
+final class IdleConnections implements AutoCloseable {
+    private static final int MAX_FRAME = 64 * 1024;
+
+    /** Per connection: an incomplete frame carried over between reads, and whether LEAVE was sent. */
+    private static final class State {
+        ByteBuffer carry;
+        boolean left;
+    }
+
+    private final List<SocketChannel> channels = new ArrayList<>();
+    private final Selector selector;
+    private final Thread pinger;
+    private volatile boolean closed;
+
+    IdleConnections() throws IOException {
+        selector = Selector.open();
+        pinger = new Thread(this::serve, "kchat-load-idle");
+        pinger.setDaemon(true);
+    }
+
+    int size() { return channels.size(); }
+
+    /** Opens {@code count} connections one after another; stops at the first that fails. */
+    int open(URI url, String serverId, int count) {
+        InetSocketAddress address = new InetSocketAddress(url.getHost(), url.getPort());
+        for (int i = 0; i < count; i++) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open(address);
+                handshake(channel, url, serverId);
+                channel.configureBlocking(false);
+                synchronized (this) {
+                    selector.wakeup();
+                    channel.register(selector, SelectionKey.OP_READ, new State());
+                }
+                channels.add(channel);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                break;
+            }
+        }
+        if (!pinger.isAlive()) pinger.start();
+        return channels.size();
+    }
+
+    private static void handshake(SocketChannel channel, URI url, String serverId) throws IOException {
+        byte[] nonce = new byte[16];
+        ThreadLocalRandom.current().nextBytes(nonce);
+        String request = "GET / HTTP/1.1\r\nHost: " + url.getHost() + ":" + url.getPort()
+            + "\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Key: "
+            + Base64.getEncoder().encodeToString(nonce) + "\r\nSec-WebSocket-Version: 13\r\n\r\n";
+        channel.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+        // unbuffered on purpose: nothing past the WELCOME may be consumed before the channel goes non-blocking
+        DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+        StringBuilder status = new StringBuilder();
+        while (status.length() < 4 || !status.substring(status.length() - 4).equals("\r\n\r\n")) {
+            int c = in.read();
+            if (c < 0) throw new IOException("Connection closed during the upgrade");
+            status.append((char) c);
+        }
+        if (!status.toString().startsWith("HTTP/1.1 101")) throw new IOException("Upgrade refused: " + status);
+
+        String publicKey = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+        send(channel, "HELLO:" + serverId + ":" + publicKey);
+        while (true) {
+            WebSocketFraming.Frame frame = WebSocketFraming.read(in, false, MAX_FRAME);
+            if (frame.opcode() == WebSocketFraming.CLOSE) throw new IOException("Server closed the connection during HELLO");
+            if (frame.opcode() == WebSocketFraming.TEXT
+                && new String(frame.payload(), StandardCharsets.UTF_8).contains("WELCOME:")) break;
+        }
+    }
+
+    private static void send(SocketChannel channel, String content) throws IOException {
+        String json = MessageCodec.toJson(new Message("Client", content, System.currentTimeMillis()));
+        writeFrame(channel, WebSocketFraming.TEXT, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeFrame(SocketChannel channel, int opcode, byte[] payload) throws IOException {
+        byte[] mask = new byte[4];
+        ThreadLocalRandom.current().nextBytes(mask);
+        ByteBuffer frame = ByteBuffer.wrap(WebSocketFraming.encode(opcode, ByteBuffer.wrap(payload), true, mask));
+        while (frame.hasRemaining()) channel.write(frame); // a tiny frame on an idle socket: the buffer has room
+    }
+
+    /**
+     * Answers pings and discards everything else; a connection the server closes is dropped.
+     * The server joins a client to the default room just after sending WELCOME, so the first
+     * data frame that follows (the join's own presence) is the cue to send LEAVE.
+     */
+    private void serve() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_FRAME);
+        while (!closed) {
+            try {
+                selector.select();
+                synchronized (this) {
+                    // registrations in open() wait on this lock after waking the selector
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    State state = (State) key.attachment();
+                    buffer.clear();
+                    if (state.carry != null) buffer.put(state.carry);
+                    int n;
+                    try {
+                        n = channel.read(buffer);
+                    } catch (IOException e) {
+                        n = -1;
+                    }
+                    if (n < 0) {
+                        key.cancel();
+                        closeQuietly(channel);
+                        continue;
+                    }
+                    buffer.flip();
+                    try {
+                        consumeFrames(channel, state, buffer);
+                    } catch (IOException e) {
+                        key.cancel();
+                        closeQuietly(channel);
+                        continue;
+                    }
+                    if (buffer.remaining() == MAX_FRAME) { // a frame bigger than anything an idle client is sent
+                        key.cancel();
+                        closeQuietly(channel);
+                        continue;
+                    }
+                    state.carry = buffer.hasRemaining() ? ByteBuffer.allocate(buffer.remaining()).put(buffer).flip() : null;
+                }
+                selector.selectedKeys().clear();
+            } catch (IOException | ClosedSelectorException e) {
+                if (!closed) throw new IllegalStateException("Idle connection selector failed", e);
+            }
+        }
+    }
+
+    /** Consumes the complete frames in {@code buffer}, leaving a partial one in place. */
+    private static void consumeFrames(SocketChannel channel, State state, ByteBuffer buffer) throws IOException {
+        while (buffer.remaining() >= 2) {
+            int start = buffer.position();
+            int opcode = buffer.get(start) & 0x0F;
+            int length = buffer.get(start + 1) & 0x7F;
+            int header = 2;
+            if (length == 126) {
+                if (buffer.remaining() < 4) return;
+                length = buffer.getShort(start + 2) & 0xFFFF;
+                header = 4;
+            } else if (length == 127) {
+                if (buffer.remaining() < 10) return;
+                length = (int) Math.min(buffer.getLong(start + 2), MAX_FRAME);
+                header = 10;
+            }
+            if (buffer.remaining() < header + length) return;
+            if (opcode == WebSocketFraming.PING) {
+                byte[] payload = new byte[length];
+                buffer.get(start + header, payload);
+                writeFrame(channel, WebSocketFraming.PONG, payload);
+            } else if (opcode < WebSocketFraming.CLOSE && !state.left) {
+                send(channel, "LEAVE:" + MessengerServer.DEFAULT_ROOM);
+                state.left = true;
+            }
+            buffer.position(start + header + length);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        for (SocketChannel channel : channels) closeQuietly(channel);
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // nothing left to release
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package kchat.load;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent latency histogram in the style of HdrHistogram: every power of two is split into
+ * 128 linear sub-buckets, so a recorded value is off by less than 1% at any magnitude, with
+ * fixed memory and no allocation per sample. Values are plain longs in whatever unit the caller
+ * chooses (the load generator records microseconds); values above {@code highestTrackable} are
+ * counted as {@code highestTrackable}.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long highestTrackable;
+    private final AtomicLongArray counts;
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram(long highestTrackable) {
+        if (highestTrackable < 1) throw new IllegalArgumentException("highestTrackable must be positive");
+        this.highestTrackable = highestTrackable;
+        this.counts = new AtomicLongArray(indexOf(highestTrackable) + 1);
+    }
+
+    public void record(long value) {
+        long v = Math.min(Math.max(value, 0L), highestTrackable);
+        counts.incrementAndGet(indexOf(v));
+        total.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    public long getTotalCount() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = total.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * The smallest value that {@code percentile} percent of the samples are at or below, as the
+     * upper end of its bucket (never above the recorded maximum); 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = total.sum();
+        if (n == 0) return 0L;
+        // Rounded like HdrHistogram: 99.9 / 100 * n is slightly above the exact rank in floating point
+        long rank = Math.max(1L, Math.round(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueAt(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) counts.set(i, 0L);
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /** Values below 2 * SUB_BUCKETS map to themselves; above that, the top 8 bits pick the sub-bucket. */
+    static int indexOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long highestValueAt(int index) {
+        int shift = Math.max(0, (index >>> SUB_BUCKET_BITS) - 1);
+        long top = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((top + 1) << shift) - 1;
+    }
+}
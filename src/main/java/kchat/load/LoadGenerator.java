@@ -0,0 +1,321 @@
+package kchat.load;
+
+import kchat.MessengerClient;
+import kchat.model.Message;
+import kchat.server.MessengerServer;
+import kchat.transport.ServerTransport;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator: opens many {@link MessengerClient} connections to a server on this
+ * machine, completes the full HELLO/WELCOME handshake on each, then sends encrypted chat
+ * messages at a fixed total rate and reports handshake rate, throughput and end-to-end latency.
+ *
+ * <p>Every message carries the time it was <em>scheduled</em> to be sent ({@link System#nanoTime},
+ * so senders and receivers must share this JVM). Each delivery to each room member is measured
+ * against it, which makes the figures fan-out delay, and includes any time the sender fell behind
+ * schedule instead of hiding it (no coordinated omission).
+ *
+ * <pre>./gradlew runLoad --args="--connections=2000 --rate=500 --size=256 --duration=30"</pre>
+ *
+ * Without {@code --url} an embedded server is started on a free port, with the transport named by
+ * {@code --transport}; with it, {@code --serverId} is required and the host must be a loopback
+ * address. {@code --idle=N} first opens N {@link IdleConnections} and reports the heap and
+ * platform threads they took (server and clients together when the server is embedded), so the
+ * measured traffic then runs with that many quiet sockets alongside it.
+ */
+public final class LoadGenerator {
+    static final String PAYLOAD_PREFIX = "LOAD:";
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final long CONNECT_TIMEOUT_MS = 60_000L;
+    private static final long DRAIN_MS = 2_000L;
+
+    /** Command line options, {@code --name=value}; unknown names are rejected. */
+    record Options(URI url, String serverId, int connections, int rooms, int rate, int size,
+                   int warmupSeconds, int durationSeconds, int connectConcurrency, boolean binary,
+                   String transport, int idle) {
+
+        static Options parse(String[] args) {
+            URI url = null;
+            String serverId = null;
+            int connections = 500, rooms = 1, rate = 200, size = 128, warmup = 2, duration = 10, concurrency = 100;
+            boolean binary = true;
+            String transport = null;
+            int idle = 0;
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) throw new IllegalArgumentException("Expected --name=value: " + arg);
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                switch (name) {
+                    case "url" -> url = URI.create(value);
+                    case "serverId" -> serverId = value;
+                    case "connections" -> connections = positive(name, value);
+                    case "rooms" -> rooms = positive(name, value);
+                    case "rate" -> rate = positive(name, value);
+                    case "size" -> size = positive(name, value);
+                    case "warmup" -> warmup = Integer.parseInt(value);
+                    case "duration" -> duration = positive(name, value);
+                    case "connectConcurrency" -> concurrency = positive(name, value);
+                    case "binary" -> binary = Boolean.parseBoolean(value);
+                    case "transport" -> transport = value;
+                    case "idle" -> idle = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown option --" + name);
+                }
+            }
+            if (url != null && (serverId == null || serverId.isEmpty())) {
+                throw new IllegalArgumentException("--serverId is required with --url");
+            }
+            if (transport != null && url != null) {
+                throw new IllegalArgumentException("--transport applies to the embedded server, not --url");
+            }
+            if (transport != null && !transport.equals(ServerTransport.SELECTOR) && !transport.equals(ServerTransport.BLOCKING)) {
+                throw new IllegalArgumentException("--transport must be " + ServerTransport.SELECTOR + " or " + ServerTransport.BLOCKING);
+            }
+            if (idle < 0) throw new IllegalArgumentException("--idle must not be negative");
+            return new Options(url, serverId, connections, Math.min(rooms, connections), rate, size,
+                Math.max(0, warmup), duration, concurrency, binary,
+                transport != null ? transport : ServerTransport.SELECTOR, idle);
+        }
+
+        private static int positive(String name, String value) {
+            int n = Integer.parseInt(value);
+            if (n < 1) throw new IllegalArgumentException("--" + name + " must be at least 1");
+            return n;
+        }
+    }
+
+    /** One connected client and the room it sends to (-1: the server's default room). */
+    private record Member(MessengerClient client, String name, int room) {}
+
+    private final Options options;
+    private final PrintStream out;
+    private final LatencyHistogram handshakeMicros = new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+    private final LatencyHistogram deliveryMicros = new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+    private final LongAdder delivered = new LongAdder();
+    private final List<Member> members = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failedHandshakes = new AtomicInteger();
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private volatile long measureUntil = Long.MAX_VALUE;
+
+    LoadGenerator(Options options, PrintStream out) {
+        this.options = options;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Options: --connections=N --rooms=N --rate=msgs/s --size=bytes --warmup=s --duration=s"
+                + " --connectConcurrency=N --binary=true|false --idle=N"
+                + " [--transport=selector|blocking | --url=ws://127.0.0.1:PORT --serverId=ID]");
+            System.exit(2);
+            return;
+        }
+        new LoadGenerator(options, System.out).run();
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        ServerTransport embedded = null;
+        URI url = options.url();
+        String serverId = options.serverId();
+        if (url == null) {
+            int port = freePort();
+            CountDownLatch listening = new CountDownLatch(1);
+            embedded = ServerTransport.create(options.transport(), new MessengerServer(port) {
+                @Override
+                public void onStart() {
+                    super.onStart();
+                    listening.countDown();
+                }
+            });
+            embedded.start();
+            if (!listening.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Embedded server did not start on port " + port);
+            }
+            url = URI.create("ws://127.0.0.1:" + port);
+            serverId = embedded.getServer().getServerId();
+            out.println("Embedded server on " + url + " (" + options.transport() + " transport)");
+        } else if (!InetAddress.getByName(url.getHost()).isLoopbackAddress()) {
+            throw new IllegalArgumentException("The load generator only runs against localhost, not " + url.getHost());
+        }
+        IdleConnections idle = new IdleConnections();
+        try {
+            if (options.idle() > 0) openIdle(idle, url, serverId);
+            connectAll(url, serverId);
+            if (!members.isEmpty()) sendAll();
+            report();
+        } finally {
+            for (Member member : members) member.client().close();
+            idle.close();
+            if (embedded != null) embedded.stop();
+        }
+    }
+
+    private void openIdle(IdleConnections idle, URI url, String serverId) {
+        long heapBefore = usedHeapAfterGc();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long start = System.nanoTime();
+        int opened = idle.open(url, serverId, options.idle());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(500)); // let the server finish the LEAVEs
+        long heapDelta = usedHeapAfterGc() - heapBefore;
+        int threadDelta = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+        out.printf(Locale.ROOT, "Idle: %d of %d connections in %.2f s; heap +%.1f MiB (%.1f KiB/connection), platform threads %+d%n",
+            opened, options.idle(), seconds, heapDelta / (1024.0 * 1024.0),
+            opened == 0 ? 0.0 : heapDelta / 1024.0 / opened, threadDelta);
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void connectAll(URI url, String serverId) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(options.connectConcurrency());
+        CountDownLatch done = new CountDownLatch(options.connections());
+        long start = System.nanoTime();
+        for (int i = 0; i < options.connections(); i++) {
+            if (!inFlight.tryAcquire(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                out.println("Stopped connecting after " + i + " connection(s): handshakes are not completing");
+                break;
+            }
+            String name = "load-" + i;
+            int room = options.rooms() > 1 ? i % options.rooms() : -1;
+            MessengerClient client = new MessengerClient(url);
+            client.setTargetServerId(serverId);
+            client.setPreferBinaryProtocol(options.binary());
+            long connectStart = System.nanoTime();
+            AtomicBoolean settled = new AtomicBoolean();
+            client.setConnectionStatusHandler(status -> {
+                boolean connected = status.startsWith("Connected");
+                if ((connected || status.startsWith("Error")) && settled.compareAndSet(false, true)) {
+                    if (connected) {
+                        handshakeMicros.record((System.nanoTime() - connectStart) / 1_000L);
+                        if (room >= 0) client.joinRoom(roomName(room));
+                        members.add(new Member(client, name, room));
+                    } else {
+                        failedHandshakes.incrementAndGet();
+                    }
+                    inFlight.release();
+                    done.countDown();
+                }
+            });
+            client.setMessageHandler(this::onDelivery);
+            client.connect();
+        }
+        if (!done.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            out.println("Gave up waiting for " + done.getCount() + " handshake(s)");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf(Locale.ROOT, "Handshakes: %d ok, %d failed in %.2f s (%.0f handshakes/s)%n",
+            members.size(), failedHandshakes.get(), seconds, members.size() / seconds);
+        Thread.sleep(500); // let room joins and presence deltas settle before measuring
+    }
+
+    private void sendAll() {
+        long interval = TimeUnit.SECONDS.toNanos(1) / options.rate();
+        long start = System.nanoTime();
+        measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds());
+        measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds());
+        int[] roomSizes = roomSizes();
+        String padding = "x".repeat(options.size());
+        long sent = 0;
+        long expected = 0;
+        for (long k = 0; ; k++) {
+            long scheduled = start + k * interval;
+            if (scheduled >= measureUntil) break;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            Member member = members.get((int) (k % members.size()));
+            member.client().sendMessage(member.name(), payload(scheduled, padding), roomName(member.room()));
+            if (scheduled >= measureFrom) {
+                sent++;
+                expected += member.room() < 0 ? members.size() : roomSizes[member.room()];
+            }
+        }
+        double elapsed = (System.nanoTime() - measureFrom) / 1e9;
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_MS));
+        long received = delivered.sum();
+        out.printf(Locale.ROOT, "Sent: %d messages of %d bytes in %.2f s (%.0f msgs/s, target %d)%n",
+            sent, options.size(), elapsed, sent / elapsed, options.rate());
+        out.printf(Locale.ROOT, "Delivered: %d of %d expected (%.0f msgs/s, %.2f%% missing)%n",
+            received, expected, received / elapsed, expected == 0 ? 0.0 : 100.0 * (expected - received) / expected);
+    }
+
+    private int[] roomSizes() {
+        int[] sizes = new int[options.rooms()];
+        for (Member member : members) {
+            if (member.room() >= 0) sizes[member.room()]++;
+        }
+        return sizes;
+    }
+
+    private static String roomName(int room) {
+        return room < 0 ? null : "load-room-" + room;
+    }
+
+    /** {@code LOAD:<scheduled nanoTime>:} followed by padding, {@code size} characters in all. */
+    static String payload(long scheduledNanos, String padding) {
+        String header = PAYLOAD_PREFIX + scheduledNanos + ":";
+        return header + padding.substring(0, Math.max(0, padding.length() - header.length()));
+    }
+
+    /** The scheduled send time carried by a load message, or -1 for anything else. */
+    static long scheduledNanos(String content) {
+        if (content == null || !content.startsWith(PAYLOAD_PREFIX)) return -1L;
+        int end = content.indexOf(':', PAYLOAD_PREFIX.length());
+        if (end < 0) return -1L;
+        try {
+            return Long.parseLong(content, PAYLOAD_PREFIX.length(), end, 10);
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private void onDelivery(Message message) {
+        long scheduled = scheduledNanos(message.getContent());
+        if (scheduled < measureFrom || scheduled >= measureUntil) return;
+        deliveryMicros.record((System.nanoTime() - scheduled) / 1_000L);
+        delivered.increment();
+    }
+
+    private void report() {
+        printLatency("Handshake latency", handshakeMicros);
+        printLatency("Fan-out latency", deliveryMicros);
+    }
+
+    private void printLatency(String label, LatencyHistogram histogram) {
+        out.printf(Locale.ROOT, "%-18s (ms) n=%d  mean=%.2f  p50=%.2f  p99=%.2f  p99.9=%.2f  max=%.2f%n",
+            label, histogram.getTotalCount(), histogram.getMean() / 1000.0,
+            histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+            histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0);
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package kchat.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * Hands log events from calling threads to a single daemon writer thread.
+ * {@link #offer} never blocks: when the queue is full the event is dropped and counted,
+ * so a slow console can only lose log lines, never stall a selector or outbound thread.
+ */
+final class AsyncLogDispatcher {
+    private static final int BATCH = 256;
+
+    private final BlockingQueue<Runnable> queue;
+    private final LongFunction<Runnable> droppedNotice;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong reported = new AtomicLong();
+
+    /** {@code droppedNotice} builds the event that reports how many events were lost since the last one. */
+    AsyncLogDispatcher(int capacity, LongFunction<Runnable> droppedNotice) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.droppedNotice = droppedNotice;
+        Thread writer = new Thread(this::run, "kchat-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    boolean offer(Runnable event) {
+        if (queue.offer(event)) return true;
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    long getDroppedCount() { return dropped.get(); }
+
+    int getPending() { return queue.size(); }
+
+    /** Writes everything still queued on the calling thread; used at shutdown. */
+    void flush() {
+        List<Runnable> batch = new ArrayList<>();
+        while (queue.drainTo(batch, BATCH) > 0) {
+            write(batch);
+        }
+    }
+
+    private void run() {
+        List<Runnable> batch = new ArrayList<>(BATCH);
+        while (true) {
+            try {
+                Runnable first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void write(List<Runnable> batch) {
+        long total = dropped.get();
+        long lost = total - reported.getAndSet(total);
+        if (lost > 0) {
+            run(droppedNotice.apply(lost));
+        }
+        for (Runnable event : batch) {
+            run(event);
+        }
+        batch.clear();
+    }
+
+    private static void run(Runnable event) {
+        try {
+            event.run();
+        } catch (RuntimeException ignored) {
+            // a broken appender must not kill the writer thread
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package kchat.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous front end for slf4j. Level checks happen on the caller's thread; formatting
+ * and the actual write happen on the shared {@code kchat-log} thread. When that thread falls
+ * behind, events are dropped (and the loss reported) instead of blocking the caller.
+ *
+ * <p>Tunables: {@code -Dkchat.log.queueSize} (default 8192) and
+ * {@code -Dkchat.log.messageSampleRate}, which logs one in N chat messages (default 0: off).
+ * Levels and output format come from slf4j-simple, see {@code simplelogger.properties}.
+ */
+public final class Log {
+    private static final AsyncLogDispatcher DISPATCHER =
+        new AsyncLogDispatcher(Integer.getInteger("kchat.log.queueSize", 8192), Log::droppedNotice);
+    private static final Logger SELF = LoggerFactory.getLogger(Log.class);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(DISPATCHER::flush, "kchat-log-flush"));
+    }
+
+    private final Logger logger;
+
+    private Log(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static Log get(Class<?> type) {
+        return new Log(LoggerFactory.getLogger(type));
+    }
+
+    /** Sampler for per-message logging, configured by {@code kchat.log.messageSampleRate}. */
+    public static Sampler messageSampler() {
+        return new Sampler(Integer.getInteger("kchat.log.messageSampleRate", 0));
+    }
+
+    public boolean isDebugEnabled() { return logger.isDebugEnabled(); }
+
+    public boolean isInfoEnabled() { return logger.isInfoEnabled(); }
+
+    public void debug(String format, Object... args) {
+        if (logger.isDebugEnabled()) DISPATCHER.offer(() -> logger.debug(format, args));
+    }
+
+    public void info(String format, Object... args) {
+        if (logger.isInfoEnabled()) DISPATCHER.offer(() -> logger.info(format, args));
+    }
+
+    public void warn(String format, Object... args) {
+        if (logger.isWarnEnabled()) DISPATCHER.offer(() -> logger.warn(format, args));
+    }
+
+    public void error(String format, Object... args) {
+        if (logger.isErrorEnabled()) DISPATCHER.offer(() -> logger.error(format, args));
+    }
+
+    /** Events lost because the queue was full, since startup. */
+    public static long getDroppedCount() { return DISPATCHER.getDroppedCount(); }
+
+    /** Writes all queued events on the calling thread. */
+    public static void flush() { DISPATCHER.flush(); }
+
+    static Runnable droppedNotice(long lost) {
+        return () -> SELF.warn("Log queue full, dropped {} event(s)", lost);
+    }
+
+    /**
+     * Lets one in {@code rate} events through; a rate of 0 or less disables the events entirely,
+     * so a hot path pays a single branch when sampling is off.
+     */
+    public static final class Sampler {
+        private final int rate;
+        private final AtomicLong counter = new AtomicLong();
+
+        public Sampler(int rate) {
+            this.rate = rate;
+        }
+
+        public boolean sample() {
+            if (rate <= 0) return false;
+            return rate == 1 || counter.getAndIncrement() % rate == 0;
+        }
+
+        public int getRate() { return rate; }
+    }
+}
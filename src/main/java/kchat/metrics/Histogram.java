@@ -0,0 +1,67 @@
+package kchat.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations counted into fixed buckets, exported as a Prometheus histogram (cumulative
+ * {@code _bucket{le=...}} series plus {@code _sum} and {@code _count}, in seconds).
+ * Each bucket is a {@link LongAdder}, so recording takes no lock and allocates nothing.
+ */
+public final class Histogram {
+    /** 100µs to 10s, roughly three buckets per decade. */
+    public static final double[] LATENCY_SECONDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private final double[] upperBoundsSeconds;
+    private final long[] upperBoundsNanos;
+    private final LongAdder[] buckets; // one more than the bounds: the +Inf bucket
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram(double... upperBoundsSeconds) {
+        if (upperBoundsSeconds.length == 0) throw new IllegalArgumentException("At least one bucket bound is required");
+        this.upperBoundsSeconds = upperBoundsSeconds.clone();
+        Arrays.sort(this.upperBoundsSeconds);
+        this.upperBoundsNanos = new long[upperBoundsSeconds.length];
+        for (int i = 0; i < upperBoundsNanos.length; i++) {
+            upperBoundsNanos[i] = (long) (this.upperBoundsSeconds[i] * 1e9);
+        }
+        this.buckets = new LongAdder[upperBoundsSeconds.length + 1];
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    public void observeNanos(long nanos) {
+        long n = Math.max(0L, nanos);
+        int i = 0;
+        while (i < upperBoundsNanos.length && n > upperBoundsNanos[i]) i++;
+        buckets[i].increment();
+        sumNanos.add(n);
+    }
+
+    /** Records the time since {@code startNanos}, a {@link System#nanoTime()} reading. */
+    public void observeSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    double[] upperBoundsSeconds() {
+        return upperBoundsSeconds;
+    }
+
+    /** Per-bucket (not cumulative) counts; the last entry is the +Inf bucket. */
+    long[] bucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) counts[i] = buckets[i].sum();
+        return counts;
+    }
+
+    public long getCount() {
+        long n = 0;
+        for (LongAdder bucket : buckets) n += bucket.sum();
+        return n;
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+}
@@ -0,0 +1,116 @@
+package kchat.metrics;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Named counters, gauges and histograms, rendered in the Prometheus text exposition format
+ * and readable as a map for JMX. Registration happens once at startup; recording goes straight
+ * to the returned {@link Counter}/{@link Histogram} and never touches the registry, and gauges
+ * are only evaluated when someone reads them.
+ */
+public final class MetricsRegistry {
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+    enum Type {
+        COUNTER, GAUGE, HISTOGRAM;
+
+        String prometheusName() {
+            return name().toLowerCase();
+        }
+    }
+
+    /** One registered metric; exactly one of {@code value} and {@code histogram} is set. */
+    record Entry(String name, String help, Type type, LongSupplier value, Histogram histogram) {}
+
+    private final List<Entry> entries = new ArrayList<>(); // guarded by this
+
+    public Counter counter(String name, String help) {
+        Counter counter = new Counter();
+        add(new Entry(name, help, Type.COUNTER, counter::get, null));
+        return counter;
+    }
+
+    /** A counter whose value is kept elsewhere, e.g. in an existing AtomicLong. */
+    public void counter(String name, String help, LongSupplier value) {
+        add(new Entry(name, help, Type.COUNTER, value, null));
+    }
+
+    public void gauge(String name, String help, LongSupplier value) {
+        add(new Entry(name, help, Type.GAUGE, value, null));
+    }
+
+    /** A duration histogram with the {@link Histogram#LATENCY_SECONDS} buckets. */
+    public Histogram histogram(String name, String help) {
+        return histogram(name, help, Histogram.LATENCY_SECONDS);
+    }
+
+    public Histogram histogram(String name, String help, double... upperBoundsSeconds) {
+        Histogram histogram = new Histogram(upperBoundsSeconds);
+        add(new Entry(name, help, Type.HISTOGRAM, null, histogram));
+        return histogram;
+    }
+
+    private synchronized void add(Entry entry) {
+        if (!NAME.matcher(entry.name()).matches()) throw new IllegalArgumentException("Invalid metric name " + entry.name());
+        for (Entry e : entries) {
+            if (e.name().equals(entry.name())) throw new IllegalArgumentException("Duplicate metric " + entry.name());
+        }
+        entries.add(entry);
+    }
+
+    synchronized List<Entry> entries() {
+        return List.copyOf(entries);
+    }
+
+    /** All metrics in the Prometheus text format (version 0.0.4). */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Entry e : entries()) {
+            out.append("# HELP ").append(e.name()).append(' ').append(escapeHelp(e.help())).append('\n');
+            out.append("# TYPE ").append(e.name()).append(' ').append(e.type().prometheusName()).append('\n');
+            if (e.histogram() == null) {
+                out.append(e.name()).append(' ').append(e.value().getAsLong()).append('\n');
+                continue;
+            }
+            // Bucket counts are read once, so the cumulative series, +Inf and _count always agree
+            double[] bounds = e.histogram().upperBoundsSeconds();
+            long[] counts = e.histogram().bucketCounts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String le = i < bounds.length ? BigDecimal.valueOf(bounds[i]).toPlainString() : "+Inf";
+                out.append(e.name()).append("_bucket{le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(e.name()).append("_sum ").append(e.histogram().getSumSeconds()).append('\n');
+            out.append(e.name()).append("_count ").append(cumulative).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Current values by name. Histograms appear as {@code <name>_count} (Long) and
+     * {@code <name>_sum} (Double, seconds).
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Entry e : entries()) {
+            if (e.histogram() == null) {
+                values.put(e.name(), e.value().getAsLong());
+            } else {
+                values.put(e.name() + "_count", e.histogram().getCount());
+                values.put(e.name() + "_sum", e.histogram().getSumSeconds());
+            }
+        }
+        return values;
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+}
@@ -1,20 +1,33 @@
 package kchat.model;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Message {
     private String sender;
     private String content;
     private long timestamp;
+    // Target room; null means the server's default room (omitted from JSON for older clients)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String room;
+    // Server-assigned history sequence number; 0 until the server stores the message (omitted from JSON)
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long seq;
+
+    public Message(String sender, String content, long timestamp) {
+        this(sender, content, timestamp, null);
+    }
 
     @JsonCreator
     public Message(@JsonProperty("sender") String sender,
                    @JsonProperty("content") String content,
-                   @JsonProperty("timestamp") long timestamp) {
+                   @JsonProperty("timestamp") long timestamp,
+                   @JsonProperty("room") String room) {
         this.sender = sender;
         this.content = content;
         this.timestamp = timestamp;
+        this.room = room;
     }
 
     public String getSender() {
@@ -41,6 +54,22 @@ public class Message {
         this.timestamp = timestamp;
     }
 
+    public String getRoom() {
+        return room;
+    }
+
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
     @Override
     public String toString() {
         return String.format("[%s] %s: %s",
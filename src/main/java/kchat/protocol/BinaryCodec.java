@@ -0,0 +1,158 @@
+package kchat.protocol;
+
+import kchat.model.Message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Compact binary framing for {@link Message}, negotiated per connection during HELLO/WELCOME
+ * and sent as WebSocket binary frames. Layout (big-endian):
+ * <pre>
+ *   u8  version (1)
+ *   u8  type     0 = UTF-8 text content, 1 = raw AES-GCM ciphertext (iv || ct),
+ *                2 = i32 group key epoch followed by raw ciphertext;
+ *                high bit set = a history sequence number follows the timestamp
+ *   i64 timestamp
+ *   i64 seq                          (only with the high type bit)
+ *   i16 sender length, UTF-8 bytes   (-1 = null)
+ *   i16 room length, UTF-8 bytes     (-1 = null)
+ *   i32 payload length, bytes        (-1 = null)
+ * </pre>
+ * Ciphertext travels as raw bytes; on decode it is mapped back to the {@code ENC:}+Base64
+ * (or {@code ENC:<epoch>:}+Base64) content form used everywhere else, so JSON and binary
+ * clients can share a room.
+ */
+public final class BinaryCodec {
+    public static final byte VERSION = 1;
+    static final byte TYPE_TEXT = 0;
+    static final byte TYPE_CIPHER = 1;
+    static final byte TYPE_CIPHER_EPOCH = 2;
+    static final byte FLAG_SEQ = (byte) 0x80;
+    private static final String ENC_PREFIX = "ENC:";
+    private static final int HEADER_BYTES = 2 + 8 + 2 + 2 + 4;
+
+    private BinaryCodec() {}
+
+    public static byte[] encode(Message message) {
+        byte[] sender = utf8(message.getSender());
+        byte[] room = utf8(message.getRoom());
+        byte type = TYPE_TEXT;
+        String content = message.getContent();
+        byte[] payload = content != null && content.startsWith(ENC_PREFIX) ? cipherPayload(content) : null;
+        if (payload != null) {
+            type = content.indexOf(':', ENC_PREFIX.length()) < 0 ? TYPE_CIPHER : TYPE_CIPHER_EPOCH;
+        } else {
+            payload = utf8(content);
+        }
+        if (sender != null && sender.length > Short.MAX_VALUE || room != null && room.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("sender/room too long for binary framing");
+        }
+        boolean hasSeq = message.getSeq() != 0L;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + (hasSeq ? 8 : 0) + len(sender) + len(room) + len(payload));
+        buf.put(VERSION).put(hasSeq ? (byte) (type | FLAG_SEQ) : type).putLong(message.getTimestamp());
+        if (hasSeq) buf.putLong(message.getSeq());
+        putShortField(buf, sender);
+        putShortField(buf, room);
+        if (payload == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(payload.length).put(payload);
+        }
+        return buf.array();
+    }
+
+    /**
+     * The raw form of {@code ENC:<Base64>} or {@code ENC:<epoch>:<Base64>} content, or null when
+     * it is not well formed (bad Base64, a non-numeric epoch). Such content is whatever a client
+     * chose to send, so it travels as plain text instead of failing the encode.
+     */
+    private static byte[] cipherPayload(String content) {
+        int sep = content.indexOf(':', ENC_PREFIX.length()); // ':' is not in the Base64 alphabet
+        try {
+            if (sep < 0) return Base64.getDecoder().decode(content.substring(ENC_PREFIX.length()));
+            int epoch = Integer.parseInt(content, ENC_PREFIX.length(), sep, 10);
+            if (!content.regionMatches(ENC_PREFIX.length(), Integer.toString(epoch), 0, sep - ENC_PREFIX.length())) {
+                return null; // "+1" or "007" would not decode back to the same content
+            }
+            byte[] raw = Base64.getDecoder().decode(content.substring(sep + 1));
+            return ByteBuffer.allocate(4 + raw.length).putInt(epoch).put(raw).array();
+        } catch (IllegalArgumentException e) { // NumberFormatException included
+            return null;
+        }
+    }
+
+    /** Decodes one message; the buffer's position is advanced past it. */
+    public static Message decode(ByteBuffer buf) {
+        try {
+            byte version = buf.get();
+            if (version != VERSION) throw new IllegalArgumentException("Unsupported binary version " + version);
+            byte type = buf.get();
+            long timestamp = buf.getLong();
+            long seq = 0L;
+            if ((type & FLAG_SEQ) != 0) {
+                seq = buf.getLong();
+                type &= ~FLAG_SEQ;
+            }
+            String sender = string(buf, buf.getShort());
+            String room = string(buf, buf.getShort());
+            int payloadLength = buf.getInt();
+            String content;
+            if (payloadLength < 0) {
+                content = null;
+            } else if (type == TYPE_CIPHER) {
+                byte[] raw = new byte[payloadLength];
+                buf.get(raw);
+                content = ENC_PREFIX + Base64.getEncoder().encodeToString(raw);
+            } else if (type == TYPE_CIPHER_EPOCH) {
+                if (payloadLength < 4) throw new IllegalArgumentException("Truncated key epoch");
+                int epoch = buf.getInt();
+                byte[] raw = new byte[payloadLength - 4];
+                buf.get(raw);
+                content = ENC_PREFIX + epoch + ":" + Base64.getEncoder().encodeToString(raw);
+            } else if (type == TYPE_TEXT) {
+                content = string(buf, payloadLength);
+            } else {
+                throw new IllegalArgumentException("Unknown binary message type " + type);
+            }
+            Message message = new Message(sender, content, timestamp, room);
+            message.setSeq(seq);
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated binary message", e);
+        }
+    }
+
+    private static void putShortField(ByteBuffer buf, byte[] value) {
+        if (value == null) {
+            buf.putShort((short) -1);
+        } else {
+            buf.putShort((short) value.length).put(value);
+        }
+    }
+
+    private static String string(ByteBuffer buf, int length) {
+        if (length < 0) return null;
+        if (length > buf.remaining()) throw new BufferUnderflowException();
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buf.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int len(byte[] b) {
+        return b == null ? 0 : b.length;
+    }
+}
@@ -0,0 +1,83 @@
+package kchat.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several messages in one WebSocket frame, sent by the server to clients that offered
+ * {@code batch} in their HELLO. A JSON batch is a text frame holding a JSON array of the usual
+ * message objects ({@link MessageCodec#readBatch}). A binary batch is a binary frame laid out as
+ * (big-endian):
+ * <pre>
+ *   u8  marker (0xBA, never a {@link BinaryCodec#VERSION})
+ *   repeated:
+ *     i32 length, then one {@link BinaryCodec} message of that many bytes
+ * </pre>
+ */
+public final class FrameBatch {
+    public static final byte BINARY_MARKER = (byte) 0xBA;
+
+    private FrameBatch() {}
+
+    /** {@code [m1,m2,...]} from encoded JSON objects. */
+    public static byte[] packJson(List<ByteBuffer> messages) {
+        int length = 1 + messages.size();
+        for (ByteBuffer message : messages) length += message.remaining();
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.put((byte) '[');
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) out.put((byte) ',');
+            out.put(messages.get(i).duplicate());
+        }
+        out.put((byte) ']');
+        return out.array();
+    }
+
+    /** The binary batch of encoded {@link BinaryCodec} messages. */
+    public static byte[] packBinary(List<ByteBuffer> messages) {
+        int length = 1;
+        for (ByteBuffer message : messages) length += 4 + message.remaining();
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.put(BINARY_MARKER);
+        for (ByteBuffer message : messages) {
+            out.putInt(message.remaining());
+            out.put(message.duplicate());
+        }
+        return out.array();
+    }
+
+    /** Whether a text frame is a JSON batch rather than a single message object. */
+    public static boolean isJsonBatch(String frame) {
+        for (int i = 0; i < frame.length(); i++) {
+            char c = frame.charAt(i);
+            if (!Character.isWhitespace(c)) return c == '[';
+        }
+        return false;
+    }
+
+    /** Whether a binary frame is a batch rather than a single {@link BinaryCodec} message. */
+    public static boolean isBinaryBatch(ByteBuffer frame) {
+        return frame.hasRemaining() && frame.get(frame.position()) == BINARY_MARKER;
+    }
+
+    /**
+     * Splits a binary batch into its messages, as slices of {@code frame}.
+     * Throws IllegalArgumentException for a truncated or malformed batch.
+     */
+    public static List<ByteBuffer> unpackBinary(ByteBuffer frame) {
+        ByteBuffer in = frame.duplicate();
+        if (!in.hasRemaining() || in.get() != BINARY_MARKER) throw new IllegalArgumentException("Not a batch frame");
+        List<ByteBuffer> messages = new ArrayList<>();
+        while (in.hasRemaining()) {
+            if (in.remaining() < 4) throw new IllegalArgumentException("Truncated batch length");
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) throw new IllegalArgumentException("Batch entry of " + length + " bytes overruns the frame");
+            ByteBuffer message = in.slice();
+            message.limit(length);
+            messages.add(message);
+            in.position(in.position() + length);
+        }
+        return messages;
+    }
+}
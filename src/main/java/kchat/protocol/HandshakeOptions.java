@@ -0,0 +1,69 @@
+package kchat.protocol;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Optional trailing field of HELLO/WELCOME: a comma separated list of {@code key=value}
+ * (or bare {@code key}) entries, e.g. {@code proto=bin}. Peers ignore keys they do not know,
+ * and a HELLO without options gets the original WELCOME format back.
+ */
+public final class HandshakeOptions {
+    public static final String PROTOCOL = "proto";
+    public static final String PROTOCOL_BINARY = "bin";
+    /** History replay on join: {@code history=N}, {@code since=<epoch millis>}, {@code after=<seq>}. */
+    public static final String HISTORY = "history";
+    public static final String HISTORY_SINCE = "since";
+    public static final String HISTORY_AFTER = "after";
+    /** Client understands REKEY control messages; the server answers with the current {@code epoch=N}. */
+    public static final String REKEY = "rekey";
+    public static final String KEY_EPOCH = "epoch";
+    /**
+     * Session resumption: a bare {@code resume} asks for a ticket, {@code resume=<ticket>} presents
+     * one instead of a public key. WELCOME answers with {@code ticket=<ticket>}, plus {@code resumed}
+     * when the ticket was accepted.
+     */
+    public static final String RESUME = "resume";
+    public static final String TICKET = "ticket";
+    public static final String RESUMED = "resumed";
+    /** Client unpacks {@link FrameBatch} frames; the server echoes it when it may batch. */
+    public static final String BATCH = "batch";
+
+    private final Map<String, String> values = new LinkedHashMap<>();
+
+    public static HandshakeOptions parse(String raw) {
+        HandshakeOptions options = new HandshakeOptions();
+        if (raw == null || raw.isEmpty()) return options;
+        for (String entry : raw.split(",")) {
+            if (entry.isEmpty()) continue;
+            int eq = entry.indexOf('=');
+            if (eq < 0) {
+                options.values.put(entry, "");
+            } else {
+                options.values.put(entry.substring(0, eq), entry.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    public HandshakeOptions put(String key, String value) {
+        values.put(key, value == null ? "" : value);
+        return this;
+    }
+
+    public String get(String key) { return values.get(key); }
+
+    public boolean has(String key) { return values.containsKey(key); }
+
+    public boolean isEmpty() { return values.isEmpty(); }
+
+    public boolean wantsBinary() { return PROTOCOL_BINARY.equals(values.get(PROTOCOL)); }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(",");
+        values.forEach((k, v) -> joiner.add(v.isEmpty() ? k : k + "=" + v));
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,139 @@
+package kchat.protocol;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import kchat.model.Message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON text codec for {@link Message} built on Jackson's streaming API instead of data binding.
+ * Produces the same wire format as {@code ObjectMapper.writeValueAsString(message)}; unknown
+ * fields are skipped on read so newer peers can add fields without breaking older ones.
+ */
+public final class MessageCodec {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final ThreadLocal<ByteArrayBuilder> BUFFERS = ThreadLocal.withInitial(() -> new ByteArrayBuilder(512));
+    private static final ThreadLocal<Message> SCRATCH = ThreadLocal.withInitial(() -> new Message(null, null, 0L));
+
+    static final String SENDER = "sender";
+    static final String CONTENT = "content";
+    static final String TIMESTAMP = "timestamp";
+    static final String ROOM = "room";
+    static final String SEQ = "seq";
+
+    private MessageCodec() {}
+
+    public static Message read(String json) throws IOException {
+        return readInto(new Message(null, null, 0L), json);
+    }
+
+    public static Message read(byte[] json, int offset, int length) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json, offset, length)) {
+            return parse(parser, new Message(null, null, 0L));
+        }
+    }
+
+    /** Parses into {@code target}, overwriting all of its fields, and returns it. */
+    public static Message readInto(Message target, String json) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            return parse(parser, target);
+        }
+    }
+
+    /**
+     * A per-thread Message for callers that parse, act and forget within one call.
+     * It is overwritten by the next {@link #readInto} on the same thread, so it must not escape.
+     */
+    public static Message scratch() {
+        return SCRATCH.get();
+    }
+
+    /** Parses a JSON array of messages, the text form of a {@link FrameBatch}. */
+    public static List<Message> readBatch(String json) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected a JSON array");
+            }
+            List<Message> messages = new ArrayList<>();
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                messages.add(parseFields(parser, new Message(null, null, 0L)));
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new JsonParseException(parser, "Unterminated JSON array");
+            }
+            return messages;
+        }
+    }
+
+    private static Message parse(JsonParser p, Message target) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(p, "Expected a JSON object");
+        }
+        return parseFields(p, target);
+    }
+
+    /** Reads the fields of the object whose START_OBJECT was just consumed. */
+    private static Message parseFields(JsonParser p, Message target) throws IOException {
+        target.setSender(null);
+        target.setContent(null);
+        target.setTimestamp(0L);
+        target.setRoom(null);
+        target.setSeq(0L);
+        JsonToken token;
+        while ((token = p.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (name) {
+                case SENDER: target.setSender(text(p, value)); break;
+                case CONTENT: target.setContent(text(p, value)); break;
+                case ROOM: target.setRoom(text(p, value)); break;
+                case TIMESTAMP: target.setTimestamp(value == JsonToken.VALUE_NULL ? 0L : p.getValueAsLong()); break;
+                case SEQ: target.setSeq(value == JsonToken.VALUE_NULL ? 0L : p.getValueAsLong()); break;
+                default: p.skipChildren(); break;
+            }
+        }
+        if (token != JsonToken.END_OBJECT) {
+            throw new JsonParseException(p, "Unterminated JSON object");
+        }
+        return target;
+    }
+
+    private static String text(JsonParser p, JsonToken value) throws IOException {
+        return value == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+    }
+
+    /** Encodes to UTF-8 JSON through a per-thread reusable buffer. */
+    public static byte[] toBytes(Message message) throws IOException {
+        ByteArrayBuilder buffer = BUFFERS.get();
+        buffer.reset();
+        write(message, buffer);
+        return buffer.toByteArray();
+    }
+
+    public static String toJson(Message message) throws IOException {
+        return new String(toBytes(message), StandardCharsets.UTF_8);
+    }
+
+    private static void write(Message message, OutputStream out) throws IOException {
+        try (JsonGenerator g = FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            g.writeStartObject();
+            g.writeStringField(SENDER, message.getSender());
+            g.writeStringField(CONTENT, message.getContent());
+            g.writeNumberField(TIMESTAMP, message.getTimestamp());
+            if (message.getRoom() != null) g.writeStringField(ROOM, message.getRoom());
+            if (message.getSeq() != 0L) g.writeNumberField(SEQ, message.getSeq());
+            g.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package kchat.protocol;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * RFC 7692 permessage-deflate for chat frames. The server always compresses without context
+ * takeover ({@code server_no_context_takeover}), so a message compresses to the same bytes for
+ * every connection: a broadcast is deflated once with {@link #compress} and the result shared by
+ * all recipients that negotiated the extension, which send it as is. Payloads below the
+ * threshold are sent uncompressed, where the deflate block overhead would outweigh the saving.
+ */
+public final class PerMessageDeflate {
+    /** Default smallest payload worth compressing, in bytes. */
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    private static final byte[] SYNC_FLUSH_TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<byte[]> CHUNKS = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    private PerMessageDeflate() {}
+
+    /**
+     * The extension as registered with Java-WebSocket. Frames that already carry RSV1 were
+     * compressed by {@link #compress} and pass through untouched; everything else goes through
+     * the stock extension, after copying payloads it cannot read in place (read-only or direct
+     * buffers, slices) onto the heap. The stock compressor must not keep context either: its
+     * window would otherwise miss the shared frames sent in between.
+     */
+    public static final class Extension extends PerMessageDeflateExtension {
+        public Extension(int threshold) {
+            setThreshold(threshold);
+            setServerNoContextTakeover(true);
+        }
+
+        @Override
+        public void encodeFrame(Framedata frame) {
+            if (!(frame instanceof DataFrame) || frame.isRSV1()) return;
+            ByteBuffer payload = frame.getPayloadData();
+            if (payload.remaining() < getThreshold()) return;
+            if (!payload.hasArray() || payload.isReadOnly() || payload.arrayOffset() != 0
+                || payload.position() != 0 || payload.limit() != payload.array().length) {
+                byte[] copy = new byte[payload.remaining()];
+                payload.duplicate().get(copy);
+                ((DataFrame) frame).setPayload(ByteBuffer.wrap(copy));
+            }
+            super.encodeFrame(frame);
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            return new Extension(getThreshold());
+        }
+    }
+
+    /** A draft offering (as client) or accepting (as server) permessage-deflate; peers without it still connect. */
+    public static Draft draft(int threshold) {
+        return new Draft_6455(new Extension(threshold));
+    }
+
+    /** The threshold negotiated on {@code conn}, or -1 when the peer did not agree to permessage-deflate. */
+    public static int negotiatedThreshold(WebSocket conn) {
+        if (conn != null && conn.getDraft() instanceof Draft_6455 draft && draft.getExtension() instanceof Extension extension) {
+            return extension.getThreshold();
+        }
+        return -1;
+    }
+
+    /**
+     * Compresses one message payload as a permessage-deflate frame body: raw deflate, sync
+     * flushed, with the trailing {@code 00 00 FF FF} removed (RFC 7692 section 7.2.1). Each call
+     * starts from an empty window, matching {@code server_no_context_takeover}.
+     */
+    public static byte[] compress(ByteBuffer payload) {
+        Deflater deflater = DEFLATERS.get();
+        byte[] chunk = CHUNKS.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, payload.remaining() / 2));
+        try {
+            deflater.setInput(payload.duplicate());
+            int n;
+            do {
+                n = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                out.write(chunk, 0, n);
+            } while (n == chunk.length || !deflater.needsInput());
+        } finally {
+            deflater.reset();
+        }
+        byte[] compressed = out.toByteArray();
+        int length = compressed.length;
+        if (endsWithSyncFlushTail(compressed)) length -= SYNC_FLUSH_TAIL.length;
+        return length == compressed.length ? compressed : Arrays.copyOf(compressed, length);
+    }
+
+    private static boolean endsWithSyncFlushTail(byte[] bytes) {
+        if (bytes.length < SYNC_FLUSH_TAIL.length) return false;
+        for (int i = 0; i < SYNC_FLUSH_TAIL.length; i++) {
+            if (bytes[bytes.length - SYNC_FLUSH_TAIL.length + i] != SYNC_FLUSH_TAIL[i]) return false;
+        }
+        return true;
+    }
+}
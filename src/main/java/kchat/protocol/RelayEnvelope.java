@@ -0,0 +1,170 @@
+package kchat.protocol;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The routing fields of a JSON {@code Message} frame, scanned without binding the message.
+ * The content is never materialized: only a short head is kept so control prefixes can be
+ * recognised. {@link #rewrite} splices a new timestamp (and a room and history sequence number,
+ * if needed) into the original text, so relayed chat keeps its exact bytes.
+ */
+public final class RelayEnvelope {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    /** Long enough for every control prefix the server understands. */
+    private static final int HEAD_LENGTH = 16;
+
+    private final String json;
+    private final String sender;
+    private final String room;
+    private final String contentHead;
+    private final int end;         // index of the closing brace
+    private final int fields;
+    private final int tsStart, tsEnd;     // timestamp value span, -1 if absent
+    private final int roomStart, roomEnd; // span of a null room value, -1 if absent or set
+
+    private RelayEnvelope(String json, String sender, String room, String contentHead, int end, int fields,
+                          int tsStart, int tsEnd, int roomStart, int roomEnd) {
+        this.json = json;
+        this.sender = sender;
+        this.room = room;
+        this.contentHead = contentHead;
+        this.end = end;
+        this.fields = fields;
+        this.tsStart = tsStart;
+        this.tsEnd = tsEnd;
+        this.roomStart = roomStart;
+        this.roomEnd = roomEnd;
+    }
+
+    /**
+     * Scans a JSON frame. Returns null when the frame is valid JSON but needs full binding to be
+     * relayed faithfully (unknown or repeated fields, non-string values, trailing content).
+     * Throws on malformed JSON.
+     */
+    public static RelayEnvelope scan(String json) throws IOException {
+        try (JsonParser p = FACTORY.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return null;
+            String sender = null, room = null, contentHead = null;
+            int tsStart = -1, tsEnd = -1, roomStart = -1, roomEnd = -1;
+            int fields = 0, seen = 0;
+            JsonToken token;
+            while ((token = p.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                JsonToken value = p.nextToken();
+                int bit;
+                switch (name) {
+                    case MessageCodec.SENDER:
+                        bit = 1;
+                        if (!isText(value)) return null;
+                        sender = value == JsonToken.VALUE_NULL ? null : p.getText();
+                        break;
+                    case MessageCodec.CONTENT:
+                        bit = 2;
+                        if (!isText(value)) return null;
+                        if (value == JsonToken.VALUE_STRING) {
+                            contentHead = new String(p.getTextCharacters(), p.getTextOffset(), Math.min(HEAD_LENGTH, p.getTextLength()));
+                        }
+                        break;
+                    case MessageCodec.TIMESTAMP:
+                        bit = 4;
+                        if (value != JsonToken.VALUE_NUMBER_INT && value != JsonToken.VALUE_NULL) return null;
+                        tsStart = (int) p.currentTokenLocation().getCharOffset();
+                        tsEnd = valueEnd(json, tsStart);
+                        break;
+                    case MessageCodec.ROOM:
+                        bit = 8;
+                        if (!isText(value)) return null;
+                        if (value == JsonToken.VALUE_NULL) {
+                            roomStart = (int) p.currentTokenLocation().getCharOffset();
+                            roomEnd = valueEnd(json, roomStart);
+                        } else {
+                            room = p.getText();
+                        }
+                        break;
+                    default:
+                        return null;
+                }
+                if ((seen & bit) != 0) return null;
+                seen |= bit;
+                fields++;
+            }
+            if (token != JsonToken.END_OBJECT) return null;
+            int end = (int) p.currentTokenLocation().getCharOffset();
+            if (p.nextToken() != null) return null;
+            return new RelayEnvelope(json, sender, room, contentHead, end, fields, tsStart, tsEnd, roomStart, roomEnd);
+        }
+    }
+
+    private static boolean isText(JsonToken value) {
+        return value == JsonToken.VALUE_STRING || value == JsonToken.VALUE_NULL;
+    }
+
+    /** End of a number or {@code null} literal starting at {@code start}. */
+    private static int valueEnd(String json, int start) {
+        int i = start;
+        while (i < json.length()) {
+            char c = json.charAt(i);
+            if ((c >= '0' && c <= '9') || c == '-' || (c >= 'a' && c <= 'z')) i++;
+            else break;
+        }
+        return i;
+    }
+
+    public String getSender() { return sender; }
+
+    /** The room named by the frame, or null if it has none. */
+    public String getRoom() { return room; }
+
+    public boolean contentStartsWith(String prefix) {
+        return contentHead != null && contentHead.startsWith(prefix);
+    }
+
+    public byte[] rewrite(long timestamp, String defaultRoom) {
+        return rewrite(timestamp, defaultRoom, 0L);
+    }
+
+    /**
+     * The original frame as UTF-8 with its timestamp replaced by {@code timestamp}, {@code defaultRoom}
+     * filled in if the frame named no room, and {@code seq} added unless it is 0. Everything else
+     * is left untouched. (Frames that carry their own seq are never scanned, see {@link #scan}.)
+     */
+    public byte[] rewrite(long timestamp, String defaultRoom, long seq) {
+        StringBuilder sb = new StringBuilder(json.length() + 48);
+        String ts = Long.toString(timestamp);
+        String quotedRoom = room == null ? '"' + new String(JsonStringEncoder.getInstance().quoteAsString(defaultRoom)) + '"' : null;
+        int pos = 0;
+        // Replace spans in text order, then append whatever fields were missing
+        boolean tsFirst = tsStart >= 0 && (roomStart < 0 || tsStart < roomStart);
+        if (tsFirst) {
+            sb.append(json, pos, tsStart).append(ts);
+            pos = tsEnd;
+        }
+        if (roomStart >= 0) {
+            sb.append(json, pos, roomStart).append(quotedRoom);
+            pos = roomEnd;
+        }
+        if (tsStart >= 0 && !tsFirst) {
+            sb.append(json, pos, tsStart).append(ts);
+            pos = tsEnd;
+        }
+        sb.append(json, pos, end);
+        int count = fields;
+        if (tsStart < 0) {
+            sb.append(count++ > 0 ? "," : "").append('"').append(MessageCodec.TIMESTAMP).append("\":").append(ts);
+        }
+        if (room == null && roomStart < 0) {
+            sb.append(count++ > 0 ? "," : "").append('"').append(MessageCodec.ROOM).append("\":").append(quotedRoom);
+        }
+        if (seq != 0L) {
+            sb.append(count > 0 ? "," : "").append('"').append(MessageCodec.SEQ).append("\":").append(seq);
+        }
+        sb.append(json, end, json.length());
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
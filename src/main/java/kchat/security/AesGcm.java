@@ -0,0 +1,120 @@
+package kchat.security;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * AES-256-GCM with a 96-bit nonce prepended to the ciphertext ({@code iv || ct || tag}); the
+ * nonce is random unless the caller supplies a {@link NonceSource}.
+ * {@code Cipher.getInstance} is a provider lookup plus a fresh object, so each thread keeps one
+ * Cipher and re-initializes it for every operation (GCM requires a new nonce per init anyway).
+ * Ciphertext is written straight into its final array or buffer, with no intermediate copies.
+ */
+public final class AesGcm {
+    public static final int IV_LENGTH = 12;   // GCM 96-bit nonce
+    public static final int TAG_BITS = 128;
+    public static final int TAG_LENGTH = TAG_BITS / 8;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    /** Random nonces: stateless, but one SecureRandom draw per message. */
+    static final NonceSource RANDOM_NONCES = (dest, offset) -> {
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, dest, offset, IV_LENGTH);
+    };
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+        }
+    });
+
+    private AesGcm() {}
+
+    /** This thread's Cipher; callers must {@code init} it before every use. */
+    static Cipher cipher() {
+        return CIPHERS.get();
+    }
+
+    /** Size of {@link #seal} output for {@code plaintextLength} input bytes. */
+    public static int sealedLength(int plaintextLength) {
+        return IV_LENGTH + plaintextLength + TAG_LENGTH;
+    }
+
+    public static byte[] seal(SecretKey key, byte[] plaintext) throws GeneralSecurityException {
+        return seal(key, plaintext, 0, plaintext.length);
+    }
+
+    public static byte[] seal(SecretKey key, byte[] plaintext, int offset, int length) throws GeneralSecurityException {
+        return seal(key, RANDOM_NONCES, plaintext, offset, length);
+    }
+
+    /** As {@link #seal(SecretKey, byte[], int, int)}, authenticating {@code aad} too; {@link #open} must be given the same bytes. */
+    public static byte[] seal(SecretKey key, byte[] plaintext, int offset, int length, byte[] aad) throws GeneralSecurityException {
+        return seal(key, RANDOM_NONCES, plaintext, offset, length, aad);
+    }
+
+    static byte[] seal(SecretKey key, NonceSource nonces, byte[] plaintext, int offset, int length) throws GeneralSecurityException {
+        return seal(key, nonces, plaintext, offset, length, null);
+    }
+
+    private static byte[] seal(SecretKey key, NonceSource nonces, byte[] plaintext, int offset, int length, byte[] aad) throws GeneralSecurityException {
+        byte[] out = new byte[sealedLength(length)];
+        nonces.next(out, 0);
+        Cipher cipher = cipher();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, out, 0, IV_LENGTH));
+        if (aad != null) cipher.updateAAD(aad);
+        cipher.doFinal(plaintext, offset, length, out, IV_LENGTH);
+        return out;
+    }
+
+    /** Decrypts {@code iv || ct || tag}; throws (e.g. AEADBadTagException) if it was tampered with. */
+    public static byte[] open(SecretKey key, byte[] sealed, int offset, int length) throws GeneralSecurityException {
+        return open(key, sealed, offset, length, null);
+    }
+
+    /** Decrypts what {@link #seal(SecretKey, byte[], int, int, byte[])} sealed with the same {@code aad}. */
+    public static byte[] open(SecretKey key, byte[] sealed, int offset, int length, byte[] aad) throws GeneralSecurityException {
+        if (length < IV_LENGTH + TAG_LENGTH) throw new GeneralSecurityException("Ciphertext too short");
+        Cipher cipher = cipher();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, offset, IV_LENGTH));
+        if (aad != null) cipher.updateAAD(aad);
+        return cipher.doFinal(sealed, offset + IV_LENGTH, length - IV_LENGTH);
+    }
+
+    /**
+     * Encrypts the remaining bytes of {@code plaintext} into {@code out} as {@code iv || ct || tag}
+     * and returns the number of bytes written. Both buffers may be direct.
+     */
+    public static int seal(SecretKey key, ByteBuffer plaintext, ByteBuffer out) throws GeneralSecurityException {
+        return seal(key, RANDOM_NONCES, plaintext, out);
+    }
+
+    static int seal(SecretKey key, NonceSource nonces, ByteBuffer plaintext, ByteBuffer out) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        nonces.next(iv, 0);
+        int start = out.position();
+        out.put(iv);
+        Cipher cipher = cipher();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.doFinal(plaintext, out);
+        return out.position() - start;
+    }
+
+    /** Decrypts the remaining {@code iv || ct || tag} bytes of {@code sealed} into {@code out}. */
+    public static int open(SecretKey key, ByteBuffer sealed, ByteBuffer out) throws GeneralSecurityException {
+        if (sealed.remaining() < IV_LENGTH + TAG_LENGTH) throw new GeneralSecurityException("Ciphertext too short");
+        byte[] iv = new byte[IV_LENGTH];
+        sealed.get(iv);
+        int start = out.position();
+        Cipher cipher = cipher();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.doFinal(sealed, out);
+        return out.position() - start;
+    }
+}
@@ -0,0 +1,73 @@
+package kchat.security;
+
+import kchat.logging.Log;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Deterministic GCM nonces (NIST SP 800-38D, 8.2.1): a random 64-bit prefix that identifies
+ * this sender, followed by a 32-bit big-endian counter. Only the prefix comes from
+ * {@link SecureRandom}; a nonce is one lock-free increment. Prefixes are 64 bits so that many
+ * senders sharing a group key do not collide. Before the counter field could wrap, the
+ * context moves to a freshly drawn prefix, so no (prefix, counter) pair is ever reused.
+ */
+final class CounterNonces implements NonceSource {
+    private static final Log LOG = Log.get(CounterNonces.class);
+    private static final SecureRandom RANDOM = new SecureRandom();
+    static final long COUNTER_LIMIT = 1L << 32;
+
+    /** One prefix and the counter running under it. */
+    private record Window(long prefix, AtomicLong counter) {
+        static Window fresh() {
+            return new Window(RANDOM.nextLong(), new AtomicLong());
+        }
+    }
+
+    private final long limit;
+    private final AtomicReference<Window> window = new AtomicReference<>(Window.fresh());
+    private final AtomicLong rollovers = new AtomicLong();
+
+    CounterNonces() {
+        this(COUNTER_LIMIT);
+    }
+
+    /** {@code limit} nonces per prefix; at most {@link #COUNTER_LIMIT}. Smaller values are for tests. */
+    CounterNonces(long limit) {
+        this.limit = Math.min(Math.max(1, limit), COUNTER_LIMIT);
+    }
+
+    @Override
+    public void next(byte[] dest, int offset) {
+        while (true) {
+            Window w = window.get();
+            long n = w.counter.getAndIncrement();
+            if (n < limit) {
+                write(w.prefix, (int) n, dest, offset);
+                return;
+            }
+            // Counter space used up: the thread that wins the swap draws the new prefix
+            if (window.compareAndSet(w, Window.fresh())) {
+                long count = rollovers.incrementAndGet();
+                LOG.debug("Nonce counter exhausted; rolled over to a new prefix ({} so far)", count);
+            }
+        }
+    }
+
+    /** Times the counter was exhausted and a new prefix drawn. */
+    long getRollovers() {
+        return rollovers.get();
+    }
+
+    private static void write(long prefix, int counter, byte[] dest, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            dest[offset + i] = (byte) prefix;
+            prefix >>>= 8;
+        }
+        dest[offset + 8] = (byte) (counter >>> 24);
+        dest[offset + 9] = (byte) (counter >>> 16);
+        dest[offset + 10] = (byte) (counter >>> 8);
+        dest[offset + 11] = (byte) counter;
+    }
+}
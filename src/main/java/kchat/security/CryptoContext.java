@@ -0,0 +1,235 @@
+package kchat.security;
+
+import kchat.logging.Log;
+
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The message key of one connection (or anything else that needs its own key), with the
+ * {@code ENC:} string format and the raw byte[]/ByteBuffer APIs on top of {@link AesGcm}.
+ * The key state is a single immutable snapshot swapped atomically, so a context can be used
+ * from many threads without locking, and any number of contexts can live in one JVM.
+ */
+public final class CryptoContext {
+    private static final Log LOG = Log.get(CryptoContext.class);
+    static final String ENC_PREFIX = "ENC:";
+    private static final int ITERATIONS = 65_536;
+    private static final int KEY_LENGTH = 256; // bits
+    private static final byte[] SALT = "KchatFixedSaltV1".getBytes(StandardCharsets.UTF_8);
+
+    /** How nonces are made: a SecureRandom draw per message, or a per-context prefix plus counter. */
+    public enum NonceMode {
+        RANDOM,
+        COUNTER;
+
+        /** {@code random} or {@code counter} (case-insensitive); anything else is RANDOM. */
+        public static NonceMode parse(String value) {
+            return "counter".equalsIgnoreCase(value) ? COUNTER : RANDOM;
+        }
+    }
+
+    /**
+     * Either a raw key, or a passphrase whose key is derived on first use. After a
+     * {@link #rotateKey rotation} the previous key stays usable for decryption until
+     * {@code previousUntil}.
+     */
+    private record KeyState(String passphrase, SecretKey key, int epoch,
+                            SecretKey previous, int previousEpoch, long previousUntil) {
+        static final KeyState NONE = new KeyState(null, null, 0, null, 0, 0L);
+
+        KeyState withKey(SecretKey derived) {
+            return new KeyState(passphrase, derived, epoch, previous, previousEpoch, previousUntil);
+        }
+
+        /** The current key, or the previous one while its grace window is open; null if neither. */
+        SecretKey keyFor(int wanted, long now) {
+            if (wanted == epoch) return key;
+            return previous != null && wanted == previousEpoch && now < previousUntil ? previous : null;
+        }
+
+        SecretKey previousIfValid(long now) {
+            return now < previousUntil ? previous : null;
+        }
+    }
+
+    private final AtomicReference<KeyState> state = new AtomicReference<>(KeyState.NONE);
+    private volatile NonceSource nonces = AesGcm.RANDOM_NONCES;
+
+    public CryptoContext() {}
+
+    public static CryptoContext withRawKey(byte[] keyBytes) {
+        CryptoContext context = new CryptoContext();
+        context.setRawKey(keyBytes);
+        return context;
+    }
+
+    /**
+     * Switching to COUNTER starts a fresh counter under a new random prefix. Counter nonces stay
+     * unique across key changes too, since the counter is never reset.
+     */
+    public void setNonceMode(NonceMode mode) {
+        nonces = mode == NonceMode.COUNTER ? new CounterNonces() : AesGcm.RANDOM_NONCES;
+    }
+
+    public NonceMode getNonceMode() {
+        return nonces instanceof CounterNonces ? NonceMode.COUNTER : NonceMode.RANDOM;
+    }
+
+    /** For tests: counter nonces with a small per-prefix limit, to exercise the rollover. */
+    void useCounterNonces(CounterNonces counterNonces) {
+        nonces = counterNonces;
+    }
+
+    public void setPassphrase(String passphrase) {
+        state.set(passphrase == null || passphrase.isEmpty() ? KeyState.NONE : new KeyState(passphrase, null, 0, null, 0, 0L));
+    }
+
+    public void setRawKey(byte[] keyBytes) {
+        setRawKey(keyBytes, 0);
+    }
+
+    /** Installs {@code keyBytes} as key {@code epoch}, forgetting any earlier key. */
+    public void setRawKey(byte[] keyBytes, int epoch) {
+        state.set(keyBytes == null || keyBytes.length == 0
+            ? KeyState.NONE
+            : new KeyState(null, new SecretKeySpec(keyBytes, "AES"), epoch, null, 0, 0L));
+    }
+
+    /**
+     * Switches encryption to {@code keyBytes} as key {@code epoch}, while messages sealed under
+     * the key it replaces still decrypt for {@code graceMillis}. Returns false, changing
+     * nothing, if {@code epoch} is not newer than the current one (e.g. a duplicate rekey).
+     */
+    public boolean rotateKey(byte[] keyBytes, int epoch, long graceMillis) {
+        SecretKey next = new SecretKeySpec(keyBytes, "AES");
+        long until = System.currentTimeMillis() + Math.max(0L, graceMillis);
+        while (true) {
+            KeyState s = state.get();
+            if (s.key != null && epoch <= s.epoch) return false;
+            KeyState rotated = new KeyState(null, next, epoch, s.key, s.epoch, s.key == null ? 0L : until);
+            if (state.compareAndSet(s, rotated)) return true;
+        }
+    }
+
+    /** Epoch of the key new messages are encrypted with (0 unless the server has rotated keys). */
+    public int getKeyEpoch() {
+        return state.get().epoch;
+    }
+
+    public void clear() {
+        state.set(KeyState.NONE);
+    }
+
+    public boolean isEnabled() {
+        KeyState s = state.get();
+        return s.key != null || s.passphrase != null;
+    }
+
+    SecretKey key() throws GeneralSecurityException {
+        return ready().key;
+    }
+
+    /** The current state with its key present, deriving a passphrase key if needed. */
+    private KeyState ready() throws GeneralSecurityException {
+        KeyState s = state.get();
+        if (s.key != null) return s;
+        if (s.passphrase == null) throw new IllegalStateException("No key/passphrase set");
+        // Two threads may both derive the same key; only the first result is kept
+        KeyState derived = s.withKey(derive(s.passphrase));
+        return state.compareAndSet(s, derived) ? derived : ready();
+    }
+
+    private static SecretKey derive(String passphrase) throws GeneralSecurityException {
+        KeySpec spec = new PBEKeySpec(passphrase.toCharArray(), SALT, ITERATIONS, KEY_LENGTH);
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        return new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+    }
+
+    /**
+     * {@code ENC:<base64(iv || ct || tag)>}, with the key epoch as {@code ENC:<epoch>:<base64>} once
+     * keys have been rotated; or {@code plaintext} unchanged if no key is set or encryption fails.
+     */
+    public String encrypt(String plaintext) {
+        if (plaintext == null || plaintext.isEmpty() || !isEnabled()) return plaintext;
+        try {
+            KeyState s = ready();
+            byte[] bytes = plaintext.getBytes(StandardCharsets.UTF_8);
+            String sealed = Base64.getEncoder().encodeToString(AesGcm.seal(s.key, nonces, bytes, 0, bytes.length));
+            return s.epoch == 0 ? ENC_PREFIX + sealed : ENC_PREFIX + s.epoch + ":" + sealed;
+        } catch (Exception e) {
+            LOG.warn("Encryption failed: {}", e.getMessage());
+            return plaintext;
+        }
+    }
+
+    /**
+     * Reverses {@link #encrypt(String)}, using the key of the message's epoch (the previous key
+     * only within its grace window). Untagged ciphertext is tried with the current key, then the
+     * previous one. Anything that cannot be decrypted comes back unchanged.
+     */
+    public String decrypt(String maybeEncrypted) {
+        if (maybeEncrypted == null || !maybeEncrypted.startsWith(ENC_PREFIX) || !isEnabled()) {
+            return maybeEncrypted;
+        }
+        try {
+            KeyState s = ready();
+            long now = System.currentTimeMillis();
+            int sep = maybeEncrypted.indexOf(':', ENC_PREFIX.length()); // ':' is not in the Base64 alphabet
+            byte[] all = Base64.getDecoder().decode(maybeEncrypted.substring(sep < 0 ? ENC_PREFIX.length() : sep + 1));
+            if (all.length <= AesGcm.IV_LENGTH) return maybeEncrypted;
+            if (sep >= 0) {
+                int epoch = Integer.parseInt(maybeEncrypted, ENC_PREFIX.length(), sep, 10);
+                SecretKey key = s.keyFor(epoch, now);
+                if (key == null) {
+                    LOG.warn("No key for epoch {} (current {})", epoch, s.epoch);
+                    return maybeEncrypted;
+                }
+                return new String(AesGcm.open(key, all, 0, all.length), StandardCharsets.UTF_8);
+            }
+            try {
+                return new String(AesGcm.open(s.key, all, 0, all.length), StandardCharsets.UTF_8);
+            } catch (GeneralSecurityException e) {
+                SecretKey previous = s.previousIfValid(now);
+                if (previous == null) throw e;
+                return new String(AesGcm.open(previous, all, 0, all.length), StandardCharsets.UTF_8);
+            }
+        } catch (Exception e) {
+            LOG.warn("Decryption failed: {}", e.getMessage());
+            return maybeEncrypted;
+        }
+    }
+
+    /** Encrypts raw bytes to {@code iv || ct || tag}, skipping the Base64/String round trip. */
+    public byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+        return AesGcm.seal(key(), nonces, plaintext, 0, plaintext.length);
+    }
+
+    public byte[] decrypt(byte[] sealed, int offset, int length) throws GeneralSecurityException {
+        return AesGcm.open(key(), sealed, offset, length);
+    }
+
+    /** Decrypts with the key of {@code epoch}; fails if that key is unknown or past its grace window. */
+    public byte[] decrypt(int epoch, byte[] sealed, int offset, int length) throws GeneralSecurityException {
+        SecretKey key = ready().keyFor(epoch, System.currentTimeMillis());
+        if (key == null) throw new GeneralSecurityException("No key for epoch " + epoch);
+        return AesGcm.open(key, sealed, offset, length);
+    }
+
+    /** Encrypts the remaining bytes of {@code plaintext} into {@code out}; returns the bytes written. */
+    public int encrypt(ByteBuffer plaintext, ByteBuffer out) throws GeneralSecurityException {
+        return AesGcm.seal(key(), nonces, plaintext, out);
+    }
+
+    public int decrypt(ByteBuffer sealed, ByteBuffer out) throws GeneralSecurityException {
+        return AesGcm.open(key(), sealed, out);
+    }
+}
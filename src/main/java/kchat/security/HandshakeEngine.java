@@ -0,0 +1,42 @@
+package kchat.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.Base64;
+
+/**
+ * The server half of the HELLO/WELCOME key agreement. Everything that is the same for every
+ * client is computed once: the Base64 public key, the {@code WELCOME:<serverId>:<pubKey>:}
+ * prefix and the HKDF salt and info. Per handshake that leaves one X25519 agreement (with
+ * per-thread KeyFactory/KeyAgreement), one HKDF and the key wrap.
+ */
+public final class HandshakeEngine {
+    /** HKDF info for the key-wrap key; the salt is the server id. */
+    public static final byte[] KEY_WRAP_INFO = "kchat-handshake".getBytes(StandardCharsets.UTF_8);
+    public static final int KEY_WRAP_LENGTH = 32;
+
+    private final KeyPair keyPair;
+    private final String publicKeyB64;
+    private final String welcomePrefix;
+    private final Hkdf keyWrapKdf;
+
+    public HandshakeEngine(String serverId, KeyPair keyPair) {
+        this.keyPair = keyPair;
+        this.publicKeyB64 = Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
+        this.welcomePrefix = "WELCOME:" + serverId + ":" + publicKeyB64 + ":";
+        this.keyWrapKdf = new Hkdf(serverId.getBytes(StandardCharsets.UTF_8), KEY_WRAP_INFO);
+    }
+
+    public String getPublicKeyB64() { return publicKeyB64; }
+
+    /** The key-wrap key shared with the client that sent {@code clientPublic} (X.509 encoded). */
+    public byte[] keyWrapKey(byte[] clientPublic) {
+        byte[] shared = KeyExchangeUtil.deriveSharedSecret(keyPair.getPrivate(), clientPublic);
+        return keyWrapKdf.derive(shared, KEY_WRAP_LENGTH);
+    }
+
+    /** {@code WELCOME:<serverId>:<pubKey>:<wrappedGroupKey>}, to which accepted options may be appended. */
+    public String welcome(String wrappedGroupKeyB64) {
+        return welcomePrefix.concat(wrappedGroupKeyB64);
+    }
+}
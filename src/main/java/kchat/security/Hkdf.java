@@ -0,0 +1,59 @@
+package kchat.security;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+
+/**
+ * HKDF-SHA256 (RFC 5869) with a fixed salt and info, reusable across derivations. The salt
+ * key is built once, and each thread keeps one {@link Mac}; expand keys that Mac once and
+ * relies on {@code doFinal} resetting it, instead of a new key spec per output block.
+ */
+public final class Hkdf {
+    private static final String HMAC_ALG = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+    private static final ThreadLocal<Mac> MACS = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(HMAC_ALG);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC_ALG + " is not available", e);
+        }
+    });
+
+    private final SecretKeySpec salt;
+    private final byte[] info;
+
+    public Hkdf(byte[] salt, byte[] info) {
+        // An empty salt means HashLen zero bytes (RFC 5869, 2.2); SecretKeySpec rejects empty keys
+        this.salt = new SecretKeySpec(salt.length == 0 ? new byte[HASH_LENGTH] : salt.clone(), HMAC_ALG);
+        this.info = info.clone();
+    }
+
+    /** {@code length} bytes of output keying material from {@code ikm}. */
+    public byte[] derive(byte[] ikm, int length) {
+        if (length > 255 * HASH_LENGTH) throw new IllegalArgumentException("HKDF output too long: " + length);
+        Mac mac = MACS.get();
+        try {
+            mac.init(salt);
+            byte[] prk = mac.doFinal(ikm);
+            mac.init(new SecretKeySpec(prk, HMAC_ALG));
+            byte[] okm = new byte[length];
+            byte[] block = new byte[HASH_LENGTH];
+            int pos = 0;
+            for (int counter = 1; pos < length; counter++) {
+                if (counter > 1) mac.update(block);
+                mac.update(info);
+                mac.update((byte) counter);
+                mac.doFinal(block, 0);
+                int n = Math.min(HASH_LENGTH, length - pos);
+                System.arraycopy(block, 0, okm, pos, n);
+                pos += n;
+            }
+            return okm;
+        } catch (InvalidKeyException | ShortBufferException e) {
+            throw new IllegalStateException("HKDF failure", e);
+        }
+    }
+}
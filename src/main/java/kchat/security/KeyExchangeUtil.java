@@ -1,7 +1,5 @@
 package kchat.security;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.security.*;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
@@ -9,7 +7,21 @@ import javax.crypto.KeyAgreement;
 
 public final class KeyExchangeUtil {
     private static final String CURVE = "X25519";
-    private static final String HMAC_ALG = "HmacSHA256";
+    // Provider lookups are not free; each thread keeps its own (neither class is thread-safe)
+    private static final ThreadLocal<KeyFactory> KEY_FACTORIES = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance(CURVE);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(CURVE + " is not available", e);
+        }
+    });
+    private static final ThreadLocal<KeyAgreement> AGREEMENTS = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyAgreement.getInstance(CURVE);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(CURVE + " is not available", e);
+        }
+    });
 
     private KeyExchangeUtil() {}
 
@@ -24,9 +36,8 @@ public final class KeyExchangeUtil {
 
     public static byte[] deriveSharedSecret(PrivateKey privateKey, byte[] peerPublic) {
         try {
-            KeyFactory kf = KeyFactory.getInstance(CURVE);
-            PublicKey peerPub = kf.generatePublic(new X509EncodedKeySpec(peerPublic));
-            KeyAgreement ka = KeyAgreement.getInstance(CURVE);
+            PublicKey peerPub = KEY_FACTORIES.get().generatePublic(new X509EncodedKeySpec(peerPublic));
+            KeyAgreement ka = AGREEMENTS.get();
             ka.init(privateKey);
             ka.doPhase(peerPub, true);
             return ka.generateSecret(); // 32 bytes
@@ -35,27 +46,10 @@ public final class KeyExchangeUtil {
         }
     }
 
+    /** One-shot HKDF-SHA256; for a fixed salt and info, keep an {@link Hkdf} instead. */
     public static byte[] hkdf(byte[] ikm, byte[] salt, byte[] info, int length) {
         try {
-            Mac mac = Mac.getInstance(HMAC_ALG);
-            mac.init(new SecretKeySpec(salt, HMAC_ALG));
-            byte[] prk = mac.doFinal(ikm);
-            byte[] okm = new byte[length];
-            byte[] prev = new byte[0];
-            int pos = 0;
-            int counter = 1;
-            while (pos < length) {
-                mac.init(new SecretKeySpec(prk, HMAC_ALG));
-                mac.update(prev);
-                mac.update(info);
-                mac.update((byte) counter);
-                prev = mac.doFinal();
-                int toCopy = Math.min(prev.length, length - pos);
-                System.arraycopy(prev, 0, okm, pos, toCopy);
-                pos += toCopy;
-                counter++;
-            }
-            return okm;
+            return new Hkdf(salt, info).derive(ikm, length);
         } catch (Exception e) {
             throw new RuntimeException("HKDF failure", e);
         }
@@ -0,0 +1,7 @@
+package kchat.security;
+
+/** Produces the 96-bit GCM nonce for each encryption; every nonce must be unique per key. */
+interface NonceSource {
+    /** Writes {@link AesGcm#IV_LENGTH} fresh nonce bytes into {@code dest} at {@code offset}. */
+    void next(byte[] dest, int offset);
+}
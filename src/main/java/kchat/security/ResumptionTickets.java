@@ -0,0 +1,77 @@
+package kchat.security;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Server side of session resumption. A ticket is the client's handshake key-wrap key and an
+ * expiry, sealed under a key that exists only in this server process, so the server keeps no
+ * per-client state and a restart invalidates every ticket. Redeeming one is a single AES-GCM
+ * open instead of an X25519 key agreement plus HKDF.
+ */
+public final class ResumptionTickets {
+    private static final int KEY_BYTES = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKey ticketKey;
+    private final long lifetimeMillis;
+
+    public ResumptionTickets(long lifetimeMillis) {
+        this(lifetimeMillis, randomKey());
+    }
+
+    /**
+     * Tickets sealed under {@code ticketKey}. Servers that share the key (e.g. the nodes of a
+     * cluster) redeem each other's tickets, and tickets survive a restart.
+     */
+    public ResumptionTickets(long lifetimeMillis, byte[] ticketKey) {
+        if (ticketKey.length != KEY_BYTES) throw new IllegalArgumentException("Ticket key must be " + KEY_BYTES + " bytes");
+        this.ticketKey = new SecretKeySpec(ticketKey, "AES");
+        this.lifetimeMillis = lifetimeMillis;
+    }
+
+    private static byte[] randomKey() {
+        byte[] key = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    /** A ticket for a fresh handshake, valid for the configured lifetime. */
+    public String issue(byte[] keyWrapKey) throws GeneralSecurityException {
+        return issue(keyWrapKey, System.currentTimeMillis() + lifetimeMillis);
+    }
+
+    /**
+     * A ticket that expires at {@code expiresAt}. A resumed session is re-issued its original
+     * expiry, so a full key agreement still happens at least once per lifetime.
+     */
+    public String issue(byte[] keyWrapKey, long expiresAt) throws GeneralSecurityException {
+        byte[] plain = ByteBuffer.allocate(8 + KEY_BYTES).putLong(expiresAt).put(keyWrapKey, 0, KEY_BYTES).array();
+        return expiresAt + "." + ENCODER.encodeToString(AesGcm.seal(ticketKey, plain));
+    }
+
+    /** The key-wrap key and expiry inside {@code ticket}; null if it is forged, corrupt or expired. */
+    public Redeemed redeem(String ticket) {
+        if (ticket == null) return null;
+        int dot = ticket.indexOf('.');
+        if (dot < 0) return null;
+        try {
+            byte[] sealed = DECODER.decode(ticket.substring(dot + 1));
+            ByteBuffer plain = ByteBuffer.wrap(AesGcm.open(ticketKey, sealed, 0, sealed.length));
+            long expiresAt = plain.getLong();
+            if (plain.remaining() != KEY_BYTES || System.currentTimeMillis() >= expiresAt) return null;
+            byte[] keyWrapKey = new byte[KEY_BYTES];
+            plain.get(keyWrapKey);
+            return new Redeemed(keyWrapKey, expiresAt);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public record Redeemed(byte[] keyWrapKey, long expiresAt) {}
+}
@@ -1,5 +1,7 @@
 package kchat.security;
 
+import kchat.logging.Log;
+
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
@@ -8,6 +10,8 @@ import java.security.KeyStore;
 import java.security.SecureRandom;
 
 public final class SecurityConfig {
+    private static final Log LOG = Log.get(SecurityConfig.class);
+
     private SecurityConfig() {}
 
     public static SSLContext loadServerSslContextIfEnabled() {
@@ -17,7 +21,7 @@ public final class SecurityConfig {
         String ksPath = System.getProperty("kchat.keystore");
         String ksPass = System.getProperty("kchat.keystorePassword");
         if (ksPath == null || ksPass == null) {
-            System.err.println("[SecurityConfig] SSL enabled but keystore or password not provided. Continuing without TLS.");
+            LOG.warn("SSL enabled but keystore or password not provided. Continuing without TLS.");
             return null;
         }
         try (FileInputStream fis = new FileInputStream(ksPath)) {
@@ -33,10 +37,10 @@ public final class SecurityConfig {
 
             SSLContext ctx = SSLContext.getInstance("TLS");
             ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), new SecureRandom());
-            System.out.println("[SecurityConfig] TLS enabled (server)");
+            LOG.info("TLS enabled (server)");
             return ctx;
         } catch (Exception e) {
-            System.err.println("[SecurityConfig] Failed to initialize SSLContext: " + e.getMessage());
+            LOG.error("Failed to initialize SSLContext: {}", e.getMessage());
             return null;
         }
     }
@@ -48,7 +52,7 @@ public final class SecurityConfig {
         String ksPath = System.getProperty("kchat.keystore");
         String ksPass = System.getProperty("kchat.keystorePassword");
         if (ksPath == null || ksPass == null) {
-            System.err.println("[SecurityConfig] Client SSL enabled but keystore or password not provided. Continuing without TLS.");
+            LOG.warn("Client SSL enabled but keystore or password not provided. Continuing without TLS.");
             return null;
         }
         try (FileInputStream fis = new FileInputStream(ksPath)) {
@@ -59,10 +63,10 @@ public final class SecurityConfig {
             tmf.init(ks);
             SSLContext ctx = SSLContext.getInstance("TLS");
             ctx.init(null, tmf.getTrustManagers(), new SecureRandom());
-            System.out.println("[SecurityConfig] TLS enabled (client)");
+            LOG.info("TLS enabled (client)");
             return ctx;
         } catch (Exception e) {
-            System.err.println("[SecurityConfig] Failed to initialize client SSLContext: " + e.getMessage());
+            LOG.error("Failed to initialize client SSLContext: {}", e.getMessage());
             return null;
         }
     }
@@ -0,0 +1,26 @@
+package kchat.security;
+
+/**
+ * What a client keeps from a handshake so it can resume with the same server later: the
+ * opaque ticket the server issued and the key-wrap key both sides derived in the original
+ * X25519 handshake. The wire form of a ticket is {@code <expiresAtMillis>.<base64url>}.
+ */
+public record SessionTicket(String serverId, String ticket, byte[] keyWrapKey, long expiresAt) {
+
+    /** Parses the {@code ticket=} value of a WELCOME; null if it is malformed. */
+    public static SessionTicket fromWelcome(String serverId, String value, byte[] keyWrapKey) {
+        if (value == null) return null;
+        int dot = value.indexOf('.');
+        if (dot <= 0) return null;
+        try {
+            return new SessionTicket(serverId, value, keyWrapKey, Long.parseLong(value, 0, dot, 10));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Worth presenting to {@code serverId}: same server, and not about to expire. */
+    public boolean usableFor(String serverId, long now) {
+        return this.serverId.equals(serverId) && now < expiresAt;
+    }
+}
@@ -0,0 +1,70 @@
+package kchat.server;
+
+import kchat.model.Message;
+import kchat.protocol.BinaryCodec;
+import kchat.protocol.MessageCodec;
+
+import java.io.IOException;
+
+/**
+ * One broadcast, encoded at most once per wire format actually used by its recipients, and
+ * compressed at most once per format for the recipients that negotiated permessage-deflate.
+ * Not thread-safe: a fan-out runs on a single thread.
+ */
+final class BroadcastPayload {
+    private Message message;
+    private byte[] json;
+    private final String coalesceKey;
+    private OutboundFrame text;
+    private OutboundFrame binary;
+    private OutboundFrame textDeflated;
+    private OutboundFrame binaryDeflated;
+
+    BroadcastPayload(Message message, String coalesceKey) {
+        this.message = message;
+        this.coalesceKey = coalesceKey;
+    }
+
+    /**
+     * A broadcast that already exists as encoded JSON, e.g. a relayed chat frame. The text
+     * form is sent as-is; the Message is only bound if a binary recipient needs it.
+     */
+    static BroadcastPayload ofJson(byte[] json, String coalesceKey) {
+        BroadcastPayload payload = new BroadcastPayload(null, coalesceKey);
+        payload.json = json;
+        payload.text = OutboundFrame.text(json, coalesceKey);
+        return payload;
+    }
+
+    OutboundFrame frameFor(ClientSession session) throws IOException {
+        OutboundFrame frame;
+        if (session.isBinary()) {
+            if (binary == null) binary = OutboundFrame.binary(BinaryCodec.encode(message()), coalesceKey);
+            frame = binary;
+        } else {
+            if (text == null) text = OutboundFrame.text(json(), coalesceKey);
+            frame = text;
+        }
+        int threshold = session.getDeflateThreshold();
+        if (threshold < 0 || frame.size() < threshold) return frame;
+        if (session.isBinary()) {
+            if (binaryDeflated == null) binaryDeflated = frame.deflate();
+            return binaryDeflated;
+        }
+        if (textDeflated == null) textDeflated = frame.deflate();
+        return textDeflated;
+    }
+
+    /** The JSON encoding, produced on first use. */
+    byte[] json() throws IOException {
+        if (json == null) json = MessageCodec.toBytes(message);
+        return json;
+    }
+
+    private Message message() throws IOException {
+        if (message == null) {
+            message = MessageCodec.read(json, 0, json.length); // started out as encoded JSON
+        }
+        return message;
+    }
+}
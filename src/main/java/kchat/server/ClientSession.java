@@ -0,0 +1,47 @@
+package kchat.server;
+
+import kchat.protocol.PerMessageDeflate;
+import org.java_websocket.WebSocket;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Server-side state of one authenticated connection.
+ */
+final class ClientSession {
+    private final String id;
+    private final WebSocket conn;
+    private final OutboundQueue outbound;
+    private final boolean binary;
+    private final SecretKey keyWrapKey;
+    private final int deflateThreshold;
+
+    ClientSession(String id, WebSocket conn, OutboundQueue outbound, boolean binary) {
+        this(id, conn, outbound, binary, null);
+    }
+
+    ClientSession(String id, WebSocket conn, OutboundQueue outbound, boolean binary, SecretKey keyWrapKey) {
+        this.id = id;
+        this.conn = conn;
+        this.outbound = outbound;
+        this.binary = binary;
+        this.keyWrapKey = keyWrapKey;
+        this.deflateThreshold = PerMessageDeflate.negotiatedThreshold(conn);
+    }
+
+    /** Server-assigned member id, used in presence deltas. */
+    String getId() { return id; }
+
+    WebSocket getConnection() { return conn; }
+
+    OutboundQueue getOutbound() { return outbound; }
+
+    /** True when the client negotiated {@link kchat.protocol.BinaryCodec} framing in its HELLO. */
+    boolean isBinary() { return binary; }
+
+    /** Handshake-derived key for sending this client new group keys; null if it did not offer {@code rekey}. */
+    SecretKey getKeyWrapKey() { return keyWrapKey; }
+
+    /** Smallest payload sent compressed; -1 when the connection did not negotiate permessage-deflate. */
+    int getDeflateThreshold() { return deflateThreshold; }
+}
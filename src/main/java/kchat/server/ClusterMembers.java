@@ -0,0 +1,85 @@
+package kchat.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The room members connected to other nodes of the cluster, as those nodes announced them.
+ * Kept per node so that a node going away takes exactly its own members with it. Updates come
+ * from the cluster bus threads and counts are read on every presence broadcast, so everything
+ * is guarded by the instance lock; the sets are small and the critical sections short.
+ */
+final class ClusterMembers {
+
+    /** Who joined and left one room as the result of an update. */
+    record Change(String room, List<String> joined, List<String> left) {}
+
+    private final Map<String, Map<String, Set<String>>> byNode = new HashMap<>();
+    private final Map<String, Integer> counts = new HashMap<>();
+
+    /** Applies a presence delta announced by {@code node}; ids already known (or unknown) are skipped. */
+    synchronized Change apply(String node, String room, List<String> joined, List<String> left) {
+        Set<String> members = byNode.computeIfAbsent(node, n -> new HashMap<>()).computeIfAbsent(room, r -> new LinkedHashSet<>());
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (String id : joined) if (members.add(id)) added.add(id);
+        for (String id : left) if (members.remove(id)) removed.add(id);
+        if (members.isEmpty()) byNode.get(node).remove(room);
+        adjust(room, added.size() - removed.size());
+        return new Change(room, added, removed);
+    }
+
+    /** Replaces everything known about {@code node} with its full state; returns the rooms that changed. */
+    synchronized List<Change> replace(String node, Map<String, List<String>> state) {
+        Map<String, Set<String>> previous = byNode.getOrDefault(node, Map.of());
+        Map<String, Set<String>> next = new HashMap<>();
+        state.forEach((room, ids) -> {
+            if (!ids.isEmpty()) next.put(room, new LinkedHashSet<>(ids));
+        });
+        Set<String> allRooms = new LinkedHashSet<>(previous.keySet());
+        allRooms.addAll(next.keySet());
+        List<Change> changes = new ArrayList<>();
+        for (String room : allRooms) {
+            Set<String> before = previous.getOrDefault(room, Set.of());
+            Set<String> after = next.getOrDefault(room, Set.of());
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            for (String id : after) if (!before.contains(id)) joined.add(id);
+            for (String id : before) if (!after.contains(id)) left.add(id);
+            if (joined.isEmpty() && left.isEmpty()) continue;
+            adjust(room, joined.size() - left.size());
+            changes.add(new Change(room, joined, left));
+        }
+        byNode.put(node, next);
+        return changes;
+    }
+
+    /** Forgets {@code node}; returns its members, now gone, per room. */
+    synchronized List<Change> drop(String node) {
+        Map<String, Set<String>> gone = byNode.remove(node);
+        if (gone == null) return List.of();
+        List<Change> changes = new ArrayList<>();
+        gone.forEach((room, ids) -> {
+            adjust(room, -ids.size());
+            changes.add(new Change(room, List.of(), new ArrayList<>(ids)));
+        });
+        return changes;
+    }
+
+    /** Whether {@code node} has announced its state, and so agreed to be part of this cluster. */
+    synchronized boolean knows(String node) {
+        return byNode.containsKey(node);
+    }
+
+    synchronized int count(String room) {
+        return counts.getOrDefault(room, 0);
+    }
+
+    private void adjust(String room, int delta) {
+        if (delta != 0) counts.merge(room, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+}
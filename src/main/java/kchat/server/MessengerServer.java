@@ -1,55 +1,270 @@
 package kchat.server;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
+import kchat.cluster.ClusterBus;
+import kchat.cluster.ClusterEvent;
+import kchat.cluster.ClusterKeys;
+import kchat.cluster.TcpClusterBus;
+import kchat.history.HistoryQuery;
+import kchat.history.HistoryRecord;
+import kchat.history.HistoryStore;
 import kchat.model.Message;
+import kchat.protocol.BinaryCodec;
+import kchat.protocol.HandshakeOptions;
+import kchat.protocol.MessageCodec;
+import kchat.protocol.PerMessageDeflate;
+import kchat.protocol.RelayEnvelope;
+import kchat.logging.Log;
+import kchat.metrics.MetricsMBean;
+import kchat.metrics.MetricsRegistry;
+import kchat.metrics.PrometheusEndpoint;
+import kchat.security.AesGcm;
+import kchat.security.HandshakeEngine;
+import kchat.security.ResumptionTickets;
 import kchat.security.SecurityConfig;
 import org.java_websocket.server.DefaultSSLWebSocketServerFactory;
 import kchat.security.KeyExchangeUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.KeyPair;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
 import javax.net.ssl.SSLContext;
-import javax.crypto.Cipher;
-import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
 public class MessengerServer extends WebSocketServer {
 
+    private static final Log LOG = Log.get(MessengerServer.class);
     private final Set<WebSocket> connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
     private final Set<WebSocket> authenticatedConnections = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<WebSocket, ClientSession> sessions = new ConcurrentHashMap<>();
+    private final RoomRegistry rooms = new RoomRegistry();
+    private final ServerConfig config;
+    private final ScheduledExecutorService outboundExecutor;
+    private final ThreadPoolExecutor handshakeExecutor;
+    private final AtomicLong rejectedHandshakes = new AtomicLong();
+    private final PresenceAggregator presence; // null when presence is broadcast per event
+    private final HistoryStore history; // null when history is disabled
+    private final AtomicLong sessionIds = new AtomicLong();
+    private final Log.Sampler messageLog = Log.messageSampler(); // per-message logging, off by default
+    private final ServerMetrics metrics = new ServerMetrics();
+    private volatile PrometheusEndpoint metricsEndpoint; // null unless kchat.metrics.port is set
+    private volatile ObjectName metricsMBean;
 
     // Security / handshake fields
-    private final String serverId = UUID.randomUUID().toString();
-    private final KeyPair serverKeyPair = KeyExchangeUtil.generateKeyPair(); // X25519
-    private final byte[] groupKey = new byte[32]; // shared symmetric key for all clients
+    private final String serverId;
+    private final HandshakeEngine handshake;
+    private final ResumptionTickets tickets; // null when resumption is disabled
     private static final SecureRandom RANDOM = new SecureRandom();
+    private volatile GroupKey groupKey; // shared symmetric key for all clients
+
+    // Cluster fields
+    private final ClusterBus cluster; // null for a standalone server
+    private final ClusterKeys clusterKeys; // null for a standalone server
+    private final String nodeId;
+    private final ClusterMembers clusterMembers = new ClusterMembers();
+    private final Object clusterPublishLock = new Object(); // orders state snapshots against deltas and Rekeys
+
+    private final List<ServerShard> shards = new ArrayList<>(); // listeners beyond this one, see ServerConfig#getShards
+    private static final String USER_COUNT_KEY = "USER_COUNT:";
+    private static final String PRESENCE_PREFIX = "PRESENCE:";
+    private static final String JOIN_PREFIX = "JOIN:";
+    private static final String LEAVE_PREFIX = "LEAVE:";
+    private static final String HELLO_PREFIX = "HELLO:";
+    private static final String REKEY_PREFIX = "REKEY:";
+    public static final String DEFAULT_ROOM = "lobby";
+
+    /** The group key and its epoch; a rotation swaps in a new instance. */
+    private record GroupKey(int epoch, byte[] key) {
+        static GroupKey random(int epoch) {
+            byte[] key = new byte[32];
+            RANDOM.nextBytes(key);
+            return new GroupKey(epoch, key);
+        }
+    }
 
     public MessengerServer(int port) {
-        super(new InetSocketAddress(port));
-        RANDOM.nextBytes(groupKey);
-        System.out.println("Messenger Server initialized on port " + port + " (serverId=" + serverId + ")");
+        this(port, ServerConfig.fromSystemProperties());
+    }
+
+    public MessengerServer(int port, ServerConfig config) {
+        this(port, config, createClusterBus(config));
+    }
+
+    /**
+     * A server that forms a cluster with the other nodes on {@code cluster}, or a standalone one
+     * when it is null. Nodes share the serverId, group key and presence; each keeps its own
+     * history. A cluster requires {@link ServerConfig#getClusterSecret()} and the same
+     * {@link ServerConfig#getServerId()} on every node.
+     */
+    public MessengerServer(int port, ServerConfig config, ClusterBus cluster) {
+        super(new InetSocketAddress(port), Math.max(1, config.getDecoderThreads()), drafts(config));
+        this.config = config;
+        this.cluster = cluster;
+        this.clusterKeys = cluster != null ? new ClusterKeys(config.getClusterSecret()) : null;
+        if (cluster != null && config.getServerId() == null) {
+            throw new IllegalArgumentException("kchat.serverId is required in a cluster, the same on every node");
+        }
+        this.nodeId = config.getClusterNodeId() != null ? config.getClusterNodeId() : UUID.randomUUID().toString().substring(0, 8);
+        this.serverId = config.getServerId() != null ? config.getServerId() : UUID.randomUUID().toString();
+        this.handshake = new HandshakeEngine(serverId, KeyExchangeUtil.generateKeyPair()); // X25519
+        this.groupKey = keyFor(0);
+        this.outboundExecutor = createOutboundExecutor(config.getOutboundThreads());
+        this.handshakeExecutor = createHandshakeExecutor(config.getHandshakeThreads(), config.getHandshakeQueue());
+        this.presence = config.isPerEventPresence() ? null
+            : new PresenceAggregator(outboundExecutor, config.getPresenceTickMillis(), this::broadcastPresence);
+        this.history = openHistory(config);
+        this.tickets = config.getTicketLifetimeMillis() <= 0 ? null
+            : clusterKeys != null ? new ResumptionTickets(config.getTicketLifetimeMillis(), clusterKeys.ticketKey(serverId))
+            : new ResumptionTickets(config.getTicketLifetimeMillis());
+        if (config.getRekeyIntervalMillis() > 0) {
+            long interval = config.getRekeyIntervalMillis();
+            outboundExecutor.scheduleAtFixedRate(this::scheduledRotation, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        registerGauges(metrics.registry());
+        if (cluster != null) {
+            LOG.info("Messenger Server initialized on port {} (serverId={}, cluster node {})", port, serverId, nodeId);
+        } else {
+            LOG.info("Messenger Server initialized on port {} (serverId={})", port, serverId);
+        }
+        for (int i = 1; i < config.getShards(); i++) {
+            shards.add(new ServerShard(this, new InetSocketAddress(port == 0 ? 0 : port + i), Math.max(1, config.getDecoderThreads()), drafts(config)));
+        }
         SSLContext sslContext = SecurityConfig.loadServerSslContextIfEnabled();
         if (sslContext != null) {
             setWebSocketFactory(new DefaultSSLWebSocketServerFactory(sslContext));
-            System.out.println("Messenger Server running with TLS (wss)");
+            for (ServerShard shard : shards) shard.setWebSocketFactory(new DefaultSSLWebSocketServerFactory(sslContext));
+            LOG.info("Messenger Server running with TLS (wss)");
+        }
+    }
+
+    /** RFC 6455, with permessage-deflate for the clients that offer it unless kchat.deflate is false. */
+    static List<Draft> drafts(ServerConfig config) {
+        return List.of(config.isDeflate() ? PerMessageDeflate.draft(config.getDeflateThreshold()) : new Draft_6455());
+    }
+
+    /** Starts this listener and every extra shard. */
+    @Override
+    public void start() {
+        super.start();
+        for (ServerShard shard : shards) shard.start();
+    }
+
+    /** Shards beyond the first, in port order; empty unless kchat.server.shards is above 1. */
+    List<ServerShard> getShards() {
+        return shards;
+    }
+
+    /** The TCP mesh configured by {@code kchat.cluster.*}, or null when no cluster port is set. */
+    private static ClusterBus createClusterBus(ServerConfig config) {
+        if (config.getClusterPort() <= 0) return null;
+        byte[] busKey = new ClusterKeys(config.getClusterSecret()).busKey();
+        return new TcpClusterBus(new InetSocketAddress(config.getClusterBind(), config.getClusterPort()),
+            TcpClusterBus.parsePeers(config.getClusterPeers()), busKey);
+    }
+
+    private static ScheduledExecutorService createOutboundExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "kchat-outbound-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /** Bounded on purpose: a connect storm is refused early rather than queued without limit. */
+    private static ThreadPoolExecutor createHandshakeExecutor(int threads, int queue) {
+        AtomicInteger counter = new AtomicInteger();
+        int n = Math.max(1, threads);
+        return new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, queue)), r -> {
+            Thread t = new Thread(r, "kchat-handshake-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Gauges are read at scrape time only; nothing here runs per message. */
+    private void registerGauges(MetricsRegistry registry) {
+        registry.gauge("kchat_connections", "Open WebSocket connections", connections::size);
+        registry.gauge("kchat_authenticated_connections", "Connections that completed the handshake", authenticatedConnections::size);
+        registry.counter("kchat_handshakes_rejected_total", "HELLOs refused because the handshake queue was full", rejectedHandshakes::get);
+        registry.gauge("kchat_handshake_queue_depth", "HELLOs waiting for a handshake thread", () -> handshakeExecutor.getQueue().size());
+        registry.gauge("kchat_outbound_queue_depth_max", "Deepest per-connection outbound queue (frames)", () -> {
+            int max = 0;
+            for (ClientSession session : sessions.values()) max = Math.max(max, session.getOutbound().getDepth());
+            return max;
+        });
+        registry.gauge("kchat_outbound_queue_depth_total", "Frames queued across all connections", () -> {
+            long total = 0;
+            for (ClientSession session : sessions.values()) total += session.getOutbound().getDepth();
+            return total;
+        });
+        registry.gauge("kchat_outbound_queued_bytes", "Bytes queued across all connections", () -> {
+            long total = 0;
+            for (ClientSession session : sessions.values()) total += session.getOutbound().getQueuedBytes();
+            return total;
+        });
+        registry.gauge("kchat_outbound_backlogged_connections", "Connections with at least one frame queued", () -> {
+            long n = 0;
+            for (ClientSession session : sessions.values()) if (session.getOutbound().getDepth() > 0) n++;
+            return n;
+        });
+        registry.gauge("kchat_group_key_epoch", "Epoch of the current group key", () -> groupKey.epoch());
+        registry.gauge("kchat_cluster_peers", "Cluster nodes currently linked", () -> cluster == null ? 0 : cluster.peers().size());
+    }
+
+    private static HistoryStore openHistory(ServerConfig config) {
+        String dir = config.getHistoryDir();
+        if (dir == null || dir.isEmpty()) return null;
+        try {
+            return HistoryStore.open(Path.of(dir), config.getHistorySegmentBytes(), config.getHistoryMaxSegments(), config.getHistoryRetentionMillis());
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Message history disabled, cannot open {}: {}", dir, e.getMessage());
+            return null;
         }
     }
 
     public String getServerId() { return serverId; }
 
+    public ServerConfig getConfig() { return config; }
+
+    /** This node's name in the cluster (unused when standalone). */
+    public String getNodeId() { return nodeId; }
+
+    /** Nodes this one is currently linked with; empty when standalone. */
+    public Set<String> getClusterPeers() { return cluster == null ? Set.of() : cluster.peers(); }
+
+    /** Counters, gauges and histograms of this server; also served on /metrics and over JMX when enabled. */
+    public MetricsRegistry getMetrics() { return metrics.registry(); }
+
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         connections.add(conn);
@@ -59,106 +274,566 @@ public class MessengerServer extends WebSocketServer {
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        connections.remove(conn);
-        boolean wasAuthenticated = authenticatedConnections.remove(conn);
         // Removed logging - server should be silent about disconnections
-
         // Only broadcast leave message and update user count if the user was properly authenticated
-        if (wasAuthenticated) {
-            broadcastToAuthenticated(createLeaveMessage());
-            broadcastUserCountToAuthenticated();
+        Set<String> leftRooms = dropConnection(conn);
+        announceDeparture(conn, leftRooms);
+    }
+
+    /** Forgets {@code conn} everywhere and returns the rooms it was subscribed to. */
+    private Set<String> dropConnection(WebSocket conn) {
+        connections.remove(conn);
+        authenticatedConnections.remove(conn);
+        return rooms.leaveAll(conn);
+    }
+
+    private void announceDeparture(WebSocket conn, Set<String> leftRooms) {
+        ClientSession session = sessions.remove(conn);
+        for (String room : leftRooms) {
+            announceLeave(session, room);
+        }
+    }
+
+    private void announceJoin(ClientSession session, String room) {
+        if (presence != null) {
+            presence.joined(room, session.getId());
+        } else {
+            broadcastToRoom(room, createWelcomeMessage());
+            broadcastUserCountToRoom(room);
+            publishPresence(room, List.of(session.getId()), List.of());
+        }
+    }
+
+    private void announceLeave(ClientSession session, String room) {
+        if (presence != null && session != null) {
+            presence.left(room, session.getId());
+        } else {
+            broadcastToRoom(room, createLeaveMessage());
+            broadcastUserCountToRoom(room);
+            if (session != null) publishPresence(room, List.of(), List.of(session.getId()));
         }
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
+        metrics.received(ServerMetrics.utf8Length(message));
         try {
-            Message msg = objectMapper.readValue(message, Message.class);
+            // Chat frames are relayed from a field scan; only control messages get fully bound
+            RelayEnvelope envelope = RelayEnvelope.scan(message);
+            if (envelope != null && !isControl(envelope)) {
+                relay(conn, envelope);
+                return;
+            }
+            // Reused per thread: the message is fully handled (and re-encoded) before this call returns
+            Message msg = MessageCodec.readInto(MessageCodec.scratch(), message);
             String content = msg.getContent();
-            if (content != null && content.startsWith("HELLO:")) {
-                handleHello(conn, msg);
+            if (content != null && content.startsWith(HELLO_PREFIX)) {
+                submitHello(conn, content);
                 return; // do not broadcast handshake messages
             }
-
-            // Only process regular messages from authenticated clients
-            if (!authenticatedConnections.contains(conn)) {
-                // Silent ignore - no logging about unauthenticated clients
-                return;
+            handleMessage(conn, msg);
+        } catch (JsonProcessingException e) {
+            metrics.decodeError();
+            if (authenticatedConnections.contains(conn)) {
+                LOG.warn("Malformed message: {}", e.getOriginalMessage());
             }
-
-            msg.setTimestamp(System.currentTimeMillis());
-            System.out.println("Received message: " + msg.getContent() + " from " + msg.getSender());
-            broadcastToAuthenticated(msg);
         } catch (Exception e) {
             // Only log actual processing errors, not authentication issues
             if (authenticatedConnections.contains(conn)) {
-                System.err.println("Error processing message: " + e.getMessage());
+                LOG.warn("Error processing message: {}", e.getMessage());
             }
         }
     }
 
-    private void handleHello(WebSocket conn, Message msg) {
+    private static boolean isControl(RelayEnvelope envelope) {
+        return envelope.contentStartsWith(HELLO_PREFIX)
+            || envelope.contentStartsWith(JOIN_PREFIX)
+            || envelope.contentStartsWith(LEAVE_PREFIX);
+    }
+
+    /**
+     * Forwards a chat frame without binding it: the original JSON goes out with the server
+     * timestamp, history seq (and default room, if none was named) spliced in.
+     */
+    private void relay(WebSocket conn, RelayEnvelope envelope) throws IOException {
+        if (!authenticatedConnections.contains(conn)) return;
+        String room = envelope.getRoom() != null ? envelope.getRoom() : DEFAULT_ROOM;
+        if (!rooms.isMember(conn, room)) {
+            return; // only subscribers may post to a room
+        }
+        if (messageLog.sample()) LOG.info("Received message from {} in {}", envelope.getSender(), room);
+        long now = System.currentTimeMillis();
+        long seq = history != null ? history.nextSeq() : 0L;
+        publish(room, now, seq, BroadcastPayload.ofJson(envelope.rewrite(now, room, seq), null));
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        metrics.received(message.remaining());
+        // Binary frames are only meaningful after a HELLO negotiated the binary protocol
+        if (!authenticatedConnections.contains(conn)) return;
+        Message msg;
+        try {
+            msg = BinaryCodec.decode(message);
+        } catch (IllegalArgumentException e) {
+            metrics.decodeError();
+            LOG.warn("Malformed binary message: {}", e.getMessage());
+            return;
+        }
         try {
-            // Format: HELLO:serverId:clientPubB64
-            String[] parts = msg.getContent().split(":", 3);
+            handleMessage(conn, msg);
+        } catch (Exception e) {
+            LOG.warn("Error processing binary message: {}", e.getMessage());
+        }
+    }
+
+    private void handleMessage(WebSocket conn, Message msg) {
+        // Only process regular messages from authenticated clients
+        if (!authenticatedConnections.contains(conn)) {
+            // Silent ignore - no logging about unauthenticated clients
+            return;
+        }
+
+        String content = msg.getContent();
+        if (content != null && content.startsWith(JOIN_PREFIX)) {
+            joinRoom(conn, content.substring(JOIN_PREFIX.length()));
+            return;
+        }
+        if (content != null && content.startsWith(LEAVE_PREFIX)) {
+            leaveRoom(conn, content.substring(LEAVE_PREFIX.length()));
+            return;
+        }
+
+        String room = msg.getRoom() != null ? msg.getRoom() : DEFAULT_ROOM;
+        if (!rooms.isMember(conn, room)) {
+            return; // only subscribers may post to a room
+        }
+        msg.setRoom(room);
+        msg.setTimestamp(System.currentTimeMillis());
+        msg.setSeq(history != null ? history.nextSeq() : 0L);
+        if (messageLog.sample()) LOG.info("Received message from {} in {}", msg.getSender(), room);
+        try {
+            publish(room, msg.getTimestamp(), msg.getSeq(), new BroadcastPayload(msg, null));
+        } catch (IOException e) {
+            LOG.warn("Error broadcasting message: {}", e.getMessage());
+        }
+    }
+
+    /** Stores a chat message in the history (asynchronously) and sends it to the room, here and on every other node. */
+    private void publish(String room, long timestamp, long seq, BroadcastPayload payload) throws IOException {
+        if (history != null) {
+            history.append(seq, timestamp, room, payload.json());
+        }
+        fanOut(payload, rooms.members(room));
+        if (cluster != null) cluster.publish(new ClusterEvent.RoomMessage(room, payload.json()));
+    }
+
+    /**
+     * Subscribes an authenticated connection to {@code room}, announcing the join and the
+     * room's new USER_COUNT to its members, then replays the room's recent history to it.
+     * Returns false for unknown connections or bad names.
+     */
+    public boolean joinRoom(WebSocket conn, String room) {
+        return joinRoom(conn, room, HistoryQuery.last(Math.min(config.getHistoryReplayCount(), config.getHistoryMaxReplay())));
+    }
+
+    private boolean joinRoom(WebSocket conn, String room, HistoryQuery replay) {
+        ClientSession session = sessions.get(conn);
+        if (session == null || !RoomRegistry.isValidName(room)) return false;
+        if (rooms.join(conn, room)) {
+            announceJoin(session, room);
+            replayHistory(session, room, replay);
+        }
+        return true;
+    }
+
+    /**
+     * Queues stored messages for one client. They carry their original timestamp and seq;
+     * live messages sent while the replay is queued may arrive in between.
+     */
+    private void replayHistory(ClientSession session, String room, HistoryQuery query) {
+        if (history == null) return;
+        for (HistoryRecord record : history.query(room, query)) {
+            try {
+                session.getOutbound().offer(historyFrame(session, record));
+            } catch (Exception e) {
+                LOG.warn("History replay to {} stopped: {}", session.getId(), e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private static OutboundFrame historyFrame(ClientSession session, HistoryRecord record) throws IOException {
+        ByteBuffer json = record.payload();
+        if (!session.isBinary()) {
+            return OutboundFrame.text(json, null); // a slice of the segment mapping, no copy
+        }
+        byte[] bytes = new byte[json.remaining()];
+        json.get(bytes);
+        return OutboundFrame.binary(BinaryCodec.encode(MessageCodec.read(bytes, 0, bytes.length)), null);
+    }
+
+    public boolean leaveRoom(WebSocket conn, String room) {
+        if (!rooms.leave(conn, room)) return false;
+        announceLeave(sessions.get(conn), room);
+        return true;
+    }
+
+    /**
+     * Hands the handshake crypto to the handshake pool so the WebSocket thread keeps serving
+     * established sessions. When the pool's queue is full the client is told to come back later
+     * (1013) straight away, which costs the WebSocket thread next to nothing.
+     */
+    private void submitHello(WebSocket conn, String content) {
+        long received = System.nanoTime();
+        try {
+            handshakeExecutor.execute(() -> handleHello(conn, content, received));
+        } catch (RejectedExecutionException e) {
+            long n = rejectedHandshakes.incrementAndGet();
+            if (n == 1 || n % 1000 == 0) LOG.warn("Handshake queue full; {} handshake(s) refused so far", n);
+            conn.close(1013, "Server busy, try again later");
+        }
+    }
+
+    /** Runs on a handshake thread; {@code content} is the HELLO, received at {@code receivedNanos}. */
+    private void handleHello(WebSocket conn, String content, long receivedNanos) {
+        if (!conn.isOpen()) return; // gave up while queued
+        boolean registered = false;
+        try {
+            // Format: HELLO:serverId:clientPubB64[:options]; clientPubB64 is empty when resuming with a ticket
+            String[] parts = content.split(":", 4);
             if (parts.length < 3) {
                 // Silent rejection - no logging
+                metrics.handshakeFailed();
                 conn.close(1002, "Malformed handshake");
                 return;
             }
             String claimedServerId = parts[1];
             if (!serverId.equals(claimedServerId)) {
                 // Silent rejection - no logging about wrong server ID
+                metrics.handshakeFailed();
                 conn.close(1002, "Invalid serverId");
                 return;
             }
 
-            // Authentication successful - add to authenticated connections
+            HandshakeOptions options = HandshakeOptions.parse(parts.length > 3 ? parts[3] : null);
+            boolean binary = options.wantsBinary() && config.isBinaryProtocolEnabled();
+            boolean rekey = options.has(HandshakeOptions.REKEY);
+            boolean batch = options.has(HandshakeOptions.BATCH) && config.isBatching();
+
+            // A valid ticket stands in for the key agreement: it carries the key-wrap key from an earlier handshake
+            String ticket = options.get(HandshakeOptions.RESUME);
+            ResumptionTickets.Redeemed resumed = tickets != null && ticket != null && !ticket.isEmpty() ? tickets.redeem(ticket) : null;
+            byte[] keyWrapKey;
+            if (resumed != null) {
+                keyWrapKey = resumed.keyWrapKey();
+            } else if (parts[2].isEmpty()) {
+                metrics.handshakeFailed();
+                conn.close(1002, "Resumption failed");
+                return;
+            } else {
+                keyWrapKey = handshake.keyWrapKey(Base64.getDecoder().decode(parts[2]));
+            }
+            SecretKeySpec wrapKey = new SecretKeySpec(keyWrapKey, "AES");
+
+            // Cluster-wide presence lists ids from every node, so each node prefixes its own
+            String sessionId = (cluster != null ? nodeId + "-u" : "u") + sessionIds.incrementAndGet();
+            ClientSession session = new ClientSession(sessionId, conn, new OutboundQueue(conn, config, outboundExecutor, metrics, batch), binary, rekey ? wrapKey : null);
+            // Authentication successful - add to authenticated connections. Whatever is queued for
+            // the client from here on (REKEY, presence, chat) waits until the WELCOME is written
+            session.getOutbound().hold();
+            sessions.put(conn, session);
             authenticatedConnections.add(conn);
+            registered = true;
 
-            byte[] clientPubRaw = Base64.getDecoder().decode(parts[2]);
-            byte[] sharedSecret = KeyExchangeUtil.deriveSharedSecret(serverKeyPair.getPrivate(), clientPubRaw);
-            byte[] keyWrapKey = KeyExchangeUtil.hkdf(sharedSecret, serverId.getBytes(StandardCharsets.UTF_8), "kchat-handshake".getBytes(StandardCharsets.UTF_8), 32);
-            String wrapped = wrapGroupKey(keyWrapKey);
-            String serverPubB64 = Base64.getEncoder().encodeToString(serverKeyPair.getPublic().getEncoded());
-            Message resp = new Message("System", "WELCOME:" + serverId + ":" + serverPubB64 + ":" + wrapped, System.currentTimeMillis());
-            conn.send(objectMapper.writeValueAsString(resp));
+            // Every client starts in the default room, before it can read the WELCOME and start posting.
+            // This announces the join and the room's user count, then queues a replay of what the
+            // client asked for (history=N, since=<ts> or after=<seq>)
+            joinRoom(conn, DEFAULT_ROOM, HistoryQuery.fromOptions(options, config.getHistoryReplayCount(), config.getHistoryMaxReplay()));
 
-            // Now broadcast welcome and user count to all authenticated users
-            broadcastToAuthenticated(createWelcomeMessage());
-            broadcastUserCountToAuthenticated();
+            GroupKey key = groupKey;
+            String wrapped = wrapGroupKey(wrapKey, key.key());
+            String welcome = handshake.welcome(wrapped);
+            if (!options.isEmpty()) {
+                // Only clients that sent options understand the extra field; echo what was accepted
+                HandshakeOptions accepted = new HandshakeOptions();
+                if (binary) accepted.put(HandshakeOptions.PROTOCOL, HandshakeOptions.PROTOCOL_BINARY);
+                if (rekey) accepted.put(HandshakeOptions.KEY_EPOCH, Integer.toString(key.epoch()));
+                if (batch) accepted.put(HandshakeOptions.BATCH, null);
+                if (tickets != null && options.has(HandshakeOptions.RESUME)) {
+                    accepted.put(HandshakeOptions.TICKET, resumed != null
+                        ? tickets.issue(keyWrapKey, resumed.expiresAt())
+                        : tickets.issue(keyWrapKey));
+                }
+                if (resumed != null) accepted.put(HandshakeOptions.RESUMED, null);
+                welcome += ":" + accepted;
+            }
+            Message resp = new Message("System", welcome, System.currentTimeMillis());
+            // Always JSON text: the client switches formats only after reading this
+            String welcomeJson = MessageCodec.toJson(resp);
+            conn.send(welcomeJson);
+            session.getOutbound().release();
+            metrics.sent(welcomeJson.length()); // ASCII: ids, Base64 and option tokens
+            metrics.handshakeSucceeded(receivedNanos);
+            if (!conn.isOpen()) {
+                // Closed mid-handshake; onClose may have run before the session existed
+                announceDeparture(conn, dropConnection(conn));
+            }
 
         } catch (Exception e) {
             // Silent rejection - no logging about handshake errors
+            metrics.handshakeFailed();
             try { conn.close(1011, "Handshake failure"); } catch (Exception ignore) {}
+            if (registered) {
+                // e.g. the WELCOME found the connection closed; onClose may have run before the session existed
+                announceDeparture(conn, dropConnection(conn));
+            }
+        }
+    }
+
+    private static String wrapGroupKey(SecretKey keyWrapKey, byte[] key) throws Exception {
+        return Base64.getEncoder().encodeToString(AesGcm.seal(keyWrapKey, key));
+    }
+
+    /**
+     * Replaces the group key without dropping anyone: every client that offered {@code rekey}
+     * gets the new key wrapped under its own handshake key, as
+     * {@code REKEY:<epoch>:<wrappedKey>:<graceMillis>}, and keeps decrypting messages under the
+     * previous key for the grace period. In a cluster the other nodes follow. Returns the new epoch.
+     */
+    public synchronized int rotateGroupKey() {
+        int epoch = groupKey.epoch() + 1;
+        rotateTo(epoch);
+        if (cluster != null) {
+            synchronized (clusterPublishLock) {
+                // after the swap, so a state snapshot racing with this carries the new epoch or precedes the Rekey
+                cluster.publish(new ClusterEvent.Rekey(epoch));
+            }
         }
+        return epoch;
     }
 
-    private String wrapGroupKey(byte[] keyWrapKey) throws Exception {
-        byte[] iv = new byte[12];
-        RANDOM.nextBytes(iv);
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyWrapKey, "AES"), new GCMParameterSpec(128, iv));
-        byte[] ct = cipher.doFinal(groupKey);
-        ByteBuffer bb = ByteBuffer.allocate(iv.length + ct.length);
-        bb.put(iv).put(ct);
-        return Base64.getEncoder().encodeToString(bb.array());
+    /** Moves to {@code epoch} unless already there; a no-op for epochs that are not newer. */
+    private synchronized boolean rotateTo(int epoch) {
+        if (epoch <= groupKey.epoch()) return false;
+        GroupKey next = keyFor(epoch);
+        groupKey = next;
+        int notified = 0;
+        for (ClientSession session : sessions.values()) {
+            if (sendRekey(session, next)) notified++;
+        }
+        LOG.info("Group key rotated to epoch {}; {} client(s) notified", next.epoch(), notified);
+        return true;
+    }
+
+    /** Random when standalone; in a cluster every node derives the same key for an epoch from the shared secret. */
+    private GroupKey keyFor(int epoch) {
+        return clusterKeys != null ? new GroupKey(epoch, clusterKeys.groupKey(serverId, epoch)) : GroupKey.random(epoch);
+    }
+
+    /** Only the cluster node with the smallest id rotates on schedule; the others follow its Rekey. */
+    private void scheduledRotation() {
+        if (cluster != null) {
+            for (String peer : cluster.peers()) {
+                if (peer.compareTo(nodeId) < 0) return;
+            }
+        }
+        rotateGroupKey();
+    }
+
+    /** Epoch of the current group key (0 until the first rotation). */
+    public int getGroupKeyEpoch() {
+        return groupKey.epoch();
+    }
+
+    private boolean sendRekey(ClientSession session, GroupKey key) {
+        if (session.getKeyWrapKey() == null || !session.getConnection().isOpen()) return false;
+        try {
+            String content = REKEY_PREFIX + key.epoch() + ":" + wrapGroupKey(session.getKeyWrapKey(), key.key())
+                + ":" + config.getRekeyGraceMillis();
+            Message rekey = new Message("System", content, System.currentTimeMillis());
+            // Coalesced, so a backed-up client is only handed the newest key
+            return session.getOutbound().offer(new BroadcastPayload(rekey, REKEY_PREFIX).frameFor(session));
+        } catch (Exception e) {
+            LOG.warn("Failed to send new group key to {}: {}", session.getId(), e.getMessage());
+            return false;
+        }
     }
 
     @Override
     public void onError(WebSocket conn, Exception ex) {
-        System.err.println("WebSocket error: " + ex.getMessage());
+        LOG.warn("WebSocket error: {}", ex.getMessage());
         if (conn != null) {
-            connections.remove(conn);
-            authenticatedConnections.remove(conn);
-            broadcastUserCountToAuthenticated();
+            announceDeparture(conn, dropConnection(conn));
+        }
+    }
+
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        try {
+            for (ServerShard shard : shards) shard.stop(timeout);
+            super.stop(timeout);
+        } finally {
+            stopMetrics();
+            if (cluster != null) cluster.close();
+            outboundExecutor.shutdownNow();
+            handshakeExecutor.shutdownNow();
+            if (history != null) {
+                try {
+                    history.close();
+                } catch (IOException e) {
+                    LOG.warn("Error closing message history: {}", e.getMessage());
+                }
+            }
         }
     }
 
     @Override
     public void onStart() {
-        System.out.println("Messenger Server started successfully!");
+        LOG.info("Messenger Server started successfully!");
         setConnectionLostTimeout(10);
+        startMetrics();
+        startCluster();
+    }
+
+    /** Like metrics, a cluster port that cannot be bound leaves this node running on its own. */
+    private void startCluster() {
+        if (cluster == null) return;
+        try {
+            cluster.start(nodeId, new ClusterListener());
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Clustering disabled, cannot start node {}: {}", nodeId, e.getMessage());
+        }
+    }
+
+    /** Applies what the other nodes announce; runs on the bus's threads. */
+    private final class ClusterListener implements ClusterBus.Listener {
+        @Override
+        public void onPeerUp(String peer) {
+            publishState();
+        }
+
+        @Override
+        public void onEvent(String peer, ClusterEvent event) {
+            if (event instanceof ClusterEvent.NodeState state) {
+                applyState(peer, state);
+            } else if (!clusterMembers.knows(peer)) {
+                return; // no matching NodeState yet, or one for another serverId
+            } else if (event instanceof ClusterEvent.RoomMessage message) {
+                deliverRemote(message);
+            } else if (event instanceof ClusterEvent.Presence delta) {
+                announceRemote(clusterMembers.apply(peer, delta.room(), delta.joined(), delta.left()));
+            } else if (event instanceof ClusterEvent.Rekey rekey) {
+                rotateTo(rekey.epoch());
+            }
+        }
+
+        @Override
+        public void onPeerDown(String peer) {
+            for (ClusterMembers.Change change : clusterMembers.drop(peer)) announceRemote(change);
+        }
+    }
+
+    /** Sends every peer this node's key epoch and local members, replacing what they knew. */
+    private void publishState() {
+        synchronized (clusterPublishLock) {
+            Map<String, List<String>> members = new HashMap<>();
+            for (String room : rooms.roomNames()) {
+                List<String> ids = new ArrayList<>();
+                for (WebSocket conn : rooms.members(room)) {
+                    ClientSession session = sessions.get(conn);
+                    if (session != null) ids.add(session.getId());
+                }
+                if (!ids.isEmpty()) members.put(room, ids);
+            }
+            cluster.publish(new ClusterEvent.NodeState(serverId, groupKey.epoch(), members));
+        }
+    }
+
+    private void publishPresence(String room, List<String> joined, List<String> left) {
+        if (cluster == null) return;
+        synchronized (clusterPublishLock) {
+            cluster.publish(new ClusterEvent.Presence(room, joined, left));
+        }
+    }
+
+    private void applyState(String peer, ClusterEvent.NodeState state) {
+        if (!serverId.equals(state.serverId())) {
+            LOG.warn("Ignoring cluster node {}: it serves {}, not {}", peer, state.serverId(), serverId);
+            return;
+        }
+        for (ClusterMembers.Change change : clusterMembers.replace(peer, state.members())) announceRemote(change);
+        rotateTo(state.keyEpoch()); // catches up a node that missed rotations; the peer does the same with ours
+    }
+
+    /**
+     * Sends a message published on another node to the local members of its room. History seqs
+     * are per node, so when history is on the copy kept here is stamped with the next local one.
+     */
+    private void deliverRemote(ClusterEvent.RoomMessage message) {
+        try {
+            BroadcastPayload payload;
+            if (history != null) {
+                Message msg = MessageCodec.read(message.json(), 0, message.json().length);
+                msg.setSeq(history.nextSeq());
+                payload = new BroadcastPayload(msg, null);
+                history.append(msg.getSeq(), msg.getTimestamp(), message.room(), payload.json());
+            } else {
+                payload = BroadcastPayload.ofJson(message.json(), null);
+            }
+            fanOut(payload, rooms.members(message.room()));
+        } catch (IOException e) {
+            LOG.warn("Dropping message from cluster peer: {}", e.getMessage());
+        }
+    }
+
+    /** Tells local members about joins and leaves on other nodes, in the same form as local ones. */
+    private void announceRemote(ClusterMembers.Change change) {
+        if (change.joined().isEmpty() && change.left().isEmpty()) return;
+        if (presence != null) {
+            broadcastPresenceLocally(change.room(), change.joined(), change.left());
+            return;
+        }
+        for (int i = 0; i < change.joined().size(); i++) broadcastToRoom(change.room(), createWelcomeMessage());
+        for (int i = 0; i < change.left().size(); i++) broadcastToRoom(change.room(), createLeaveMessage());
+        broadcastUserCountToRoom(change.room());
+    }
+
+    /** The /metrics endpoint and MBean exist only while the server runs; failing to start them is not fatal. */
+    private void startMetrics() {
+        if (config.getMetricsPort() > 0) {
+            try {
+                metricsEndpoint = PrometheusEndpoint.start(metrics.registry(), config.getMetricsHost(), config.getMetricsPort());
+                LOG.info("Metrics on http://{}:{}/metrics", config.getMetricsHost(), metricsEndpoint.getPort());
+            } catch (IOException e) {
+                LOG.error("Metrics endpoint disabled, cannot bind {}:{}: {}", config.getMetricsHost(), config.getMetricsPort(), e.getMessage());
+            }
+        }
+        if (config.isMetricsJmxEnabled()) {
+            try {
+                String name = "kchat:type=MessengerServer,serverId=" + serverId + (cluster != null ? ",node=" + nodeId : "");
+                metricsMBean = MetricsMBean.register(metrics.registry(), name);
+            } catch (Exception e) {
+                LOG.warn("Metrics MBean not registered: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void stopMetrics() {
+        PrometheusEndpoint endpoint = metricsEndpoint;
+        if (endpoint != null) {
+            endpoint.close();
+            metricsEndpoint = null;
+        }
+        ObjectName name = metricsMBean;
+        if (name != null) {
+            try {
+                MetricsMBean.unregister(name);
+            } catch (Exception e) {
+                LOG.warn("Metrics MBean not unregistered: {}", e.getMessage());
+            }
+            metricsMBean = null;
+        }
     }
 
     protected Message createWelcomeMessage() {
@@ -169,32 +844,69 @@ public class MessengerServer extends WebSocketServer {
         return new Message("Server", "User left the chat", System.currentTimeMillis());
     }
 
-    private void broadcastUserCountToAuthenticated() {
-        Message userCountMessage = new Message("System", "USER_COUNT:" + getAuthenticatedConnectionCount(), System.currentTimeMillis());
-        broadcastToAuthenticated(userCountMessage);
+    private void broadcastUserCountToRoom(String room) {
+        Message userCountMessage = new Message("System", "USER_COUNT:" + clusterCount(room), System.currentTimeMillis(), room);
+        broadcastToRoom(room, userCountMessage, USER_COUNT_KEY + room);
+    }
+
+    /** Publishes one aggregated presence delta of local members, here and to the other nodes. */
+    private void broadcastPresence(String room, List<String> joined, List<String> left) {
+        broadcastPresenceLocally(room, joined, left);
+        publishPresence(room, joined, left);
+    }
+
+    /** PRESENCE:count:joinedIds:leftIds (ids comma separated), where count covers the whole cluster. */
+    private void broadcastPresenceLocally(String room, List<String> joined, List<String> left) {
+        String content = PRESENCE_PREFIX + clusterCount(room) + ":" + String.join(",", joined) + ":" + String.join(",", left);
+        broadcastToRoom(room, new Message("System", content, System.currentTimeMillis(), room));
+    }
+
+    private int clusterCount(String room) {
+        return rooms.count(room) + clusterMembers.count(room);
+    }
+
+    /** Sends {@code message} to the subscribers of {@code room} only. */
+    protected void broadcastToRoom(String room, Message message) {
+        broadcastToRoom(room, message, null);
+    }
+
+    private void broadcastToRoom(String room, Message message, String coalesceKey) {
+        if (message.getRoom() == null) message.setRoom(room);
+        fanOut(new BroadcastPayload(message, coalesceKey), rooms.members(room));
     }
 
     protected void broadcastToAuthenticated(Message message) {
-        try {
-            String jsonMessage = objectMapper.writeValueAsString(message);
-            Set<WebSocket> connectionsCopy = new HashSet<>(authenticatedConnections);
-            for (WebSocket conn : connectionsCopy) {
-                if (conn.isOpen()) {
-                    try {
-                        conn.send(jsonMessage);
-                    } catch (Exception e) {
-                        System.err.println("Error sending to client, removing connection: " + e.getMessage());
-                        authenticatedConnections.remove(conn);
-                        connections.remove(conn);
-                    }
-                } else {
-                    authenticatedConnections.remove(conn);
-                    connections.remove(conn);
+        broadcastToAuthenticated(message, null);
+    }
+
+    private void broadcastToAuthenticated(Message message, String coalesceKey) {
+        fanOut(new BroadcastPayload(message, coalesceKey), authenticatedConnections);
+    }
+
+    /**
+     * Queues the same encoded payload for every open connection in {@code targets}.
+     * Each wire format is serialized at most once, and the backing set is concurrent,
+     * so it is iterated in place instead of copied.
+     * Actual socket writes happen on the outbound executor, not on the caller's thread.
+     */
+    private void fanOut(BroadcastPayload payload, Set<WebSocket> targets) {
+        long start = System.nanoTime();
+        for (WebSocket conn : targets) {
+            ClientSession session = sessions.get(conn);
+            if (conn.isOpen() && session != null) {
+                try {
+                    session.getOutbound().offer(payload.frameFor(session));
+                } catch (Exception e) {
+                    // One recipient's encoding failing must not cost the others the message
+                    LOG.warn("Error broadcasting message to {}: {}", session.getId(), e.getMessage());
                 }
+            } else {
+                // onClose announces the departure; here we only stop writing to it
+                authenticatedConnections.remove(conn);
+                connections.remove(conn);
             }
-        } catch (Exception e) {
-            System.err.println("Error broadcasting message: " + e.getMessage());
         }
+        metrics.broadcastDone(start);
     }
 
     // Keep the old broadcast method for backwards compatibility if needed
@@ -202,6 +914,16 @@ public class MessengerServer extends WebSocketServer {
         broadcastToAuthenticated(message);
     }
 
+    /** The persistent message history, or null when it is disabled. */
+    public HistoryStore getHistory() {
+        return history;
+    }
+
+    /** HELLOs refused because the handshake queue was full. */
+    public long getRejectedHandshakeCount() {
+        return rejectedHandshakes.get();
+    }
+
     public int getConnectionCount() {
         return connections.size();
     }
@@ -210,8 +932,44 @@ public class MessengerServer extends WebSocketServer {
         return authenticatedConnections.size();
     }
 
+    /** Members of {@code room} connected to this node. */
+    public int getRoomMemberCount(String room) {
+        return rooms.count(room);
+    }
+
+    /** Members of {@code room} across the cluster; the same as {@link #getRoomMemberCount} when standalone. */
+    public int getClusterRoomMemberCount(String room) {
+        return clusterCount(room);
+    }
+
+    public Set<String> getRooms() {
+        return rooms.roomNames();
+    }
+
+    public Set<String> getRoomsOf(WebSocket conn) {
+        return rooms.roomsOf(conn);
+    }
+
+    /** Frames queued for {@code conn} but not yet handed to its socket; 0 if unknown. */
+    public int getOutboundQueueDepth(WebSocket conn) {
+        ClientSession session = sessions.get(conn);
+        return session == null ? 0 : session.getOutbound().getDepth();
+    }
+
+    public long getOutboundQueuedBytes(WebSocket conn) {
+        ClientSession session = sessions.get(conn);
+        return session == null ? 0 : session.getOutbound().getQueuedBytes();
+    }
+
+    /** Snapshot of the outbound queue depth of every authenticated connection. */
+    public Map<WebSocket, Integer> getOutboundQueueDepths() {
+        Map<WebSocket, Integer> depths = new HashMap<>();
+        sessions.forEach((conn, session) -> depths.put(conn, session.getOutbound().getDepth()));
+        return depths;
+    }
+
     Message processIncomingRawJson(String rawJson) throws java.io.IOException {
-        Message msg = objectMapper.readValue(rawJson, Message.class);
+        Message msg = MessageCodec.read(rawJson);
         msg.setTimestamp(System.currentTimeMillis());
         return msg;
     }
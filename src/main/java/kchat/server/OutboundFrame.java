@@ -0,0 +1,96 @@
+package kchat.server;
+
+import kchat.protocol.FrameBatch;
+import kchat.protocol.PerMessageDeflate;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.TextFrame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An encoded payload that can be queued for many connections at once.
+ * The bytes are shared; each send gets its own frame over a duplicate of the buffer,
+ * because Java-WebSocket moves the payload position while writing the frame.
+ */
+final class OutboundFrame {
+    private final ByteBuffer payload;
+    private final String coalesceKey;
+    private final boolean binary;
+    private final OutboundFrame uncompressed; // what a deflated frame was compressed from, else null
+
+    private OutboundFrame(ByteBuffer payload, String coalesceKey, boolean binary, OutboundFrame uncompressed) {
+        this.payload = payload;
+        this.coalesceKey = coalesceKey;
+        this.binary = binary;
+        this.uncompressed = uncompressed;
+    }
+
+    private OutboundFrame(ByteBuffer payload, String coalesceKey, boolean binary) {
+        this(payload, coalesceKey, binary, null);
+    }
+
+    static OutboundFrame text(byte[] utf8Payload, String coalesceKey) {
+        return new OutboundFrame(ByteBuffer.wrap(utf8Payload).asReadOnlyBuffer(), coalesceKey, false);
+    }
+
+    /** Wraps an already encoded UTF-8 payload, e.g. a stored history record. */
+    static OutboundFrame text(ByteBuffer utf8Payload, String coalesceKey) {
+        return new OutboundFrame(utf8Payload.asReadOnlyBuffer(), coalesceKey, false);
+    }
+
+    static OutboundFrame binary(byte[] payload, String coalesceKey) {
+        return new OutboundFrame(ByteBuffer.wrap(payload).asReadOnlyBuffer(), coalesceKey, true);
+    }
+
+    /** Non-null when a newer frame with the same key makes this one obsolete (e.g. USER_COUNT). */
+    String coalesceKey() { return coalesceKey; }
+
+    int size() { return payload.remaining(); }
+
+    boolean isBinary() { return binary; }
+
+    /** True when the payload is permessage-deflate compressed and goes out with RSV1 set. */
+    boolean isDeflated() { return uncompressed != null; }
+
+    /**
+     * The same frame compressed once for every permessage-deflate connection (see
+     * {@link PerMessageDeflate}), or this frame when compressing would not make it smaller.
+     */
+    OutboundFrame deflate() {
+        byte[] compressed = PerMessageDeflate.compress(payload);
+        if (compressed.length >= payload.remaining()) return this;
+        return new OutboundFrame(ByteBuffer.wrap(compressed).asReadOnlyBuffer(), coalesceKey, binary, this);
+    }
+
+    /**
+     * One frame carrying all of {@code frames}, which share a format, as a {@link FrameBatch}.
+     * Deflated frames contribute their uncompressed payload; the batch itself goes out
+     * uncompressed and is left to the connection's permessage-deflate extension.
+     */
+    static OutboundFrame batch(List<OutboundFrame> frames) {
+        boolean binary = frames.get(0).binary;
+        List<ByteBuffer> payloads = new ArrayList<>(frames.size());
+        for (OutboundFrame frame : frames) {
+            payloads.add((frame.uncompressed != null ? frame.uncompressed : frame).payload);
+        }
+        byte[] packed = binary ? FrameBatch.packBinary(payloads) : FrameBatch.packJson(payloads);
+        return new OutboundFrame(ByteBuffer.wrap(packed).asReadOnlyBuffer(), null, binary);
+    }
+
+    /** Payload bytes this frame adds to a batch. */
+    int batchedSize() {
+        return (uncompressed != null ? uncompressed : this).size();
+    }
+
+    Framedata toFrame() {
+        DataFrame frame = binary ? new BinaryFrame() : new TextFrame();
+        frame.setFin(true);
+        frame.setRSV1(uncompressed != null);
+        frame.setPayload(payload.duplicate());
+        return frame;
+    }
+}
@@ -0,0 +1,252 @@
+package kchat.server;
+
+import org.java_websocket.WebSocket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded backlog of frames waiting for one connection.
+ * Broadcasts only enqueue here; frames are handed to the socket on the outbound executor,
+ * and only once the socket has flushed what it was given last time. A stalled client
+ * therefore fills this queue (where the overflow policy applies) rather than the
+ * library's unbounded write queue.
+ *
+ * <p>For a client that negotiated batching, consecutive queued frames of the same format go out
+ * as one {@link kchat.protocol.FrameBatch} frame, up to {@code kchat.batch.maxBytes}. Batching
+ * adapts to load: a frame for a connection that has not been written to within the last
+ * {@code kchat.batch.windowMs} is sent at once, while a busy connection waits out the rest of
+ * that window so that whatever arrives meanwhile shares its next write.
+ */
+final class OutboundQueue {
+    static final int CLOSE_POLICY_VIOLATION = 1008;
+    private static final long RETRY_DELAY_MS = 5;
+
+    private final WebSocket conn;
+    private final ServerConfig config;
+    private final ScheduledExecutorService executor;
+    private final ArrayDeque<OutboundFrame> pending = new ArrayDeque<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final LongAdder dropped = new LongAdder();
+    private final ServerMetrics metrics;
+    private final boolean batching;
+    private volatile long lastSendNanos;
+    private long queuedBytes; // guarded by this
+    private boolean evicted; // guarded by this
+    private boolean held; // guarded by this; frames queue up but nothing is sent until release()
+
+    OutboundQueue(WebSocket conn, ServerConfig config, ScheduledExecutorService executor) {
+        this(conn, config, executor, new ServerMetrics());
+    }
+
+    OutboundQueue(WebSocket conn, ServerConfig config, ScheduledExecutorService executor, ServerMetrics metrics) {
+        this(conn, config, executor, metrics, false);
+    }
+
+    /** {@code batching}: the client unpacks batch frames, see {@link ServerConfig#isBatching()}. */
+    OutboundQueue(WebSocket conn, ServerConfig config, ScheduledExecutorService executor, ServerMetrics metrics, boolean batching) {
+        this.conn = conn;
+        this.config = config;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.batching = batching;
+        this.lastSendNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(config.getBatchWindowMillis());
+    }
+
+    /**
+     * Queues a frame, applying the overflow policy if the high-water mark would be crossed.
+     * Returns false if the frame was not queued.
+     */
+    boolean offer(OutboundFrame frame) {
+        boolean evict = false;
+        boolean send;
+        synchronized (this) {
+            if (evicted) return false;
+            if (wouldOverflow(frame)) {
+                switch (config.getOverflowPolicy()) {
+                    case DROP_NEWEST:
+                        drop(1);
+                        return false;
+                    case COALESCE_USER_COUNT:
+                        coalesce(frame);
+                        dropOldestUntilFits(frame);
+                        break;
+                    case DISCONNECT:
+                        evicted = true;
+                        drop(pending.size());
+                        pending.clear();
+                        queuedBytes = 0;
+                        evict = true;
+                        break;
+                    case DROP_OLDEST:
+                    default:
+                        dropOldestUntilFits(frame);
+                        break;
+                }
+            }
+            if (!evict) {
+                pending.addLast(frame);
+                queuedBytes += frame.size();
+            }
+            send = !held;
+        }
+        if (evict) {
+            try { conn.close(CLOSE_POLICY_VIOLATION, "Slow consumer"); } catch (Exception ignore) {}
+            return false;
+        }
+        if (send) scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Keeps queued frames back until {@link #release()}, so that something written to the
+     * connection directly (the WELCOME) goes out ahead of them. The overflow policy still applies.
+     */
+    synchronized void hold() {
+        held = true;
+    }
+
+    void release() {
+        synchronized (this) {
+            held = false;
+            if (pending.isEmpty()) return;
+        }
+        scheduleDrain();
+    }
+
+    private boolean wouldOverflow(OutboundFrame incoming) {
+        return pending.size() + 1 > config.getOutboundMaxMessages()
+            || queuedBytes + incoming.size() > config.getOutboundMaxBytes();
+    }
+
+    private void dropOldestUntilFits(OutboundFrame incoming) {
+        while (!pending.isEmpty() && wouldOverflow(incoming)) {
+            OutboundFrame old = pending.pollFirst();
+            queuedBytes -= old.size();
+            drop(1);
+        }
+    }
+
+    /** Removes every queued frame that a newer frame with the same coalesce key supersedes. */
+    private void coalesce(OutboundFrame incoming) {
+        Set<String> newer = new HashSet<>();
+        if (incoming.coalesceKey() != null) newer.add(incoming.coalesceKey());
+        Iterator<OutboundFrame> it = pending.descendingIterator();
+        while (it.hasNext()) {
+            OutboundFrame f = it.next();
+            String key = f.coalesceKey();
+            if (key != null && !newer.add(key)) {
+                it.remove();
+                queuedBytes -= f.size();
+                drop(1);
+            }
+        }
+    }
+
+    private void drop(int frames) {
+        dropped.add(frames);
+        metrics.dropped(frames);
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                long linger = lingerNanos();
+                if (linger > 0) {
+                    executor.schedule(this::drain, linger, TimeUnit.NANOSECONDS);
+                } else {
+                    executor.execute(this::drain);
+                }
+            } catch (Exception e) {
+                drainScheduled.set(false); // executor shut down with the server
+            }
+        }
+    }
+
+    /** What is left of the batch window since the last write; 0 when idle or not batching. */
+    private long lingerNanos() {
+        if (!batching) return 0L;
+        long window = TimeUnit.MILLISECONDS.toNanos(config.getBatchWindowMillis());
+        return Math.max(0L, window - (System.nanoTime() - lastSendNanos));
+    }
+
+    void drain() {
+        if (!conn.isOpen()) {
+            clear();
+            drainScheduled.set(false);
+            return;
+        }
+        if (conn.hasBufferedData()) {
+            // The socket has not flushed the previous batch yet; back off and let this queue absorb the burst
+            try {
+                executor.schedule(this::drain, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                drainScheduled.set(false);
+            }
+            return;
+        }
+        int budget;
+        synchronized (this) { budget = pending.size(); }
+        List<OutboundFrame> batch = new ArrayList<>();
+        while (budget > 0) {
+            batch.clear();
+            synchronized (this) {
+                pollBatch(batch, budget);
+            }
+            if (batch.isEmpty()) break;
+            budget -= batch.size();
+            OutboundFrame next = batch.size() == 1 ? batch.get(0) : OutboundFrame.batch(batch);
+            try {
+                conn.sendFrame(next.toFrame());
+                metrics.sent(next.size());
+                if (batch.size() > 1) metrics.batched(batch.size());
+            } catch (Exception e) {
+                clear();
+                break;
+            }
+        }
+        lastSendNanos = System.nanoTime();
+        drainScheduled.set(false);
+        if (getDepth() > 0) scheduleDrain();
+    }
+
+    /**
+     * Moves the next frame into {@code batch}, followed (when batching) by as many of the frames
+     * behind it as share its format and fit within {@code kchat.batch.maxBytes}, up to {@code max}.
+     */
+    private void pollBatch(List<OutboundFrame> batch, int max) {
+        OutboundFrame first = pending.pollFirst();
+        if (first == null) return;
+        queuedBytes -= first.size();
+        batch.add(first);
+        if (!batching) return;
+        long bytes = first.batchedSize();
+        OutboundFrame next;
+        while (batch.size() < max && (next = pending.peekFirst()) != null
+            && next.isBinary() == first.isBinary() && bytes + next.batchedSize() <= config.getBatchMaxBytes()) {
+            pending.pollFirst();
+            queuedBytes -= next.size();
+            bytes += next.batchedSize();
+            batch.add(next);
+        }
+    }
+
+    synchronized void clear() {
+        pending.clear();
+        queuedBytes = 0;
+    }
+
+    synchronized int getDepth() { return pending.size(); }
+
+    synchronized long getQueuedBytes() { return queuedBytes; }
+
+    long getDroppedCount() { return dropped.sum(); }
+}
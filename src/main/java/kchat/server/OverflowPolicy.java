@@ -0,0 +1,29 @@
+package kchat.server;
+
+import kchat.logging.Log;
+
+/**
+ * What an {@link OutboundQueue} does when a connection's backlog crosses its high-water mark.
+ */
+public enum OverflowPolicy {
+    /** Discard the oldest queued frames until the new one fits. */
+    DROP_OLDEST,
+    /** Discard the frame being offered and keep the backlog as is. */
+    DROP_NEWEST,
+    /** Keep only the newest USER_COUNT-style snapshot per key, then fall back to dropping the oldest frames. */
+    COALESCE_USER_COUNT,
+    /** Close the connection with 1008 (policy violation). */
+    DISCONNECT;
+
+    private static final Log LOG = Log.get(OverflowPolicy.class);
+
+    static OverflowPolicy parse(String value, OverflowPolicy fallback) {
+        if (value == null || value.isEmpty()) return fallback;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Unknown overflow policy '{}', using {}", value, fallback);
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package kchat.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects joins and leaves per room and emits at most one delta per room per tick,
+ * so a reconnect storm costs one presence frame per room per tick instead of one per event.
+ * A tick is only scheduled while there is something to report.
+ */
+final class PresenceAggregator {
+
+    interface Sink {
+        void publish(String room, List<String> joined, List<String> left);
+    }
+
+    private static final class Delta {
+        final Set<String> joined = new LinkedHashSet<>();
+        final Set<String> left = new LinkedHashSet<>();
+    }
+
+    private final Map<String, Delta> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+    private final long tickMillis;
+    private final Sink sink;
+
+    PresenceAggregator(ScheduledExecutorService executor, long tickMillis, Sink sink) {
+        this.executor = executor;
+        this.tickMillis = tickMillis;
+        this.sink = sink;
+    }
+
+    void joined(String room, String memberId) {
+        record(room, memberId, true);
+    }
+
+    void left(String room, String memberId) {
+        record(room, memberId, false);
+    }
+
+    private void record(String room, String memberId, boolean joined) {
+        pending.compute(room, (r, delta) -> {
+            Delta d = delta != null ? delta : new Delta();
+            // A join and leave inside the same tick cancel out
+            if (joined) {
+                if (!d.left.remove(memberId)) d.joined.add(memberId);
+            } else if (!d.joined.remove(memberId)) {
+                d.left.add(memberId);
+            }
+            return d;
+        });
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this::flush, tickMillis, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                flushScheduled.set(false); // executor shut down with the server
+            }
+        }
+    }
+
+    void flush() {
+        flushScheduled.set(false);
+        for (String room : pending.keySet()) {
+            Delta delta = pending.remove(room);
+            if (delta == null) continue;
+            // Even an empty (cancelled-out) delta is published once, the count may still be stale
+            sink.publish(room, new ArrayList<>(delta.joined), new ArrayList<>(delta.left));
+        }
+    }
+}
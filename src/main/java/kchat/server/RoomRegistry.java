@@ -0,0 +1,84 @@
+package kchat.server;
+
+import org.java_websocket.WebSocket;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Room membership for authenticated connections: room -> subscribers plus the reverse
+ * index so a closing connection can leave all its rooms without scanning every room.
+ */
+final class RoomRegistry {
+    static final int MAX_ROOM_NAME_LENGTH = 64;
+
+    private final Map<String, Set<WebSocket>> rooms = new ConcurrentHashMap<>();
+    private final Map<WebSocket, Set<String>> memberships = new ConcurrentHashMap<>();
+
+    static boolean isValidName(String room) {
+        return room != null && !room.isEmpty() && room.length() <= MAX_ROOM_NAME_LENGTH
+            && room.indexOf(':') < 0 && room.trim().equals(room);
+    }
+
+    /** Returns true if {@code conn} was not already a member. */
+    boolean join(WebSocket conn, String room) {
+        boolean[] added = new boolean[1];
+        rooms.compute(room, (name, members) -> {
+            Set<WebSocket> set = members != null ? members : ConcurrentHashMap.newKeySet();
+            added[0] = set.add(conn);
+            return set;
+        });
+        if (added[0]) memberships.computeIfAbsent(conn, c -> ConcurrentHashMap.newKeySet()).add(room);
+        return added[0];
+    }
+
+    /** Returns true if {@code conn} was a member. Empty rooms are discarded. */
+    boolean leave(WebSocket conn, String room) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(room, (name, members) -> {
+            removed[0] = members.remove(conn);
+            return members.isEmpty() ? null : members;
+        });
+        Set<String> joined = memberships.get(conn);
+        if (joined != null) joined.remove(room);
+        return removed[0];
+    }
+
+    /** Removes {@code conn} from every room and returns the rooms it was in. */
+    Set<String> leaveAll(WebSocket conn) {
+        Set<String> joined = memberships.remove(conn);
+        if (joined == null) return Collections.emptySet();
+        for (String room : joined) {
+            rooms.computeIfPresent(room, (name, members) -> {
+                members.remove(conn);
+                return members.isEmpty() ? null : members;
+            });
+        }
+        return joined;
+    }
+
+    /** Live view of a room's subscribers; empty if the room does not exist. */
+    Set<WebSocket> members(String room) {
+        Set<WebSocket> members = rooms.get(room);
+        return members != null ? members : Collections.emptySet();
+    }
+
+    boolean isMember(WebSocket conn, String room) {
+        return members(room).contains(conn);
+    }
+
+    int count(String room) {
+        return members(room).size();
+    }
+
+    Set<String> roomNames() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    Set<String> roomsOf(WebSocket conn) {
+        Set<String> joined = memberships.get(conn);
+        return joined != null ? Collections.unmodifiableSet(joined) : Collections.emptySet();
+    }
+}
@@ -0,0 +1,200 @@
+package kchat.server;
+
+import kchat.protocol.PerMessageDeflate;
+
+/**
+ * Tunables for {@link MessengerServer}. Every default can be overridden with a
+ * {@code -Dkchat.*} system property, the same way TLS is enabled in SecurityConfig.
+ */
+public class ServerConfig {
+    private int outboundMaxMessages = Integer.getInteger("kchat.outbound.maxMessages", 1024);
+    private long outboundMaxBytes = Long.getLong("kchat.outbound.maxBytes", 4L * 1024 * 1024);
+    private OverflowPolicy overflowPolicy = OverflowPolicy.parse(System.getProperty("kchat.outbound.policy"), OverflowPolicy.DROP_OLDEST);
+    private int outboundThreads = Integer.getInteger("kchat.outbound.threads", Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    private long presenceTickMillis = Long.getLong("kchat.presence.tickMs", 250);
+    private boolean perEventPresence = Boolean.getBoolean("kchat.presence.perEvent");
+    private boolean binaryProtocolEnabled = !"false".equalsIgnoreCase(System.getProperty("kchat.binaryProtocol"));
+    private String historyDir = System.getProperty("kchat.history.dir");
+    private long historySegmentBytes = Long.getLong("kchat.history.segmentBytes", 16L * 1024 * 1024);
+    private int historyMaxSegments = Integer.getInteger("kchat.history.maxSegments", 32);
+    private long historyRetentionMillis = Long.getLong("kchat.history.retentionMs", 0L);
+    private int historyReplayCount = Integer.getInteger("kchat.history.replay", 50);
+    private int historyMaxReplay = Integer.getInteger("kchat.history.maxReplay", 1000);
+    private long rekeyIntervalMillis = Long.getLong("kchat.rekey.intervalMs", 0L);
+    private long rekeyGraceMillis = Long.getLong("kchat.rekey.graceMs", 60_000L);
+    private int handshakeThreads = Integer.getInteger("kchat.handshake.threads", Runtime.getRuntime().availableProcessors());
+    private int handshakeQueue = Integer.getInteger("kchat.handshake.queue", 1024);
+    private long ticketLifetimeMillis = Long.getLong("kchat.ticket.lifetimeMs", 3_600_000L);
+    private int metricsPort = Integer.getInteger("kchat.metrics.port", 0);
+    private String metricsHost = System.getProperty("kchat.metrics.host", "127.0.0.1");
+    private boolean metricsJmxEnabled = !"false".equalsIgnoreCase(System.getProperty("kchat.metrics.jmx"));
+    private String serverId = System.getProperty("kchat.serverId");
+    private String clusterNodeId = System.getProperty("kchat.cluster.nodeId");
+    private int clusterPort = Integer.getInteger("kchat.cluster.port", 0);
+    private String clusterBind = System.getProperty("kchat.cluster.bind", "0.0.0.0");
+    private String clusterPeers = System.getProperty("kchat.cluster.peers", "");
+    private String clusterSecret = System.getProperty("kchat.cluster.secret");
+    private int shards = Integer.getInteger("kchat.server.shards", 1);
+    private int decoderThreads = Integer.getInteger("kchat.server.decoders", Runtime.getRuntime().availableProcessors());
+    private String transport = System.getProperty("kchat.server.transport", "selector");
+    private boolean blockingVirtualThreads = !"false".equalsIgnoreCase(System.getProperty("kchat.blocking.virtualThreads"));
+    private boolean deflate = !"false".equalsIgnoreCase(System.getProperty("kchat.deflate"));
+    private int deflateThreshold = Integer.getInteger("kchat.deflate.threshold", PerMessageDeflate.DEFAULT_THRESHOLD);
+    private boolean batching = !"false".equalsIgnoreCase(System.getProperty("kchat.batch"));
+    private long batchWindowMillis = Long.getLong("kchat.batch.windowMs", 2);
+    private int batchMaxBytes = Integer.getInteger("kchat.batch.maxBytes", 16 * 1024);
+
+    public static ServerConfig fromSystemProperties() {
+        return new ServerConfig();
+    }
+
+    public int getOutboundMaxMessages() { return outboundMaxMessages; }
+    public void setOutboundMaxMessages(int outboundMaxMessages) { this.outboundMaxMessages = outboundMaxMessages; }
+
+    public long getOutboundMaxBytes() { return outboundMaxBytes; }
+    public void setOutboundMaxBytes(long outboundMaxBytes) { this.outboundMaxBytes = outboundMaxBytes; }
+
+    public OverflowPolicy getOverflowPolicy() { return overflowPolicy; }
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) { this.overflowPolicy = overflowPolicy; }
+
+    public int getOutboundThreads() { return outboundThreads; }
+    public void setOutboundThreads(int outboundThreads) { this.outboundThreads = outboundThreads; }
+
+    /** How often batched presence deltas are published. */
+    public long getPresenceTickMillis() { return presenceTickMillis; }
+    public void setPresenceTickMillis(long presenceTickMillis) { this.presenceTickMillis = presenceTickMillis; }
+
+    /** Opt back into a join/leave notice plus USER_COUNT broadcast for every single event. */
+    public boolean isPerEventPresence() { return perEventPresence; }
+    public void setPerEventPresence(boolean perEventPresence) { this.perEventPresence = perEventPresence; }
+
+    /** Whether clients may negotiate BinaryCodec framing; JSON text always works. */
+    public boolean isBinaryProtocolEnabled() { return binaryProtocolEnabled; }
+    public void setBinaryProtocolEnabled(boolean binaryProtocolEnabled) { this.binaryProtocolEnabled = binaryProtocolEnabled; }
+
+    /** Directory for the persistent message history; null (the default) disables history. */
+    public String getHistoryDir() { return historyDir; }
+    public void setHistoryDir(String historyDir) { this.historyDir = historyDir; }
+
+    /** Size at which the active history segment is closed and a new one started. */
+    public long getHistorySegmentBytes() { return historySegmentBytes; }
+    public void setHistorySegmentBytes(long historySegmentBytes) { this.historySegmentBytes = historySegmentBytes; }
+
+    public int getHistoryMaxSegments() { return historyMaxSegments; }
+    public void setHistoryMaxSegments(int historyMaxSegments) { this.historyMaxSegments = historyMaxSegments; }
+
+    /** Segments whose newest message is older than this are deleted; 0 keeps them until the segment limit. */
+    public long getHistoryRetentionMillis() { return historyRetentionMillis; }
+    public void setHistoryRetentionMillis(long historyRetentionMillis) { this.historyRetentionMillis = historyRetentionMillis; }
+
+    /** Messages replayed to a client joining a room when it asks for nothing specific. */
+    public int getHistoryReplayCount() { return historyReplayCount; }
+    public void setHistoryReplayCount(int historyReplayCount) { this.historyReplayCount = historyReplayCount; }
+
+    /** Upper bound on any single replay, including since/after requests. */
+    public int getHistoryMaxReplay() { return historyMaxReplay; }
+    public void setHistoryMaxReplay(int historyMaxReplay) { this.historyMaxReplay = historyMaxReplay; }
+
+    /** Rotate the group key this often (0, the default, = only on {@link MessengerServer#rotateGroupKey()}). */
+    public long getRekeyIntervalMillis() { return rekeyIntervalMillis; }
+    public void setRekeyIntervalMillis(long rekeyIntervalMillis) { this.rekeyIntervalMillis = rekeyIntervalMillis; }
+
+    /** How long clients keep decrypting with the previous group key after a rotation. */
+    public long getRekeyGraceMillis() { return rekeyGraceMillis; }
+    public void setRekeyGraceMillis(long rekeyGraceMillis) { this.rekeyGraceMillis = rekeyGraceMillis; }
+
+    /** How long a session resumption ticket stays valid; 0 disables resumption. */
+    public long getTicketLifetimeMillis() { return ticketLifetimeMillis; }
+    public void setTicketLifetimeMillis(long ticketLifetimeMillis) { this.ticketLifetimeMillis = ticketLifetimeMillis; }
+
+    /** Threads that run HELLO handshakes (key agreement, key wrapping) off the WebSocket thread. */
+    public int getHandshakeThreads() { return handshakeThreads; }
+    public void setHandshakeThreads(int handshakeThreads) { this.handshakeThreads = handshakeThreads; }
+
+    /** HELLOs that may wait for a handshake thread; beyond this they are refused with close code 1013. */
+    public int getHandshakeQueue() { return handshakeQueue; }
+    public void setHandshakeQueue(int handshakeQueue) { this.handshakeQueue = handshakeQueue; }
+
+    /** Port of the Prometheus {@code /metrics} endpoint; 0 (the default) leaves it off. */
+    public int getMetricsPort() { return metricsPort; }
+    public void setMetricsPort(int metricsPort) { this.metricsPort = metricsPort; }
+
+    /** Address the metrics endpoint binds to; loopback unless a scraper elsewhere needs it. */
+    public String getMetricsHost() { return metricsHost; }
+    public void setMetricsHost(String metricsHost) { this.metricsHost = metricsHost; }
+
+    /** Whether the running server registers its metrics as a JMX MBean. */
+    public boolean isMetricsJmxEnabled() { return metricsJmxEnabled; }
+    public void setMetricsJmxEnabled(boolean metricsJmxEnabled) { this.metricsJmxEnabled = metricsJmxEnabled; }
+
+    /**
+     * The serverId clients put in their HELLO. Null (the default) means a random one per process;
+     * a cluster requires it, set to the same value on every node.
+     */
+    public String getServerId() { return serverId; }
+    public void setServerId(String serverId) { this.serverId = serverId; }
+
+    /** This node's name in the cluster; null (the default) picks a random one at startup. */
+    public String getClusterNodeId() { return clusterNodeId; }
+    public void setClusterNodeId(String clusterNodeId) { this.clusterNodeId = clusterNodeId; }
+
+    /** Port the node links with its peers on; 0 (the default) runs a standalone server. */
+    public int getClusterPort() { return clusterPort; }
+    public void setClusterPort(int clusterPort) { this.clusterPort = clusterPort; }
+
+    public String getClusterBind() { return clusterBind; }
+    public void setClusterBind(String clusterBind) { this.clusterBind = clusterBind; }
+
+    /** Peers to dial, as {@code host:port[,host:port...]}; each pair needs listing on one side only. */
+    public String getClusterPeers() { return clusterPeers; }
+    public void setClusterPeers(String clusterPeers) { this.clusterPeers = clusterPeers; }
+
+    /**
+     * Shared by every node; group, ticket and link keys are all derived from it. Required for
+     * clustering, at least 16 characters of which at least 8 differ.
+     */
+    public String getClusterSecret() { return clusterSecret; }
+    public void setClusterSecret(String clusterSecret) { this.clusterSecret = clusterSecret; }
+
+    /**
+     * WebSocket listeners, each with its own selector thread and decoder pool, sharing one set of
+     * sessions and rooms. Shard i listens on port + i.
+     */
+    public int getShards() { return shards; }
+    public void setShards(int shards) { this.shards = shards; }
+
+    /** Threads per shard that decode frames and run the message callbacks. */
+    public int getDecoderThreads() { return decoderThreads; }
+    public void setDecoderThreads(int decoderThreads) { this.decoderThreads = decoderThreads; }
+
+    /** {@code selector} (Java-WebSocket, the default) or {@code blocking} (a thread per connection). */
+    public String getTransport() { return transport; }
+    public void setTransport(String transport) { this.transport = transport; }
+
+    /** Whether the blocking transport uses virtual threads where the runtime has them (Java 21+). */
+    public boolean isBlockingVirtualThreads() { return blockingVirtualThreads; }
+    public void setBlockingVirtualThreads(boolean blockingVirtualThreads) { this.blockingVirtualThreads = blockingVirtualThreads; }
+
+    /** Whether the selector transport accepts permessage-deflate from clients that offer it. */
+    public boolean isDeflate() { return deflate; }
+    public void setDeflate(boolean deflate) { this.deflate = deflate; }
+
+    /** Payloads smaller than this many bytes are sent uncompressed to permessage-deflate clients. */
+    public int getDeflateThreshold() { return deflateThreshold; }
+    public void setDeflateThreshold(int deflateThreshold) { this.deflateThreshold = deflateThreshold; }
+
+    /** Whether clients that offer {@code batch} in HELLO may get several messages per frame. */
+    public boolean isBatching() { return batching; }
+    public void setBatching(boolean batching) { this.batching = batching; }
+
+    /**
+     * How long a connection that was sent a frame less than this long ago waits before its next
+     * write, so messages arriving meanwhile share one batch frame (0 = batch only what is already queued).
+     */
+    public long getBatchWindowMillis() { return batchWindowMillis; }
+    public void setBatchWindowMillis(long batchWindowMillis) { this.batchWindowMillis = batchWindowMillis; }
+
+    /** Largest batch frame payload; a message that does not fit starts the next batch. */
+    public int getBatchMaxBytes() { return batchMaxBytes; }
+    public void setBatchMaxBytes(int batchMaxBytes) { this.batchMaxBytes = batchMaxBytes; }
+}
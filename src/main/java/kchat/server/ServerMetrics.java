@@ -0,0 +1,90 @@
+package kchat.server;
+
+import kchat.metrics.Counter;
+import kchat.metrics.Histogram;
+import kchat.metrics.MetricsRegistry;
+
+/**
+ * The hot-path metrics of one {@link MessengerServer}. Every method is a LongAdder update (plus
+ * a bucket scan for durations), safe to call from any thread without locking.
+ * Gauges that read server state are registered by the server itself.
+ */
+final class ServerMetrics {
+    private final MetricsRegistry registry;
+    private final Counter messagesIn;
+    private final Counter bytesIn;
+    private final Counter messagesOut;
+    private final Counter bytesOut;
+    private final Counter decodeErrors;
+    private final Counter droppedFrames;
+    private final Counter batchedMessages;
+    private final Counter handshakesSucceeded;
+    private final Counter handshakesFailed;
+    private final Histogram handshakeDuration;
+    private final Histogram broadcastDuration;
+
+    ServerMetrics() {
+        this(new MetricsRegistry());
+    }
+
+    ServerMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        messagesIn = registry.counter("kchat_messages_received_total", "WebSocket messages received from clients");
+        bytesIn = registry.counter("kchat_received_bytes_total", "Payload bytes received from clients");
+        messagesOut = registry.counter("kchat_messages_sent_total", "Frames handed to client sockets");
+        bytesOut = registry.counter("kchat_sent_bytes_total", "Payload bytes handed to client sockets");
+        decodeErrors = registry.counter("kchat_decode_errors_total", "Incoming messages that were not valid JSON or binary frames");
+        droppedFrames = registry.counter("kchat_outbound_dropped_total", "Frames discarded by the outbound overflow policy");
+        batchedMessages = registry.counter("kchat_batched_messages_total", "Messages sent inside a batch frame instead of a frame of their own");
+        handshakesSucceeded = registry.counter("kchat_handshakes_succeeded_total", "HELLOs answered with a WELCOME");
+        handshakesFailed = registry.counter("kchat_handshakes_failed_total", "HELLOs refused as malformed, for another server, or failing");
+        handshakeDuration = registry.histogram("kchat_handshake_duration_seconds", "HELLO received to WELCOME sent, including time queued for a handshake thread");
+        broadcastDuration = registry.histogram("kchat_broadcast_duration_seconds", "Time to queue one message for every recipient");
+    }
+
+    MetricsRegistry registry() { return registry; }
+
+    void received(long bytes) {
+        messagesIn.inc();
+        bytesIn.add(bytes);
+    }
+
+    void sent(long bytes) {
+        messagesOut.inc();
+        bytesOut.add(bytes);
+    }
+
+    void decodeError() { decodeErrors.inc(); }
+
+    void dropped(long frames) { droppedFrames.add(frames); }
+
+    void batched(long messages) { batchedMessages.add(messages); }
+
+    void handshakeSucceeded(long startNanos) {
+        handshakesSucceeded.inc();
+        handshakeDuration.observeSince(startNanos);
+    }
+
+    void handshakeFailed() { handshakesFailed.inc(); }
+
+    void broadcastDone(long startNanos) { broadcastDuration.observeSince(startNanos); }
+
+    /** Encoded length of {@code s} in UTF-8, without encoding it. */
+    static int utf8Length(String s) {
+        int n = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    n += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    n += 2; // 4 bytes for the pair's 2 chars
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    n += 2;
+                } // a lone surrogate is encoded as a single '?'
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,59 @@
+package kchat.server;
+
+import kchat.logging.Log;
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * An extra listener of a {@link MessengerServer}: its own selector thread and decoder pool,
+ * with every callback handed to the owning server, so connections accepted here share the
+ * owner's sessions, rooms and broadcasts. Sends go through each connection, which wakes the
+ * selector of the shard that accepted it.
+ */
+final class ServerShard extends WebSocketServer {
+    private static final Log LOG = Log.get(ServerShard.class);
+
+    private final MessengerServer owner;
+
+    ServerShard(MessengerServer owner, InetSocketAddress address, int decoders, List<Draft> drafts) {
+        super(address, decoders, drafts);
+        this.owner = owner;
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        owner.onOpen(conn, handshake);
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        owner.onClose(conn, code, reason, remote);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        owner.onMessage(conn, message);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        owner.onMessage(conn, message);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        owner.onError(conn, ex);
+    }
+
+    @Override
+    public void onStart() {
+        setConnectionLostTimeout(10);
+        LOG.info("Messenger Server shard listening on port {}", getPort());
+    }
+}
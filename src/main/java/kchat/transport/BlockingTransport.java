@@ -0,0 +1,160 @@
+package kchat.transport;
+
+import kchat.logging.Log;
+import kchat.security.SecurityConfig;
+import kchat.server.MessengerServer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Blocking I/O with one thread per connection, as the alternative to Java-WebSocket's selector
+ * loop: each connection's thread runs the upgrade, then reads frames and calls the server's
+ * {@code onOpen}/{@code onMessage}/{@code onClose} exactly as the selector transport does, so
+ * HELLO/WELCOME, rooms and broadcasts behave the same.
+ *
+ * <p>Connection threads are virtual threads when the runtime has them (Java 21+) and
+ * {@code kchat.blocking.virtualThreads} is not false; otherwise platform threads with a small
+ * stack. The server's shards ({@code kchat.server.shards}) and decoder pool do not apply here.
+ */
+public final class BlockingTransport implements ServerTransport {
+    private static final Log LOG = Log.get(BlockingTransport.class);
+    private static final long PLATFORM_STACK_BYTES = 256 * 1024;
+    private static final int BACKLOG = 1024;
+    private static final int PING_INTERVAL_MILLIS = 10_000; // what the selector transport's connection-lost timer uses
+
+    private final MessengerServer server;
+    private final ThreadFactory threads;
+    private final boolean virtualThreads;
+    private final int pingIntervalMillis;
+    private final Set<BlockingWebSocket> connections = ConcurrentHashMap.newKeySet();
+    private volatile ServerSocket serverSocket;
+    private volatile boolean stopped;
+
+    public BlockingTransport(MessengerServer server) {
+        this(server, server.getConfig().isBlockingVirtualThreads() ? virtualThreadFactory() : null, PING_INTERVAL_MILLIS);
+    }
+
+    /** {@code threads} null means platform threads. */
+    BlockingTransport(MessengerServer server, ThreadFactory threads, int pingIntervalMillis) {
+        this.server = server;
+        this.virtualThreads = threads != null;
+        this.threads = threads != null ? threads : platformThreadFactory();
+        this.pingIntervalMillis = pingIntervalMillis;
+    }
+
+    /**
+     * {@code Thread.ofVirtual().factory()}, looked up reflectively because the project compiles
+     * for Java 17; null when the runtime has no (or only preview) virtual threads.
+     */
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Object named = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class).invoke(builder, "kchat-conn-", 1L);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(named);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory platformThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(null, r, "kchat-conn-" + counter.incrementAndGet(), PLATFORM_STACK_BYTES);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @Override
+    public MessengerServer getServer() { return server; }
+
+    /** Whether connections run on virtual threads. */
+    public boolean isVirtualThreads() { return virtualThreads; }
+
+    /** The bound port (useful when the server was created with port 0), or -1 before start. */
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket == null ? -1 : socket.getLocalPort();
+    }
+
+    /** Connections past the upgrade and not yet closed. */
+    public int getConnectionCount() { return connections.size(); }
+
+    @Override
+    public void start() throws IOException {
+        SSLContext sslContext = SecurityConfig.loadServerSslContextIfEnabled();
+        ServerSocket socket = sslContext != null ? sslContext.getServerSocketFactory().createServerSocket() : new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(server.getAddress(), BACKLOG);
+        serverSocket = socket;
+        Thread acceptor = new Thread(this::acceptLoop, "kchat-blocking-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOG.info("Blocking transport on port {} ({} threads)", getPort(), virtualThreads ? "virtual" : "platform");
+        server.onStart();
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            try {
+                Socket socket = serverSocket.accept();
+                threads.newThread(() -> serve(socket)).start();
+            } catch (IOException e) {
+                if (!stopped) LOG.warn("Accept failed: {}", e.getMessage());
+            } catch (OutOfMemoryError e) {
+                // out of threads (or memory for their stacks): that is the capacity limit being measured
+                LOG.error("Cannot start a connection thread: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** The whole life of one connection, on its own thread. */
+    private void serve(Socket socket) {
+        BlockingWebSocket conn;
+        try {
+            socket.setTcpNoDelay(true);
+            conn = new BlockingWebSocket(socket, threads, pingIntervalMillis);
+            if (!conn.handshake()) {
+                socket.close();
+                return;
+            }
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+            return;
+        }
+        connections.add(conn);
+        try {
+            server.onOpen(conn, null);
+            conn.readLoop(server);
+        } finally {
+            connections.remove(conn);
+            server.onClose(conn, conn.getCloseCode(), conn.getCloseReason(), conn.isClosedByPeer());
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        stopped = true;
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+        for (BlockingWebSocket conn : connections) conn.close(1001, "Server shutting down");
+        server.stop();
+    }
+}
@@ -0,0 +1,372 @@
+package kchat.transport;
+
+import kchat.server.MessengerServer;
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * One client of the {@link BlockingTransport}: a socket read by a single blocking thread that
+ * hands every message to the {@link MessengerServer}, the same callbacks Java-WebSocket makes.
+ * Sends are queued and written by the connection's writer thread, which lives as long as the
+ * connection and waits on the queue while there is nothing to write, so a client that stops
+ * reading never blocks the server's outbound threads. Until the writer has flushed everything
+ * it was given, {@link #hasBufferedData()} is true and the server's outbound queue holds further
+ * frames.
+ */
+final class BlockingWebSocket implements WebSocket {
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    private static final int MAX_HEADER_LINE = 8192;
+    private static final int MAX_HEADERS = 100;
+    static final int MAX_MESSAGE_BYTES = 1 << 20;
+    private static final byte[] CLOSE_SOCKET = new byte[0]; // queued after a close frame
+
+    private final Socket socket;
+    private final ThreadFactory threads;
+    private final int pingIntervalMillis;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>(); // guarded by itself
+    private boolean writing; // guarded by pending; the writer holds frames it has not flushed yet
+    private volatile ReadyState state = ReadyState.NOT_YET_CONNECTED;
+    private volatile int closeCode = 1006;
+    private volatile String closeReason = "";
+    private volatile boolean closedByPeer;
+    private volatile boolean closeQueued; // the writer closes the socket once the close frame is out
+    private String resourceDescriptor;
+    private Object attachment;
+
+    BlockingWebSocket(Socket socket, ThreadFactory threads, int pingIntervalMillis) throws IOException {
+        this.socket = socket;
+        this.threads = threads;
+        this.pingIntervalMillis = pingIntervalMillis;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /** Runs the HTTP upgrade; false (after answering with an error status) if the request is not one. */
+    boolean handshake() throws IOException {
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        String requestLine = readLine();
+        Map<String, String> headers = new HashMap<>();
+        for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0 || headers.size() >= MAX_HEADERS) return refuse("400 Bad Request", "");
+            headers.merge(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim(), (a, b) -> a + ", " + b);
+        }
+        String[] request = requestLine.split(" ");
+        String key = headers.get("sec-websocket-key");
+        if (request.length != 3 || !"GET".equals(request[0]) || key == null
+                || !headers.getOrDefault("upgrade", "").toLowerCase(Locale.ROOT).contains("websocket")
+                || !headers.getOrDefault("connection", "").toLowerCase(Locale.ROOT).contains("upgrade")) {
+            return refuse("400 Bad Request", "");
+        }
+        if (!"13".equals(headers.get("sec-websocket-version"))) {
+            return refuse("426 Upgrade Required", "Sec-WebSocket-Version: 13\r\n");
+        }
+        resourceDescriptor = request[1];
+        String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+            + "Sec-WebSocket-Accept: " + WebSocketFraming.acceptKey(key) + "\r\n\r\n";
+        out.write(response.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        socket.setSoTimeout(pingIntervalMillis);
+        state = ReadyState.OPEN;
+        threads.newThread(this::writeLoop).start();
+        return true;
+    }
+
+    private boolean refuse(String status, String extraHeaders) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\n" + extraHeaders + "Connection: close\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return false;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c < 0) throw new IOException("Connection closed during the handshake");
+            if (line.length() >= MAX_HEADER_LINE) throw new IOException("Handshake line too long");
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Reads frames until the connection ends and passes complete messages to {@code server}.
+     * A quiet connection is pinged every ping interval and dropped if a whole interval passes
+     * without any frame, including the pong.
+     */
+    void readLoop(MessengerServer server) {
+        ByteArrayOutputStream message = null;
+        int messageOpcode = 0;
+        boolean pingOutstanding = false;
+        try {
+            while (state == ReadyState.OPEN || state == ReadyState.CLOSING) {
+                WebSocketFraming.Frame frame;
+                try {
+                    frame = WebSocketFraming.read(in, true, MAX_MESSAGE_BYTES);
+                } catch (SocketTimeoutException e) {
+                    if (pingOutstanding) {
+                        closeCode = 1006;
+                        closeReason = "The connection was closed because the other endpoint did not respond with a pong in time.";
+                        return;
+                    }
+                    if (state == ReadyState.OPEN) sendPing();
+                    pingOutstanding = true;
+                    continue;
+                }
+                pingOutstanding = false;
+                switch (frame.opcode()) {
+                    case WebSocketFraming.PING:
+                        if (state == ReadyState.OPEN) enqueue(WebSocketFraming.encode(WebSocketFraming.PONG, ByteBuffer.wrap(frame.payload()), true, null));
+                        break;
+                    case WebSocketFraming.PONG:
+                        break;
+                    case WebSocketFraming.CLOSE:
+                        onCloseFrame(frame.payload());
+                        return;
+                    case WebSocketFraming.CONTINUATION:
+                        if (message == null) throw new WebSocketFraming.FrameException(1002, "Continuation without a message");
+                        if (message.size() + frame.payload().length > MAX_MESSAGE_BYTES) throw new WebSocketFraming.FrameException(1009, "Message too big");
+                        message.write(frame.payload());
+                        if (frame.fin()) {
+                            deliver(server, messageOpcode, message.toByteArray());
+                            message = null;
+                        }
+                        break;
+                    default: // TEXT or BINARY
+                        if (message != null) throw new WebSocketFraming.FrameException(1002, "New message before the last one ended");
+                        if (frame.fin()) {
+                            deliver(server, frame.opcode(), frame.payload());
+                        } else {
+                            message = new ByteArrayOutputStream();
+                            message.write(frame.payload());
+                            messageOpcode = frame.opcode();
+                        }
+                }
+            }
+        } catch (WebSocketFraming.FrameException e) {
+            close(e.closeCode(), e.getMessage());
+            closeAfterFlush();
+        } catch (IOException e) {
+            if (state == ReadyState.OPEN) closeCode = 1006; // dropped without a close frame
+        } finally {
+            if (!closeQueued) closeSocket();
+        }
+    }
+
+    private void deliver(MessengerServer server, int opcode, byte[] payload) throws WebSocketFraming.FrameException {
+        if (state != ReadyState.OPEN) return;
+        if (opcode == WebSocketFraming.BINARY) {
+            server.onMessage(this, ByteBuffer.wrap(payload));
+            return;
+        }
+        String text;
+        try {
+            CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(ByteBuffer.wrap(payload));
+            text = chars.toString();
+        } catch (CharacterCodingException e) {
+            throw new WebSocketFraming.FrameException(1007, "Text message is not UTF-8");
+        }
+        server.onMessage(this, text);
+    }
+
+    private void onCloseFrame(byte[] payload) {
+        int code = payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : 1005;
+        String reason = payload.length > 2 ? new String(payload, 2, payload.length - 2, StandardCharsets.UTF_8) : "";
+        if (state == ReadyState.OPEN) {
+            closedByPeer = true;
+            closeCode = code;
+            closeReason = reason;
+            state = ReadyState.CLOSING;
+            enqueue(WebSocketFraming.encode(WebSocketFraming.CLOSE, WebSocketFraming.closePayload(code == 1005 ? 1000 : code, ""), true, null));
+            closeAfterFlush();
+        } else {
+            closeSocket(); // the peer answered our close frame
+        }
+    }
+
+    private void closeAfterFlush() {
+        closeQueued = true;
+        enqueue(CLOSE_SOCKET);
+    }
+
+    int getCloseCode() { return closeCode; }
+
+    String getCloseReason() { return closeReason; }
+
+    boolean isClosedByPeer() { return closedByPeer; }
+
+    private void enqueue(byte[] bytes) {
+        synchronized (pending) {
+            if (state == ReadyState.CLOSED) return;
+            pending.add(bytes);
+            pending.notify();
+        }
+    }
+
+    /** The writer thread: waits for queued frames and writes them until the socket closes. */
+    private void writeLoop() {
+        try {
+            while (true) {
+                byte[] next;
+                boolean last;
+                synchronized (pending) {
+                    while (pending.isEmpty() && state != ReadyState.CLOSED) pending.wait();
+                    if (state == ReadyState.CLOSED) {
+                        pending.clear();
+                        return;
+                    }
+                    next = pending.poll();
+                    last = pending.isEmpty();
+                    writing = true;
+                }
+                if (next == CLOSE_SOCKET) {
+                    out.flush();
+                    closeSocket();
+                    continue;
+                }
+                out.write(next);
+                if (last) {
+                    out.flush();
+                    synchronized (pending) {
+                        writing = false;
+                    }
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            closeSocket();
+        } finally {
+            synchronized (pending) {
+                pending.clear();
+                writing = false;
+            }
+        }
+    }
+
+    private void closeSocket() {
+        synchronized (pending) {
+            state = ReadyState.CLOSED;
+            pending.notify(); // lets the writer finish
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    private void send(int opcode, ByteBuffer payload, boolean fin) {
+        if (state != ReadyState.OPEN) throw new WebsocketNotConnectedException();
+        enqueue(WebSocketFraming.encode(opcode, payload, fin, null));
+    }
+
+    private static int opcodeOf(Opcode opcode) {
+        switch (opcode) {
+            case TEXT: return WebSocketFraming.TEXT;
+            case BINARY: return WebSocketFraming.BINARY;
+            case PING: return WebSocketFraming.PING;
+            case PONG: return WebSocketFraming.PONG;
+            case CLOSING: return WebSocketFraming.CLOSE;
+            default: return WebSocketFraming.CONTINUATION;
+        }
+    }
+
+    @Override
+    public void close(int code, String message) {
+        synchronized (pending) {
+            if (state != ReadyState.OPEN) return;
+            state = ReadyState.CLOSING;
+        }
+        closeCode = code;
+        closeReason = message == null ? "" : message;
+        enqueue(WebSocketFraming.encode(WebSocketFraming.CLOSE, WebSocketFraming.closePayload(code, message), true, null));
+        // The reader closes the socket when the client answers; this bounds the wait if it never does
+        try {
+            socket.setSoTimeout(Math.min(pingIntervalMillis, HANDSHAKE_TIMEOUT_MILLIS));
+        } catch (IOException ignored) {
+            // closed already
+        }
+    }
+
+    @Override public void close(int code) { close(code, ""); }
+    @Override public void close() { close(1000, ""); }
+
+    @Override
+    public void closeConnection(int code, String message) {
+        closeCode = code;
+        closeReason = message == null ? "" : message;
+        closeSocket();
+    }
+
+    @Override public void send(String text) { send(WebSocketFraming.TEXT, StandardCharsets.UTF_8.encode(text), true); }
+    @Override public void send(ByteBuffer bytes) { send(WebSocketFraming.BINARY, bytes, true); }
+    @Override public void send(byte[] bytes) { send(ByteBuffer.wrap(bytes)); }
+    @Override public void sendFrame(Framedata frame) { send(opcodeOf(frame.getOpcode()), frame.getPayloadData(), frame.isFin()); }
+    @Override public void sendFrame(Collection<Framedata> frames) { frames.forEach(this::sendFrame); }
+    @Override public void sendPing() { send(WebSocketFraming.PING, ByteBuffer.allocate(0), true); }
+
+    @Override
+    public void sendFragmentedFrame(Opcode op, ByteBuffer buffer, boolean fin) {
+        send(opcodeOf(op), buffer, fin);
+    }
+
+    @Override
+    public boolean hasBufferedData() {
+        synchronized (pending) {
+            return writing || !pending.isEmpty();
+        }
+    }
+
+    @Override public InetSocketAddress getRemoteSocketAddress() { return (InetSocketAddress) socket.getRemoteSocketAddress(); }
+    @Override public InetSocketAddress getLocalSocketAddress() { return (InetSocketAddress) socket.getLocalSocketAddress(); }
+    @Override public boolean isOpen() { return state == ReadyState.OPEN; }
+    @Override public boolean isClosing() { return state == ReadyState.CLOSING; }
+    @Override public boolean isFlushAndClose() { return false; }
+    @Override public boolean isClosed() { return state == ReadyState.CLOSED; }
+    @Override public Draft getDraft() { return null; } // framing is WebSocketFraming's, not a Draft's
+    @Override public ReadyState getReadyState() { return state; }
+    @Override public String getResourceDescriptor() { return resourceDescriptor; }
+    @Override public <T> void setAttachment(T attachment) { this.attachment = attachment; }
+    @SuppressWarnings("unchecked")
+    @Override public <T> T getAttachment() { return (T) attachment; }
+    @Override public boolean hasSSLSupport() { return socket instanceof SSLSocket; }
+
+    @Override
+    public SSLSession getSSLSession() {
+        if (!(socket instanceof SSLSocket)) throw new IllegalArgumentException("This websocket uses ws instead of wss. No SSLSession available.");
+        return ((SSLSocket) socket).getSession();
+    }
+
+    @Override public IProtocol getProtocol() { return null; }
+}
@@ -0,0 +1,25 @@
+package kchat.transport;
+
+import kchat.server.MessengerServer;
+
+/** The server's own Java-WebSocket listener (and shards), started and stopped as before. */
+public final class SelectorTransport implements ServerTransport {
+    private final MessengerServer server;
+
+    public SelectorTransport(MessengerServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public MessengerServer getServer() { return server; }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        server.stop();
+    }
+}
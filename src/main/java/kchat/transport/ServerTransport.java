@@ -0,0 +1,32 @@
+package kchat.transport;
+
+import kchat.server.MessengerServer;
+
+import java.io.IOException;
+
+/**
+ * How clients reach a {@link MessengerServer}: accepting sockets, the WebSocket protocol and
+ * getting frames on and off the wire. The chat protocol (HELLO/WELCOME, rooms, broadcasts) is
+ * the server's and identical on every transport, so they can be compared like for like.
+ */
+public interface ServerTransport {
+    /** Java-WebSocket's selector loop with a decoder pool; the default. */
+    String SELECTOR = "selector";
+    /** Blocking sockets with a thread per connection, see {@link BlockingTransport}. */
+    String BLOCKING = "blocking";
+
+    /** The transport called {@code name} for {@code server}; unknown names are rejected. */
+    static ServerTransport create(String name, MessengerServer server) {
+        if (name == null || SELECTOR.equalsIgnoreCase(name)) return new SelectorTransport(server);
+        if (BLOCKING.equalsIgnoreCase(name)) return new BlockingTransport(server);
+        throw new IllegalArgumentException("Unknown transport " + name + " (expected " + SELECTOR + " or " + BLOCKING + ")");
+    }
+
+    MessengerServer getServer();
+
+    /** Binds the server's address and starts accepting clients. */
+    void start() throws IOException;
+
+    /** Closes every connection and stops the server. */
+    void stop() throws InterruptedException;
+}
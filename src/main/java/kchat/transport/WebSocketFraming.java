@@ -0,0 +1,129 @@
+package kchat.transport;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * The parts of RFC 6455 the blocking transport needs: the opening handshake's accept key and
+ * reading and writing single frames. Extensions are never negotiated, so the RSV bits must be 0.
+ */
+public final class WebSocketFraming {
+    public static final int CONTINUATION = 0x0;
+    public static final int TEXT = 0x1;
+    public static final int BINARY = 0x2;
+    public static final int CLOSE = 0x8;
+    public static final int PING = 0x9;
+    public static final int PONG = 0xA;
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private WebSocketFraming() {}
+
+    /** One frame as read off the wire, already unmasked. */
+    public record Frame(boolean fin, int opcode, byte[] payload) {
+        public boolean isControl() { return opcode >= CLOSE; }
+    }
+
+    /** A frame that violates the protocol; the connection is closed with {@link #closeCode()}. */
+    public static final class FrameException extends IOException {
+        private final int closeCode;
+
+        public FrameException(int closeCode, String message) {
+            super(message);
+            this.closeCode = closeCode;
+        }
+
+        public int closeCode() { return closeCode; }
+    }
+
+    /** {@code Sec-WebSocket-Accept} for a client's {@code Sec-WebSocket-Key}. */
+    public static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key.trim() + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is a required JDK algorithm", e);
+        }
+    }
+
+    /**
+     * Reads one frame. Frames from clients must be masked and frames from servers must not
+     * ({@code expectMasked}); payloads above {@code maxPayload} are refused with 1009.
+     */
+    public static Frame read(DataInputStream in, boolean expectMasked, int maxPayload) throws IOException {
+        int b0 = in.read();
+        if (b0 < 0) throw new EOFException();
+        int b1 = in.readUnsignedByte();
+        if ((b0 & 0x70) != 0) throw new FrameException(1002, "Reserved bits set without an extension");
+        int opcode = b0 & 0x0F;
+        boolean fin = (b0 & 0x80) != 0;
+        boolean masked = (b1 & 0x80) != 0;
+        if (masked != expectMasked) throw new FrameException(1002, expectMasked ? "Unmasked client frame" : "Masked server frame");
+        long length = b1 & 0x7F;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = in.readLong();
+        }
+        if (opcode >= CLOSE) {
+            if (!fin || length > MAX_CONTROL_PAYLOAD) throw new FrameException(1002, "Fragmented or oversized control frame");
+            if (opcode > PONG) throw new FrameException(1002, "Unknown opcode " + opcode);
+        } else if (opcode > BINARY) {
+            throw new FrameException(1002, "Unknown opcode " + opcode);
+        }
+        if (length < 0 || length > maxPayload) throw new FrameException(1009, "Frame of " + length + " bytes is too big");
+        byte[] mask = null;
+        if (masked) {
+            mask = new byte[4];
+            in.readFully(mask);
+        }
+        byte[] payload = new byte[(int) length];
+        in.readFully(payload);
+        if (mask != null) {
+            for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+        }
+        return new Frame(fin, opcode, payload);
+    }
+
+    /** Encodes a frame; {@code mask} is null for frames sent by a server. */
+    public static byte[] encode(int opcode, ByteBuffer payload, boolean fin, byte[] mask) {
+        int length = payload.remaining();
+        int header = length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+        int maskLength = mask != null ? 4 : 0;
+        byte[] frame = new byte[header + maskLength + length];
+        frame[0] = (byte) ((fin ? 0x80 : 0) | opcode);
+        int maskBit = mask != null ? 0x80 : 0;
+        if (header == 2) {
+            frame[1] = (byte) (maskBit | length);
+        } else if (header == 4) {
+            frame[1] = (byte) (maskBit | 126);
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+        } else {
+            frame[1] = (byte) (maskBit | 127);
+            for (int i = 0; i < 8; i++) frame[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+        }
+        payload.duplicate().get(frame, header + maskLength, length);
+        if (mask != null) {
+            System.arraycopy(mask, 0, frame, header, 4);
+            for (int i = 0; i < length; i++) frame[header + 4 + i] ^= mask[i & 3];
+        }
+        return frame;
+    }
+
+    /** Payload of a close frame: the code, then the reason in UTF-8 (cut to fit a control frame). */
+    public static ByteBuffer closePayload(int code, String reason) {
+        byte[] text = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(text.length, MAX_CONTROL_PAYLOAD - 2);
+        ByteBuffer payload = ByteBuffer.allocate(2 + length);
+        payload.putShort((short) code).put(text, 0, length).flip();
+        return payload;
+    }
+}
@@ -8,8 +8,10 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 import kchat.MessengerClient;
+import kchat.logging.Log;
 import kchat.model.Message;
 import kchat.security.CryptoUtils;
+import kchat.security.SessionTicket;
 
 import java.net.URI;
 import java.text.SimpleDateFormat;
@@ -17,6 +19,7 @@ import java.util.Date;
 
 public class MessengerWindow {
 
+    private static final Log LOG = Log.get(MessengerWindow.class);
     private MessengerClient client;
     private TextArea messageArea;
     private TextField messageInput;
@@ -27,6 +30,7 @@ public class MessengerWindow {
     private Label statusLabel;
     private Label userCountLabel;
     private String currentUsername = "User";
+    private String lastServerId;
 
     public void shutdown() {
         if (client != null && !client.isClosed()) {
@@ -149,6 +153,11 @@ public class MessengerWindow {
                 currentUsername = "User";
                 usernameField.setText(currentUsername);
             }
+            // History seqs and session tickets are per server: only resume when reconnecting to the same one
+            boolean sameServer = client != null && enteredServerId.equals(lastServerId);
+            long resumeAfterSeq = sameServer ? client.getLastSeq() : 0L;
+            SessionTicket ticket = sameServer ? client.getSessionTicket() : null;
+            lastServerId = enteredServerId;
             if (client != null && !client.isClosed()) {
                 try { client.close(); } catch (Exception ignore) {}
             }
@@ -161,13 +170,15 @@ public class MessengerWindow {
             URI serverUri = new URI(scheme + "://localhost:" + port);
             client = new MessengerClient(serverUri);
             client.setTargetServerId(enteredServerId);
+            client.setResumeAfterSeq(resumeAfterSeq);
+            client.setSessionTicket(ticket);
             client.setMessageHandler(this::handleIncomingMessage);
             client.setConnectionStatusHandler(this::updateConnectionStatus);
             client.connect();
             updateConnectionStatus("Connecting (socket)...");
         } catch (Exception e) {
             updateConnectionStatus("Error: Connection failed - " + e.getMessage());
-            System.err.println("Connection error: " + e.getMessage());
+            LOG.warn("Connection error: {}", e.getMessage());
         }
     }
 
@@ -202,10 +213,25 @@ public class MessengerWindow {
                     int userCount = Integer.parseInt(countStr);
                     userCountLabel.setText("Users: " + userCount);
                 } catch (NumberFormatException e) {
-                    System.err.println("Error parsing user count: " + countStr);
+                    LOG.warn("Error parsing user count: {}", countStr);
                 }
                 return;
             }
+            if ("System".equals(message.getSender()) && message.getContent().startsWith("PRESENCE:")) {
+                // PRESENCE:count:joinedIds:leftIds - one aggregated update per server tick
+                String[] parts = message.getContent().split(":", -1);
+                try {
+                    userCountLabel.setText("Users: " + Integer.parseInt(parts[1]));
+                } catch (RuntimeException e) {
+                    LOG.warn("Error parsing presence update: {}", message.getContent());
+                    return;
+                }
+                int joined = parts.length > 2 && !parts[2].isEmpty() ? parts[2].split(",").length : 0;
+                int left = parts.length > 3 && !parts[3].isEmpty() ? parts[3].split(",").length : 0;
+                if (joined > 0) appendMessage("Server: " + joined + " user(s) joined the chat");
+                if (left > 0) appendMessage("Server: " + left + " user(s) left the chat");
+                return;
+            }
             SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
             String timestamp = timeFormat.format(new Date(message.getTimestamp()));
             String formattedMessage = String.format("[%s] %s: %s", timestamp, message.getSender(), message.getContent());
@@ -0,0 +1,68 @@
+package kchat.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterCodecTest {
+
+    private static ClusterEvent roundTrip(ClusterEvent event) {
+        byte[] bytes = ClusterCodec.encode(event);
+        return ClusterCodec.decode(bytes, 0, bytes.length);
+    }
+
+    @Test
+    void everyEventRoundTrips() {
+        Map<String, List<String>> members = new LinkedHashMap<>();
+        members.put("lobby", List.of("a-u1", "a-u2"));
+        members.put("dev", List.of("a-u3"));
+        ClusterEvent.NodeState state = new ClusterEvent.NodeState("srv", 7, members);
+        assertEquals(state, roundTrip(state));
+
+        ClusterEvent.Presence presence = new ClusterEvent.Presence("lobby", List.of("a-u4"), List.of());
+        assertEquals(presence, roundTrip(presence));
+
+        assertEquals(new ClusterEvent.Rekey(3), roundTrip(new ClusterEvent.Rekey(3)));
+
+        byte[] json = "{\"sender\":\"Alice\",\"content\":\"héllo\"}".getBytes(StandardCharsets.UTF_8);
+        ClusterEvent.RoomMessage message = (ClusterEvent.RoomMessage) roundTrip(new ClusterEvent.RoomMessage("dev", json));
+        assertEquals("dev", message.room());
+        assertArrayEquals(json, message.json());
+    }
+
+    @Test
+    void truncatedOrUnknownInputIsRejected() {
+        byte[] bytes = ClusterCodec.encode(new ClusterEvent.Presence("lobby", List.of("a-u1"), List.of("a-u2")));
+        for (int length = 0; length < bytes.length; length++) {
+            int n = length;
+            assertThrows(IllegalArgumentException.class, () -> ClusterCodec.decode(bytes, 0, n));
+        }
+        byte[] unknown = Arrays.copyOf(bytes, bytes.length);
+        unknown[0] = 99;
+        assertThrows(IllegalArgumentException.class, () -> ClusterCodec.decode(unknown, 0, unknown.length));
+    }
+
+    @Test
+    void keysAreDerivedTheSameOnEveryNode() {
+        ClusterKeys a = new ClusterKeys("k3Jd9xQ2mVb7Lw4T");
+        ClusterKeys b = new ClusterKeys("k3Jd9xQ2mVb7Lw4T");
+        assertArrayEquals(a.busKey(), b.busKey());
+        assertArrayEquals(a.groupKey("srv", 2), b.groupKey("srv", 2));
+        assertFalse(Arrays.equals(a.groupKey("srv", 2), a.groupKey("srv", 3)));
+        assertFalse(Arrays.equals(a.busKey(), new ClusterKeys("Zq8wYp3nRt6vMc1H").busKey()));
+        assertThrows(IllegalArgumentException.class, () -> new ClusterKeys(""));
+    }
+
+    @Test
+    void weakSecretsAreRefused() {
+        assertThrows(IllegalArgumentException.class, () -> new ClusterKeys("s3cret"));
+        assertThrows(IllegalArgumentException.class, () -> new ClusterKeys("aaaaaaaaaaaaaaaaaaaaaaaa"));
+        assertThrows(IllegalArgumentException.class, () -> new ClusterKeys("abcabcabcabcabcabcabc"));
+    }
+}
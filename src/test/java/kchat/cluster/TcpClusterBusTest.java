@@ -0,0 +1,181 @@
+package kchat.cluster;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TcpClusterBusTest {
+
+    private static final String SECRET = "k3Jd9xQ2mVb7Lw4T";
+    private final List<TcpClusterBus> buses = new ArrayList<>();
+
+    /** Records callbacks as strings, in order. */
+    private static final class Recorder implements ClusterBus.Listener {
+        final BlockingQueue<String> log = new LinkedBlockingQueue<>();
+
+        @Override public void onPeerUp(String nodeId) { log.add("up:" + nodeId); }
+        @Override public void onEvent(String nodeId, ClusterEvent event) { log.add(nodeId + ":" + event); }
+        @Override public void onPeerDown(String nodeId) { log.add("down:" + nodeId); }
+
+        String next() throws InterruptedException {
+            String entry = log.poll(5, TimeUnit.SECONDS);
+            assertNotNull(entry, "Nothing received");
+            return entry;
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        buses.forEach(TcpClusterBus::close);
+    }
+
+    private TcpClusterBus start(String nodeId, String secret, Recorder recorder, int... peerPorts) throws Exception {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (int port : peerPorts) peers.add(InetSocketAddress.createUnresolved("127.0.0.1", port));
+        TcpClusterBus bus = new TcpClusterBus(new InetSocketAddress("127.0.0.1", 0), peers, new ClusterKeys(secret).busKey());
+        buses.add(bus);
+        bus.start(nodeId, recorder);
+        return bus;
+    }
+
+    private static void awaitPeers(ClusterBus bus, Set<String> expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!bus.peers().equals(expected) && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(expected, bus.peers());
+    }
+
+    @Test
+    void peersLinkAndDeliverEventsInOrder() throws Exception {
+        Recorder a = new Recorder();
+        Recorder b = new Recorder();
+        TcpClusterBus busA = start("a", SECRET, a);
+        TcpClusterBus busB = start("b", SECRET, b, busA.getLocalPort());
+        assertEquals("up:b", a.next());
+        assertEquals("up:a", b.next());
+
+        for (int i = 1; i <= 100; i++) busB.publish(new ClusterEvent.Rekey(i));
+        busA.publish(new ClusterEvent.Presence("lobby", List.of("a-u1"), List.of()));
+        for (int i = 1; i <= 100; i++) assertEquals("b:" + new ClusterEvent.Rekey(i), a.next());
+        assertTrue(b.next().startsWith("a:Presence[room=lobby"));
+
+        busB.close();
+        assertEquals("down:b", a.next());
+        assertEquals(Set.of(), busA.peers());
+    }
+
+    @Test
+    void dialingEachOtherKeepsOneLink() throws Exception {
+        Recorder a = new Recorder();
+        Recorder b = new Recorder();
+        TcpClusterBus busA = start("a", SECRET, a);
+        TcpClusterBus busB = start("b", SECRET, b, busA.getLocalPort());
+        awaitPeers(busA, Set.of("b"));
+        TcpClusterBus busC = start("c", SECRET, new Recorder(), busA.getLocalPort(), busB.getLocalPort());
+        awaitPeers(busA, Set.of("b", "c"));
+        awaitPeers(busB, Set.of("a", "c"));
+        awaitPeers(busC, Set.of("a", "b"));
+
+        a.log.clear();
+        busC.publish(new ClusterEvent.Rekey(1));
+        assertEquals("c:" + new ClusterEvent.Rekey(1), a.next());
+        Thread.sleep(100);
+        assertTrue(a.log.isEmpty(), "Delivered twice: " + a.log);
+    }
+
+    @Test
+    void nodeWithoutTheSecretIsNotLinked() throws Exception {
+        Recorder a = new Recorder();
+        TcpClusterBus busA = start("a", SECRET, a);
+        TcpClusterBus intruder = start("x", "Zq8wYp3nRt6vMc1H", new Recorder(), busA.getLocalPort());
+        Thread.sleep(500);
+        assertTrue(a.log.isEmpty(), a.log.toString());
+        assertEquals(Set.of(), busA.peers());
+        assertEquals(Set.of(), intruder.peers());
+    }
+
+    /** Forwards one connection from {@code proxy} to {@code port}, copying what the dialer sends into {@code recorded}. */
+    private static void relay(ServerSocket proxy, int port, ByteArrayOutputStream recorded) {
+        try (Socket dialer = proxy.accept(); Socket target = new Socket("127.0.0.1", port)) {
+            Thread back = new Thread(() -> pump(target, dialer, null));
+            back.setDaemon(true);
+            back.start();
+            pump(dialer, target, recorded);
+        } catch (IOException ignored) {
+            // the test fails on what the nodes saw
+        }
+    }
+
+    private static void pump(Socket from, Socket to, ByteArrayOutputStream recorded) {
+        byte[] buffer = new byte[8192];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                if (recorded != null) {
+                    synchronized (recorded) {
+                        recorded.write(buffer, 0, n);
+                    }
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException ignored) {
+            // one side closed
+        }
+    }
+
+    @Test
+    void recordedLinkTrafficCannotBeReplayed() throws Exception {
+        Recorder a = new Recorder();
+        TcpClusterBus busA = start("a", SECRET, a);
+        ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+        try (ServerSocket proxy = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread relay = new Thread(() -> relay(proxy, busA.getLocalPort(), recorded));
+            relay.setDaemon(true);
+            relay.start();
+            TcpClusterBus busB = start("b", SECRET, new Recorder(), proxy.getLocalPort());
+            assertEquals("up:b", a.next());
+            busB.publish(new ClusterEvent.Rekey(7));
+            assertEquals("b:" + new ClusterEvent.Rekey(7), a.next());
+            busB.close();
+            assertEquals("down:b", a.next());
+        }
+
+        // b's hello, confirmation and event, played back on a fresh connection, get nowhere
+        byte[] replay;
+        synchronized (recorded) {
+            replay = recorded.toByteArray();
+        }
+        try (Socket socket = new Socket("127.0.0.1", busA.getLocalPort())) {
+            socket.getOutputStream().write(replay);
+            Thread.sleep(300);
+        }
+        assertNull(a.log.poll(200, TimeUnit.MILLISECONDS), a.log.toString());
+        assertEquals(Set.of(), busA.peers());
+    }
+
+    @Test
+    void peerListIsParsed() {
+        List<InetSocketAddress> peers = TcpClusterBus.parsePeers(" node1:7100, 10.0.0.2:7101 ,");
+        assertEquals(2, peers.size());
+        assertEquals("node1", peers.get(0).getHostString());
+        assertEquals(7101, peers.get(1).getPort());
+        assertTrue(TcpClusterBus.parsePeers("").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> TcpClusterBus.parsePeers("nohost"));
+    }
+}
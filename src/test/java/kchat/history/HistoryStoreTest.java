@@ -0,0 +1,190 @@
+package kchat.history;
+
+import kchat.protocol.HandshakeOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistoryStoreTest {
+
+    private Path dir;
+    private HistoryStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("kchat-history");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (store != null) store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private long append(String room, long timestamp, String text) {
+        long seq = store.nextSeq();
+        assertTrue(store.append(seq, timestamp, room, text.getBytes(StandardCharsets.UTF_8)));
+        return seq;
+    }
+
+    private static String text(HistoryRecord record) throws IOException {
+        ByteBuffer payload = record.payload();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void replaysNewestMessagesPerRoomOldestFirst() throws Exception {
+        store = HistoryStore.open(dir, 1 << 20, 4, 0);
+        for (int i = 1; i <= 5; i++) append("lobby", i, "m" + i);
+        append("dev", 6, "other room");
+        store.flush(2000);
+
+        List<HistoryRecord> last = store.query("lobby", HistoryQuery.last(3));
+        assertEquals(List.of("m3", "m4", "m5"), List.of(text(last.get(0)), text(last.get(1)), text(last.get(2))));
+        assertEquals(1, store.query("dev", HistoryQuery.last(10)).size());
+        assertTrue(store.query("nowhere", HistoryQuery.last(10)).isEmpty());
+
+        assertEquals(2, store.query("lobby", HistoryQuery.after(last.get(0).getSeq(), 100)).size());
+        assertEquals(3, store.query("lobby", HistoryQuery.since(2, 100)).size());
+        assertEquals(1, store.query("lobby", HistoryQuery.since(2, 1)).size());
+    }
+
+    @Test
+    void rollsOverSegmentsAndEnforcesRetention() throws Exception {
+        store = HistoryStore.open(dir, 1024, 3, 0);
+        String big = "x".repeat(400);
+        for (int i = 0; i < 20; i++) append("lobby", i, big);
+        store.flush(2000);
+
+        assertEquals(3, store.getSegmentCount());
+        int kept = store.getRecordCount("lobby");
+        assertTrue(kept > 0 && kept < 20, "kept " + kept);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(3, files.count());
+        }
+        // The newest record always survives retention
+        List<HistoryRecord> newest = store.query("lobby", HistoryQuery.last(1));
+        assertEquals(20, newest.get(0).getSeq());
+    }
+
+    @Test
+    void ageLimitAppliesToAQuietStore() throws Exception {
+        store = HistoryStore.open(dir, 1024, 10, 300);
+        String big = "x".repeat(400);
+        for (int i = 0; i < 6; i++) append("lobby", System.currentTimeMillis(), big);
+        store.flush(2000);
+        assertTrue(store.getSegmentCount() > 1);
+        assertEquals(1, store.query("lobby", HistoryQuery.last(1)).size());
+
+        // No further appends: the timer deletes the expired segments, and replay skips what is left
+        long deadline = System.currentTimeMillis() + 3000;
+        while (store.getSegmentCount() > 1 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertEquals(1, store.getSegmentCount(), "the active segment stays");
+        assertTrue(store.query("lobby", HistoryQuery.last(10)).isEmpty());
+    }
+
+    @Test
+    void reopeningRebuildsIndexAndContinuesSequence() throws Exception {
+        store = HistoryStore.open(dir, 1 << 20, 4, 0);
+        append("lobby", 1, "first");
+        long second = append("lobby", 2, "second");
+        store.close();
+
+        store = HistoryStore.open(dir, 1 << 20, 4, 0);
+        assertEquals(2, store.getRecordCount("lobby"));
+        assertEquals(second + 1, store.nextSeq());
+        assertEquals("second", text(store.query("lobby", HistoryQuery.last(1)).get(0)));
+    }
+
+    @Test
+    void reopeningASegmentWithManyRecords() throws Exception {
+        store = HistoryStore.open(dir, 1 << 20, 4, 0);
+        long last = 0;
+        for (int i = 0; i < 1000; i++) last = append("lobby", i, "m" + i);
+        store.close();
+
+        store = HistoryStore.open(dir, 1 << 20, 4, 0);
+        assertEquals(1000, store.getRecordCount("lobby"));
+        assertEquals(last + 1, store.nextSeq());
+        assertEquals("m999", text(store.query("lobby", HistoryQuery.last(1)).get(0)));
+    }
+
+    @Test
+    void tornTailIsTruncatedOnOpen() throws Exception {
+        store = HistoryStore.open(dir, 1 << 20, 4, 0);
+        append("lobby", 1, "intact");
+        store.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        long goodSize = Files.size(segment);
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ch.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 40, 1, 2, 3})); // half a record
+        }
+
+        store = HistoryStore.open(dir, 1 << 20, 4, 0);
+        assertEquals(1, store.getRecordCount("lobby"));
+        append("lobby", 2, "after crash");
+        store.flush(2000);
+        assertEquals("after crash", text(store.query("lobby", HistoryQuery.last(1)).get(0)));
+        store.close();
+        store = null;
+
+        // The torn bytes were overwritten in place and the pre-mapped tail trimmed on close
+        long appended = HistorySegment.recordSize("lobby", "after crash".getBytes(StandardCharsets.UTF_8));
+        assertEquals(goodSize + appended, Files.size(segment));
+    }
+
+    @Test
+    void replayedPayloadsAreSlicesOfTheMapping() throws Exception {
+        store = HistoryStore.open(dir, 1 << 20, 4, 0);
+        append("lobby", 1, "{\"content\":\"mapped\"}");
+        store.flush(2000);
+
+        HistoryRecord record = store.query("lobby", HistoryQuery.last(1)).get(0);
+        ByteBuffer first = record.payload();
+        ByteBuffer second = record.payload();
+        assertTrue(first.isDirect(), "payload should come straight from the mapping");
+        assertTrue(first.isReadOnly());
+        first.get(new byte[first.remaining()]);
+        assertEquals(record.getPayloadLength(), second.remaining(), "each call is an independent view");
+        assertEquals("{\"content\":\"mapped\"}", text(record));
+    }
+
+    @Test
+    void queryFromHandshakeOptions() {
+        HistoryQuery byDefault = HistoryQuery.fromOptions(HandshakeOptions.parse("proto=bin"), 50, 1000);
+        assertEquals(50, byDefault.getLimit());
+
+        HistoryQuery capped = HistoryQuery.fromOptions(HandshakeOptions.parse("history=5000"), 50, 1000);
+        assertEquals(1000, capped.getLimit());
+
+        HistoryQuery resume = HistoryQuery.fromOptions(HandshakeOptions.parse("after=42"), 50, 1000);
+        assertEquals(42, resume.getAfterSeq());
+        assertEquals(1000, resume.getLimit());
+
+        HistoryQuery since = HistoryQuery.fromOptions(HandshakeOptions.parse("since=1700000000000,history=10"), 50, 1000);
+        assertEquals(1700000000000L, since.getSinceTimestamp());
+        assertEquals(10, since.getLimit());
+
+        assertEquals(50, HistoryQuery.fromOptions(HandshakeOptions.parse("history=abc"), 50, 1000).getLimit());
+    }
+}
@@ -0,0 +1,47 @@
+package kchat.load;
+
+import kchat.server.MessengerServer;
+import kchat.server.ServerConfig;
+import kchat.transport.BlockingTransport;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdleConnectionsTest {
+
+    @Test
+    void idleConnectionsAuthenticateAndLeaveTheLobby() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setMetricsJmxEnabled(false);
+        BlockingTransport transport = new BlockingTransport(new MessengerServer(0, config));
+        transport.start();
+        MessengerServer server = transport.getServer();
+        try (IdleConnections idle = new IdleConnections()) {
+            assertEquals(5, idle.open(URI.create("ws://127.0.0.1:" + transport.getPort()), server.getServerId(), 5));
+            long deadline = System.currentTimeMillis() + 3000;
+            while ((server.getAuthenticatedConnectionCount() != 5 || server.getRoomMemberCount(MessengerServer.DEFAULT_ROOM) != 0)
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(5, server.getAuthenticatedConnectionCount());
+            assertEquals(0, server.getRoomMemberCount(MessengerServer.DEFAULT_ROOM));
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @Test
+    void aWrongServerIdStopsOpening() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setMetricsJmxEnabled(false);
+        BlockingTransport transport = new BlockingTransport(new MessengerServer(0, config));
+        transport.start();
+        try (IdleConnections idle = new IdleConnections()) {
+            assertEquals(0, idle.open(URI.create("ws://127.0.0.1:" + transport.getPort()), "not-this-server", 3));
+        } finally {
+            transport.stop();
+        }
+    }
+}
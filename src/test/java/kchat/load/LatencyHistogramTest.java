@@ -0,0 +1,81 @@
+package kchat.load;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram(1_000_000L);
+        for (long v = 1; v <= 100; v++) histogram.record(v);
+
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    void largeValuesStayWithinOnePercent() {
+        LatencyHistogram histogram = new LatencyHistogram(60_000_000L);
+        for (long v : new long[] {1_234L, 98_765L, 5_000_000L, 59_999_999L}) {
+            histogram.reset();
+            histogram.record(v);
+            histogram.record(1L);
+            long reported = histogram.getValueAtPercentile(99);
+            assertTrue(reported <= v && reported >= v * 0.99, v + " reported as " + reported);
+        }
+    }
+
+    @Test
+    void bucketsAreContiguousAndCoverEveryValue() {
+        for (long v = 0; v < 100_000; v++) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(v <= LatencyHistogram.highestValueAt(index), "value " + v);
+            assertTrue(index == 0 || v > LatencyHistogram.highestValueAt(index - 1), "value " + v);
+        }
+    }
+
+    @Test
+    void tailPercentilesSeparateOutliers() {
+        LatencyHistogram histogram = new LatencyHistogram(10_000_000L);
+        for (int i = 0; i < 9_990; i++) histogram.record(1_000L);
+        for (int i = 0; i < 10; i++) histogram.record(500_000L);
+
+        assertEquals(1_000L, histogram.getValueAtPercentile(50), 10);
+        assertEquals(1_000L, histogram.getValueAtPercentile(99.9), 10);
+        assertEquals(500_000L, histogram.getValueAtPercentile(99.95), 5_000);
+    }
+
+    @Test
+    void outOfRangeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram(1_000L);
+        histogram.record(-5L);
+        histogram.record(1_000_000L);
+        assertEquals(0L, histogram.getValueAtPercentile(50));
+        assertEquals(1_000L, histogram.getMax());
+        assertEquals(1_000L, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void concurrentRecordingLosesNothing() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(1_000_000L);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) histogram.record(i % 5_000);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(200_000, histogram.getTotalCount());
+    }
+}
@@ -0,0 +1,61 @@
+package kchat.load;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadGeneratorTest {
+
+    @Test
+    void payloadCarriesItsScheduledTimeAndRequestedSize() {
+        String payload = LoadGenerator.payload(123_456_789_012L, "x".repeat(256));
+        assertEquals(256, payload.length());
+        assertEquals(123_456_789_012L, LoadGenerator.scheduledNanos(payload));
+
+        // The header wins over a size too small to hold it
+        assertEquals(123L, LoadGenerator.scheduledNanos(LoadGenerator.payload(123L, "x")));
+    }
+
+    @Test
+    void otherMessagesAreNotLoadPayloads() {
+        assertEquals(-1L, LoadGenerator.scheduledNanos(null));
+        assertEquals(-1L, LoadGenerator.scheduledNanos("PRESENCE:3:a,b:"));
+        assertEquals(-1L, LoadGenerator.scheduledNanos("LOAD:oops:xx"));
+        assertEquals(-1L, LoadGenerator.scheduledNanos("ENC:" + "A".repeat(40)));
+    }
+
+    @Test
+    void optionsParse() {
+        LoadGenerator.Options options = LoadGenerator.Options.parse(new String[] {
+            "--connections=2000", "--rooms=10", "--rate=500", "--size=64", "--binary=false"
+        });
+        assertEquals(2000, options.connections());
+        assertEquals(10, options.rooms());
+        assertEquals(500, options.rate());
+        assertEquals(64, options.size());
+        assertFalse(options.binary());
+        assertNull(options.url(), "no --url means an embedded server");
+        assertEquals("selector", options.transport());
+        assertEquals(0, options.idle());
+
+        LoadGenerator.Options blocking = LoadGenerator.Options.parse(new String[] {"--transport=blocking", "--idle=50000"});
+        assertEquals("blocking", blocking.transport());
+        assertEquals(50_000, blocking.idle());
+
+        assertEquals(3, LoadGenerator.Options.parse(new String[] {"--connections=3", "--rooms=8"}).rooms());
+    }
+
+    @Test
+    void optionsRejectMistakes() {
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[] {"--conections=5"}));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[] {"--rate=0"}));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[] {"connections"}));
+        // --serverId is required with --url
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[] {"--url=ws://127.0.0.1:8080"}));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[] {"--transport=epoll"}));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[] {"--idle=-1"}));
+        // the transport is chosen for the embedded server only
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[] {
+            "--url=ws://127.0.0.1:8080", "--serverId=s", "--transport=blocking"}));
+    }
+}
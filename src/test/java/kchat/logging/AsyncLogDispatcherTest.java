@@ -0,0 +1,75 @@
+package kchat.logging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncLogDispatcherTest {
+
+    @Test
+    void offerNeverBlocksWhenTheWriterIsStuck() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(2, lost -> () -> written.add("dropped " + lost));
+        CountDownLatch writerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.offer(() -> {
+            writerBusy.countDown();
+            try { release.await(); } catch (InterruptedException ignored) {}
+        });
+        assertTrue(writerBusy.await(2, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            int n = i;
+            dispatcher.offer(() -> written.add("event " + n));
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500, "offer blocked");
+        assertEquals(8, dispatcher.getDroppedCount());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (written.size() < 3 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(List.of("dropped 8", "event 0", "event 1"), written);
+    }
+
+    @Test
+    void flushWritesPendingEventsOnCallerThread() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(16, lost -> () -> {});
+        CountDownLatch writerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.offer(() -> {
+            writerBusy.countDown();
+            try { release.await(); } catch (InterruptedException ignored) {}
+        });
+        assertTrue(writerBusy.await(2, TimeUnit.SECONDS));
+        dispatcher.offer(() -> written.add(Thread.currentThread().getName()));
+
+        dispatcher.flush();
+        release.countDown();
+
+        assertEquals(0, dispatcher.getPending());
+        assertEquals(List.of(Thread.currentThread().getName()), written);
+    }
+
+    @Test
+    void samplerLetsOneInNThroughAndZeroDisables() {
+        Log.Sampler off = new Log.Sampler(0);
+        Log.Sampler every = new Log.Sampler(1);
+        Log.Sampler third = new Log.Sampler(3);
+        int offHits = 0, everyHits = 0, thirdHits = 0;
+        for (int i = 0; i < 9; i++) {
+            if (off.sample()) offHits++;
+            if (every.sample()) everyHits++;
+            if (third.sample()) thirdHits++;
+        }
+        assertEquals(0, offHits);
+        assertEquals(9, everyHits);
+        assertEquals(3, thirdHits);
+    }
+}
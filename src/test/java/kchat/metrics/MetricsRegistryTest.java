@@ -0,0 +1,95 @@
+package kchat.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.ObjectName;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    void countersAndGaugesUseThePrometheusTextFormat() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("test_events_total", "Events seen");
+        AtomicLong level = new AtomicLong(7);
+        registry.gauge("test_level", "Current level", level::get);
+        counter.inc();
+        counter.add(4);
+
+        String text = registry.scrape();
+        assertTrue(text.contains("# HELP test_events_total Events seen\n# TYPE test_events_total counter\ntest_events_total 5\n"), text);
+        assertTrue(text.contains("# TYPE test_level gauge\ntest_level 7\n"), text);
+
+        level.set(9);
+        assertTrue(registry.scrape().contains("test_level 9\n"), "gauges are read at scrape time");
+    }
+
+    @Test
+    void histogramBucketsAreCumulative() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Histogram histogram = registry.histogram("test_duration_seconds", "Durations", 0.001, 0.01);
+        histogram.observeNanos(500_000L);      // 0.5 ms
+        histogram.observeNanos(1_000_000L);    // exactly 1 ms: le is inclusive
+        histogram.observeNanos(5_000_000L);    // 5 ms
+        histogram.observeNanos(2_000_000_000L); // 2 s, only in +Inf
+
+        String text = registry.scrape();
+        assertTrue(text.contains("test_duration_seconds_bucket{le=\"0.001\"} 2\n"), text);
+        assertTrue(text.contains("test_duration_seconds_bucket{le=\"0.01\"} 3\n"), text);
+        assertTrue(text.contains("test_duration_seconds_bucket{le=\"+Inf\"} 4\n"), text);
+        assertTrue(text.contains("test_duration_seconds_count 4\n"), text);
+        assertEquals(2.0065, histogram.getSumSeconds(), 1e-9);
+        assertEquals(4L, registry.snapshot().get("test_duration_seconds_count"));
+    }
+
+    @Test
+    void namesAreValidatedAndUnique() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("ok_total", "fine");
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("ok_total", "again"));
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("bad-name", "dash", () -> 0));
+    }
+
+    @Test
+    void endpointServesTheRegistry() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("served_total", "Served").add(3);
+        try (PrometheusEndpoint endpoint = PrometheusEndpoint.start(registry, "127.0.0.1", 0)) {
+            HttpURLConnection http = (HttpURLConnection) new URL("http://127.0.0.1:" + endpoint.getPort() + "/metrics").openConnection();
+            assertEquals(200, http.getResponseCode());
+            assertEquals(PrometheusEndpoint.CONTENT_TYPE, http.getHeaderField("Content-Type"));
+            try (InputStream in = http.getInputStream()) {
+                assertTrue(new String(in.readAllBytes(), StandardCharsets.UTF_8).contains("served_total 3\n"));
+            }
+
+            HttpURLConnection post = (HttpURLConnection) new URL("http://127.0.0.1:" + endpoint.getPort() + "/metrics").openConnection();
+            post.setRequestMethod("POST");
+            assertEquals(405, post.getResponseCode());
+        }
+    }
+
+    @Test
+    void mbeanExposesEveryMetric() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("jmx_events_total", "Events").add(2);
+        registry.histogram("jmx_duration_seconds", "Durations").observeNanos(1_000L);
+        ObjectName name = MetricsMBean.register(registry, "kchat.test:type=Metrics,name=" + System.nanoTime());
+        try {
+            assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "jmx_events_total"));
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "jmx_duration_seconds_count"));
+            MBeanAttributeInfo[] attributes = ManagementFactory.getPlatformMBeanServer().getMBeanInfo(name).getAttributes();
+            assertEquals(3, attributes.length);
+        } finally {
+            MetricsMBean.unregister(name);
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
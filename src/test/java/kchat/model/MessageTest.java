@@ -96,4 +96,19 @@ public class MessageTest {
         assertNull(nullMessage.getContent());
         assertEquals(0L, nullMessage.getTimestamp());
     }
+
+    @Test
+    void testRoomIsOmittedFromJsonWhenUnset() throws Exception {
+        String json = objectMapper.writeValueAsString(message);
+        assertFalse(json.contains("room"));
+        assertNull(objectMapper.readValue(json, Message.class).getRoom());
+    }
+
+    @Test
+    void testRoomRoundTrip() throws Exception {
+        Message inRoom = new Message(testSender, testContent, testTimestamp, "dev");
+        Message roundTrip = objectMapper.readValue(objectMapper.writeValueAsString(inRoom), Message.class);
+        assertEquals("dev", roundTrip.getRoom());
+        assertEquals(testContent, roundTrip.getContent());
+    }
 }
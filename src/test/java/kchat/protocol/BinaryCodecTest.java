@@ -0,0 +1,97 @@
+package kchat.protocol;
+
+import kchat.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryCodecTest {
+
+    @Test
+    void textMessageRoundTrip() {
+        Message original = new Message("Alice", "Hällo wörld", 1234567890123L, "dev");
+        Message decoded = BinaryCodec.decode(ByteBuffer.wrap(BinaryCodec.encode(original)));
+        assertEquals("Alice", decoded.getSender());
+        assertEquals("Hällo wörld", decoded.getContent());
+        assertEquals(1234567890123L, decoded.getTimestamp());
+        assertEquals("dev", decoded.getRoom());
+    }
+
+    @Test
+    void ciphertextTravelsAsRawBytes() {
+        byte[] raw = new byte[48];
+        Arrays.fill(raw, (byte) 7);
+        String content = "ENC:" + Base64.getEncoder().encodeToString(raw);
+        byte[] encoded = BinaryCodec.encode(new Message("Bob", content, 1L));
+
+        assertEquals(BinaryCodec.TYPE_CIPHER, encoded[1]);
+        assertTrue(encoded.length < content.getBytes(StandardCharsets.UTF_8).length + 24,
+            "binary form should not carry the Base64 expansion");
+        assertEquals(content, BinaryCodec.decode(ByteBuffer.wrap(encoded)).getContent());
+    }
+
+    @Test
+    void keyEpochTravelsWithTheCiphertext() {
+        String content = "ENC:7:" + Base64.getEncoder().encodeToString(new byte[40]);
+        byte[] encoded = BinaryCodec.encode(new Message("Bob", content, 1L, "dev"));
+
+        assertEquals(BinaryCodec.TYPE_CIPHER_EPOCH, encoded[1]);
+        assertEquals(content, BinaryCodec.decode(ByteBuffer.wrap(encoded)).getContent());
+    }
+
+    @Test
+    void malformedCiphertextFallsBackToText() {
+        for (String content : new String[] {"ENC:!!", "ENC:x:AAAA", "ENC:07:AAAA"}) {
+            byte[] encoded = BinaryCodec.encode(new Message("Bob", content, 1L));
+            assertEquals(BinaryCodec.TYPE_TEXT, encoded[1], content);
+            assertEquals(content, BinaryCodec.decode(ByteBuffer.wrap(encoded)).getContent());
+        }
+    }
+
+    @Test
+    void sequenceNumberIsCarriedOnlyWhenSet() {
+        Message stored = new Message("Alice", "ENC:" + java.util.Base64.getEncoder().encodeToString(new byte[16]), 5L, "dev");
+        stored.setSeq(1L << 40);
+        byte[] withSeq = BinaryCodec.encode(stored);
+        Message decoded = BinaryCodec.decode(ByteBuffer.wrap(withSeq));
+        assertEquals(1L << 40, decoded.getSeq());
+        assertEquals(stored.getContent(), decoded.getContent());
+
+        stored.setSeq(0L);
+        assertEquals(withSeq.length - 8, BinaryCodec.encode(stored).length);
+        assertEquals(0L, BinaryCodec.decode(ByteBuffer.wrap(BinaryCodec.encode(stored))).getSeq());
+    }
+
+    @Test
+    void nullFieldsSurvive() {
+        Message decoded = BinaryCodec.decode(ByteBuffer.wrap(BinaryCodec.encode(new Message(null, null, 0L))));
+        assertNull(decoded.getSender());
+        assertNull(decoded.getContent());
+        assertNull(decoded.getRoom());
+    }
+
+    @Test
+    void rejectsTruncatedOrForeignInput() {
+        byte[] encoded = BinaryCodec.encode(new Message("Alice", "hello", 1L));
+        assertThrows(IllegalArgumentException.class,
+            () -> BinaryCodec.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length - 2))));
+        encoded[0] = 99;
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void handshakeOptionsParseAndFormat() {
+        HandshakeOptions options = HandshakeOptions.parse("proto=bin,flag,x=a=b");
+        assertTrue(options.wantsBinary());
+        assertTrue(options.has("flag"));
+        assertEquals("a=b", options.get("x"));
+        assertEquals("proto=bin,flag,x=a=b", options.toString());
+        assertTrue(HandshakeOptions.parse(null).isEmpty());
+        assertFalse(HandshakeOptions.parse("proto=json").wantsBinary());
+    }
+}
@@ -0,0 +1,54 @@
+package kchat.protocol;
+
+import kchat.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameBatchTest {
+
+    @Test
+    void jsonBatchIsAnArrayOfTheUsualObjects() throws Exception {
+        List<ByteBuffer> messages = List.of(
+            ByteBuffer.wrap(MessageCodec.toBytes(new Message("Alice", "hi", 1L, "dev"))),
+            ByteBuffer.wrap(MessageCodec.toBytes(new Message("Bob", "hello", 2L))).asReadOnlyBuffer());
+        String batch = new String(FrameBatch.packJson(messages), StandardCharsets.UTF_8);
+        assertTrue(FrameBatch.isJsonBatch(batch));
+        assertFalse(FrameBatch.isJsonBatch(MessageCodec.toJson(new Message("Alice", "hi", 1L))));
+
+        List<Message> decoded = MessageCodec.readBatch(batch);
+        assertEquals(2, decoded.size());
+        assertEquals("dev", decoded.get(0).getRoom());
+        assertEquals("hello", decoded.get(1).getContent());
+        assertEquals(2L, decoded.get(1).getTimestamp());
+    }
+
+    @Test
+    void binaryBatchSplitsBackIntoCodecMessages() {
+        byte[] first = BinaryCodec.encode(new Message("Alice", "one", 1L));
+        byte[] second = BinaryCodec.encode(new Message("Bob", "two", 2L, "dev"));
+        ByteBuffer batch = ByteBuffer.wrap(FrameBatch.packBinary(List.of(ByteBuffer.wrap(first), ByteBuffer.wrap(second))));
+        assertTrue(FrameBatch.isBinaryBatch(batch));
+        assertFalse(FrameBatch.isBinaryBatch(ByteBuffer.wrap(first)));
+
+        List<ByteBuffer> messages = FrameBatch.unpackBinary(batch);
+        assertEquals(2, messages.size());
+        assertEquals("one", BinaryCodec.decode(messages.get(0)).getContent());
+        assertEquals("dev", BinaryCodec.decode(messages.get(1)).getRoom());
+        assertEquals(0, batch.position(), "the frame itself is not consumed");
+    }
+
+    @Test
+    void malformedBatchesAreRejected() {
+        byte[] truncated = {FrameBatch.BINARY_MARKER, 0, 0, 0, 9, 1, 2};
+        assertThrows(IllegalArgumentException.class, () -> FrameBatch.unpackBinary(ByteBuffer.wrap(truncated)));
+        assertThrows(IllegalArgumentException.class, () -> FrameBatch.unpackBinary(ByteBuffer.wrap(new byte[] {FrameBatch.BINARY_MARKER, 0, 0})));
+        assertThrows(IllegalArgumentException.class, () -> FrameBatch.unpackBinary(ByteBuffer.wrap(new byte[] {BinaryCodec.VERSION})));
+        assertThrows(IOException.class, () -> MessageCodec.readBatch("[{\"content\":\"x\"}"));
+    }
+}
@@ -0,0 +1,75 @@
+package kchat.protocol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void writesSameJsonAsDataBinding() throws Exception {
+        Message plain = new Message("Alice", "Hi \"there\"\n", 123L);
+        Message inRoom = new Message("Bob", null, 456L, "dev");
+        assertEquals(objectMapper.writeValueAsString(plain), MessageCodec.toJson(plain));
+        assertEquals(objectMapper.writeValueAsString(inRoom), MessageCodec.toJson(inRoom));
+    }
+
+    @Test
+    void readsWhatDataBindingWrites() throws Exception {
+        Message original = new Message("Alice", "ENC:abc+/=", 789L, "dev");
+        Message parsed = MessageCodec.read(objectMapper.writeValueAsString(original));
+        assertEquals("Alice", parsed.getSender());
+        assertEquals("ENC:abc+/=", parsed.getContent());
+        assertEquals(789L, parsed.getTimestamp());
+        assertEquals("dev", parsed.getRoom());
+    }
+
+    @Test
+    void skipsUnknownFieldsAndToleratesNulls() throws Exception {
+        String json = "{\"extra\":{\"nested\":[1,2]},\"sender\":null,\"content\":\"x\",\"timestamp\":null,\"more\":true}";
+        Message parsed = MessageCodec.read(json);
+        assertNull(parsed.getSender());
+        assertEquals("x", parsed.getContent());
+        assertEquals(0L, parsed.getTimestamp());
+    }
+
+    @Test
+    void readIntoOverwritesEveryField() throws Exception {
+        Message target = MessageCodec.scratch();
+        MessageCodec.readInto(target, "{\"sender\":\"A\",\"content\":\"1\",\"timestamp\":5,\"room\":\"dev\"}");
+        MessageCodec.readInto(target, "{\"content\":\"2\"}");
+        assertSame(target, MessageCodec.scratch());
+        assertNull(target.getSender());
+        assertNull(target.getRoom());
+        assertEquals("2", target.getContent());
+        assertEquals(0L, target.getTimestamp());
+    }
+
+    @Test
+    void sequenceNumberMatchesDataBinding() throws Exception {
+        Message stored = new Message("Alice", "hi", 3L, "dev");
+        stored.setSeq(77L);
+        assertEquals(objectMapper.writeValueAsString(stored), MessageCodec.toJson(stored));
+        assertEquals(77L, MessageCodec.read(MessageCodec.toJson(stored)).getSeq());
+        assertFalse(MessageCodec.toJson(new Message("A", "b", 1L)).contains("seq"));
+    }
+
+    @Test
+    void rejectsNonObjects() {
+        assertThrows(Exception.class, () -> MessageCodec.read("\"just a string\""));
+        assertThrows(Exception.class, () -> MessageCodec.read("{\"sender\":\"A\""));
+    }
+
+    @Test
+    void readsFromByteSlices() throws Exception {
+        byte[] bytes = ("xx" + MessageCodec.toJson(new Message("A", "b", 2L)) + "yy").getBytes(StandardCharsets.UTF_8);
+        Message parsed = MessageCodec.read(bytes, 2, bytes.length - 4);
+        assertEquals("b", parsed.getContent());
+    }
+}
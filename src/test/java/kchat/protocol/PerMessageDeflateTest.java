@@ -0,0 +1,75 @@
+package kchat.protocol;
+
+import org.java_websocket.framing.TextFrame;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerMessageDeflateTest {
+
+    private static final String JSON =
+        "{\"sender\":\"alice\",\"content\":\"ENC:1:c2FtZSBzYW1lIHNhbWU=\",\"timestamp\":1700000000000,\"room\":\"lobby\",\"seq\":7}";
+
+    /** What a receiving endpoint does: append the stripped tail and inflate with its running context. */
+    private static String inflate(Inflater inflater, byte[] compressed) throws DataFormatException {
+        byte[] withTail = new byte[compressed.length + 4];
+        System.arraycopy(compressed, 0, withTail, 0, compressed.length);
+        withTail[withTail.length - 2] = (byte) 0xFF;
+        withTail[withTail.length - 1] = (byte) 0xFF;
+        inflater.setInput(withTail);
+        byte[] out = new byte[64 * 1024];
+        int n = inflater.inflate(out);
+        return new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void compressedPayloadInflatesBackAndIsSmaller() throws Exception {
+        String batch = JSON.repeat(10);
+        byte[] compressed = PerMessageDeflate.compress(ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(compressed.length < batch.length() / 4, "repeated field names should compress well");
+        Inflater inflater = new Inflater(true);
+        assertEquals(batch, inflate(inflater, compressed));
+        inflater.end();
+    }
+
+    @Test
+    void everyMessageIsCompressedWithoutContext() throws Exception {
+        ByteBuffer payload = ByteBuffer.wrap(JSON.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        byte[] first = PerMessageDeflate.compress(payload);
+        byte[] second = PerMessageDeflate.compress(payload);
+        // Same bytes each time, so one compression can be shared by every recipient...
+        assertArrayEquals(first, second);
+        assertEquals(JSON.length(), payload.remaining(), "the caller's buffer is not consumed");
+
+        // ...and a receiver keeping its inflater context across messages still decodes them
+        Inflater inflater = new Inflater(true);
+        assertEquals(JSON, inflate(inflater, first));
+        assertEquals(JSON, inflate(inflater, second));
+        inflater.end();
+    }
+
+    @Test
+    void directBuffersCompressToTheSameBytes() {
+        byte[] json = JSON.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(json.length).put(json).flip();
+        assertArrayEquals(PerMessageDeflate.compress(ByteBuffer.wrap(json)), PerMessageDeflate.compress(direct));
+    }
+
+    @Test
+    void extensionLeavesPrecompressedFramesAlone() {
+        PerMessageDeflate.Extension extension = new PerMessageDeflate.Extension(16);
+        ByteBuffer shared = ByteBuffer.wrap(PerMessageDeflate.compress(ByteBuffer.wrap(JSON.getBytes(StandardCharsets.UTF_8)))).asReadOnlyBuffer();
+        TextFrame frame = new TextFrame();
+        frame.setRSV1(true);
+        frame.setPayload(shared);
+        extension.encodeFrame(frame);
+        assertSame(shared, frame.getPayloadData());
+
+        assertEquals(16, ((PerMessageDeflate.Extension) extension.copyInstance()).getThreshold());
+    }
+}
@@ -0,0 +1,66 @@
+package kchat.protocol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RelayEnvelopeTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void scansRoutingFieldsAndKeepsContentBytes() throws Exception {
+        String json = "{\"sender\":\"Alice\",\"content\":\"ENC:q83v\\u00e4==\",\"timestamp\":12,\"room\":\"dev\"}";
+        RelayEnvelope envelope = RelayEnvelope.scan(json);
+        assertNotNull(envelope);
+        assertEquals("Alice", envelope.getSender());
+        assertEquals("dev", envelope.getRoom());
+        assertTrue(envelope.contentStartsWith("ENC:"));
+
+        String rewritten = new String(envelope.rewrite(999L, "lobby"), StandardCharsets.UTF_8);
+        assertEquals(json.replace("\"timestamp\":12", "\"timestamp\":999"), rewritten);
+    }
+
+    @Test
+    void fillsInMissingTimestampAndRoom() throws Exception {
+        RelayEnvelope envelope = RelayEnvelope.scan("{\"sender\":\"A\",\"content\":\"hi\"}");
+        Message m = objectMapper.readValue(envelope.rewrite(7L, "lobby"), Message.class);
+        assertEquals(7L, m.getTimestamp());
+        assertEquals("lobby", m.getRoom());
+        assertEquals("hi", m.getContent());
+
+        Message nulls = objectMapper.readValue(
+            RelayEnvelope.scan("{\"room\":null,\"timestamp\":null,\"content\":\"x\"}").rewrite(8L, "lobby"), Message.class);
+        assertEquals(8L, nulls.getTimestamp());
+        assertEquals("lobby", nulls.getRoom());
+    }
+
+    @Test
+    void appendsSequenceNumberAndLeavesClientSuppliedOnesToBinding() throws Exception {
+        RelayEnvelope envelope = RelayEnvelope.scan("{\"sender\":\"A\",\"content\":\"hi\",\"timestamp\":0,\"room\":\"dev\"}");
+        Message m = objectMapper.readValue(envelope.rewrite(5L, "lobby", 42L), Message.class);
+        assertEquals(42L, m.getSeq());
+        assertEquals("dev", m.getRoom());
+        assertNull(RelayEnvelope.scan("{\"content\":\"hi\",\"seq\":1}"));
+    }
+
+    @Test
+    void recognisesControlPrefixesThroughEscapes() throws Exception {
+        assertTrue(RelayEnvelope.scan("{\"content\":\"\\u0048ELLO:abc\"}").contentStartsWith("HELLO:"));
+        assertFalse(RelayEnvelope.scan("{\"content\":null}").contentStartsWith("HELLO:"));
+    }
+
+    @Test
+    void leavesUnusualFramesToFullBinding() throws Exception {
+        assertNull(RelayEnvelope.scan("{\"content\":\"x\",\"extra\":1}"));
+        assertNull(RelayEnvelope.scan("{\"content\":\"x\",\"content\":\"y\"}"));
+        assertNull(RelayEnvelope.scan("{\"sender\":{\"name\":\"A\"}}"));
+        assertNull(RelayEnvelope.scan("{\"timestamp\":1.5}"));
+        assertNull(RelayEnvelope.scan("[1,2]"));
+        assertThrows(Exception.class, () -> RelayEnvelope.scan("{\"content\":"));
+    }
+}
@@ -0,0 +1,90 @@
+package kchat.security;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AesGcmTest {
+    private static final SecretKey KEY = new SecretKeySpec(new byte[32], "AES");
+
+    @Test
+    void bytesRoundTrip() throws Exception {
+        byte[] plain = "Hello Secret World".getBytes(StandardCharsets.UTF_8);
+        byte[] sealed = AesGcm.seal(KEY, plain);
+        assertEquals(AesGcm.sealedLength(plain.length), sealed.length);
+        assertArrayEquals(plain, AesGcm.open(KEY, sealed, 0, sealed.length));
+    }
+
+    @Test
+    void freshNoncePerSeal() throws Exception {
+        byte[] plain = "same".getBytes(StandardCharsets.UTF_8);
+        assertFalse(Arrays.equals(AesGcm.seal(KEY, plain), AesGcm.seal(KEY, plain)));
+    }
+
+    @Test
+    void directBufferRoundTrip() throws Exception {
+        byte[] plain = new byte[1024];
+        for (int i = 0; i < plain.length; i++) plain[i] = (byte) i;
+        ByteBuffer in = ByteBuffer.allocateDirect(plain.length).put(plain).flip();
+        ByteBuffer sealed = ByteBuffer.allocateDirect(AesGcm.sealedLength(plain.length));
+        assertEquals(sealed.capacity(), AesGcm.seal(KEY, in, sealed));
+        sealed.flip();
+
+        ByteBuffer out = ByteBuffer.allocateDirect(plain.length);
+        assertEquals(plain.length, AesGcm.open(KEY, sealed, out));
+        byte[] back = new byte[plain.length];
+        out.flip().get(back);
+        assertArrayEquals(plain, back);
+    }
+
+    @Test
+    void associatedDataMustMatch() throws Exception {
+        byte[] plain = "counted".getBytes(StandardCharsets.UTF_8);
+        byte[] sealed = AesGcm.seal(KEY, plain, 0, plain.length, new byte[] {0, 0, 0, 7});
+        assertArrayEquals(plain, AesGcm.open(KEY, sealed, 0, sealed.length, new byte[] {0, 0, 0, 7}));
+        assertThrows(AEADBadTagException.class, () -> AesGcm.open(KEY, sealed, 0, sealed.length, new byte[] {0, 0, 0, 8}));
+        assertThrows(AEADBadTagException.class, () -> AesGcm.open(KEY, sealed, 0, sealed.length));
+    }
+
+    @Test
+    void tamperedCiphertextIsRejected() throws Exception {
+        byte[] sealed = AesGcm.seal(KEY, "payload".getBytes(StandardCharsets.UTF_8));
+        sealed[AesGcm.IV_LENGTH] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> AesGcm.open(KEY, sealed, 0, sealed.length));
+    }
+
+    @Test
+    void cipherIsCachedPerThread() throws Exception {
+        Cipher mine = AesGcm.cipher();
+        assertSame(mine, AesGcm.cipher());
+        AtomicReference<Cipher> other = new AtomicReference<>();
+        Thread t = new Thread(() -> other.set(AesGcm.cipher()));
+        t.start();
+        t.join();
+        assertNotNull(other.get());
+        assertNotSame(mine, other.get());
+    }
+
+    @Test
+    void cryptoUtilsByteApiMatchesStringApi() throws Exception {
+        CryptoUtils.setRawKey(new byte[32]);
+        try {
+            byte[] plain = "bytes".getBytes(StandardCharsets.UTF_8);
+            byte[] sealed = CryptoUtils.encrypt(plain);
+            assertArrayEquals(plain, CryptoUtils.decrypt(sealed, 0, sealed.length));
+            String viaString = CryptoUtils.encrypt("bytes");
+            assertEquals("bytes", CryptoUtils.decrypt(viaString));
+        } finally {
+            CryptoUtils.clear();
+        }
+    }
+}
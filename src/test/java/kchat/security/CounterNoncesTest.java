@@ -0,0 +1,84 @@
+package kchat.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CounterNoncesTest {
+
+    private static byte[] next(CounterNonces nonces) {
+        byte[] iv = new byte[AesGcm.IV_LENGTH];
+        nonces.next(iv, 0);
+        return iv;
+    }
+
+    @Test
+    void prefixIsStableAndCounterIncrements() {
+        CounterNonces nonces = new CounterNonces();
+        ByteBuffer first = ByteBuffer.wrap(next(nonces));
+        ByteBuffer second = ByteBuffer.wrap(next(nonces));
+        assertEquals(first.getLong(0), second.getLong(0));
+        assertEquals(0, first.getInt(8));
+        assertEquals(1, second.getInt(8));
+    }
+
+    @Test
+    void rollsOverToNewPrefixBeforeCounterWraps() {
+        CounterNonces nonces = new CounterNonces(4);
+        Set<String> seen = new HashSet<>();
+        long firstPrefix = ByteBuffer.wrap(next(nonces)).getLong(0);
+        for (int i = 0; i < 3; i++) next(nonces);
+        assertEquals(0, nonces.getRollovers());
+
+        ByteBuffer afterLimit = ByteBuffer.wrap(next(nonces));
+        assertEquals(1, nonces.getRollovers());
+        assertNotEquals(firstPrefix, afterLimit.getLong(0));
+        assertEquals(0, afterLimit.getInt(8), "counter restarts under the new prefix");
+
+        for (int i = 0; i < 100; i++) assertTrue(seen.add(Arrays.toString(next(nonces))));
+    }
+
+    @Test
+    void concurrentSendersNeverShareANonce() throws Exception {
+        CounterNonces nonces = new CounterNonces(1000);
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 5000; i++) seen.add(Arrays.toString(next(nonces)));
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(40_000, seen.size());
+        assertTrue(nonces.getRollovers() >= 39);
+    }
+
+    @Test
+    void counterModeContextInteroperatesWithRandomMode() {
+        CryptoContext sender = CryptoContext.withRawKey(new byte[32]);
+        sender.setNonceMode(CryptoContext.NonceMode.COUNTER);
+        sender.useCounterNonces(new CounterNonces(2));
+        CryptoContext receiver = CryptoContext.withRawKey(new byte[32]);
+        assertEquals(CryptoContext.NonceMode.RANDOM, receiver.getNonceMode());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("m" + i, receiver.decrypt(sender.encrypt("m" + i)));
+        }
+    }
+
+    @Test
+    void nonceModeParsing() {
+        assertEquals(CryptoContext.NonceMode.COUNTER, CryptoContext.NonceMode.parse("Counter"));
+        assertEquals(CryptoContext.NonceMode.RANDOM, CryptoContext.NonceMode.parse(null));
+        assertEquals(CryptoContext.NonceMode.RANDOM, CryptoContext.NonceMode.parse("bogus"));
+    }
+}
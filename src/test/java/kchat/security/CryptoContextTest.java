@@ -0,0 +1,112 @@
+package kchat.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CryptoContextTest {
+
+    @AfterEach
+    void cleanup() {
+        CryptoUtils.clear();
+    }
+
+    @Test
+    void contextsWithDifferentKeysAreIndependent() {
+        byte[] k1 = new byte[32];
+        byte[] k2 = new byte[32];
+        k2[0] = 1;
+        CryptoContext a = CryptoContext.withRawKey(k1);
+        CryptoContext b = CryptoContext.withRawKey(k2);
+
+        String fromA = a.encrypt("hello");
+        assertEquals("hello", a.decrypt(fromA));
+        assertEquals(fromA, b.decrypt(fromA), "a different key must not decrypt it");
+        assertFalse(CryptoUtils.isEnabled(), "per-connection keys must not leak into the global context");
+    }
+
+    @Test
+    void passphraseKeyIsDerivedOnceAndInteroperates() {
+        CryptoContext a = new CryptoContext();
+        a.setPassphrase("secret123");
+        CryptoUtils.setPassphrase("secret123");
+        assertEquals("msg", CryptoUtils.decrypt(a.encrypt("msg")));
+        assertEquals("msg", a.decrypt(CryptoUtils.encrypt("msg")));
+    }
+
+    @Test
+    void clearDisablesOnlyThatContext() {
+        CryptoContext a = CryptoContext.withRawKey(new byte[32]);
+        CryptoContext b = CryptoContext.withRawKey(new byte[32]);
+        a.clear();
+        assertFalse(a.isEnabled());
+        assertEquals("plain", a.encrypt("plain"));
+        assertTrue(b.isEnabled());
+    }
+
+    @Test
+    void oneContextIsUsableFromManyThreads() throws Exception {
+        CryptoContext context = new CryptoContext();
+        context.setPassphrase("shared");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String text = "message-" + i;
+                results.add(pool.submit(() -> text.equals(context.decrypt(context.encrypt(text)))));
+            }
+            for (Future<Boolean> result : results) assertTrue(result.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void previousKeyDecryptsOnlyDuringGraceWindow() throws Exception {
+        byte[] k0 = new byte[32];
+        byte[] k1 = new byte[32];
+        k1[0] = 1;
+        CryptoContext sender = CryptoContext.withRawKey(k0);
+        String old = sender.encrypt("old");
+
+        CryptoContext graced = CryptoContext.withRawKey(k0);
+        assertTrue(graced.rotateKey(k1, 1, 60_000));
+        assertEquals(1, graced.getKeyEpoch());
+        assertEquals("old", graced.decrypt(old));
+
+        CryptoContext expired = CryptoContext.withRawKey(k0);
+        assertTrue(expired.rotateKey(k1, 1, 0));
+        assertEquals(old, expired.decrypt(old), "past the grace window the old key is gone");
+    }
+
+    @Test
+    void ciphertextNamesItsEpoch() {
+        byte[] k1 = new byte[32];
+        k1[0] = 1;
+        CryptoContext a = CryptoContext.withRawKey(new byte[32]);
+        assertTrue(a.encrypt("x").matches("ENC:[^:]+"), "epoch 0 keeps the original format");
+        a.rotateKey(k1, 3, 1000);
+        String tagged = a.encrypt("x");
+        assertTrue(tagged.startsWith("ENC:3:"), tagged);
+
+        CryptoContext unknownEpoch = new CryptoContext();
+        unknownEpoch.setRawKey(k1, 2);
+        assertEquals(tagged, unknownEpoch.decrypt(tagged));
+    }
+
+    @Test
+    void staleOrDuplicateRotationsAreIgnored() {
+        CryptoContext context = new CryptoContext();
+        context.setRawKey(new byte[32], 2);
+        assertFalse(context.rotateKey(new byte[32], 2, 1000));
+        assertFalse(context.rotateKey(new byte[32], 1, 1000));
+        assertEquals(2, context.getKeyEpoch());
+    }
+}
@@ -0,0 +1,39 @@
+package kchat.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HkdfTest {
+    private static final HexFormat HEX = HexFormat.of();
+
+    @Test
+    void matchesRfc5869TestCase1() {
+        byte[] ikm = new byte[22];
+        Arrays.fill(ikm, (byte) 0x0b);
+        Hkdf hkdf = new Hkdf(HEX.parseHex("000102030405060708090a0b0c"), HEX.parseHex("f0f1f2f3f4f5f6f7f8f9"));
+        String expected = "3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865";
+        assertEquals(expected, HEX.formatHex(hkdf.derive(ikm, 42)));
+        assertEquals(expected, HEX.formatHex(hkdf.derive(ikm, 42)), "reusable");
+        assertEquals(expected, HEX.formatHex(KeyExchangeUtil.hkdf(ikm,
+            HEX.parseHex("000102030405060708090a0b0c"), HEX.parseHex("f0f1f2f3f4f5f6f7f8f9"), 42)));
+    }
+
+    @Test
+    void engineAndClientDeriveTheSameKeyWrapKey() {
+        KeyPair server = KeyExchangeUtil.generateKeyPair();
+        KeyPair client = KeyExchangeUtil.generateKeyPair();
+        HandshakeEngine engine = new HandshakeEngine("srv-1", server);
+
+        byte[] serverSide = engine.keyWrapKey(client.getPublic().getEncoded());
+        byte[] shared = KeyExchangeUtil.deriveSharedSecret(client.getPrivate(), server.getPublic().getEncoded());
+        byte[] clientSide = KeyExchangeUtil.hkdf(shared, "srv-1".getBytes(), HandshakeEngine.KEY_WRAP_INFO, HandshakeEngine.KEY_WRAP_LENGTH);
+
+        assertArrayEquals(clientSide, serverSide);
+        assertEquals("WELCOME:srv-1:" + engine.getPublicKeyB64() + ":abc", engine.welcome("abc"));
+    }
+}
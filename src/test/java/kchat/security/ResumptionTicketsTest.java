@@ -0,0 +1,50 @@
+package kchat.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResumptionTicketsTest {
+
+    private static byte[] wrapKey() {
+        byte[] key = new byte[32];
+        key[5] = 42;
+        return key;
+    }
+
+    @Test
+    void ticketRoundTripsTheKeyWrapKey() throws Exception {
+        ResumptionTickets tickets = new ResumptionTickets(60_000);
+        String ticket = tickets.issue(wrapKey());
+        ResumptionTickets.Redeemed redeemed = tickets.redeem(ticket);
+        assertNotNull(redeemed);
+        assertArrayEquals(wrapKey(), redeemed.keyWrapKey());
+
+        SessionTicket held = SessionTicket.fromWelcome("srv", ticket, wrapKey());
+        assertEquals(redeemed.expiresAt(), held.expiresAt());
+        assertTrue(held.usableFor("srv", System.currentTimeMillis()));
+        assertFalse(held.usableFor("other", System.currentTimeMillis()));
+    }
+
+    @Test
+    void expiredForgedAndForeignTicketsAreRejected() throws Exception {
+        ResumptionTickets tickets = new ResumptionTickets(60_000);
+        assertNull(tickets.redeem(tickets.issue(wrapKey(), System.currentTimeMillis() - 1)));
+        assertNull(new ResumptionTickets(60_000).redeem(tickets.issue(wrapKey())), "another server's ticket");
+
+        String ticket = tickets.issue(wrapKey());
+        char last = ticket.charAt(ticket.length() - 1);
+        assertNull(tickets.redeem(ticket.substring(0, ticket.length() - 1) + (last == 'A' ? 'B' : 'A')));
+        assertNull(tickets.redeem("garbage"));
+        assertNull(tickets.redeem("1.!!"));
+    }
+
+    @Test
+    void tamperingWithTheVisibleExpiryDoesNotExtendIt() throws Exception {
+        ResumptionTickets tickets = new ResumptionTickets(60_000);
+        long expiresAt = System.currentTimeMillis() + 1000;
+        String ticket = tickets.issue(wrapKey(), expiresAt);
+        String extended = Long.MAX_VALUE + ticket.substring(ticket.indexOf('.'));
+        assertEquals(expiresAt, tickets.redeem(extended).expiresAt(), "the sealed expiry is authoritative");
+    }
+}
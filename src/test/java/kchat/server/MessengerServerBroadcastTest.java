@@ -0,0 +1,334 @@
+package kchat.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.security.KeyExchangeUtil;
+import kchat.protocol.BinaryCodec;
+import kchat.protocol.PerMessageDeflate;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.Framedata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessengerServerBroadcastTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private MessengerServer server;
+
+    @BeforeEach
+    void setUp() {
+        server = newServer(false);
+    }
+
+    private static MessengerServer newServer(boolean perEventPresence) {
+        ServerConfig config = new ServerConfig();
+        config.setPresenceTickMillis(20);
+        config.setPerEventPresence(perEventPresence);
+        return new MessengerServer(12346, config);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private RecordingWebSocket authenticate() throws Exception {
+        return authenticate(null);
+    }
+
+    private RecordingWebSocket authenticate(String options) throws Exception {
+        return authenticate(new RecordingWebSocket(), options);
+    }
+
+    private RecordingWebSocket authenticate(RecordingWebSocket ws, String options) throws Exception {
+        server.onOpen(ws, null);
+        String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+        String content = "HELLO:" + server.getServerId() + ":" + pubB64 + (options != null ? ":" + options : "");
+        Message hello = new Message("Client", content, System.currentTimeMillis());
+        server.onMessage(ws, MAPPER.writeValueAsString(hello));
+        assertTrue(ws.awaitHandshake(2000), "No handshake response");
+        assertTrue(ws.isOpen(), "Handshake was rejected");
+        return ws;
+    }
+
+    @Test
+    void broadcastSharesOnePayloadAcrossRecipients() throws Exception {
+        List<RecordingWebSocket> clients = new ArrayList<>();
+        for (int i = 0; i < 3; i++) clients.add(authenticate());
+        assertEquals(3, server.getAuthenticatedConnectionCount());
+        for (RecordingWebSocket c : clients) assertTrue(c.awaitFrames(1, 2000)); // presence delta
+        Thread.sleep(50);
+        for (RecordingWebSocket c : clients) c.getSentFrames().clear();
+
+        server.broadcastToAuthenticated(new Message("Alice", "hi all", 42L));
+
+        for (RecordingWebSocket c : clients) {
+            assertTrue(c.awaitFrames(1, 2000), "Broadcast not delivered");
+            Framedata frame = c.getSentFrames().get(0);
+            assertTrue(frame.getPayloadData().isReadOnly());
+            Message decoded = MAPPER.readValue(RecordingWebSocket.textOf(frame), Message.class);
+            assertEquals("hi all", decoded.getContent());
+        }
+    }
+
+    /** A connection on which permessage-deflate was negotiated with the given threshold. */
+    private static RecordingWebSocket deflateSocket(int threshold) {
+        return new RecordingWebSocket(new Draft_6455() {
+            @Override
+            public IExtension getExtension() {
+                return new PerMessageDeflate.Extension(threshold);
+            }
+        });
+    }
+
+    private static String inflate(ByteBuffer payload) throws Exception {
+        byte[] compressed = new byte[payload.remaining() + 4];
+        payload.duplicate().get(compressed, 0, payload.remaining());
+        compressed[compressed.length - 2] = (byte) 0xFF;
+        compressed[compressed.length - 1] = (byte) 0xFF; // the stripped 00 00 FF FF tail
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed);
+        byte[] out = new byte[64 * 1024];
+        int n = inflater.inflate(out);
+        inflater.end();
+        return new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void deflateClientsShareOneCompressedPayload() throws Exception {
+        RecordingWebSocket plain = authenticate();
+        RecordingWebSocket first = authenticate(deflateSocket(128), null);
+        RecordingWebSocket second = authenticate(deflateSocket(128), null);
+        for (RecordingWebSocket c : List.of(plain, first, second)) assertTrue(c.awaitFrames(1, 2000));
+        Thread.sleep(50);
+        for (RecordingWebSocket c : List.of(plain, first, second)) c.getSentFrames().clear();
+
+        String content = "the same words again and again, ".repeat(20);
+        server.broadcastToAuthenticated(new Message("Alice", content, 42L));
+        for (RecordingWebSocket c : List.of(plain, first, second)) assertTrue(c.awaitFrames(1, 2000));
+
+        Framedata uncompressed = plain.getSentFrames().get(0);
+        Framedata a = first.getSentFrames().get(0);
+        Framedata b = second.getSentFrames().get(0);
+        assertFalse(uncompressed.isRSV1());
+        assertTrue(a.isRSV1());
+        assertTrue(b.isRSV1());
+        assertEquals(a.getPayloadData(), b.getPayloadData(), "compressed once, shared by both");
+        assertTrue(a.getPayloadData().remaining() < uncompressed.getPayloadData().remaining() / 4);
+        assertEquals(RecordingWebSocket.textOf(uncompressed), inflate(a.getPayloadData()));
+
+        // Below the threshold frames go out as they are
+        for (RecordingWebSocket c : List.of(plain, first, second)) c.getSentFrames().clear();
+        server.broadcastToAuthenticated(new Message("Alice", "hi", 43L));
+        assertTrue(first.awaitFrames(1, 2000));
+        assertFalse(first.getSentFrames().get(0).isRSV1());
+        assertTrue(RecordingWebSocket.textOf(first.getSentFrames().get(0)).contains("\"hi\""));
+    }
+
+    @Test
+    void closedConnectionsArePrunedDuringFanOut() throws Exception {
+        RecordingWebSocket open = authenticate();
+        RecordingWebSocket closed = authenticate();
+        closed.close();
+
+        server.broadcastToAuthenticated(new Message("Bob", "still here?", 0L));
+
+        assertEquals(1, server.getAuthenticatedConnectionCount());
+        assertTrue(open.awaitFrames(1, 2000));
+    }
+
+    private void send(RecordingWebSocket ws, String content, String room) throws Exception {
+        server.onMessage(ws, MAPPER.writeValueAsString(new Message("Client", content, 0L, room)));
+    }
+
+    private static boolean received(RecordingWebSocket ws, String content) {
+        return ws.getAllText().stream().anyMatch(t -> t.contains("\"content\":\"" + content + "\""));
+    }
+
+    @Test
+    void roomMessagesOnlyReachSubscribers() throws Exception {
+        RecordingWebSocket alice = authenticate();
+        RecordingWebSocket bob = authenticate();
+        RecordingWebSocket carol = authenticate();
+        send(alice, "JOIN:dev", null);
+        send(bob, "JOIN:dev", null);
+        assertEquals(2, server.getRoomMemberCount("dev"));
+        assertEquals(3, server.getRoomMemberCount(MessengerServer.DEFAULT_ROOM));
+
+        send(alice, "ship it", "dev");
+        send(carol, "not a member", "dev");
+
+        assertTrue(bob.awaitFrames(1, 2000));
+        Thread.sleep(100);
+        assertTrue(received(alice, "ship it"));
+        assertTrue(received(bob, "ship it"));
+        assertFalse(received(carol, "ship it"));
+        assertFalse(received(bob, "not a member"));
+    }
+
+    @Test
+    void chatIsRelayedVerbatimWithServerTimestamp() throws Exception {
+        RecordingWebSocket alice = authenticate();
+        RecordingWebSocket bob = authenticate();
+        String frame = "{\"sender\":\"Alice\",\"content\":\"ENC:AAEC\\/w==\",\"timestamp\":1}";
+        long before = System.currentTimeMillis();
+
+        server.onMessage(alice, frame);
+
+        assertTrue(bob.awaitFrames(1, 2000));
+        Thread.sleep(50);
+        String relayed = bob.getAllText().stream().filter(t -> t.contains("ENC:")).findFirst().orElseThrow();
+        assertTrue(relayed.startsWith("{\"sender\":\"Alice\",\"content\":\"ENC:AAEC\\/w==\",\"timestamp\":"));
+        Message m = MAPPER.readValue(relayed, Message.class);
+        assertTrue(m.getTimestamp() >= before);
+        assertEquals(MessengerServer.DEFAULT_ROOM, m.getRoom());
+    }
+
+    private static Message lastWithPrefix(RecordingWebSocket ws, String prefix, String room) throws Exception {
+        Message last = null;
+        for (String text : ws.getAllText()) {
+            Message m = MAPPER.readValue(text, Message.class);
+            if (m.getContent().startsWith(prefix) && room.equals(m.getRoom())) last = m;
+        }
+        return last;
+    }
+
+    @Test
+    void userCountIsReportedPerRoom() throws Exception {
+        RecordingWebSocket alice = authenticate();
+        RecordingWebSocket bob = authenticate();
+        send(alice, "JOIN:dev", null);
+        Thread.sleep(100);
+        Message last = lastWithPrefix(alice, "PRESENCE:", "dev");
+        assertNotNull(last);
+        assertTrue(last.getContent().startsWith("PRESENCE:1:"), last.getContent());
+
+        send(alice, "LEAVE:dev", null);
+        assertEquals(0, server.getRoomMemberCount("dev"));
+        assertFalse(server.getRooms().contains("dev"));
+        assertEquals(2, server.getRoomMemberCount(MessengerServer.DEFAULT_ROOM));
+        assertTrue(bob.isOpen());
+    }
+
+    @Test
+    void joinBurstIsCoalescedIntoOneDeltaPerTick() throws Exception {
+        RecordingWebSocket watcher = authenticate();
+        Thread.sleep(100);
+        watcher.getSentFrames().clear();
+        watcher.getAllText().clear();
+
+        for (int i = 0; i < 10; i++) authenticate();
+        Thread.sleep(150);
+
+        long deltas = watcher.getAllText().stream().filter(t -> t.contains("PRESENCE:")).count();
+        assertTrue(deltas >= 1 && deltas <= 3, "Expected a handful of deltas, got " + deltas);
+        Message last = lastWithPrefix(watcher, "PRESENCE:", MessengerServer.DEFAULT_ROOM);
+        assertTrue(last.getContent().startsWith("PRESENCE:11:"), last.getContent());
+        assertFalse(watcher.getAllText().stream().anyMatch(t -> t.contains("USER_COUNT:")));
+    }
+
+    @Test
+    void perEventPresenceIsAvailableAsOptIn() throws Exception {
+        server.stop();
+        server = newServer(true);
+        RecordingWebSocket alice = authenticate();
+        authenticate();
+        Thread.sleep(100);
+        assertEquals("USER_COUNT:2", lastWithPrefix(alice, "USER_COUNT:", MessengerServer.DEFAULT_ROOM).getContent());
+        assertTrue(received(alice, "User joined the chat"));
+    }
+
+    @Test
+    void binaryClientsGetBinaryFramesAndShareRoomsWithJsonClients() throws Exception {
+        RecordingWebSocket json = authenticate();
+        RecordingWebSocket binary = authenticate("proto=bin");
+        String welcome = MAPPER.readValue(binary.getSentText().get(0), Message.class).getContent();
+        assertTrue(welcome.endsWith(":proto=bin"), welcome);
+        assertEquals(4, MAPPER.readValue(json.getSentText().get(0), Message.class).getContent().split(":").length,
+            "Clients without options keep the original WELCOME layout");
+
+        String cipher = "ENC:" + Base64.getEncoder().encodeToString(new byte[40]);
+        server.onMessage(binary, ByteBuffer.wrap(BinaryCodec.encode(new Message("Bin", cipher, 0L))));
+        Thread.sleep(100);
+
+        assertTrue(received(json, cipher), "JSON client should see the ENC: form");
+        Message echoed = null;
+        for (Framedata frame : binary.getSentFrames()) {
+            assertEquals(Opcode.BINARY, frame.getOpcode());
+            Message m = BinaryCodec.decode(frame.getPayloadData().duplicate());
+            if (cipher.equals(m.getContent())) echoed = m;
+        }
+        assertNotNull(echoed, "Binary client should get its message back as a binary frame");
+        assertEquals(MessengerServer.DEFAULT_ROOM, echoed.getRoom());
+    }
+
+    @Test
+    void malformedCiphertextStillReachesEveryRecipient() throws Exception {
+        RecordingWebSocket sender = authenticate();
+        RecordingWebSocket binary = authenticate("proto=bin");
+        RecordingWebSocket json = authenticate();
+
+        for (String content : new String[] {"ENC:!!", "ENC:x:AAAA"}) {
+            server.onMessage(sender, MAPPER.writeValueAsString(new Message("Json", content, 0L)));
+        }
+        Thread.sleep(100);
+
+        for (String content : new String[] {"ENC:!!", "ENC:x:AAAA"}) {
+            assertTrue(received(json, content), "JSON recipient should get " + content);
+            boolean seen = false;
+            for (Framedata frame : binary.getSentFrames()) {
+                if (frame.getOpcode() == Opcode.BINARY
+                    && content.equals(BinaryCodec.decode(frame.getPayloadData().duplicate()).getContent())) seen = true;
+            }
+            assertTrue(seen, "Binary recipient should get " + content);
+        }
+    }
+
+    @Test
+    void connectionLostBeforeWelcomeLeavesNothingBehind() throws Exception {
+        RecordingWebSocket watcher = authenticate();
+        Thread.sleep(100);
+        // Closes as the WELCOME is written, after onClose already ran and found no session
+        RecordingWebSocket dropped = new RecordingWebSocket() {
+            @Override public void send(String text) {
+                close(1006, "");
+                throw new WebsocketNotConnectedException();
+            }
+        };
+        server.onOpen(dropped, null);
+        server.onClose(dropped, 1006, "", true);
+        String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+        server.onMessage(dropped, MAPPER.writeValueAsString(new Message("Client", "HELLO:" + server.getServerId() + ":" + pubB64, 0L)));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (dropped.isOpen() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        Thread.sleep(100);
+        assertEquals(1, server.getAuthenticatedConnectionCount());
+        assertEquals(1, server.getRoomMemberCount(MessengerServer.DEFAULT_ROOM));
+        Message last = lastWithPrefix(watcher, "PRESENCE:", MessengerServer.DEFAULT_ROOM);
+        assertTrue(last.getContent().startsWith("PRESENCE:1:"), last.getContent());
+    }
+
+    @Test
+    void binaryFramesFromUnauthenticatedConnectionsAreIgnored() throws Exception {
+        RecordingWebSocket listener = authenticate();
+        RecordingWebSocket stranger = new RecordingWebSocket();
+        server.onOpen(stranger, null);
+        server.onMessage(stranger, ByteBuffer.wrap(BinaryCodec.encode(new Message("X", "spam", 0L))));
+        Thread.sleep(50);
+        assertFalse(received(listener, "spam"));
+    }
+}
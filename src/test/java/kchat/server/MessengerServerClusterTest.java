@@ -0,0 +1,154 @@
+package kchat.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.cluster.InProcessClusterBus;
+import kchat.model.Message;
+import kchat.security.KeyExchangeUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessengerServerClusterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String SECRET = "k3Jd9xQ2mVb7Lw4T";
+    private final InProcessClusterBus.Network network = new InProcessClusterBus.Network();
+    private final List<MessengerServer> servers = new ArrayList<>();
+    private MessengerServer a;
+    private MessengerServer b;
+
+    @BeforeEach
+    void setUp() {
+        a = node("a", "chat", false);
+        b = node("b", "chat", false);
+        awaitTrue(() -> a.getClusterPeers().equals(Set.of("b")) && b.getClusterPeers().equals(Set.of("a")));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (MessengerServer server : servers) server.stop();
+    }
+
+    private MessengerServer node(String nodeId, String serverId, boolean perEventPresence) {
+        ServerConfig config = new ServerConfig();
+        config.setPresenceTickMillis(20);
+        config.setPerEventPresence(perEventPresence);
+        config.setMetricsJmxEnabled(false);
+        config.setClusterNodeId(nodeId);
+        config.setClusterSecret(SECRET);
+        config.setServerId(serverId);
+        MessengerServer server = new MessengerServer(12353 + servers.size(), config, network.newBus());
+        servers.add(server);
+        server.onStart();
+        return server;
+    }
+
+    private static RecordingWebSocket authenticate(MessengerServer server) throws Exception {
+        RecordingWebSocket ws = new RecordingWebSocket();
+        server.onOpen(ws, null);
+        String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+        server.onMessage(ws, MAPPER.writeValueAsString(new Message("Client", "HELLO:" + server.getServerId() + ":" + pubB64, 0L)));
+        assertTrue(ws.awaitHandshake(2000), "No handshake response");
+        assertTrue(ws.isOpen(), "Handshake was rejected");
+        return ws;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        assertTrue(condition.getAsBoolean(), "Condition not met in time");
+    }
+
+    private static boolean received(RecordingWebSocket ws, String text) {
+        return ws.getAllText().stream().anyMatch(t -> t.contains(text));
+    }
+
+    @Test
+    void nodesShareServerIdAndGroupKeyEpoch() {
+        assertEquals(a.getServerId(), b.getServerId());
+        assertNotEquals(a.getNodeId(), b.getNodeId());
+
+        assertEquals(1, a.rotateGroupKey());
+        awaitTrue(() -> b.getGroupKeyEpoch() == 1);
+        assertEquals(2, b.rotateGroupKey());
+        awaitTrue(() -> a.getGroupKeyEpoch() == 2);
+    }
+
+    @Test
+    void presenceAndCountsCoverTheWholeCluster() throws Exception {
+        RecordingWebSocket alice = authenticate(a);
+        awaitTrue(() -> b.getClusterRoomMemberCount(MessengerServer.DEFAULT_ROOM) == 1);
+        RecordingWebSocket bob = authenticate(b);
+        awaitTrue(() -> a.getClusterRoomMemberCount(MessengerServer.DEFAULT_ROOM) == 2);
+
+        assertEquals(1, a.getRoomMemberCount(MessengerServer.DEFAULT_ROOM));
+        awaitTrue(() -> received(alice, "PRESENCE:2::b-u1") || received(alice, "PRESENCE:2:b-u1:"));
+        assertTrue(received(bob, "PRESENCE:2:b-u1:"));
+
+        b.onClose(bob, 1000, "", true);
+        awaitTrue(() -> a.getClusterRoomMemberCount(MessengerServer.DEFAULT_ROOM) == 1);
+        awaitTrue(() -> received(alice, "PRESENCE:1::b-u1"));
+    }
+
+    @Test
+    void userCountIncludesMembersOnOtherNodes() throws Exception {
+        MessengerServer c = node("c", "chat", true);
+        MessengerServer d = node("d", "chat", true);
+        awaitTrue(() -> c.getClusterPeers().contains("d"));
+        RecordingWebSocket carol = authenticate(c);
+        awaitTrue(() -> d.getClusterRoomMemberCount(MessengerServer.DEFAULT_ROOM) == 1);
+        authenticate(d);
+        awaitTrue(() -> received(carol, "USER_COUNT:2"));
+    }
+
+    @Test
+    void messagesReachMembersOnEveryNode() throws Exception {
+        RecordingWebSocket alice = authenticate(a);
+        RecordingWebSocket bob = authenticate(b);
+        awaitTrue(() -> a.getClusterRoomMemberCount(MessengerServer.DEFAULT_ROOM) == 2);
+        a.onMessage(alice, MAPPER.writeValueAsString(new Message("Alice", "hi from a", 1L)));
+        awaitTrue(() -> received(bob, "hi from a"));
+        b.onMessage(bob, MAPPER.writeValueAsString(new Message("Bob", "hi from b", 1L)));
+        awaitTrue(() -> received(alice, "hi from b"));
+    }
+
+    @Test
+    void departedNodeTakesItsMembersAlong() throws Exception {
+        authenticate(b);
+        authenticate(b);
+        awaitTrue(() -> a.getClusterRoomMemberCount(MessengerServer.DEFAULT_ROOM) == 2);
+        b.stop();
+        awaitTrue(() -> a.getClusterRoomMemberCount(MessengerServer.DEFAULT_ROOM) == 0);
+        assertEquals(Set.of(), a.getClusterPeers());
+    }
+
+    @Test
+    void clusterNodeRequiresAServerId() {
+        ServerConfig config = new ServerConfig();
+        config.setClusterSecret(SECRET);
+        assertThrows(IllegalArgumentException.class, () -> new MessengerServer(0, config, network.newBus()));
+    }
+
+    @Test
+    void nodeServingAnotherServerIdIsIgnored() throws Exception {
+        MessengerServer other = node("z", "some-other-server", false);
+        authenticate(other);
+        awaitTrue(() -> a.getClusterPeers().contains("z"));
+        Thread.sleep(100);
+        assertEquals(0, a.getClusterRoomMemberCount(MessengerServer.DEFAULT_ROOM));
+    }
+}
@@ -0,0 +1,89 @@
+package kchat.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.security.KeyExchangeUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessengerServerHandshakeTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private MessengerServer server;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private MessengerServer newServer(int threads, int queue) {
+        ServerConfig config = new ServerConfig();
+        config.setPresenceTickMillis(20);
+        config.setHandshakeThreads(threads);
+        config.setHandshakeQueue(queue);
+        return new MessengerServer(12350, config);
+    }
+
+    private String hello() throws Exception {
+        String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+        return MAPPER.writeValueAsString(new Message("Client", "HELLO:" + server.getServerId() + ":" + pubB64, 0L));
+    }
+
+    @Test
+    void handshakesRunOffTheCallingThread() throws Exception {
+        server = newServer(2, 16);
+        List<String> senders = new CopyOnWriteArrayList<>();
+        RecordingWebSocket ws = new RecordingWebSocket() {
+            @Override public void send(String text) {
+                senders.add(Thread.currentThread().getName());
+                super.send(text);
+            }
+        };
+        server.onOpen(ws, null);
+        server.onMessage(ws, hello());
+        assertTrue(ws.awaitHandshake(2000));
+        assertTrue(ws.isOpen());
+        assertEquals(1, server.getAuthenticatedConnectionCount());
+        assertTrue(senders.get(0).startsWith("kchat-handshake-"), senders.get(0));
+    }
+
+    @Test
+    void connectStormBeyondTheQueueIsRefusedWith1013() throws Exception {
+        server = newServer(1, 1);
+        List<String> hellos = new ArrayList<>();
+        for (int i = 0; i < 40; i++) hellos.add(hello());
+        List<RecordingWebSocket> clients = new ArrayList<>();
+        for (String hello : hellos) {
+            RecordingWebSocket ws = new RecordingWebSocket();
+            server.onOpen(ws, null);
+            server.onMessage(ws, hello);
+            clients.add(ws);
+        }
+        for (RecordingWebSocket ws : clients) assertTrue(ws.awaitHandshake(5000));
+
+        long refused = clients.stream().filter(ws -> ws.getCloseCode() == 1013).count();
+        assertTrue(refused > 0, "a full queue must refuse instead of growing");
+        assertEquals(refused, server.getRejectedHandshakeCount());
+        assertEquals(clients.size() - refused, server.getAuthenticatedConnectionCount());
+    }
+
+    @Test
+    void connectionClosedWhileHandshakingLeavesNoSession() throws Exception {
+        server = newServer(1, 16);
+        RecordingWebSocket ws = new RecordingWebSocket();
+        server.onOpen(ws, null);
+        ws.close(1000);
+        server.onClose(ws, 1000, "", true);
+        server.onMessage(ws, hello());
+        Thread.sleep(100);
+        assertEquals(0, server.getAuthenticatedConnectionCount());
+        assertTrue(ws.getSentText().isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+package kchat.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.protocol.BinaryCodec;
+import kchat.security.KeyExchangeUtil;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.framing.Framedata;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessengerServerHistoryTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private Path dir;
+    private MessengerServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("kchat-history");
+        server = newServer();
+    }
+
+    private MessengerServer newServer() {
+        ServerConfig config = new ServerConfig();
+        config.setPresenceTickMillis(20);
+        config.setHistoryDir(dir.toString());
+        config.setHistoryReplayCount(2);
+        return new MessengerServer(12347, config);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private RecordingWebSocket authenticate(String options) throws Exception {
+        RecordingWebSocket ws = new RecordingWebSocket();
+        server.onOpen(ws, null);
+        String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+        String content = "HELLO:" + server.getServerId() + ":" + pubB64 + (options != null ? ":" + options : "");
+        server.onMessage(ws, MAPPER.writeValueAsString(new Message("Client", content, 0L)));
+        assertTrue(ws.awaitHandshake(2000), "No handshake response");
+        assertTrue(ws.isOpen(), "Handshake was rejected");
+        return ws;
+    }
+
+    private void say(RecordingWebSocket ws, String content) throws Exception {
+        server.onMessage(ws, MAPPER.writeValueAsString(new Message("Alice", content, 0L)));
+    }
+
+    private static List<Message> chat(RecordingWebSocket ws) throws Exception {
+        List<Message> chat = new ArrayList<>();
+        for (String text : ws.getAllText()) {
+            Message m = MAPPER.readValue(text, Message.class);
+            if (m.getContent().startsWith("said ")) chat.add(m);
+        }
+        return chat;
+    }
+
+    @Test
+    void lateJoinerGetsRecentHistoryWithSequenceNumbers() throws Exception {
+        RecordingWebSocket alice = authenticate(null);
+        for (int i = 1; i <= 3; i++) say(alice, "said " + i);
+        server.getHistory().flush(2000);
+
+        RecordingWebSocket bob = authenticate(null);
+        Thread.sleep(100);
+
+        List<Message> replayed = chat(bob);
+        assertEquals(2, replayed.size(), "default replay count");
+        assertEquals("said 2", replayed.get(0).getContent());
+        assertEquals("said 3", replayed.get(1).getContent());
+        assertTrue(replayed.get(0).getSeq() > 0 && replayed.get(0).getSeq() < replayed.get(1).getSeq());
+        assertEquals(replayed.get(1).getSeq(), chat(alice).get(2).getSeq(), "live and stored copies share the seq");
+    }
+
+    @Test
+    void reconnectingClientResumesAfterItsLastSeq() throws Exception {
+        RecordingWebSocket alice = authenticate(null);
+        for (int i = 1; i <= 4; i++) say(alice, "said " + i);
+        server.getHistory().flush(2000);
+        long seenUpTo = chat(alice).get(0).getSeq();
+
+        RecordingWebSocket back = authenticate("after=" + seenUpTo);
+        Thread.sleep(100);
+
+        List<Message> replayed = chat(back);
+        assertEquals(3, replayed.size(), "after= is not limited by the default replay count");
+        assertEquals("said 2", replayed.get(0).getContent());
+    }
+
+    @Test
+    void historySurvivesRestartAndReplaysToBinaryClients() throws Exception {
+        RecordingWebSocket alice = authenticate(null);
+        say(alice, "said before restart");
+        server.stop();
+
+        server = newServer();
+        RecordingWebSocket binary = authenticate("proto=bin");
+        Thread.sleep(100);
+
+        Message replayed = null;
+        for (Framedata frame : binary.getSentFrames()) {
+            if (frame.getOpcode() != Opcode.BINARY) continue;
+            Message m = BinaryCodec.decode(frame.getPayloadData().duplicate());
+            if ("said before restart".equals(m.getContent())) replayed = m;
+        }
+        assertNotNull(replayed);
+        assertTrue(replayed.getSeq() > 0);
+        assertEquals(MessengerServer.DEFAULT_ROOM, replayed.getRoom());
+    }
+}
@@ -0,0 +1,107 @@
+package kchat.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.security.KeyExchangeUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessengerServerMetricsTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private MessengerServer server;
+
+    @BeforeEach
+    void setUp() {
+        ServerConfig config = new ServerConfig();
+        config.setPresenceTickMillis(20);
+        server = new MessengerServer(12352, config);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private RecordingWebSocket connect(String serverId) throws Exception {
+        RecordingWebSocket ws = new RecordingWebSocket();
+        server.onOpen(ws, null);
+        String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+        server.onMessage(ws, MAPPER.writeValueAsString(new Message("Client", "HELLO:" + serverId + ":" + pubB64, 0L)));
+        assertTrue(ws.awaitHandshake(2000), "No handshake response");
+        return ws;
+    }
+
+    private long value(String name) {
+        return server.getMetrics().snapshot().get(name).longValue();
+    }
+
+    @Test
+    void handshakesAreCountedAndTimed() throws Exception {
+        connect(server.getServerId());
+        RecordingWebSocket wrong = connect("not-this-server");
+        assertFalse(wrong.isOpen());
+
+        assertEquals(1, value("kchat_handshakes_succeeded_total"));
+        assertEquals(1, value("kchat_handshakes_failed_total"));
+        assertEquals(1, value("kchat_handshake_duration_seconds_count"));
+        assertEquals(2, value("kchat_connections"));
+        assertEquals(1, value("kchat_authenticated_connections"));
+    }
+
+    @Test
+    void trafficAndBroadcastsAreCounted() throws Exception {
+        RecordingWebSocket ws = connect(server.getServerId());
+        assertTrue(ws.awaitFrames(1, 2000)); // presence delta
+        long receivedBefore = value("kchat_received_bytes_total");
+        long broadcastsBefore = value("kchat_broadcast_duration_seconds_count");
+
+        String chat = MAPPER.writeValueAsString(new Message("Alice", "héllo", 1L));
+        server.onMessage(ws, chat);
+        assertTrue(ws.awaitFrames(2, 2000));
+        Thread.sleep(20); // the counter is bumped right after the frame is handed over
+
+        assertEquals(chat.getBytes(StandardCharsets.UTF_8).length, value("kchat_received_bytes_total") - receivedBefore);
+        assertEquals(2, value("kchat_messages_received_total"));
+        assertTrue(value("kchat_broadcast_duration_seconds_count") > broadcastsBefore);
+        // WELCOME, the presence delta and the chat message
+        assertEquals(3, value("kchat_messages_sent_total"));
+        assertTrue(value("kchat_sent_bytes_total") > chat.length());
+    }
+
+    @Test
+    void malformedInputCountsAsDecodeError() throws Exception {
+        RecordingWebSocket ws = connect(server.getServerId());
+        server.onMessage(ws, "{not json");
+        server.onMessage(ws, ByteBuffer.wrap(new byte[] {42, 0, 1}));
+
+        assertEquals(2, value("kchat_decode_errors_total"));
+    }
+
+    @Test
+    void scrapeListsEveryServerMetric() {
+        String text = server.getMetrics().scrape();
+        Map<String, Number> snapshot = server.getMetrics().snapshot();
+        for (String name : snapshot.keySet()) {
+            String series = name.endsWith("_count") || name.endsWith("_sum") ? name : name + " ";
+            assertTrue(text.contains(series), name);
+        }
+        assertTrue(text.contains("# TYPE kchat_outbound_queue_depth_max gauge"));
+        assertTrue(text.contains("# TYPE kchat_handshake_duration_seconds histogram"));
+    }
+
+    @Test
+    void utf8LengthMatchesTheEncoder() {
+        for (String s : new String[] {"", "ascii", "héllo", "日本語", "emoji 😀!", "lone \uD800 surrogate"}) {
+            assertEquals(s.getBytes(StandardCharsets.UTF_8).length, ServerMetrics.utf8Length(s), s);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package kchat.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.security.AesGcm;
+import kchat.security.CryptoContext;
+import kchat.security.KeyExchangeUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessengerServerRekeyTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private MessengerServer server;
+
+    @BeforeEach
+    void setUp() {
+        ServerConfig config = new ServerConfig();
+        config.setPresenceTickMillis(20);
+        config.setRekeyGraceMillis(5_000);
+        server = new MessengerServer(12348, config);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+    }
+
+    /** A handshaken test client that can unwrap the keys the server sends it. */
+    private final class Peer {
+        final RecordingWebSocket ws = new RecordingWebSocket();
+        final SecretKeySpec wrapKey;
+        final String welcome;
+
+        Peer(String options) throws Exception {
+            KeyPair keys = KeyExchangeUtil.generateKeyPair();
+            server.onOpen(ws, null);
+            String pubB64 = Base64.getEncoder().encodeToString(keys.getPublic().getEncoded());
+            String hello = "HELLO:" + server.getServerId() + ":" + pubB64 + (options != null ? ":" + options : "");
+            server.onMessage(ws, MAPPER.writeValueAsString(new Message("Client", hello, 0L)));
+            assertTrue(ws.awaitHandshake(2000), "No handshake response");
+            assertTrue(ws.isOpen(), "Handshake was rejected");
+            welcome = MAPPER.readValue(ws.getSentText().get(0), Message.class).getContent();
+            String[] parts = welcome.split(":", 5);
+            byte[] shared = KeyExchangeUtil.deriveSharedSecret(keys.getPrivate(), Base64.getDecoder().decode(parts[2]));
+            wrapKey = new SecretKeySpec(KeyExchangeUtil.hkdf(shared, server.getServerId().getBytes(StandardCharsets.UTF_8),
+                "kchat-handshake".getBytes(StandardCharsets.UTF_8), 32), "AES");
+        }
+
+        byte[] unwrap(String b64) throws Exception {
+            byte[] wrapped = Base64.getDecoder().decode(b64);
+            return AesGcm.open(wrapKey, wrapped, 0, wrapped.length);
+        }
+
+        byte[] welcomeKey() throws Exception {
+            return unwrap(welcome.split(":", 5)[3]);
+        }
+
+        String awaitRekey() throws Exception {
+            long deadline = System.currentTimeMillis() + 2000;
+            while (System.currentTimeMillis() < deadline) {
+                for (String text : ws.getAllText()) {
+                    String content = MAPPER.readValue(text, Message.class).getContent();
+                    if (content.startsWith("REKEY:")) return content;
+                }
+                Thread.sleep(5);
+            }
+            return null;
+        }
+    }
+
+    @Test
+    void rotationSendsEachRekeyClientTheNewKeyUnderItsOwnWrapKey() throws Exception {
+        Peer alice = new Peer("rekey");
+        Peer bob = new Peer("rekey");
+        assertTrue(alice.welcome.endsWith(":epoch=0"), alice.welcome);
+
+        assertEquals(1, server.rotateGroupKey());
+
+        String[] a = alice.awaitRekey().split(":");
+        String[] b = bob.awaitRekey().split(":");
+        assertEquals("1", a[1]);
+        assertEquals("5000", a[3]);
+        assertNotEquals(a[2], b[2], "each client gets its own wrapping");
+        byte[] newKey = alice.unwrap(a[2]);
+        assertArrayEquals(newKey, bob.unwrap(b[2]));
+        assertFalse(Arrays.equals(newKey, alice.welcomeKey()));
+        assertTrue(alice.ws.isOpen() && bob.ws.isOpen(), "rotation must not drop anyone");
+    }
+
+    @Test
+    void clientsDecryptAcrossTheRotation() throws Exception {
+        Peer alice = new Peer("rekey");
+        CryptoContext sender = new CryptoContext();
+        CryptoContext receiver = new CryptoContext();
+        sender.setRawKey(alice.welcomeKey(), 0);
+        receiver.setRawKey(alice.welcomeKey(), 0);
+        String inFlight = sender.encrypt("sent before the rotation");
+
+        server.rotateGroupKey();
+        String[] rekey = alice.awaitRekey().split(":");
+        byte[] next = alice.unwrap(rekey[2]);
+        assertTrue(receiver.rotateKey(next, Integer.parseInt(rekey[1]), Long.parseLong(rekey[3])));
+        sender.rotateKey(next, 1, 0);
+
+        assertEquals("sent before the rotation", receiver.decrypt(inFlight));
+        String after = sender.encrypt("sent after");
+        assertTrue(after.startsWith("ENC:1:"), after);
+        assertEquals("sent after", receiver.decrypt(after));
+    }
+
+    @Test
+    void latecomersGetTheCurrentKeyAndEpoch() throws Exception {
+        server.rotateGroupKey();
+        server.rotateGroupKey();
+        Peer late = new Peer("rekey");
+        assertTrue(late.welcome.endsWith(":epoch=2"), late.welcome);
+        assertEquals(2, server.getGroupKeyEpoch());
+    }
+
+    @Test
+    void welcomeIsAlwaysTheFirstFrameEvenWhileRotating() throws Exception {
+        AtomicBoolean done = new AtomicBoolean();
+        Thread rotator = new Thread(() -> {
+            while (!done.get()) server.rotateGroupKey();
+        });
+        rotator.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                Peer peer = new Peer("rekey");
+                String first = MAPPER.readValue(peer.ws.getAllText().get(0), Message.class).getContent();
+                assertTrue(first.startsWith("WELCOME:"), first);
+            }
+        } finally {
+            done.set(true);
+            rotator.join();
+        }
+    }
+
+    @Test
+    void clientsWithoutRekeySupportAreLeftAlone() throws Exception {
+        Peer legacy = new Peer(null);
+        assertEquals(4, legacy.welcome.split(":").length, "original WELCOME layout");
+        server.rotateGroupKey();
+        Thread.sleep(100);
+        assertNull(legacy.awaitRekey());
+    }
+}
@@ -0,0 +1,112 @@
+package kchat.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.protocol.HandshakeOptions;
+import kchat.security.AesGcm;
+import kchat.security.KeyExchangeUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessengerServerResumptionTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private MessengerServer server;
+
+    @BeforeEach
+    void setUp() {
+        server = newServer(60_000);
+    }
+
+    private static MessengerServer newServer(long ticketLifetime) {
+        ServerConfig config = new ServerConfig();
+        config.setPresenceTickMillis(20);
+        config.setTicketLifetimeMillis(ticketLifetime);
+        return new MessengerServer(12349, config);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private RecordingWebSocket hello(String pubB64, String options) throws Exception {
+        RecordingWebSocket ws = new RecordingWebSocket();
+        server.onOpen(ws, null);
+        String hello = "HELLO:" + server.getServerId() + ":" + pubB64 + (options != null ? ":" + options : "");
+        server.onMessage(ws, MAPPER.writeValueAsString(new Message("Client", hello, 0L)));
+        assertTrue(ws.awaitHandshake(2000), "No handshake response");
+        return ws;
+    }
+
+    private static String welcome(RecordingWebSocket ws) throws Exception {
+        return MAPPER.readValue(ws.getSentText().get(0), Message.class).getContent();
+    }
+
+    private static byte[] unwrapGroupKey(String welcome, byte[] wrapKey) throws Exception {
+        byte[] wrapped = Base64.getDecoder().decode(welcome.split(":", 5)[3]);
+        return AesGcm.open(new SecretKeySpec(wrapKey, "AES"), wrapped, 0, wrapped.length);
+    }
+
+    @Test
+    void ticketResumesWithoutKeyAgreement() throws Exception {
+        KeyPair keys = KeyExchangeUtil.generateKeyPair();
+        RecordingWebSocket first = hello(Base64.getEncoder().encodeToString(keys.getPublic().getEncoded()), "resume");
+        String firstWelcome = welcome(first);
+        HandshakeOptions accepted = HandshakeOptions.parse(firstWelcome.split(":", 5)[4]);
+        String ticket = accepted.get(HandshakeOptions.TICKET);
+        assertNotNull(ticket, firstWelcome);
+        assertFalse(accepted.has(HandshakeOptions.RESUMED));
+
+        byte[] shared = KeyExchangeUtil.deriveSharedSecret(keys.getPrivate(), Base64.getDecoder().decode(firstWelcome.split(":")[2]));
+        byte[] wrapKey = KeyExchangeUtil.hkdf(shared, server.getServerId().getBytes(StandardCharsets.UTF_8),
+            "kchat-handshake".getBytes(StandardCharsets.UTF_8), 32);
+        byte[] groupKey = unwrapGroupKey(firstWelcome, wrapKey);
+
+        // Reconnect: no public key, just the ticket
+        RecordingWebSocket second = hello("", "resume=" + ticket);
+        assertTrue(second.isOpen(), "resumption was rejected");
+        String secondWelcome = welcome(second);
+        HandshakeOptions resumed = HandshakeOptions.parse(secondWelcome.split(":", 5)[4]);
+        assertTrue(resumed.has(HandshakeOptions.RESUMED));
+        assertArrayEquals(groupKey, unwrapGroupKey(secondWelcome, wrapKey));
+        String renewed = resumed.get(HandshakeOptions.TICKET);
+        assertNotNull(renewed);
+        assertEquals(ticket.substring(0, ticket.indexOf('.')), renewed.substring(0, renewed.indexOf('.')),
+            "a resumed session keeps its original expiry");
+        assertEquals(2, server.getAuthenticatedConnectionCount());
+    }
+
+    @Test
+    void unusableTicketWithoutPublicKeyIsRefused() throws Exception {
+        RecordingWebSocket ws = hello("", "resume=1.AAAA");
+        assertFalse(ws.isOpen());
+        assertEquals(1002, ws.getCloseCode());
+        assertEquals(0, server.getAuthenticatedConnectionCount());
+    }
+
+    @Test
+    void unusableTicketFallsBackToPublicKeyWhenOneIsSent() throws Exception {
+        KeyPair keys = KeyExchangeUtil.generateKeyPair();
+        RecordingWebSocket ws = hello(Base64.getEncoder().encodeToString(keys.getPublic().getEncoded()), "resume=1.AAAA");
+        assertTrue(ws.isOpen());
+        assertFalse(HandshakeOptions.parse(welcome(ws).split(":", 5)[4]).has(HandshakeOptions.RESUMED));
+    }
+
+    @Test
+    void ticketsCanBeDisabled() throws Exception {
+        server.stop();
+        server = newServer(0);
+        KeyPair keys = KeyExchangeUtil.generateKeyPair();
+        RecordingWebSocket ws = hello(Base64.getEncoder().encodeToString(keys.getPublic().getEncoded()), "resume");
+        assertNull(HandshakeOptions.parse(welcome(ws).split(":", 5)[4]).get(HandshakeOptions.TICKET));
+    }
+}
@@ -0,0 +1,70 @@
+package kchat.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.security.KeyExchangeUtil;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessengerServerShardTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private MessengerServer server;
+
+    @BeforeEach
+    void setUp() {
+        ServerConfig config = new ServerConfig();
+        config.setPresenceTickMillis(20);
+        config.setShards(3);
+        config.setDecoderThreads(2);
+        server = new MessengerServer(12360, config);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.stop();
+    }
+
+    private RecordingWebSocket authenticate(WebSocketServer listener) throws Exception {
+        RecordingWebSocket ws = new RecordingWebSocket();
+        listener.onOpen(ws, null);
+        String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+        listener.onMessage(ws, MAPPER.writeValueAsString(new Message("Client", "HELLO:" + server.getServerId() + ":" + pubB64, 0L)));
+        assertTrue(ws.awaitHandshake(2000), "No handshake response");
+        assertTrue(ws.isOpen(), "Handshake was rejected");
+        return ws;
+    }
+
+    @Test
+    void shardsListenOnConsecutivePorts() {
+        assertEquals(2, server.getShards().size());
+        assertEquals(12361, server.getShards().get(0).getPort());
+        assertEquals(12362, server.getShards().get(1).getPort());
+    }
+
+    @Test
+    void connectionsOnEveryShardShareRoomsAndBroadcasts() throws Exception {
+        RecordingWebSocket alice = authenticate(server);
+        RecordingWebSocket bob = authenticate(server.getShards().get(0));
+        RecordingWebSocket carol = authenticate(server.getShards().get(1));
+        assertEquals(3, server.getAuthenticatedConnectionCount());
+        assertEquals(3, server.getRoomMemberCount(MessengerServer.DEFAULT_ROOM));
+
+        server.getShards().get(1).onMessage(carol, MAPPER.writeValueAsString(new Message("Carol", "hi all", 1L)));
+        for (RecordingWebSocket ws : new RecordingWebSocket[] {alice, bob, carol}) {
+            long deadline = System.currentTimeMillis() + 2000;
+            while (ws.getAllText().stream().noneMatch(t -> t.contains("hi all")) && System.currentTimeMillis() < deadline) Thread.sleep(5);
+            assertTrue(ws.getAllText().stream().anyMatch(t -> t.contains("hi all")));
+        }
+
+        server.getShards().get(0).onClose(bob, 1000, "", true);
+        assertEquals(2, server.getAuthenticatedConnectionCount());
+        assertEquals(2, server.getRoomMemberCount(MessengerServer.DEFAULT_ROOM));
+    }
+}
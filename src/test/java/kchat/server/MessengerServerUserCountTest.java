@@ -123,6 +123,13 @@ public class MessengerServerUserCountTest {
                     } catch (NumberFormatException ignored) {
                     }
                 }
+                // Batched presence delta: PRESENCE:count:joined:left
+                if ("System".equals(m.getSender()) && m.getContent().startsWith("PRESENCE:")) {
+                    try {
+                        return Integer.parseInt(m.getContent().split(":")[1]);
+                    } catch (RuntimeException ignored) {
+                    }
+                }
             }
             return -1;
         }
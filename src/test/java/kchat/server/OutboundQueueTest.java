@@ -0,0 +1,220 @@
+package kchat.server;
+
+import kchat.model.Message;
+import kchat.protocol.BinaryCodec;
+import kchat.protocol.FrameBatch;
+import kchat.protocol.MessageCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutboundQueueTest {
+
+    private ScheduledExecutorService executor;
+    private RecordingWebSocket conn;
+    private ServerConfig config;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        conn = new RecordingWebSocket();
+        conn.setBuffered(true); // stalled client: nothing leaves the queue
+        config = new ServerConfig();
+        config.setOutboundMaxMessages(3);
+        config.setOutboundMaxBytes(1024);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static OutboundFrame frame(String text) {
+        return OutboundFrame.text(text.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private static OutboundFrame userCount(int n) {
+        return OutboundFrame.text(("USER_COUNT:" + n).getBytes(StandardCharsets.UTF_8), "USER_COUNT");
+    }
+
+    @Test
+    void tracksDepthAndBytes() {
+        OutboundQueue queue = new OutboundQueue(conn, config, executor);
+        queue.offer(frame("abc"));
+        queue.offer(frame("de"));
+        assertEquals(2, queue.getDepth());
+        assertEquals(5, queue.getQueuedBytes());
+    }
+
+    @Test
+    void heldFramesWaitForRelease() throws Exception {
+        conn.setBuffered(false);
+        OutboundQueue queue = new OutboundQueue(conn, config, executor);
+        queue.hold();
+        queue.offer(frame("a"));
+        queue.offer(frame("b"));
+        Thread.sleep(50);
+        assertTrue(conn.getSentFrames().isEmpty(), "nothing may leave a held queue");
+        assertEquals(2, queue.getDepth());
+
+        conn.send("WELCOME");
+        queue.release();
+        assertTrue(conn.awaitFrames(2, 2000));
+        assertEquals(List.of("WELCOME", "a", "b"), conn.getAllText());
+    }
+
+    @Test
+    void dropOldestKeepsNewestFrames() {
+        config.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        OutboundQueue queue = new OutboundQueue(conn, config, executor);
+        for (int i = 0; i < 5; i++) assertTrue(queue.offer(frame("m" + i)));
+        assertEquals(3, queue.getDepth());
+        assertEquals(2, queue.getDroppedCount());
+    }
+
+    @Test
+    void dropNewestRejectsOfferedFrame() {
+        config.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        OutboundQueue queue = new OutboundQueue(conn, config, executor);
+        for (int i = 0; i < 3; i++) assertTrue(queue.offer(frame("m" + i)));
+        assertFalse(queue.offer(frame("late")));
+        assertEquals(3, queue.getDepth());
+    }
+
+    @Test
+    void byteLimitIsAHighWaterMarkToo() {
+        config.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        config.setOutboundMaxBytes(4);
+        OutboundQueue queue = new OutboundQueue(conn, config, executor);
+        assertTrue(queue.offer(frame("abcd")));
+        assertFalse(queue.offer(frame("e")));
+    }
+
+    @Test
+    void coalesceKeepsOnlyLatestUserCount() {
+        config.setOverflowPolicy(OverflowPolicy.COALESCE_USER_COUNT);
+        OutboundQueue queue = new OutboundQueue(conn, config, executor);
+        queue.offer(userCount(1));
+        queue.offer(frame("chat"));
+        queue.offer(userCount(2));
+        queue.offer(userCount(3)); // over the mark: 1 and 2 are superseded
+        assertEquals(2, queue.getDepth());
+        assertEquals(2, queue.getDroppedCount());
+    }
+
+    @Test
+    void disconnectPolicyClosesWith1008() {
+        config.setOverflowPolicy(OverflowPolicy.DISCONNECT);
+        OutboundQueue queue = new OutboundQueue(conn, config, executor);
+        for (int i = 0; i < 3; i++) queue.offer(frame("m" + i));
+        assertFalse(queue.offer(frame("one too many")));
+        assertEquals(OutboundQueue.CLOSE_POLICY_VIOLATION, conn.getCloseCode());
+        assertEquals(0, queue.getDepth());
+        assertFalse(queue.offer(frame("after eviction")));
+    }
+
+    @Test
+    void drainsOnceSocketFlushes() throws Exception {
+        OutboundQueue queue = new OutboundQueue(conn, config, executor);
+        queue.offer(frame("a"));
+        queue.offer(frame("b"));
+        Thread.sleep(30);
+        assertTrue(conn.getSentFrames().isEmpty());
+
+        conn.setBuffered(false);
+        assertTrue(conn.awaitFrames(2, 2000));
+        assertEquals("a", RecordingWebSocket.textOf(conn.getSentFrames().get(0)));
+        assertEquals("b", RecordingWebSocket.textOf(conn.getSentFrames().get(1)));
+        assertEquals(0, queue.getDepth());
+    }
+
+    private static OutboundFrame chat(String content) throws Exception {
+        return OutboundFrame.text(MessageCodec.toBytes(new Message("Alice", content, 1L)), null);
+    }
+
+    private static List<Message> unpack(RecordingWebSocket ws, int frame) throws Exception {
+        return MessageCodec.readBatch(RecordingWebSocket.textOf(ws.getSentFrames().get(frame)));
+    }
+
+    @Test
+    void framesQueuedWhileTheSocketWasBusyLeaveAsOneBatch() throws Exception {
+        config.setOutboundMaxMessages(100);
+        OutboundQueue queue = new OutboundQueue(conn, config, executor, new ServerMetrics(), true);
+        for (String content : List.of("one", "two", "three")) queue.offer(chat(content));
+        Thread.sleep(30);
+
+        conn.setBuffered(false);
+        assertTrue(conn.awaitFrames(1, 2000));
+        Thread.sleep(30);
+        assertEquals(1, conn.getSentFrames().size());
+        List<Message> batch = unpack(conn, 0);
+        assertEquals(List.of("one", "two", "three"), batch.stream().map(Message::getContent).toList());
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, queue.getQueuedBytes());
+    }
+
+    @Test
+    void batchesStopAtTheByteLimitAndAtAFormatChange() throws Exception {
+        config.setOutboundMaxMessages(100);
+        config.setOutboundMaxBytes(64 * 1024);
+        OutboundFrame first = chat("first");
+        config.setBatchMaxBytes(first.size() * 2 + 8); // room for two messages, not three
+        OutboundQueue queue = new OutboundQueue(conn, config, executor, new ServerMetrics(), true);
+        queue.offer(first);
+        queue.offer(chat("second"));
+        queue.offer(chat("third"));
+        queue.offer(OutboundFrame.binary(BinaryCodec.encode(new Message("Bob", "binary", 2L)), null));
+
+        conn.setBuffered(false);
+        assertTrue(conn.awaitFrames(3, 2000));
+        Thread.sleep(30);
+        assertEquals(3, conn.getSentFrames().size());
+        assertEquals(2, unpack(conn, 0).size());
+        assertEquals("third", MessageCodec.read(RecordingWebSocket.textOf(conn.getSentFrames().get(1))).getContent());
+        assertFalse(FrameBatch.isBinaryBatch(conn.getSentFrames().get(2).getPayloadData()), "a lone frame is sent as is");
+    }
+
+    @Test
+    void idleConnectionsAreWrittenAtOnceAndBusyOnesWaitOutTheWindow() throws Exception {
+        config.setOutboundMaxMessages(100);
+        config.setBatchWindowMillis(200);
+        conn.setBuffered(false);
+        OutboundQueue queue = new OutboundQueue(conn, config, executor, new ServerMetrics(), true);
+
+        long start = System.nanoTime();
+        queue.offer(chat("quiet"));
+        assertTrue(conn.awaitFrames(1, 2000));
+        assertTrue(System.nanoTime() - start < 150_000_000L, "an idle connection does not wait for the window");
+
+        queue.offer(chat("busy 1"));
+        queue.offer(chat("busy 2"));
+        Thread.sleep(50);
+        assertEquals(1, conn.getSentFrames().size(), "written to just now: the next frames wait");
+        assertTrue(conn.awaitFrames(2, 2000));
+        assertEquals(2, unpack(conn, 1).size());
+    }
+
+    @Test
+    void deflatedFramesAreBatchedFromTheirUncompressedBytes() throws Exception {
+        config.setOutboundMaxMessages(100);
+        OutboundQueue queue = new OutboundQueue(conn, config, executor, new ServerMetrics(), true);
+        OutboundFrame deflated = chat("squeeze ".repeat(40)).deflate();
+        assertTrue(deflated.isDeflated());
+        queue.offer(deflated);
+        queue.offer(chat("plain"));
+
+        conn.setBuffered(false);
+        assertTrue(conn.awaitFrames(1, 2000));
+        assertFalse(conn.getSentFrames().get(0).isRSV1());
+        List<Message> batch = unpack(conn, 0);
+        assertEquals("squeeze ".repeat(40), batch.get(0).getContent());
+        assertEquals("plain", batch.get(1).getContent());
+    }
+}
@@ -0,0 +1,69 @@
+package kchat.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceAggregatorTest {
+
+    private ScheduledExecutorService executor;
+    private final List<String> published = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private PresenceAggregator aggregator(long tickMillis) {
+        return new PresenceAggregator(executor, tickMillis,
+            (room, joined, left) -> published.add(room + "|" + String.join(",", joined) + "|" + String.join(",", left)));
+    }
+
+    @Test
+    void eventsWithinATickAreMergedPerRoom() {
+        PresenceAggregator presence = aggregator(10_000); // flushed manually
+        presence.joined("lobby", "u1");
+        presence.joined("lobby", "u2");
+        presence.left("lobby", "u3");
+        presence.joined("dev", "u1");
+
+        presence.flush();
+
+        assertEquals(2, published.size());
+        assertTrue(published.contains("lobby|u1,u2|u3"));
+        assertTrue(published.contains("dev|u1|"));
+    }
+
+    @Test
+    void joinThenLeaveInSameTickCancelsOut() {
+        PresenceAggregator presence = aggregator(10_000);
+        presence.joined("lobby", "u1");
+        presence.left("lobby", "u1");
+        presence.flush();
+        assertEquals(List.of("lobby||"), published);
+    }
+
+    @Test
+    void tickFlushesAutomatically() throws Exception {
+        PresenceAggregator presence = aggregator(20);
+        presence.joined("lobby", "u1");
+        long deadline = System.currentTimeMillis() + 2000;
+        while (published.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(List.of("lobby|u1|"), published);
+
+        presence.flush();
+        assertEquals(1, published.size(), "Nothing pending, nothing published");
+    }
+}
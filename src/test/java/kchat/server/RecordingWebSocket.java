@@ -0,0 +1,102 @@
+package kchat.server;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+
+import javax.net.ssl.SSLSession;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory WebSocket that records everything the server writes to it.
+ */
+class RecordingWebSocket implements WebSocket {
+    private final List<String> sentText = new CopyOnWriteArrayList<>();
+    private final List<Framedata> sentFrames = new CopyOnWriteArrayList<>();
+    private final List<String> allText = new CopyOnWriteArrayList<>();
+    private final Draft draft;
+    private volatile boolean open = true;
+    private volatile boolean buffered;
+    private volatile int closeCode = -1;
+    private Object attachment;
+
+    RecordingWebSocket() {
+        this(new Draft_6455());
+    }
+
+    /** A connection that negotiated whatever {@code draft} reports, e.g. an extension. */
+    RecordingWebSocket(Draft draft) {
+        this.draft = draft;
+    }
+
+    List<String> getSentText() { return sentText; }
+    List<Framedata> getSentFrames() { return sentFrames; }
+    int getCloseCode() { return closeCode; }
+
+    /** Simulates a client that has stopped reading: the socket reports unflushed data. */
+    void setBuffered(boolean buffered) { this.buffered = buffered; }
+
+    boolean awaitFrames(int expected, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (sentFrames.size() < expected && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        return sentFrames.size() >= expected;
+    }
+
+    /** Handshakes run on the server's handshake pool: waits for the WELCOME (or the rejection). */
+    boolean awaitHandshake(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (sentText.isEmpty() && open && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        return !sentText.isEmpty() || !open;
+    }
+
+    /** All text payloads in send order, whether written via send(String) or sendFrame. */
+    List<String> getAllText() { return allText; }
+
+    static String textOf(Framedata frame) {
+        ByteBuffer payload = frame.getPayloadData().duplicate();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override public void close(int code, String message) { closeCode = code; open = false; }
+    @Override public void close(int code) { close(code, ""); }
+    @Override public void close() { close(1000, ""); }
+    @Override public void closeConnection(int code, String message) { close(code, message); }
+    @Override public void send(String text) { sentText.add(text); allText.add(text); }
+    @Override public void send(ByteBuffer bytes) { }
+    @Override public void send(byte[] bytes) { }
+    @Override public void sendFrame(Framedata framedata) {
+        sentFrames.add(framedata);
+        if (framedata.getOpcode() == Opcode.TEXT) allText.add(textOf(framedata));
+    }
+    @Override public void sendFrame(Collection<Framedata> frames) { frames.forEach(this::sendFrame); }
+    @Override public void sendPing() { }
+    @Override public void sendFragmentedFrame(Opcode op, ByteBuffer buffer, boolean fin) { }
+    @Override public boolean hasBufferedData() { return buffered; }
+    @Override public InetSocketAddress getRemoteSocketAddress() { return new InetSocketAddress("127.0.0.1", 0); }
+    @Override public InetSocketAddress getLocalSocketAddress() { return new InetSocketAddress("127.0.0.1", 0); }
+    @Override public boolean isOpen() { return open; }
+    @Override public boolean isClosing() { return false; }
+    @Override public boolean isFlushAndClose() { return false; }
+    @Override public boolean isClosed() { return !open; }
+    @Override public Draft getDraft() { return draft; }
+    @Override public ReadyState getReadyState() { return open ? ReadyState.OPEN : ReadyState.CLOSED; }
+    @Override public String getResourceDescriptor() { return "/"; }
+    @Override public <T> void setAttachment(T attachment) { this.attachment = attachment; }
+    @SuppressWarnings("unchecked")
+    @Override public <T> T getAttachment() { return (T) attachment; }
+    @Override public boolean hasSSLSupport() { return false; }
+    @Override public SSLSession getSSLSession() { throw new IllegalArgumentException("Not an SSL connection"); }
+    @Override public IProtocol getProtocol() { return null; }
+}
@@ -0,0 +1,52 @@
+package kchat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomRegistryTest {
+
+    @Test
+    void joinAndLeaveTrackMembershipBothWays() {
+        RoomRegistry registry = new RoomRegistry();
+        RecordingWebSocket a = new RecordingWebSocket();
+        RecordingWebSocket b = new RecordingWebSocket();
+
+        assertTrue(registry.join(a, "dev"));
+        assertFalse(registry.join(a, "dev"));
+        assertTrue(registry.join(b, "dev"));
+        assertTrue(registry.join(a, "ops"));
+
+        assertEquals(2, registry.count("dev"));
+        assertEquals(Set.of("dev", "ops"), registry.roomsOf(a));
+
+        assertTrue(registry.leave(b, "dev"));
+        assertFalse(registry.leave(b, "dev"));
+        assertEquals(1, registry.count("dev"));
+    }
+
+    @Test
+    void leaveAllReturnsRoomsAndDropsEmptyRooms() {
+        RoomRegistry registry = new RoomRegistry();
+        RecordingWebSocket a = new RecordingWebSocket();
+        registry.join(a, "dev");
+        registry.join(a, "ops");
+
+        assertEquals(Set.of("dev", "ops"), registry.leaveAll(a));
+        assertTrue(registry.roomNames().isEmpty());
+        assertEquals(0, registry.count("dev"));
+        assertTrue(registry.leaveAll(a).isEmpty());
+    }
+
+    @Test
+    void rejectsUnusableRoomNames() {
+        assertTrue(RoomRegistry.isValidName("lobby"));
+        assertFalse(RoomRegistry.isValidName(""));
+        assertFalse(RoomRegistry.isValidName(null));
+        assertFalse(RoomRegistry.isValidName("a:b"));
+        assertFalse(RoomRegistry.isValidName(" padded "));
+        assertFalse(RoomRegistry.isValidName("x".repeat(RoomRegistry.MAX_ROOM_NAME_LENGTH + 1)));
+    }
+}
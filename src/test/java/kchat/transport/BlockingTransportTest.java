@@ -0,0 +1,232 @@
+package kchat.transport;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kchat.model.Message;
+import kchat.security.KeyExchangeUtil;
+import kchat.server.MessengerServer;
+import kchat.server.ServerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockingTransportTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private BlockingTransport transport;
+    private MessengerServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPresenceTickMillis(20);
+        config.setMetricsJmxEnabled(false);
+        server = new MessengerServer(0, config);
+        transport = new BlockingTransport(server, null, 300);
+        transport.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        transport.stop();
+    }
+
+    /** A bare RFC 6455 client: masked frames out, unmasked frames in. */
+    private final class Client implements AutoCloseable {
+        final Socket socket;
+        final DataInputStream in;
+        final OutputStream out;
+
+        Client() throws IOException {
+            this("GET /chat HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n");
+        }
+
+        Client(String request) throws IOException {
+            socket = new Socket("127.0.0.1", transport.getPort());
+            socket.setSoTimeout(3000);
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        String statusAndHeaders() throws IOException {
+            StringBuilder response = new StringBuilder();
+            while (!response.toString().endsWith("\r\n\r\n")) {
+                int c = in.read();
+                if (c < 0) break;
+                response.append((char) c);
+            }
+            return response.toString();
+        }
+
+        void send(int opcode, byte[] payload, boolean fin) throws IOException {
+            byte[] mask = new byte[4];
+            ThreadLocalRandom.current().nextBytes(mask);
+            out.write(WebSocketFraming.encode(opcode, ByteBuffer.wrap(payload), fin, mask));
+            out.flush();
+        }
+
+        void sendText(String text) throws IOException {
+            send(WebSocketFraming.TEXT, text.getBytes(StandardCharsets.UTF_8), true);
+        }
+
+        WebSocketFraming.Frame read() throws IOException {
+            return WebSocketFraming.read(in, false, 1 << 20);
+        }
+
+        /** Reads frames until a text frame containing {@code fragment}; answers pings on the way. */
+        String awaitText(String fragment) throws IOException {
+            while (true) {
+                WebSocketFraming.Frame frame = read();
+                if (frame.opcode() == WebSocketFraming.PING) send(WebSocketFraming.PONG, frame.payload(), true);
+                if (frame.opcode() != WebSocketFraming.TEXT) continue;
+                String text = new String(frame.payload(), StandardCharsets.UTF_8);
+                if (text.contains(fragment)) return text;
+            }
+        }
+
+        void hello() throws IOException {
+            assertTrue(statusAndHeaders().startsWith("HTTP/1.1 101"));
+            String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+            sendText(MAPPER.writeValueAsString(new Message("Client", "HELLO:" + server.getServerId() + ":" + pubB64, 0L)));
+            awaitText("WELCOME:");
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private void awaitAuthenticated(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (server.getAuthenticatedConnectionCount() != expected && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(expected, server.getAuthenticatedConnectionCount());
+    }
+
+    @Test
+    void acceptKeyMatchesTheRfcExample() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketFraming.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    void helloWelcomeAndBroadcastWorkAsOnTheSelectorTransport() throws Exception {
+        try (Client alice = new Client(); Client bob = new Client()) {
+            alice.hello();
+            bob.hello();
+            awaitAuthenticated(2);
+
+            // A fragmented message is reassembled before it reaches the server
+            byte[] chat = MAPPER.writeValueAsBytes(new Message("Alice", "hello over blocking I/O", 1L));
+            alice.send(WebSocketFraming.TEXT, java.util.Arrays.copyOfRange(chat, 0, 10), false);
+            alice.send(WebSocketFraming.CONTINUATION, java.util.Arrays.copyOfRange(chat, 10, chat.length), true);
+            assertTrue(bob.awaitText("hello over blocking I/O").contains("\"room\":\"lobby\""));
+            alice.awaitText("hello over blocking I/O");
+        }
+        awaitAuthenticated(0);
+    }
+
+    @Test
+    void eachConnectionKeepsOneWriterThreadForItsLifetime() throws Exception {
+        transport.stop();
+        AtomicInteger started = new AtomicInteger();
+        ServerConfig config = new ServerConfig();
+        config.setMetricsJmxEnabled(false);
+        server = new MessengerServer(0, config);
+        transport = new BlockingTransport(server, task -> {
+            started.incrementAndGet();
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        }, 300);
+        transport.start();
+
+        try (Client client = new Client()) {
+            client.hello();
+            assertEquals(2, started.get(), "a reader and a writer");
+            client.awaitText("PRESENCE:"); // in the default room, so chat is relayed
+            for (int i = 0; i < 20; i++) {
+                client.sendText(MAPPER.writeValueAsString(new Message("Client", "round " + i, 1L)));
+                client.awaitText("round " + i);
+            }
+            assertEquals(2, started.get(), "sends after the queue ran dry must not start threads");
+        }
+    }
+
+    @Test
+    void pingsAreAnsweredAndSilentClientsDropped() throws Exception {
+        try (Client client = new Client()) {
+            client.hello();
+            client.send(WebSocketFraming.PING, new byte[] {1, 2, 3}, true);
+            WebSocketFraming.Frame pong;
+            do {
+                pong = client.read();
+            } while (pong.opcode() != WebSocketFraming.PONG);
+            assertArrayEquals(new byte[] {1, 2, 3}, pong.payload());
+
+            // Never answering the server's pings gets the connection closed within two intervals
+            awaitAuthenticated(1);
+            long deadline = System.currentTimeMillis() + 3000;
+            while (server.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(0, server.getConnectionCount());
+        }
+    }
+
+    @Test
+    void closeHandshakeReportsTheClientsCode() throws Exception {
+        try (Client client = new Client()) {
+            client.hello();
+            client.send(WebSocketFraming.CLOSE, new byte[] {0x03, (byte) 0xE8}, true); // 1000
+            WebSocketFraming.Frame reply;
+            do {
+                reply = client.read();
+            } while (reply.opcode() != WebSocketFraming.CLOSE);
+            assertEquals(1000, ((reply.payload()[0] & 0xFF) << 8) | (reply.payload()[1] & 0xFF));
+            assertEquals(-1, client.in.read());
+        }
+        awaitAuthenticated(0);
+    }
+
+    @Test
+    void wrongServerIdIsRefusedWithTheSameCloseCode() throws Exception {
+        try (Client client = new Client()) {
+            assertTrue(client.statusAndHeaders().startsWith("HTTP/1.1 101"));
+            String pubB64 = Base64.getEncoder().encodeToString(KeyExchangeUtil.generateKeyPair().getPublic().getEncoded());
+            client.sendText(MAPPER.writeValueAsString(new Message("Client", "HELLO:someone-else:" + pubB64, 0L)));
+            WebSocketFraming.Frame frame = client.read();
+            assertEquals(WebSocketFraming.CLOSE, frame.opcode());
+            assertEquals(1002, ((frame.payload()[0] & 0xFF) << 8) | (frame.payload()[1] & 0xFF));
+        }
+    }
+
+    @Test
+    void plainHttpAndProtocolErrorsAreRejected() throws Exception {
+        try (Client http = new Client("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n")) {
+            assertTrue(http.statusAndHeaders().startsWith("HTTP/1.1 400"));
+        }
+        try (Client client = new Client()) {
+            assertTrue(client.statusAndHeaders().startsWith("HTTP/1.1 101"));
+            client.out.write(new byte[] {(byte) 0x81, 0x01, 'x'}); // unmasked client frame
+            client.out.flush();
+            WebSocketFraming.Frame frame = client.read();
+            assertEquals(WebSocketFraming.CLOSE, frame.opcode());
+            assertEquals(1002, ((frame.payload()[0] & 0xFF) << 8) | (frame.payload()[1] & 0xFF));
+        } catch (SocketTimeoutException e) {
+            fail("No close frame for a protocol error");
+        }
+    }
+}